@@ -0,0 +1,138 @@
+package com.lhkbob.fxsl.bench;
+
+/**
+ * Corpus
+ * ======
+ *
+ * Generators for synthetic FXSL shader units used by the benchmarks. Each shape stresses a
+ * different part of the front end and scales linearly with the requested size, so a single
+ * benchmark can be run over a range of sizes to check how the compiler scales.
+ *
+ * Every generated unit is valid FXSL and ends with an expression statement so that
+ * `Parser.parse()` has a result to return.
+ *
+ * @author Michael Ludwig
+ */
+public enum Corpus {
+  /**
+   * A single variable whose value is `size` nested `let...in` expressions, each referring to the
+   * variable declared by the enclosing `let`. Stresses scope depth and name resolution.
+   */
+  DEEP_LET {
+    @Override
+    public String generate(int size) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("var deep = ");
+      for (int i = 0; i < size; i++) {
+        sb.append("let var a").append(i).append(" = ");
+        if (i == 0) {
+          sb.append('1');
+        } else {
+          sb.append('a').append(i - 1).append(" + ").append(i);
+        }
+        sb.append(" in ");
+      }
+      sb.append('a').append(size - 1).append(";\n");
+      sb.append("deep");
+      return sb.toString();
+    }
+  },
+  /**
+   * `size` top-level statements, each variable depending on the previous one. Stresses the
+   * statement list and the number of declarations in a single scope.
+   */
+  WIDE_STATEMENTS {
+    @Override
+    public String generate(int size) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("var x0 = 0;\n");
+      for (int i = 1; i < size; i++) {
+        sb.append("var x").append(i).append(" = x").append(i - 1).append(" * 2 + ").append(i)
+          .append(";\n");
+      }
+      sb.append('x').append(size - 1);
+      return sb.toString();
+    }
+  },
+  /**
+   * A single struct literal with `size` fields alternating between int, float and uniform values.
+   */
+  BIG_STRUCT {
+    @Override
+    public String generate(int size) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("var s = {");
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        sb.append('f').append(i).append(": ");
+        switch (i % 3) {
+        case 0:
+          sb.append(i);
+          break;
+        case 1:
+          sb.append(i).append(".5");
+          break;
+        default:
+          sb.append("uniform(u").append(i % 7).append(')');
+          break;
+        }
+      }
+      sb.append("};\n");
+      sb.append("s{f0}");
+      return sb.toString();
+    }
+  },
+  /**
+   * A single array literal with `size` elements that mix constants and arithmetic.
+   */
+  BIG_ARRAY {
+    @Override
+    public String generate(int size) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("var arr = [");
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(", ");
+        }
+        if (i % 2 == 0) {
+          sb.append(i).append(".0");
+        } else {
+          sb.append(i).append(".0 * 2.0");
+        }
+      }
+      sb.append("];\n");
+      sb.append("arr[0]");
+      return sb.toString();
+    }
+  },
+  /**
+   * A single expression that is a chain of `size` binary operators with mixed precedence.
+   */
+  OPERATOR_CHAIN {
+    private final String[] ops = { " + ", " * ", " - ", " / " };
+
+    @Override
+    public String generate(int size) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("var chain = 1");
+      for (int i = 0; i < size; i++) {
+        sb.append(ops[i % ops.length]).append(i + 1);
+      }
+      sb.append(";\n");
+      sb.append("chain");
+      return sb.toString();
+    }
+  };
+
+  /**
+   * Generate the FXSL source for this shape with the given `size`, which is the number of
+   * repeated elements (nested lets, statements, fields, elements or operators).
+   *
+   * @param size
+   *     The size of the unit, must be at least 1
+   * @return The FXSL source text
+   */
+  public abstract String generate(int size);
+}
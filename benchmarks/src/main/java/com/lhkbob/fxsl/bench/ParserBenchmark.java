@@ -0,0 +1,80 @@
+package com.lhkbob.fxsl.bench;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.expr.Expression;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lexing, parsing and declaration building of whole shader units, both from an in-memory
+ * string and from a file on disk. A new Parser is created for every invocation so each
+ * measurement includes building the environment for the unit, which is what happens when a shader
+ * variant is compiled from scratch.
+ *
+ * @author Michael Ludwig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({ "DEEP_LET", "WIDE_STATEMENTS", "BIG_STRUCT", "BIG_ARRAY", "OPERATOR_CHAIN" })
+  public Corpus shape;
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  private String source;
+  private File sourceFile;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    source = shape.generate(size);
+
+    sourceFile = File.createTempFile("fxsl-bench-" + shape.name().toLowerCase(), ".fxsl");
+    sourceFile.deleteOnExit();
+    try (Writer out = new OutputStreamWriter(
+        new FileOutputStream(sourceFile), Charset.forName("UTF-8"))) {
+      out.write(source);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanup() {
+    if (sourceFile != null && !sourceFile.delete()) {
+      sourceFile.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public Expression parseString() {
+    return new Parser().parse(source);
+  }
+
+  @Benchmark
+  public Expression parseFile() throws IOException {
+    return new Parser().parseFile(sourceFile);
+  }
+}
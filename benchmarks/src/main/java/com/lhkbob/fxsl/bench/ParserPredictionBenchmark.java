@@ -0,0 +1,87 @@
+package com.lhkbob.fxsl.bench;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.parser.FXSLLexer;
+import com.lhkbob.fxsl.parser.FXSLParser;
+
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares parsing with SLL prediction first against always using full LL prediction, with
+ * both a cold and a warm prediction cache. ANTLR stores the DFA it builds while predicting in
+ * static fields shared by every parser, so in a long running process the cache is warm after the
+ * first few units. The cold benchmarks discard the lexer's and the parser's DFA before every
+ * invocation to measure the first unit parsed by a process, e.g. a command line compiler.
+ *
+ * @author Michael Ludwig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserPredictionBenchmark {
+  @Param({ "DEEP_LET", "WIDE_STATEMENTS", "BIG_STRUCT", "BIG_ARRAY", "OPERATOR_CHAIN" })
+  public Corpus shape;
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  @Param({ "true", "false" })
+  public boolean twoStage;
+
+  private String source;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    source = shape.generate(size);
+  }
+
+  @State(Scope.Thread)
+  public static class ColdCache {
+    @Setup(Level.Invocation)
+    public void clear() {
+      FXSLLexer lexer = new FXSLLexer(null);
+      clear(lexer.getATN(), lexer.getInterpreter().decisionToDFA);
+      FXSLParser parser = new FXSLParser(null);
+      clear(parser.getATN(), parser.getInterpreter().decisionToDFA);
+    }
+
+    private static void clear(ATN atn, DFA[] decisionToDFA) {
+      for (int i = 0; i < decisionToDFA.length; i++) {
+        decisionToDFA[i] = new DFA(atn.getDecisionState(i), i);
+      }
+    }
+  }
+
+  @Benchmark
+  public Expression warm() {
+    Parser parser = new Parser();
+    parser.setTwoStageParsing(twoStage);
+    return parser.parse(source);
+  }
+
+  @Benchmark
+  public Expression cold(ColdCache cache) {
+    Parser parser = new Parser();
+    parser.setTwoStageParsing(twoStage);
+    return parser.parse(source);
+  }
+}
@@ -0,0 +1,80 @@
+package com.lhkbob.fxsl.bench;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.parser.semantics.SemanticsChecker;
+import com.lhkbob.fxsl.parser.semantics.SemanticsException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures each {@link SemanticsChecker} in isolation over parsed shader units. The checkers are
+ * selected by simple class name so that every checker in `com.lhkbob.fxsl.parser.semantics` can be
+ * compared under identical inputs. A failed validation is a valid result and its exception is
+ * returned instead of thrown so that failure reporting cost is included in the measurement.
+ *
+ * @author Michael Ludwig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemanticsBenchmark {
+  private static final String CHECKER_PACKAGE = "com.lhkbob.fxsl.parser.semantics.";
+
+  @Param({
+      "VariableReferenceChecker", "UniformConsistencyChecker", "AttributeConsistencyChecker",
+      "ReservedNameChecker", "CyclicTypeChecker", "TypeInferer"
+  })
+  public String checker;
+
+  @Param({ "DEEP_LET", "WIDE_STATEMENTS", "BIG_STRUCT", "BIG_ARRAY", "OPERATOR_CHAIN" })
+  public Corpus shape;
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  private SemanticsChecker instance;
+  private String source;
+  private Environment environment;
+
+  @Setup(Level.Trial)
+  public void generate() throws ReflectiveOperationException {
+    instance = (SemanticsChecker) Class.forName(CHECKER_PACKAGE + checker).newInstance();
+    source = shape.generate(size);
+  }
+
+  @Setup(Level.Invocation)
+  public void parse() {
+    // Checkers such as the type inferer record their results in the environment, so every
+    // invocation starts from a freshly parsed unit.
+    Parser parser = new Parser();
+    parser.parse(source);
+    environment = parser.getEnvironment();
+  }
+
+  @Benchmark
+  public SemanticsException validate() {
+    try {
+      instance.validate(environment);
+      return null;
+    } catch (SemanticsException e) {
+      return e;
+    }
+  }
+}
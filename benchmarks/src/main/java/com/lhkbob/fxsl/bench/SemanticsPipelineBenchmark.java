@@ -0,0 +1,118 @@
+package com.lhkbob.fxsl.bench;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.parser.semantics.AttributeConsistencyChecker;
+import com.lhkbob.fxsl.parser.semantics.CyclicTypeChecker;
+import com.lhkbob.fxsl.parser.semantics.ReservedNameChecker;
+import com.lhkbob.fxsl.parser.semantics.SemanticsChecker;
+import com.lhkbob.fxsl.parser.semantics.SemanticsException;
+import com.lhkbob.fxsl.parser.semantics.SemanticsPipeline;
+import com.lhkbob.fxsl.parser.semantics.SemanticsProblem;
+import com.lhkbob.fxsl.parser.semantics.SemanticsRunner;
+import com.lhkbob.fxsl.parser.semantics.UniformConsistencyChecker;
+import com.lhkbob.fxsl.parser.semantics.VariableReferenceChecker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares validating a unit with every fusable checker one after the other against validating
+ * it with a {@link SemanticsPipeline} that walks the unit once for all of them, and against a
+ * {@link SemanticsRunner} that also validates independent checkers and declarations in parallel
+ * on one thread per available processor. None of the checkers modify the environment, so every
+ * invocation validates the same parsed unit.
+ *
+ * @author Michael Ludwig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SemanticsPipelineBenchmark {
+  @Param({ "DEEP_LET", "WIDE_STATEMENTS", "BIG_STRUCT", "BIG_ARRAY", "OPERATOR_CHAIN" })
+  public Corpus shape;
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  private List<SemanticsChecker> checkers;
+  private SemanticsPipeline pipeline;
+  private ExecutorService executor;
+  private SemanticsRunner runner;
+  private Environment environment;
+
+  @Setup
+  public void parse() {
+    checkers = Arrays.<SemanticsChecker>asList(
+        new VariableReferenceChecker(), new UniformConsistencyChecker(),
+        new AttributeConsistencyChecker(), new ReservedNameChecker(), new CyclicTypeChecker());
+    pipeline = new SemanticsPipeline(checkers);
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    runner = new SemanticsRunner(executor, checkers);
+
+    Parser parser = new Parser();
+    parser.parse(shape.generate(size));
+    environment = parser.getEnvironment();
+  }
+
+  @TearDown
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public List<SemanticsProblem> sequential() {
+    List<SemanticsProblem> problems = new ArrayList<>();
+    for (SemanticsChecker checker : checkers) {
+      try {
+        checker.validate(environment);
+      } catch (SemanticsException e) {
+        problems.addAll(e.getProblems());
+        if (!checker.continueOnFailure()) {
+          break;
+        }
+      }
+    }
+    return problems;
+  }
+
+  @Benchmark
+  public List<SemanticsProblem> fused() {
+    try {
+      pipeline.validate(environment);
+      return null;
+    } catch (SemanticsException e) {
+      return e.getProblems();
+    }
+  }
+
+  @Benchmark
+  public List<SemanticsProblem> parallel() {
+    try {
+      runner.validate(environment);
+      return null;
+    } catch (SemanticsException e) {
+      return e.getProblems();
+    }
+  }
+}
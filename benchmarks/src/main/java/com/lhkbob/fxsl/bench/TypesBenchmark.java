@@ -0,0 +1,139 @@
+package com.lhkbob.fxsl.bench;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.StructType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.lang.type.Types;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures type inference over parsed shader units and unification of large, structurally
+ * similar types.
+ *
+ * Inference records its results in the environment, so every invocation of {@link #infer()}
+ * works on a freshly parsed unit. Unification binds meta types in the environment, so each
+ * invocation of {@link #unify()} runs in a child environment that is aborted afterwards.
+ *
+ * Substitution is measured both when the substituted meta type does not occur in the type, so
+ * nothing should be rebuilt, and when it is a single leaf of the type. Run these with `-prof gc`
+ * and compare `gc.alloc.rate.norm` to see the bytes allocated per call; an unchanged
+ * substitution should allocate close to nothing regardless of `size`.
+ *
+ * @author Michael Ludwig
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypesBenchmark {
+  @Param({ "DEEP_LET", "WIDE_STATEMENTS", "BIG_STRUCT", "BIG_ARRAY", "OPERATOR_CHAIN" })
+  public Corpus shape;
+
+  @Param({ "10", "100", "1000" })
+  public int size;
+
+  private String source;
+
+  private Expression parsed;
+  private Environment parsedEnvironment;
+
+  private Environment unifyEnvironment;
+  private Type concreteType;
+  private Type metaType;
+
+  private MetaType absentMeta;
+  private MetaType leafMeta;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    source = shape.generate(size);
+
+    // Two types with the same shape, one fully concrete and one where every leaf is a new meta
+    // type, so unification has to bind `size` meta types through nested arrays and structs.
+    unifyEnvironment = new Environment();
+    concreteType = nestedType(size, null);
+    metaType = nestedType(size, unifyEnvironment);
+
+    absentMeta = new MetaType(unifyEnvironment.getRootScope());
+    FunctionType function = (FunctionType) metaType;
+    leafMeta = (MetaType) ((ArrayType) function.getParameterTypes().get(0)).getComponentType();
+  }
+
+  @Setup(Level.Invocation)
+  public void parse() {
+    Parser parser = new Parser();
+    parsed = parser.parse(source);
+    parsedEnvironment = parser.getEnvironment();
+  }
+
+  @Benchmark
+  public Type infer() {
+    return Types.infer(parsed, parsedEnvironment);
+  }
+
+  @Benchmark
+  public Type unify() {
+    Environment child = unifyEnvironment.push();
+    try {
+      return Types.unify(metaType, concreteType, child);
+    } finally {
+      child.abort();
+    }
+  }
+
+  @Benchmark
+  public Type substituteUnchanged() {
+    return Types.substitute(absentMeta, metaType, PrimitiveType.INT, unifyEnvironment);
+  }
+
+  @Benchmark
+  public Type substituteLeaf() {
+    return Types.substitute(leafMeta, metaType, PrimitiveType.INT, unifyEnvironment);
+  }
+
+  private static Type nestedType(int size, Environment metaSource) {
+    Map<String, Type> fields = new HashMap<>();
+    List<Type> params = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Type leaf;
+      if (metaSource != null) {
+        leaf = new MetaType(metaSource.getRootScope());
+      } else {
+        leaf = (i % 2 == 0 ? PrimitiveType.FLOAT : PrimitiveType.INT);
+      }
+
+      Type element = new ArrayType(leaf, new ArrayType.Length(1 + i % 4));
+      fields.put("f" + i, element);
+      if (i % 8 == 0) {
+        params.add(element);
+      }
+    }
+    return new FunctionType(params, new StructType(fields));
+  }
+}
@@ -0,0 +1,343 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.parser.semantics.SemanticsChecker;
+import com.lhkbob.fxsl.parser.semantics.SemanticsException;
+import com.lhkbob.fxsl.parser.semantics.SemanticsRunner;
+import com.lhkbob.fxsl.parser.semantics.SemanticsProblem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.lhkbob.fxsl.util.Preconditions.noNullElements;
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Batch Compiler
+ * ==============
+ *
+ * Compiles many independent FXSL units in parallel. Every unit is parsed into its own private
+ * environment that is pushed from a single frozen prelude environment, so the native scope (and
+ * any library declarations added to the prelude before it was frozen) is built once and shared by
+ * all units. Each unit is lexed and parsed as a task on the executor, and then validated by the
+ * configured semantics checkers through a {@link SemanticsRunner} on the same executor. Units are
+ * processed concurrently, and so are the independent checkers and declarations of a large unit,
+ * while the reported problems are the same as running the checkers of a unit in order.
+ *
+ * FXSL has no import mechanism, so units never reference each other's declarations. Each unit's
+ * root scope is only merged with the shared prelude and not with the other units.
+ *
+ * Like any parse, a unit's top level declarations are placed in a fresh unit scope that is a child
+ * of the prelude's root scope. Units see the declarations in the prelude's root scope, and a unit
+ * that declares a name already declared there shadows it instead of failing. This also means that
+ * library declarations must be added to the prelude's root scope directly, e.g. with
+ * {@link Environment#addDeclaredVariable(com.lhkbob.fxsl.lang.Scope, String, Expression)}; the
+ * declarations of a unit parsed into the prelude are in that parse's own unit scope, which units
+ * compiled from the prelude can't see.
+ *
+ * The checkers are shared by every task and must be thread safe; the checkers in
+ * `com.lhkbob.fxsl.parser.semantics` keep no state between validations and qualify.
+ *
+ * @author Michael Ludwig
+ */
+public class BatchCompiler {
+  private final SemanticsRunner checkers;
+  private final ExecutorService executor;
+  private final Environment prelude;
+  private final ParseCache cache;
+
+  /**
+   * Create a compiler whose prelude only contains the native scope.
+   *
+   * @param executor
+   *     The executor that runs the compile tasks
+   * @param checkers
+   *     The semantics checkers run on each unit, in order
+   * @throws java.lang.NullPointerException
+   *     if any argument is null or `checkers` contains null elements
+   */
+  public BatchCompiler(ExecutorService executor, List<? extends SemanticsChecker> checkers) {
+    this(new Environment(), executor, checkers);
+  }
+
+  /**
+   * Create a compiler where each unit is compiled in an environment pushed from `prelude`. The
+   * prelude is frozen, so later changes to `prelude` are not visible to the compiled units.
+   *
+   * @param prelude
+   *     The environment holding declarations shared by all units
+   * @param executor
+   *     The executor that runs the compile tasks
+   * @param checkers
+   *     The semantics checkers run on each unit, in order
+   * @throws java.lang.NullPointerException
+   *     if any argument is null or `checkers` contains null elements
+   * @throws java.lang.IllegalStateException
+   *     if `prelude` is locked, committed, or aborted
+   */
+  public BatchCompiler(
+      Environment prelude, ExecutorService executor, List<? extends SemanticsChecker> checkers) {
+    this(prelude, executor, checkers, null);
+  }
+
+  /**
+   * Create a compiler where each unit is compiled in an environment pushed from `prelude`, and
+   * units whose source was already parsed against the same prelude are loaded from `cache`.
+   *
+   * @param prelude
+   *     The environment holding declarations shared by all units
+   * @param executor
+   *     The executor that runs the compile tasks
+   * @param checkers
+   *     The semantics checkers run on each unit, in order
+   * @param cache
+   *     The cache of parsed units, or null to always parse
+   * @throws java.lang.NullPointerException
+   *     if any argument but `cache` is null or `checkers` contains null elements
+   * @throws java.lang.IllegalStateException
+   *     if `prelude` is locked, committed, or aborted
+   */
+  public BatchCompiler(
+      Environment prelude, ExecutorService executor, List<? extends SemanticsChecker> checkers,
+      ParseCache cache) {
+    notNull("prelude", prelude);
+    notNull("executor", executor);
+    notNull("checkers", checkers);
+    noNullElements("checkers", checkers);
+
+    this.prelude = prelude.freeze();
+    this.executor = executor;
+    this.checkers = new SemanticsRunner(executor, checkers);
+    this.cache = cache;
+  }
+
+  /**
+   * Compile every file as its own unit. This blocks until all units have been compiled. Failures
+   * are reported in the returned units instead of being thrown.
+   *
+   * @param files
+   *     The files to compile
+   * @return The compiled units, in the same order as `files`
+   * @throws java.lang.InterruptedException
+   *     if interrupted while waiting for the compile tasks
+   */
+  public List<Unit> compileFiles(Collection<File> files) throws InterruptedException {
+    notNull("files", files);
+    noNullElements("files", files);
+
+    List<CompileTask> tasks = new ArrayList<>();
+    for (final File file : files) {
+      tasks.add(
+          new CompileTask(file.getPath()) {
+            @Override
+            protected Expression parse(Parser parser) throws IOException {
+              return parser.parseFile(file);
+            }
+          });
+    }
+    return compile(tasks);
+  }
+
+  /**
+   * Compile every stream as its own unit, where each map key is used as the name of its unit. The
+   * streams are read on the executor's threads and are closed once read. This blocks until all
+   * units have been compiled. Failures are reported in the returned units instead of being
+   * thrown.
+   *
+   * @param streams
+   *     The streams to compile, keyed by unit name
+   * @return The compiled units, in the iteration order of `streams`
+   * @throws java.lang.InterruptedException
+   *     if interrupted while waiting for the compile tasks
+   */
+  public List<Unit> compileStreams(Map<String, ? extends InputStream> streams)
+      throws InterruptedException {
+    notNull("streams", streams);
+
+    List<CompileTask> tasks = new ArrayList<>();
+    for (final Map.Entry<String, ? extends InputStream> stream : streams.entrySet()) {
+      notNull("stream", stream.getValue());
+      tasks.add(
+          new CompileTask(stream.getKey()) {
+            @Override
+            protected Expression parse(Parser parser) throws IOException {
+              try (InputStream in = stream.getValue()) {
+                return parser.parseStream(in);
+              }
+            }
+          });
+    }
+    return compile(tasks);
+  }
+
+  /**
+   * Compile every string as its own unit, where each map key is used as the name of its unit. This
+   * blocks until all units have been compiled. Failures are reported in the returned units instead
+   * of being thrown.
+   *
+   * @param sources
+   *     The FXSL source code to compile, keyed by unit name
+   * @return The compiled units, in the iteration order of `sources`
+   * @throws java.lang.InterruptedException
+   *     if interrupted while waiting for the compile tasks
+   */
+  public List<Unit> compileSources(Map<String, String> sources) throws InterruptedException {
+    notNull("sources", sources);
+
+    List<CompileTask> tasks = new ArrayList<>();
+    for (final Map.Entry<String, String> source : sources.entrySet()) {
+      notNull("source", source.getValue());
+      tasks.add(
+          new CompileTask(source.getKey()) {
+            @Override
+            protected Expression parse(Parser parser) {
+              return parser.parse(source.getValue());
+            }
+          });
+    }
+    return compile(tasks);
+  }
+
+  /**
+   * @return The frozen environment every unit is pushed from
+   */
+  public Environment getPrelude() {
+    return prelude;
+  }
+
+  private List<Unit> compile(List<CompileTask> tasks) throws InterruptedException {
+    List<Future<Unit>> futures = executor.invokeAll(tasks);
+
+    List<Unit> units = new ArrayList<>(futures.size());
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        units.add(futures.get(i).get());
+      } catch (ExecutionException e) {
+        // CompileTask catches exceptions itself so this is only reached for errors
+        units.add(
+            new Unit(
+                tasks.get(i).name, null, null, Collections.<SemanticsProblem>emptyList(),
+                e.getCause()));
+      }
+    }
+    return units;
+  }
+
+  /**
+   * Unit
+   * ====
+   *
+   * The outcome of compiling a single unit. A unit failed to compile if {@link #getFailure()} is
+   * not null or {@link #getProblems()} is not empty.
+   */
+  public static class Unit {
+    private final String name;
+    private final Expression expression;
+    private final Environment environment;
+    private final List<SemanticsProblem> problems;
+    private final Throwable failure;
+
+    private Unit(
+        String name, Expression expression, Environment environment,
+        List<SemanticsProblem> problems, Throwable failure) {
+      this.name = name;
+      this.expression = expression;
+      this.environment = environment;
+      this.problems = Collections.unmodifiableList(problems);
+      this.failure = failure;
+    }
+
+    /**
+     * @return The environment of the unit, or null if it failed to parse
+     */
+    public Environment getEnvironment() {
+      return environment;
+    }
+
+    /**
+     * @return The expression of the unit's last statement, or null if it failed to parse
+     */
+    public Expression getExpression() {
+      return expression;
+    }
+
+    /**
+     * @return The exception that stopped the unit from being parsed or validated, or null
+     */
+    public Throwable getFailure() {
+      return failure;
+    }
+
+    /**
+     * @return The name of the unit, the file path for units compiled from files
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return All problems reported by the semantics checkers that ran on the unit
+     */
+    public List<SemanticsProblem> getProblems() {
+      return problems;
+    }
+
+    public boolean isSuccessful() {
+      return failure == null && problems.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      if (failure != null) {
+        return name + ": " + failure;
+      } else if (!problems.isEmpty()) {
+        return name + ": " + problems.size() + " problem(s)";
+      } else {
+        return name + ": ok";
+      }
+    }
+  }
+
+  private abstract class CompileTask implements Callable<Unit> {
+    private final String name;
+
+    public CompileTask(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Unit call() {
+      Parser parser = new Parser(prelude, cache);
+      Expression expression;
+      try {
+        expression = parse(parser);
+      } catch (IOException | RuntimeException e) {
+        return new Unit(name, null, null, Collections.<SemanticsProblem>emptyList(), e);
+      }
+
+      Environment environment = parser.getEnvironment();
+      List<SemanticsProblem> problems = new ArrayList<>();
+      try {
+        checkers.validate(environment);
+      } catch (SemanticsException e) {
+        problems.addAll(e.getProblems());
+      } catch (RuntimeException e) {
+        return new Unit(name, expression, environment, problems, e);
+      }
+      return new Unit(name, expression, environment, problems, null);
+    }
+
+    protected abstract Expression parse(Parser parser) throws IOException;
+  }
+}
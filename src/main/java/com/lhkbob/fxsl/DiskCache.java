@@ -0,0 +1,300 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.parser.DeclarationVisitor;
+import com.lhkbob.fxsl.parser.ExpressionVisitor;
+import com.lhkbob.fxsl.parser.FXSLLexer;
+import com.lhkbob.fxsl.parser.FXSLParser;
+import com.lhkbob.fxsl.parser.ParseContext;
+import com.lhkbob.fxsl.parser.ParseRecording;
+import com.lhkbob.fxsl.parser.RecordingCodec;
+import com.lhkbob.fxsl.parser.TypeVisitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Disk Cache
+ * ==========
+ *
+ * A persistent cache of parsed units stored in a local directory, so that a restarted process
+ * can load previously parsed units instead of parsing them again. Each unit's {@link
+ * ParseRecording} is written in the binary format of {@link RecordingCodec} to a file named by
+ * the SHA-256 digest of the compiler version, the format version, and the unit's source text.
+ * Files are loaded with memory mapped I/O and decoded directly from the mapped buffer.
+ *
+ * Recordings are decoded against the root scope of the environment they are loaded into, so
+ * unlike {@link ParseCache} entries are not tied to a particular root scope. Replaying a loaded
+ * recording can still fail, e.g. if the environment already contains the unit's declarations, in
+ * which case the unit must be parsed normally.
+ *
+ * The cache directory can be shared by multiple threads and processes. Entries are written to a
+ * temporary file that is atomically renamed, so readers never see partially written entries.
+ * I/O failures and corrupt entries are treated as misses and never fail a compilation. Stale
+ * entries are never removed automatically, delete the directory to clear the cache.
+ *
+ * A disk cache is most effective as the backing store of a {@link ParseCache}, which keeps
+ * recently used units in memory.
+ *
+ * @author Michael Ludwig
+ */
+public class DiskCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".fxsc";
+
+  // The classes that decide what a recording holds for a source text, their bytecode is part of
+  // the default compiler version
+  private static final Class<?>[] PARSE_CLASSES = {
+      Parser.class, FXSLLexer.class, FXSLParser.class, ParseContext.class,
+      DeclarationVisitor.class, ExpressionVisitor.class, TypeVisitor.class, ParseRecording.class,
+      RecordingCodec.class, Environment.class
+  };
+  private static volatile String defaultCompilerVersion;
+
+  private final Path directory;
+  private final String compilerVersion;
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+
+  /**
+   * Create a disk cache in `directory` for the running version of the compiler. The version is
+   * the implementation version of the compiler's jar combined with a digest of the bytecode of
+   * the parser and codec classes, so entries written by other releases or by a rebuilt compiler
+   * with different parsing code are ignored. If the bytecode can't be read then the version is
+   * unique to the running process and nothing written by other processes is used.
+   *
+   * @param directory
+   *     The directory holding cached units, it is created if it does not exist
+   * @throws java.io.IOException
+   *     if the directory could not be created
+   * @throws java.lang.NullPointerException
+   *     if `directory` is null
+   */
+  public DiskCache(File directory) throws IOException {
+    this(directory, getDefaultCompilerVersion());
+  }
+
+  /**
+   * Create a disk cache in `directory` for the given compiler version. Entries are only shared by
+   * caches with the same compiler version, so the version should change whenever the compiler
+   * could produce different expressions for the same source text.
+   *
+   * @param directory
+   *     The directory holding cached units, it is created if it does not exist
+   * @param compilerVersion
+   *     The version of the compiler writing and reading the cache
+   * @throws java.io.IOException
+   *     if the directory could not be created
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   */
+  public DiskCache(File directory, String compilerVersion) throws IOException {
+    notNull("directory", directory);
+    notNull("compilerVersion", compilerVersion);
+
+    this.directory = Files.createDirectories(directory.toPath());
+    this.compilerVersion = compilerVersion;
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+  }
+
+  /**
+   * @return The version of the compiler this cache reads and writes entries for
+   */
+  public String getCompilerVersion() {
+    return compilerVersion;
+  }
+
+  /**
+   * @return The directory holding the cached units
+   */
+  public File getDirectory() {
+    return directory.toFile();
+  }
+
+  /**
+   * @return The number of loads that found and decoded a cached unit
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return The number of loads that found no usable cached unit
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Load the recorded parse of the unit with the given source, decoded for environments with the
+   * root scope `rootScope`. Corrupt entries are deleted and count as a miss.
+   *
+   * @param source
+   *     The source text of the unit
+   * @param rootScope
+   *     The root scope of the environment the recording will be replayed into
+   * @return The recording, or null on a miss
+   */
+  public ParseRecording load(String source, Scope rootScope) {
+    Path file = getFile(source);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      ParseRecording recording = RecordingCodec.decode(data, rootScope);
+      hits.incrementAndGet();
+      return recording;
+    } catch (IOException e) {
+      // Usually there's no entry for the source
+      misses.incrementAndGet();
+      return null;
+    } catch (RuntimeException e) {
+      // Written by an incompatible format, truncated, or otherwise corrupt; the decoder reports
+      // most of these as IllegalArgumentException but garbage can fail it in many other ways.
+      // The entry will be replaced by the next store
+      misses.incrementAndGet();
+      deleteQuietly(file);
+      return null;
+    }
+  }
+
+  /**
+   * Write the recorded parse of the unit with the given source to the cache, replacing any
+   * existing entry.
+   *
+   * @param source
+   *     The source text of the unit
+   * @param recording
+   *     The recorded parse of `source`
+   * @return True if the entry was written, false if it could not be encoded or written
+   */
+  public boolean store(String source, ParseRecording recording) {
+    byte[] data;
+    try {
+      data = RecordingCodec.encode(recording);
+    } catch (IllegalArgumentException e) {
+      // The recording refers to expressions that can't be persisted
+      return false;
+    }
+
+    Path temp = null;
+    try {
+      temp = Files.createTempFile(directory, "unit", ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+      Files.move(
+          temp, getFile(source), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      if (temp != null) {
+        deleteQuietly(temp);
+      }
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "DiskCache[%s, version=%s, hits=%d, misses=%d]", directory, compilerVersion,
+        getHitCount(), getMissCount());
+  }
+
+  private Path getFile(String source) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new RuntimeException("SHA-256 is not available", e);
+    }
+    digest.update(compilerVersion.getBytes(UTF_8));
+    digest.update((byte) 0);
+    digest.update(Integer.toString(RecordingCodec.FORMAT_VERSION).getBytes(UTF_8));
+    digest.update((byte) 0);
+    byte[] key = digest.digest(source.getBytes(UTF_8));
+
+    StringBuilder name = new StringBuilder(key.length * 2 + SUFFIX.length());
+    appendHex(name, key, key.length);
+    return directory.resolve(name.append(SUFFIX).toString());
+  }
+
+  private static StringBuilder appendHex(StringBuilder out, byte[] bytes, int count) {
+    for (int i = 0; i < count; i++) {
+      out.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16))
+         .append(Character.forDigit(bytes[i] & 0xf, 16));
+    }
+    return out;
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // Nothing else can be done, a later store will try to replace it
+    }
+  }
+
+  private static String getDefaultCompilerVersion() {
+    // Benign race, every thread computes the same version
+    String version = defaultCompilerVersion;
+    if (version == null) {
+      version = computeDefaultCompilerVersion();
+      defaultCompilerVersion = version;
+    }
+    return version;
+  }
+
+  private static String computeDefaultCompilerVersion() {
+    // The jar version alone is not enough, snapshot builds keep the same version while the
+    // parser changes, and there is no version at all when running from a class directory
+    String release = DiskCache.class.getPackage().getImplementationVersion();
+    if (release == null) {
+      release = "development";
+    }
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] buffer = new byte[8192];
+      for (Class<?> type : PARSE_CLASSES) {
+        String file = type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class";
+        try (InputStream in = type.getResourceAsStream(file)) {
+          if (in == null) {
+            return release + "+" + UUID.randomUUID();
+          }
+          int read;
+          while ((read = in.read(buffer)) >= 0) {
+            digest.update(buffer, 0, read);
+          }
+        }
+      }
+
+      // 64 bits of the digest are plenty to tell builds apart
+      return appendHex(new StringBuilder(release).append('+'), digest.digest(), 8).toString();
+    } catch (IOException | NoSuchAlgorithmException e) {
+      // Never share entries with other processes when the classes can't be identified
+      return release + "+" + UUID.randomUUID();
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.parser.ParseRecording;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parse Cache
+ * ===========
+ *
+ * A bounded, content addressed cache of parsed units. Each entry is keyed by the SHA-256 digest
+ * of a unit's source text and the root scope of the environment it was parsed into, and holds a
+ * {@link ParseRecording} of the expressions, declarations and types the parse produced. On a hit
+ * the recording is replayed into the target environment so the lexer and parser are skipped
+ * entirely. Environments pushed from the same frozen prelude share their root scope, so units
+ * compiled against a common prelude share cache entries.
+ *
+ * Scopes are compared by identity, so an entry is only ever reused by environments with the very
+ * root scope it was recorded against. Every `new Environment()`, and so every `new Parser()`,
+ * creates its own root scope; parsers that don't share a prelude never hit each other's entries,
+ * even for identical source text. The cache pays off when many parsers are created from one
+ * frozen prelude, as {@link BatchCompiler} does.
+ *
+ * The cache evicts the least recently used entries once it holds more than a maximum number of
+ * units, or once the total length of their source text exceeds a maximum number of characters.
+ * It is safe to share between threads, e.g. between the tasks of a {@link BatchCompiler}.
+ *
+ * A cache can be backed by a {@link DiskCache}. Units that miss in memory are then loaded from
+ * disk before falling back to the parser, and every stored unit is also written to disk, so the
+ * parsed units survive restarts of the process.
+ *
+ * @author Michael Ludwig
+ */
+public class ParseCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final int maxEntries;
+  private final long maxSourceLength;
+  private final DiskCache disk;
+
+  private final LinkedHashMap<Key, Entry> entries;
+  private long currentSourceLength;
+
+  private final AtomicLong hits;
+  private final AtomicLong misses;
+  private final AtomicLong evictions;
+
+  /**
+   * Create a new cache with the given bounds.
+   *
+   * @param maxEntries
+   *     The maximum number of cached units
+   * @param maxSourceLength
+   *     The maximum total number of source characters of the cached units
+   * @throws java.lang.IllegalArgumentException
+   *     if either bound is less than 1
+   */
+  public ParseCache(int maxEntries, long maxSourceLength) {
+    this(maxEntries, maxSourceLength, null);
+  }
+
+  /**
+   * Create a new cache with the given bounds that is backed by `disk`.
+   *
+   * @param maxEntries
+   *     The maximum number of cached units kept in memory
+   * @param maxSourceLength
+   *     The maximum total number of source characters of the cached units kept in memory
+   * @param disk
+   *     The persistent cache consulted on a miss, or null to only cache in memory
+   * @throws java.lang.IllegalArgumentException
+   *     if either bound is less than 1
+   */
+  public ParseCache(int maxEntries, long maxSourceLength, DiskCache disk) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Maximum entry count must be at least 1: " + maxEntries);
+    }
+    if (maxSourceLength < 1) {
+      throw new IllegalArgumentException(
+          "Maximum source length must be at least 1: " + maxSourceLength);
+    }
+    this.maxEntries = maxEntries;
+    this.maxSourceLength = maxSourceLength;
+    this.disk = disk;
+
+    // access ordered for LRU eviction
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+    currentSourceLength = 0;
+
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+    evictions = new AtomicLong();
+  }
+
+  /**
+   * Remove every cached unit. The hit, miss, and eviction counts are not reset.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    currentSourceLength = 0;
+  }
+
+  /**
+   * @return The persistent cache backing this cache, or null
+   */
+  public DiskCache getDiskCache() {
+    return disk;
+  }
+
+  /**
+   * @return The number of entries that have been evicted to stay within the cache's bounds
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return The number of loads that were satisfied by replaying a cached parse
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * @return The number of loads that found no usable cached parse
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Load the unit with the given source into `environment` by replaying a cached parse. If there
+   * is no cached parse for the source and the environment's root scope, the disk cache is
+   * consulted if there is one. If no parse is found or it cannot be replayed into the environment,
+   * this counts as a miss and null is returned, in which case the unit must be parsed normally.
+   *
+   * @param source
+   *     The source text of the unit
+   * @param environment
+   *     The environment the unit is loaded into
+   * @return The expression of the unit, or null on a miss
+   */
+  public Expression load(String source, Environment environment) {
+    Key key = new Key(source, environment.getRootScope());
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+    }
+
+    // replay outside of the lock, the recording is immutable and the environment is private to
+    // the calling thread
+    if (entry != null && entry.recording.replay(environment)) {
+      hits.incrementAndGet();
+      return entry.recording.getResult();
+    }
+
+    if (entry == null && disk != null) {
+      ParseRecording recording = disk.load(source, environment.getRootScope());
+      if (recording != null && recording.replay(environment)) {
+        // Keep it in memory for units compiled against the same root scope
+        storeInMemory(key, source, recording);
+        hits.incrementAndGet();
+        return recording.getResult();
+      }
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * @return The number of cached units
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Cache the recorded parse of the unit with the given source. Older entries are evicted as
+   * needed to respect the cache's bounds. A unit whose source is longer than the maximum total
+   * source length is not cached in memory. If the cache is backed by a disk cache, the recording
+   * is written to disk as well.
+   *
+   * @param source
+   *     The source text of the unit
+   * @param recording
+   *     The recorded parse of `source`
+   */
+  public void store(String source, ParseRecording recording) {
+    if (disk != null) {
+      disk.store(source, recording);
+    }
+    storeInMemory(new Key(source, recording.getRootScope()), source, recording);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ParseCache[size=%d, hits=%d, misses=%d, evictions=%d]", size(), getHitCount(),
+        getMissCount(), getEvictionCount());
+  }
+
+  private void storeInMemory(Key key, String source, ParseRecording recording) {
+    if (source.length() > maxSourceLength) {
+      return;
+    }
+
+    synchronized (this) {
+      Entry old = entries.put(key, new Entry(recording, source.length()));
+      if (old != null) {
+        currentSourceLength -= old.sourceLength;
+      }
+      currentSourceLength += source.length();
+
+      Iterator<Entry> lru = entries.values().iterator();
+      while (entries.size() > maxEntries || currentSourceLength > maxSourceLength) {
+        Entry evicted = lru.next();
+        lru.remove();
+        currentSourceLength -= evicted.sourceLength;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private static class Entry {
+    private final ParseRecording recording;
+    private final int sourceLength;
+
+    public Entry(ParseRecording recording, int sourceLength) {
+      this.recording = recording;
+      this.sourceLength = sourceLength;
+    }
+  }
+
+  private static class Key {
+    private final byte[] digest;
+    private final Scope rootScope;
+    private final int hash;
+
+    public Key(String source, Scope rootScope) {
+      try {
+        digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(UTF_8));
+      } catch (NoSuchAlgorithmException e) {
+        // Every Java platform is required to support SHA-256
+        throw new RuntimeException("SHA-256 is not available", e);
+      }
+      this.rootScope = rootScope;
+      hash = 31 * Arrays.hashCode(digest) + rootScope.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return k.hash == hash && k.rootScope.equals(rootScope) && Arrays.equals(k.digest, digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.Type;
+
+/**
+ * Parse Listener
+ * ==============
+ *
+ * Receives the top level statements of a unit from {@link Parser#parseIncrementally(java.io.Reader,
+ * ParseListener)} as soon as each one is parsed. Every statement has already been added to the
+ * parser's environment when the listener is notified, but later statements haven't been read
+ * yet, so a variable may still reference names that are declared further down in the source.
+ *
+ * @author Michael Ludwig
+ */
+public interface ParseListener {
+  /**
+   * Called after a top level `type` declaration was parsed.
+   *
+   * @param declaration
+   *     The declared type
+   */
+  void declaredType(Declaration<Type> declaration);
+
+  /**
+   * Called after a top level `var` declaration was parsed.
+   *
+   * @param declaration
+   *     The declared variable
+   */
+  void declaredVariable(Declaration<Expression> declaration);
+
+  /**
+   * Called after a top level expression statement was parsed. The last of these is the result of
+   * the unit.
+   *
+   * @param expression
+   *     The expression
+   */
+  void parsedExpression(Expression expression);
+}
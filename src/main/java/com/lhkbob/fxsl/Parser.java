@@ -1,29 +1,66 @@
 package com.lhkbob.fxsl;
 
+import com.lhkbob.fxsl.lang.Environment;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.type.Types;
 import com.lhkbob.fxsl.parser.ExpressionVisitor;
 import com.lhkbob.fxsl.parser.FXSLLexer;
 import com.lhkbob.fxsl.parser.FXSLParser;
+import com.lhkbob.fxsl.parser.MappedCharStream;
 import com.lhkbob.fxsl.parser.ParseContext;
+import com.lhkbob.fxsl.parser.ParseRecording;
 
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
 
 import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
 
 /**
  *
  */
 public class Parser {
   private final ParseContext context;
+  private final ParseCache cache;
+  private boolean twoStage;
 
   public Parser() {
     context = new ParseContext();
+    cache = null;
+    twoStage = true;
+  }
+
+  public Parser(Environment environment) {
+    this(environment, null);
+  }
+
+  public Parser(Environment environment, ParseCache cache) {
+    context = new ParseContext(environment);
+    this.cache = cache;
+    twoStage = true;
   }
 
   public static void main(String[] args) {
@@ -34,32 +71,255 @@ public class Parser {
     System.out.println(Types.infer(e, p.context.getEnvironment()));
   }
 
+  public Environment getEnvironment() {
+    return context.getEnvironment();
+  }
+
+  public boolean isHashConsing() {
+    return context.isHashConsing();
+  }
+
+  public boolean isTwoStageParsing() {
+    return twoStage;
+  }
+
+  /**
+   * Enable or disable hash-consing of parsed expressions, which is disabled by default. When
+   * enabled, repeated subexpressions within a scope are parsed into a single shared instance so
+   * the parsed program is a DAG. Later passes that memoize on expression identity then only
+   * process each unique subexpression once.
+   *
+   * @param hashCons
+   *     True if expressions should be interned as they are parsed
+   * @see com.lhkbob.fxsl.lang.expr.ExpressionInterner
+   */
+  public void setHashConsing(boolean hashCons) {
+    context.setHashConsing(hashCons);
+  }
+
+  /**
+   * Enable or disable two stage parsing, which is enabled by default. A two stage parse first
+   * tries the much cheaper SLL prediction mode, giving up at the first syntax error, and only
+   * reparses the unit with full LL prediction if that fails. SLL succeeds for nearly all valid
+   * input and then produces the same parse tree as LL, while invalid input is always reparsed so
+   * syntax errors are reported exactly as by a single LL parse.
+   *
+   * The DFA that ANTLR builds while predicting is shared by every parser in the process, so once
+   * warmed up by earlier parses every parser benefits from it regardless of this setting.
+   *
+   * @param twoStage
+   *     True if parsing should try SLL prediction first
+   */
+  public void setTwoStageParsing(boolean twoStage) {
+    this.twoStage = twoStage;
+  }
+
   public Expression parse(String content) {
-    return parse(new ANTLRInputStream(content));
+    if (cache == null) {
+      return parse(new ANTLRInputStream(content));
+    }
+
+    Expression result = cache.load(content, context.getEnvironment());
+    if (result != null) {
+      return result;
+    }
+
+    context.startRecording();
+    try {
+      result = parse(new ANTLRInputStream(content));
+    } finally {
+      ParseRecording recording = context.finishRecording(result);
+      if (result != null) {
+        cache.store(content, recording);
+      }
+    }
+    return result;
   }
 
   public Expression parseFile(File file) throws IOException {
-    try (FileInputStream in = new FileInputStream(file)) {
-      return parseStream(in);
-    }
+    return parseFile(file.toPath());
   }
 
   public Expression parseFile(String file) throws IOException {
-    try (FileInputStream in = new FileInputStream(file)) {
-      return parseStream(in);
+    return parseFile(Paths.get(file));
+  }
+
+  /**
+   * Parse the UTF-8 encoded file at `file`. The file is memory-mapped and lexed directly from the
+   * mapping, see {@link MappedCharStream}.
+   *
+   * @param file
+   *     The path of the file
+   * @return The result expression of the unit
+   * @throws java.io.IOException
+   *     if the file could not be read or is not valid UTF-8
+   */
+  public Expression parseFile(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return parseChannel(channel, file.toString());
+    }
+  }
+
+  /**
+   * Parse the UTF-8 encoded content of `channel` from its current position to its end. The
+   * content is memory-mapped and lexed directly from the mapping, see {@link MappedCharStream}.
+   * The channel is not closed.
+   *
+   * @param channel
+   *     The channel to parse
+   * @param sourceName
+   *     The name reported in syntax errors, e.g. the file's path
+   * @return The result expression of the unit
+   * @throws java.io.IOException
+   *     if the channel could not be mapped or is not valid UTF-8
+   */
+  public Expression parseChannel(FileChannel channel, String sourceName) throws IOException {
+    MappedCharStream in = new MappedCharStream(channel, sourceName);
+    if (cache != null) {
+      // The cache is keyed by content so the text must be copied out of the mapping
+      return parse(in.toString());
     }
+    return parse(in);
   }
 
   public Expression parseStream(InputStream stream) throws IOException {
+    if (cache != null) {
+      // The cache is keyed by content so the whole stream must be read first
+      return parse(readFully(stream));
+    }
     BufferedInputStream buffer = new BufferedInputStream(stream);
     return parse(new ANTLRInputStream(buffer));
   }
 
-  private Expression parse(ANTLRInputStream in) {
+  /**
+   * Parse a unit one top level statement at a time, handing each declaration and expression to
+   * `listener` as soon as it is parsed. Neither the source text, the tokens, nor the parse tree of
+   * a statement are kept once the statement has been visited, so the memory used by the parser is
+   * bounded by the largest statement instead of the size of the unit. This makes it suitable for
+   * very large, e.g. generated, sources.
+   *
+   * The unit is declared into the environment exactly as with {@link #parse(String)}, but the
+   * parse cache is never used since it's keyed by the entire source text, and the parse always
+   * uses LL prediction since a stream that has been dropped can't be reparsed.
+   *
+   * @param in
+   *     The source of the unit, which is read but not closed
+   * @param listener
+   *     The listener notified of every top level statement
+   * @return The result expression of the unit, i.e. its last expression statement
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   */
+  public Expression parseIncrementally(Reader in, ParseListener listener) {
+    notNull("in", in);
+    notNull("listener", listener);
+
+    FXSLLexer lexer = new FXSLLexer(new UnbufferedCharStream(in));
+    // The char stream drops consumed text, so every token must copy its own text
+    lexer.setTokenFactory(new CommonTokenFactory(true));
+    FXSLParser parser = new FXSLParser(new UnbufferedTokenStream<>(lexer));
+    StatementListener statements = new StatementListener(context, listener);
+    parser.addParseListener(statements);
+
+    // The listener visits each stm as soon as the parser exits it, in the unit scope that
+    // ExpressionVisitor.visitStmList would have pushed
+    context.push();
+    try {
+      parser.stmList();
+      return statements.lastExpr;
+    } finally {
+      context.pop();
+    }
+  }
+
+  private Expression parse(CharStream in) {
     FXSLLexer lexer = new FXSLLexer(in);
-    FXSLParser parser = new FXSLParser(new CommonTokenStream(lexer));
+    CommonTokenStream tokens = new CommonTokenStream(lexer);
+    FXSLParser parser = new FXSLParser(tokens);
 
+    FXSLParser.StmListContext tree = null;
+    if (twoStage) {
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.removeErrorListeners();
+      parser.setErrorHandler(new BailErrorStrategy());
+      try {
+        tree = parser.stmList();
+      } catch (ParseCancellationException e) {
+        // Either a syntax error or SLL was too weak, only full LL can tell which so rewind and
+        // parse again with the default error reporting and recovery
+        tokens.reset();
+        parser.reset();
+        parser.addErrorListener(ConsoleErrorListener.INSTANCE);
+        parser.setErrorHandler(new DefaultErrorStrategy());
+        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      }
+    }
+    if (tree == null) {
+      tree = parser.stmList();
+    }
+
+    // Only visit the tree once parsing succeeded, so a failed first stage declares nothing
     ExpressionVisitor visitor = new ExpressionVisitor(context);
-    return visitor.visit(parser.stmList());
+    return visitor.visit(tree);
+  }
+
+  private static String readFully(InputStream stream) throws IOException {
+    // Use the default charset to match ANTLRInputStream
+    Reader in = new InputStreamReader(stream);
+    StringBuilder sb = new StringBuilder();
+    char[] buffer = new char[4096];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      sb.append(buffer, 0, read);
+    }
+    return sb.toString();
+  }
+
+  private static class StatementListener implements ParseTreeListener {
+    private final ParseContext context;
+    private final ParseListener listener;
+    private Expression lastExpr;
+
+    public StatementListener(ParseContext context, ParseListener listener) {
+      this.context = context;
+      this.listener = listener;
+      lastExpr = null;
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+      if (!(ctx instanceof FXSLParser.StmContext) || ctx.getParent() == null) {
+        return;
+      }
+
+      FXSLParser.StmContext stm = (FXSLParser.StmContext) ctx;
+      if (stm.def() instanceof FXSLParser.TypeDefContext) {
+        listener.declaredType(context.getDeclarationVisitor().visitTypeDef(
+            (FXSLParser.TypeDefContext) stm.def()));
+      } else if (stm.def() instanceof FXSLParser.VarDefContext) {
+        listener.declaredVariable(context.getDeclarationVisitor().visitVarDef(
+            (FXSLParser.VarDefContext) stm.def()));
+      } else if (stm.expr() != null) {
+        lastExpr = stm.expr().accept(context.getExpressionVisitor());
+        listener.parsedExpression(lastExpr);
+      }
+
+      // Drop the visited statement and the separators before it from the stmList node, so the
+      // parse tree never holds more than the statement being parsed
+      ParserRuleContext stmList = ctx.getParent();
+      stmList.children.clear();
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+    }
   }
 }
@@ -0,0 +1,876 @@
+package com.lhkbob.fxsl.eval;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayAccess;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.lang.type.TypePath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Evaluator
+ * =========
+ *
+ * Reference interpreter that evaluates expressions on the CPU, so values can be precomputed and
+ * shaders can be tested without a GPU. Every native operator of {@link Environment} is supported,
+ * as are `if` expressions, structs, arrays, dynamic arrays and functions. Functions evaluate to
+ * closures over the parameters of their enclosing functions, and may be partially applied, passed
+ * as arguments or combined into unions. Uniforms and attributes are read from the inputs set with
+ * {@link #setInput(String, Value)}.
+ *
+ * Ints, floats and bools are never boxed while they're computed. A scalar result is left in one of
+ * the evaluator's registers, and the arguments of a function call are stored unboxed in the
+ * call's frame, so evaluating scalar operators and calls of known functions only allocates the
+ * frames. Scalars are boxed into {@link Value values} when they become part of an array or struct,
+ * when a declaration's value is remembered, and when they are returned.
+ *
+ * The value of each declaration is computed once per function call, or once overall for
+ * declarations outside of functions until an input changes. Expressions must have passed type
+ * checking: the evaluator relies on the kinds of the arguments to select operator overloads and
+ * reports other errors, like an out of bounds array index or an int division by zero, with an
+ * {@link InvalidExpressionException}. Unbounded recursion overflows the stack.
+ *
+ * An evaluator is not thread safe, but any number of evaluators can share an environment that
+ * doesn't change.
+ *
+ * @author Michael Ludwig
+ */
+public class Evaluator implements Expression.Visitor<Value> {
+  // Returned for scalar results, whose value is left in the register of the same kind
+  private static final Value INT_RESULT = new Value(Value.Kind.INT, 0, 0f, null, null, null);
+  private static final Value FLOAT_RESULT = new Value(Value.Kind.FLOAT, 0, 0f, null, null, null);
+  private static final Value BOOL_RESULT = new Value(Value.Kind.BOOL, 0, 0f, null, null, null);
+  // Remembered for a declaration while its value is evaluated, to detect values that need
+  // themselves
+  private static final Value EVALUATING = new Value(Value.Kind.FUNCTION, 0, 0f, null, null, null);
+
+  private final Environment environment;
+  private final Map<String, Value> inputs;
+
+  // Values of the declarations outside of any function, and of the native operators
+  private final Map<Declaration<Expression>, Value> globals;
+  private final Map<Declaration<Expression>, Value> natives;
+  private final Map<VariableReference, Declaration<Expression>> resolved;
+  private final Map<FunctionValue, Scope> parameterScopes;
+
+  private Frame frame;
+  private int intRegister;
+  private float floatRegister;
+  private boolean boolRegister;
+
+  /**
+   * Create an evaluator for expressions declared in `environment`, with no inputs.
+   *
+   * @param environment
+   *     The environment the evaluated expressions were declared in
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public Evaluator(Environment environment) {
+    notNull("environment", environment);
+    this.environment = environment;
+    inputs = new HashMap<>();
+    globals = new HashMap<>();
+    natives = new HashMap<>();
+    resolved = new IdentityHashMap<>();
+    parameterScopes = new IdentityHashMap<>();
+  }
+
+  /**
+   * Set the value of the uniforms and attributes named `name`. This forgets the remembered values
+   * of the declarations outside of functions, since they might depend on the input.
+   *
+   * @param name
+   *     The name of the uniform or attribute
+   * @param value
+   *     The value, or null to remove the input
+   * @throws java.lang.NullPointerException
+   *     if `name` is null
+   */
+  public void setInput(String name, Value value) {
+    notNull("name", name);
+    if (value != null) {
+      inputs.put(name, value);
+    } else {
+      inputs.remove(name);
+    }
+    globals.clear();
+  }
+
+  /**
+   * Evaluate `expr`.
+   *
+   * @param expr
+   *     The expression
+   * @return The value of the expression
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   * @throws com.lhkbob.fxsl.lang.InvalidExpressionException
+   *     if the expression can't be evaluated
+   */
+  public Value evaluate(Expression expr) {
+    notNull("expr", expr);
+    frame = null;
+    return box(expr.accept(this));
+  }
+
+  /**
+   * Call the function `function` with the given arguments. If there are fewer arguments than
+   * parameters, the result is the partially applied function.
+   *
+   * @param function
+   *     The function, e.g. the result of evaluating a function expression
+   * @param args
+   *     The arguments
+   * @return The value returned by the function
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws com.lhkbob.fxsl.lang.InvalidExpressionException
+   *     if `function` isn't a function or the call can't be evaluated
+   */
+  public Value apply(Value function, Value... args) {
+    notNull("function", function);
+    for (Value arg : args) {
+      notNull("args", arg);
+    }
+    frame = null;
+    return box(callBoxed(null, function, args.clone()));
+  }
+
+  @Override
+  public Value visitArray(ArrayValue value) {
+    Value[] elements = new Value[value.getLength()];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = box(value.getElement(i).accept(this));
+    }
+    return new Value(Value.Kind.ARRAY, 0, 0f, elements, null, null);
+  }
+
+  @Override
+  public Value visitArrayAccess(ArrayAccess access) {
+    Value array = access.getArray().accept(this);
+    Value index = access.getIndex().accept(this);
+    if (array.getKind() != Value.Kind.ARRAY || index != INT_RESULT) {
+      throw new InvalidExpressionException(access, "Array access requires an array and an int");
+    }
+    if (intRegister < 0 || intRegister >= array.elements().length) {
+      throw new InvalidExpressionException(access, "Array index out of bounds: " + intRegister);
+    }
+    return unbox(array.elements()[intRegister]);
+  }
+
+  @Override
+  public Value visitArrayLength(ArrayLength length) {
+    TypePath path = length.getPathToArrayType();
+    Value value = path.getRoot().accept(this);
+    for (TypePath.Node node : path.getPath()) {
+      if (node.getType() == TypePath.NodeType.ARRAY_COMPONENT
+          && value.getKind() == Value.Kind.ARRAY) {
+        // arrays are homogeneous, so any element has the length of the nested arrays
+        value = value.elements()[0];
+      } else if (node.getType() == TypePath.NodeType.STRUCT_FIELD
+                 && value.getKind() == Value.Kind.STRUCT) {
+        value = value.getField(node.getStringData());
+      } else {
+        value = null;
+        break;
+      }
+    }
+    if (value == null || value.getKind() != Value.Kind.ARRAY) {
+      throw new InvalidExpressionException(length, "Cannot determine the array length");
+    }
+    intRegister = value.elements().length;
+    return INT_RESULT;
+  }
+
+  @Override
+  public Value visitAttribute(Attribute attr) {
+    return input(attr, attr.getName());
+  }
+
+  @Override
+  public Value visitDynamicArray(DynamicArrayValue value) {
+    if (value.getLength().accept(this) != INT_RESULT || intRegister <= 0) {
+      throw new InvalidExpressionException(value, "Array length must be a positive int");
+    }
+    Value[] elements = new Value[intRegister];
+    Value function = value.getElementFunction().accept(this);
+    Function f = getFunction(value, function);
+    for (int i = 0; i < elements.length; i++) {
+      if (f instanceof Closure && ((Closure) f).getArity() == 1) {
+        Frame callee = new Frame((Closure) f, 1);
+        callee.ints[0] = i;
+        callee.values[0] = INT_RESULT;
+        elements[i] = box(invoke(callee));
+      } else {
+        elements[i] = box(callBoxed(value, function, new Value[] { Value.of(i) }));
+      }
+    }
+    return new Value(Value.Kind.ARRAY, 0, 0f, elements, null, null);
+  }
+
+  @Override
+  public Value visitFieldAccess(StructFieldAccess access) {
+    Value struct = access.getStruct().accept(this);
+    Value field = (struct.getKind() == Value.Kind.STRUCT ? struct.getField(access.getField())
+                                                          : null);
+    if (field == null) {
+      throw new InvalidExpressionException(access, "Value has no field " + access.getField());
+    }
+    return unbox(field);
+  }
+
+  @Override
+  public Value visitFunction(FunctionValue function) {
+    return functionValue(new Closure(function, getParameterScope(function), frame));
+  }
+
+  @Override
+  public Value visitFunctionCall(FunctionCall function) {
+    Value callee = function.getFunction().accept(this);
+    return call(function, callee, function.getParameterValues(), 0);
+  }
+
+  @Override
+  public Value visitIfThenElse(IfThenElse test) {
+    if (test.getCondition().accept(this) != BOOL_RESULT) {
+      throw new InvalidExpressionException(test, "Condition must be a bool");
+    }
+    return (boolRegister ? test.getTrueExpression() : test.getFalseExpression()).accept(this);
+  }
+
+  @Override
+  public Value visitNativeExpression(NativeExpression expr) {
+    return functionValue(new Native(expr.getName(), Collections.singletonList(expr)));
+  }
+
+  @Override
+  public Value visitParameter(Parameter param) {
+    throw new InvalidExpressionException(param, "Parameters are only evaluated by reference");
+  }
+
+  @Override
+  public Value visitPrimitive(PrimitiveValue primitive) {
+    switch (primitive.getType()) {
+    case INT:
+      intRegister = (Integer) primitive.getValue();
+      return INT_RESULT;
+    case FLOAT:
+      floatRegister = (Float) primitive.getValue();
+      return FLOAT_RESULT;
+    default:
+      boolRegister = (Boolean) primitive.getValue();
+      return BOOL_RESULT;
+    }
+  }
+
+  @Override
+  public Value visitStruct(StructValue struct) {
+    Map<String, Value> fields = new HashMap<>();
+    for (Map.Entry<String, Expression> f : struct.getFields().entrySet()) {
+      fields.put(f.getKey(), box(f.getValue().accept(this)));
+    }
+    return new Value(Value.Kind.STRUCT, 0, 0f, null, Collections.unmodifiableMap(fields), null);
+  }
+
+  @Override
+  public Value visitUniform(Uniform uniform) {
+    return input(uniform, uniform.getName());
+  }
+
+  @Override
+  public Value visitUnion(UnionValue union) {
+    Value[] options = new Value[union.getOptions().size()];
+    for (int i = 0; i < options.length; i++) {
+      options[i] = union.getOptions().get(i).accept(this);
+      getFunction(union, options[i]);
+    }
+    return functionValue(new Union(options));
+  }
+
+  @Override
+  public Value visitVariable(VariableReference var) {
+    Declaration<Expression> decl = resolved.get(var);
+    if (decl == null) {
+      decl = environment.getDeclaredVariable(var.getScope(), var.getVariableName());
+      if (decl == null) {
+        throw new InvalidExpressionException(var, "Reference is undefined");
+      }
+      resolved.put(var, decl);
+    }
+
+    if (decl.getValue() instanceof Parameter) {
+      return loadParameter(var, (Parameter) decl.getValue());
+    } else if (decl.getScope().equals(Scope.NATIVE_SCOPE)) {
+      return getNative(decl);
+    } else {
+      return getDeclaredValue(var, decl);
+    }
+  }
+
+  private Value call(Expression site, Value callee, List<Expression> args, int first) {
+    Function f = getFunction(site, callee);
+    int count = args.size() - first;
+    if (f instanceof Native && ((Native) f).hasArity(count)) {
+      // Operands stay unboxed, the first is copied out of the registers before the second runs
+      Value left = args.get(first).accept(this);
+      int leftInt = intRegister;
+      float leftFloat = floatRegister;
+      boolean leftBool = boolRegister;
+      if (count == 1) {
+        return unary(site, (Native) f, left);
+      }
+      Value right = args.get(first + 1).accept(this);
+      return binary(site, (Native) f, left, leftInt, leftFloat, leftBool, right);
+    } else if (f instanceof Closure && count >= ((Closure) f).getArity()) {
+      Closure closure = (Closure) f;
+      Frame called = new Frame(closure, closure.getArity());
+      for (int i = 0; i < closure.getArity(); i++) {
+        called.store(i, args.get(first + i).accept(this));
+      }
+      Value result = invoke(called);
+      return (count == closure.getArity() ? result
+                                          : call(site, result, args, first + closure.getArity()));
+    }
+
+    // Partial applications and unions work with boxed arguments
+    Value[] boxed = new Value[count];
+    for (int i = 0; i < count; i++) {
+      boxed[i] = box(args.get(first + i).accept(this));
+    }
+    return callBoxed(site, callee, boxed);
+  }
+
+  private Value callBoxed(Expression site, Value callee, Value[] args) {
+    Function f = getFunction(site, callee);
+    if (f instanceof Partial) {
+      Partial partial = (Partial) f;
+      Value[] all = new Value[partial.bound.length + args.length];
+      System.arraycopy(partial.bound, 0, all, 0, partial.bound.length);
+      System.arraycopy(args, 0, all, partial.bound.length, args.length);
+      return callBoxed(site, partial.function, all);
+    } else if (f instanceof Union) {
+      for (Value option : ((Union) f).options) {
+        if (accepts(option, args)) {
+          return callBoxed(site, option, args);
+        }
+      }
+      throw new InvalidExpressionException(site, "No function of the union accepts the arguments");
+    }
+
+    int arity = (f instanceof Native && ((Native) f).hasArity(args.length) ? args.length
+                                                                         : f.getArity());
+    if (args.length < arity) {
+      return functionValue(new Partial(callee, args));
+    }
+
+    Value result;
+    if (f instanceof Native) {
+      Value left = unbox(args[0]);
+      int leftInt = intRegister;
+      float leftFloat = floatRegister;
+      boolean leftBool = boolRegister;
+      result = (arity == 1 ? unary(site, (Native) f, left)
+                           : binary(site, (Native) f, left, leftInt, leftFloat, leftBool,
+                                    unbox(args[1])));
+    } else {
+      Frame called = new Frame((Closure) f, arity);
+      for (int i = 0; i < arity; i++) {
+        called.store(i, unbox(args[i]));
+      }
+      result = invoke(called);
+    }
+
+    if (args.length == arity) {
+      return result;
+    }
+    Value[] rest = new Value[args.length - arity];
+    System.arraycopy(args, arity, rest, 0, rest.length);
+    return callBoxed(site, box(result), rest);
+  }
+
+  private Value invoke(Frame callee) {
+    Frame caller = frame;
+    frame = callee;
+    try {
+      return callee.closure.function.getReturnValue().accept(this);
+    } finally {
+      frame = caller;
+    }
+  }
+
+  private Value unary(Expression site, Native f, Value arg) {
+    NativeExpression op = f.select(1, arg);
+    if (op == Environment.UNARY_BANG) {
+      boolRegister = !boolRegister;
+      return BOOL_RESULT;
+    } else if (op == Environment.UNARY_TILDE) {
+      intRegister = ~intRegister;
+      return INT_RESULT;
+    } else if (op == Environment.UNARY_SUB_INT) {
+      intRegister = -intRegister;
+      return INT_RESULT;
+    } else if (op == Environment.UNARY_SUB_FLOAT) {
+      floatRegister = -floatRegister;
+      return FLOAT_RESULT;
+    }
+    throw new InvalidExpressionException(site, "No overload of " + f.name + " accepts " + arg);
+  }
+
+  private Value binary(
+      Expression site, Native f, Value left, int leftInt, float leftFloat, boolean leftBool,
+      Value right) {
+    NativeExpression op = f.select(2, left);
+    if (op == Environment.BINARY_UNION_FUNCTION) {
+      getFunction(site, right);
+      return functionValue(new Union(new Value[] { left, right }));
+    } else if (op == null || right != left) {
+      // the right operand of every other operator has the same kind as the left
+      throw new InvalidExpressionException(
+          site, "No overload of " + f.name + " accepts " + left.getKind() + " and "
+          + right.getKind());
+    }
+
+    if (left == INT_RESULT) {
+      int a = leftInt;
+      int b = intRegister;
+      if (op == Environment.BINARY_ADD_INT) {
+        intRegister = a + b;
+      } else if (op == Environment.BINARY_SUB_INT) {
+        intRegister = a - b;
+      } else if (op == Environment.BINARY_MUL_INT) {
+        intRegister = a * b;
+      } else if (op == Environment.BINARY_DIV_INT || op == Environment.BINARY_MOD_INT) {
+        if (b == 0) {
+          throw new InvalidExpressionException(site, "Int division by zero");
+        }
+        intRegister = (op == Environment.BINARY_DIV_INT ? a / b : a % b);
+      } else if (op == Environment.BINARY_BITAND_INT) {
+        intRegister = a & b;
+      } else if (op == Environment.BINARY_BITOR_INT) {
+        intRegister = a | b;
+      } else if (op == Environment.BINARY_BITXOR_INT) {
+        intRegister = a ^ b;
+      } else {
+        return compare(op, Integer.compare(a, b), false);
+      }
+      return INT_RESULT;
+    } else if (left == FLOAT_RESULT) {
+      float a = leftFloat;
+      float b = floatRegister;
+      if (op == Environment.BINARY_ADD_FLOAT) {
+        floatRegister = a + b;
+      } else if (op == Environment.BINARY_SUB_FLOAT) {
+        floatRegister = a - b;
+      } else if (op == Environment.BINARY_MUL_FLOAT) {
+        floatRegister = a * b;
+      } else if (op == Environment.BINARY_DIV_FLOAT) {
+        floatRegister = a / b;
+      } else if (op == Environment.BINARY_POW_FLOAT) {
+        floatRegister = (float) Math.pow(a, b);
+      } else {
+        // comparisons with NaN are false, except for not equal which FXSL doesn't have
+        return compare(op, (a < b ? -1 : (a > b ? 1 : 0)), a != a || b != b);
+      }
+      return FLOAT_RESULT;
+    } else {
+      // BINARY_EQ_BOOL is the only operator of bools
+      boolRegister = (leftBool == boolRegister);
+      return BOOL_RESULT;
+    }
+  }
+
+  private Value compare(NativeExpression op, int comparison, boolean unordered) {
+    if (unordered) {
+      boolRegister = false;
+    } else if (op == Environment.BINARY_EQ_INT || op == Environment.BINARY_EQ_FLOAT) {
+      boolRegister = comparison == 0;
+    } else if (op == Environment.BINARY_LT_INT || op == Environment.BINARY_LT_FLOAT) {
+      boolRegister = comparison < 0;
+    } else if (op == Environment.BINARY_LE_INT || op == Environment.BINARY_LE_FLOAT) {
+      boolRegister = comparison <= 0;
+    } else if (op == Environment.BINARY_GT_INT || op == Environment.BINARY_GT_FLOAT) {
+      boolRegister = comparison > 0;
+    } else {
+      boolRegister = comparison >= 0;
+    }
+    return BOOL_RESULT;
+  }
+
+  private boolean accepts(Value function, Value[] args) {
+    Function f = function.getFunction();
+    if (f instanceof Partial) {
+      Partial partial = (Partial) f;
+      Value[] all = new Value[partial.bound.length + args.length];
+      System.arraycopy(partial.bound, 0, all, 0, partial.bound.length);
+      System.arraycopy(args, 0, all, partial.bound.length, args.length);
+      return accepts(partial.function, all);
+    } else if (f instanceof Union) {
+      for (Value option : ((Union) f).options) {
+        if (accepts(option, args)) {
+          return true;
+        }
+      }
+      return false;
+    } else if (f instanceof Native) {
+      return ((Native) f).select(args.length, unbox(args[0])) != null;
+    }
+
+    Closure closure = (Closure) f;
+    if (closure.getArity() != args.length) {
+      return false;
+    }
+    for (int i = 0; i < args.length; i++) {
+      // parameters without a primitive type accept anything, type checking decided the rest
+      Declaration<Expression> param = environment.getDeclaredVariable(
+          closure.scope, closure.function.getParameter(i));
+      Type type = (param != null ? environment.getRecordedExpressionType(param.getValue())
+                                 : null);
+      if (type instanceof PrimitiveType && !matches(type, unbox(args[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Value loadParameter(VariableReference var, Parameter param) {
+    Frame f = frame;
+    while (f != null && f.closure.function != param.getFunction()
+           && !f.closure.function.equals(param.getFunction())) {
+      f = f.parent;
+    }
+    if (f == null) {
+      throw new InvalidExpressionException(var, "Parameter is referenced outside of a call");
+    }
+    return f.load(f.closure.function.getParameters().indexOf(param.getName()));
+  }
+
+  private Value getNative(Declaration<Expression> decl) {
+    Value value = natives.get(decl);
+    if (value == null) {
+      List<NativeExpression> overloads = new ArrayList<>();
+      List<Expression> options = (decl.getValue() instanceof UnionValue
+                                  ? ((UnionValue) decl.getValue()).getOptions()
+                                  : Collections.singletonList(decl.getValue()));
+      for (Expression option : options) {
+        if (option instanceof NativeExpression) {
+          overloads.add((NativeExpression) option);
+        }
+      }
+      value = functionValue(new Native(decl.getName(), overloads));
+      natives.put(decl, value);
+    }
+    return value;
+  }
+
+  private Value getDeclaredValue(VariableReference var, Declaration<Expression> decl) {
+    // The value is remembered by the innermost call of the function the declaration is in, so it
+    // is computed once per call and sees that call's parameters
+    Frame owner = frame;
+    while (owner != null && !isWithin(decl.getScope(), owner.closure.scope)) {
+      owner = owner.parent;
+    }
+    Map<Declaration<Expression>, Value> values;
+    if (owner == null) {
+      values = globals;
+    } else {
+      if (owner.locals == null) {
+        owner.locals = new HashMap<>();
+      }
+      values = owner.locals;
+    }
+
+    Value value = values.get(decl);
+    if (value == EVALUATING) {
+      throw new InvalidExpressionException(var, "Value of " + decl.getName() + " needs itself");
+    } else if (value == null) {
+      values.put(decl, EVALUATING);
+      Frame caller = frame;
+      frame = owner;
+      try {
+        value = box(decl.getValue().accept(this));
+      } finally {
+        frame = caller;
+        values.remove(decl);
+      }
+      values.put(decl, value);
+    }
+    return unbox(value);
+  }
+
+  private Value input(Expression expr, String name) {
+    Value value = inputs.get(name);
+    if (value == null) {
+      throw new InvalidExpressionException(expr, "No input named " + name);
+    }
+    return unbox(value);
+  }
+
+  private Scope getParameterScope(FunctionValue function) {
+    Scope scope = parameterScopes.get(function);
+    if (scope == null) {
+      Declaration<Expression> param = (function.getParameters().isEmpty() ? null
+          : environment.getDeclaredVariable(function.getBodyScope(), function.getParameter(0)));
+      scope = (param != null ? param.getScope() : function.getBodyScope());
+      parameterScopes.put(function, scope);
+    }
+    return scope;
+  }
+
+  private Function getFunction(Expression site, Value value) {
+    if (value.getKind() != Value.Kind.FUNCTION) {
+      throw new InvalidExpressionException(site, "Value is not a function: " + box(value));
+    }
+    return value.getFunction();
+  }
+
+  private Value box(Value result) {
+    if (result == INT_RESULT) {
+      return Value.of(intRegister);
+    } else if (result == FLOAT_RESULT) {
+      return Value.of(floatRegister);
+    } else if (result == BOOL_RESULT) {
+      return Value.of(boolRegister);
+    } else {
+      return result;
+    }
+  }
+
+  private Value unbox(Value value) {
+    switch (value.getKind()) {
+    case INT:
+      intRegister = value.intBits();
+      return INT_RESULT;
+    case FLOAT:
+      floatRegister = value.floatBits();
+      return FLOAT_RESULT;
+    case BOOL:
+      boolRegister = value.intBits() != 0;
+      return BOOL_RESULT;
+    default:
+      return value;
+    }
+  }
+
+  private static boolean matches(Type type, Value arg) {
+    if (type == PrimitiveType.INT) {
+      return arg == INT_RESULT;
+    } else if (type == PrimitiveType.FLOAT) {
+      return arg == FLOAT_RESULT;
+    } else if (type == PrimitiveType.BOOL) {
+      return arg == BOOL_RESULT;
+    } else {
+      // the parametric types of the function union
+      return arg.getKind() == Value.Kind.FUNCTION;
+    }
+  }
+
+  private static boolean isWithin(Scope scope, Scope ancestor) {
+    for (Scope s = scope; s != null; s = s.getParent()) {
+      if (s.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Value functionValue(Function function) {
+    return new Value(Value.Kind.FUNCTION, 0, 0f, null, null, function);
+  }
+
+  /**
+   * The arguments of a call of a closure, and the values of the declarations within the
+   * function's body that were needed so far. Scalar arguments are stored in the primitive arrays
+   * and marked by the scalar result constants.
+   */
+  private final class Frame {
+    final Closure closure;
+    final Frame parent; // the frame the closure was created in
+    final int[] ints; // also holds bools as 0 or 1
+    final float[] floats;
+    final Value[] values;
+    Map<Declaration<Expression>, Value> locals;
+
+    Frame(Closure closure, int arity) {
+      this.closure = closure;
+      parent = closure.captured;
+      ints = new int[arity];
+      floats = new float[arity];
+      values = new Value[arity];
+    }
+
+    void store(int index, Value value) {
+      if (value == INT_RESULT) {
+        ints[index] = intRegister;
+      } else if (value == FLOAT_RESULT) {
+        floats[index] = floatRegister;
+      } else if (value == BOOL_RESULT) {
+        ints[index] = (boolRegister ? 1 : 0);
+      }
+      values[index] = value;
+    }
+
+    Value load(int index) {
+      Value value = values[index];
+      if (value == INT_RESULT) {
+        intRegister = ints[index];
+      } else if (value == FLOAT_RESULT) {
+        floatRegister = floats[index];
+      } else if (value == BOOL_RESULT) {
+        boolRegister = ints[index] != 0;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * The functions a value can hold.
+   */
+  abstract static class Function {
+    abstract int getArity();
+  }
+
+  private static final class Closure extends Function {
+    final FunctionValue function;
+    final Scope scope; // of the parameters
+    final Frame captured;
+
+    Closure(FunctionValue function, Scope scope, Frame captured) {
+      this.function = function;
+      this.scope = scope;
+      this.captured = captured;
+    }
+
+    @Override
+    int getArity() {
+      return function.getParameters().size();
+    }
+
+    @Override
+    public String toString() {
+      return function.toString();
+    }
+  }
+
+  private static final class Native extends Function {
+    final String name;
+    final List<NativeExpression> overloads;
+
+    Native(String name, List<NativeExpression> overloads) {
+      this.name = name;
+      this.overloads = overloads;
+    }
+
+    boolean hasArity(int arity) {
+      for (NativeExpression op : overloads) {
+        if (((FunctionType) op.getType()).getParameterCount() == arity) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Selects the overload by the kind of its first argument
+    NativeExpression select(int arity, Value first) {
+      for (NativeExpression op : overloads) {
+        FunctionType type = (FunctionType) op.getType();
+        if (type.getParameterCount() == arity && matches(type.getParameterType(0), first)) {
+          return op;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    int getArity() {
+      int arity = 0;
+      for (NativeExpression op : overloads) {
+        arity = Math.max(arity, ((FunctionType) op.getType()).getParameterCount());
+      }
+      return arity;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static final class Partial extends Function {
+    final Value function;
+    final Value[] bound;
+
+    Partial(Value function, Value[] bound) {
+      this.function = function;
+      this.bound = bound;
+    }
+
+    @Override
+    int getArity() {
+      return function.getFunction().getArity() - bound.length;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(function.toString()).append('(');
+      for (int i = 0; i < bound.length; i++) {
+        sb.append(i > 0 ? ", " : "").append(bound[i]);
+      }
+      return sb.append(')').toString();
+    }
+  }
+
+  private static final class Union extends Function {
+    final Value[] options;
+
+    Union(Value[] options) {
+      this.options = options;
+    }
+
+    @Override
+    int getArity() {
+      int arity = 0;
+      for (Value option : options) {
+        arity = Math.max(arity, option.getFunction().getArity());
+      }
+      return arity;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < options.length; i++) {
+        sb.append(i > 0 ? " | " : "").append(options[i]);
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,298 @@
+package com.lhkbob.fxsl.eval;
+
+import com.lhkbob.fxsl.util.Immutable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+import static com.lhkbob.fxsl.util.Preconditions.validCollection;
+
+/**
+ * Value
+ * =====
+ *
+ * The result of evaluating an expression with an {@link Evaluator}: an int, float or bool scalar,
+ * an array or struct of values, or a function. Scalars are held in unboxed fields, and values are
+ * also how the inputs of an evaluation, the uniforms and attributes, are provided.
+ *
+ * Values are compared structurally, except for functions which are only equal to themselves.
+ *
+ * @author Michael Ludwig
+ */
+@Immutable
+public final class Value {
+  /**
+   * The kinds of values.
+   */
+  public enum Kind {
+    INT,
+    FLOAT,
+    BOOL,
+    ARRAY,
+    STRUCT,
+    FUNCTION
+  }
+
+  private final Kind kind;
+  private final int intValue; // also holds bools as 0 or 1
+  private final float floatValue;
+  private final Value[] elements;
+  private final Map<String, Value> fields;
+  private final Evaluator.Function function;
+
+  Value(Kind kind, int intValue, float floatValue, Value[] elements, Map<String, Value> fields,
+        Evaluator.Function function) {
+    this.kind = kind;
+    this.intValue = intValue;
+    this.floatValue = floatValue;
+    this.elements = elements;
+    this.fields = fields;
+    this.function = function;
+  }
+
+  /**
+   * @param value
+   *     The int
+   * @return A value holding `value`
+   */
+  public static Value of(int value) {
+    return new Value(Kind.INT, value, 0f, null, null, null);
+  }
+
+  /**
+   * @param value
+   *     The float
+   * @return A value holding `value`
+   */
+  public static Value of(float value) {
+    return new Value(Kind.FLOAT, 0, value, null, null, null);
+  }
+
+  /**
+   * @param value
+   *     The bool
+   * @return A value holding `value`
+   */
+  public static Value of(boolean value) {
+    return new Value(Kind.BOOL, value ? 1 : 0, 0f, null, null, null);
+  }
+
+  /**
+   * @param elements
+   *     The elements of the array
+   * @return An array value holding the elements in order
+   * @throws java.lang.NullPointerException
+   *     if `elements` is null or contains null elements
+   * @throws java.lang.IllegalArgumentException
+   *     if `elements` is empty
+   */
+  public static Value array(Value... elements) {
+    return array(Arrays.asList(elements));
+  }
+
+  /**
+   * @param elements
+   *     The elements of the array
+   * @return An array value holding the elements in order
+   * @throws java.lang.NullPointerException
+   *     if `elements` is null or contains null elements
+   * @throws java.lang.IllegalArgumentException
+   *     if `elements` is empty
+   */
+  public static Value array(List<Value> elements) {
+    validCollection("elements", elements);
+    return new Value(Kind.ARRAY, 0, 0f, elements.toArray(new Value[elements.size()]), null, null);
+  }
+
+  /**
+   * @param fields
+   *     The fields of the struct by name
+   * @return A struct value holding a copy of `fields`
+   * @throws java.lang.NullPointerException
+   *     if `fields` is null or has null keys or values
+   * @throws java.lang.IllegalArgumentException
+   *     if `fields` is empty
+   */
+  public static Value struct(Map<String, Value> fields) {
+    notNull("fields", fields);
+    validCollection("fields", fields.keySet());
+    validCollection("fields", fields.values());
+    return new Value(Kind.STRUCT, 0, 0f, null, Collections.unmodifiableMap(
+        new HashMap<>(fields)), null);
+  }
+
+  /**
+   * @return The kind of the value
+   */
+  public Kind getKind() {
+    return kind;
+  }
+
+  /**
+   * @return The int held by the value
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't an int
+   */
+  public int getInt() {
+    checkKind(Kind.INT);
+    return intValue;
+  }
+
+  /**
+   * @return The float held by the value
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't a float
+   */
+  public float getFloat() {
+    checkKind(Kind.FLOAT);
+    return floatValue;
+  }
+
+  /**
+   * @return The bool held by the value
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't a bool
+   */
+  public boolean getBoolean() {
+    checkKind(Kind.BOOL);
+    return intValue != 0;
+  }
+
+  /**
+   * @return The number of elements of the array
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't an array
+   */
+  public int getLength() {
+    checkKind(Kind.ARRAY);
+    return elements.length;
+  }
+
+  /**
+   * @param index
+   *     The element index
+   * @return The element of the array at `index`
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't an array
+   * @throws java.lang.IndexOutOfBoundsException
+   *     if `index` is less than 0 or at least the array length
+   */
+  public Value getElement(int index) {
+    checkKind(Kind.ARRAY);
+    if (index < 0 || index >= elements.length) {
+      throw new IndexOutOfBoundsException("Array index out of bounds: " + index);
+    }
+    return elements[index];
+  }
+
+  /**
+   * @param name
+   *     The field name
+   * @return The field of the struct named `name`, or null if the struct has no such field
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't a struct
+   */
+  public Value getField(String name) {
+    checkKind(Kind.STRUCT);
+    return fields.get(name);
+  }
+
+  /**
+   * @return The fields of the struct by name, which cannot be modified
+   * @throws java.lang.IllegalStateException
+   *     if the value isn't a struct
+   */
+  public Map<String, Value> getFields() {
+    checkKind(Kind.STRUCT);
+    return fields;
+  }
+
+  Evaluator.Function getFunction() {
+    return function;
+  }
+
+  // Unchecked accessors for the evaluator, which knows the kind already
+  int intBits() {
+    return intValue;
+  }
+
+  float floatBits() {
+    return floatValue;
+  }
+
+  Value[] elements() {
+    return elements;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    } else if (!(o instanceof Value)) {
+      return false;
+    }
+    Value v = (Value) o;
+    if (v.kind != kind) {
+      return false;
+    }
+    switch (kind) {
+    case INT:
+    case BOOL:
+      return v.intValue == intValue;
+    case FLOAT:
+      return Float.compare(v.floatValue, floatValue) == 0;
+    case ARRAY:
+      return Arrays.equals(v.elements, elements);
+    case STRUCT:
+      return v.fields.equals(fields);
+    default:
+      return false;
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    switch (kind) {
+    case INT:
+    case BOOL:
+      return 31 * kind.hashCode() + intValue;
+    case FLOAT:
+      return 31 * kind.hashCode() + Float.floatToIntBits(floatValue);
+    case ARRAY:
+      return Arrays.hashCode(elements);
+    case STRUCT:
+      return fields.hashCode();
+    default:
+      return System.identityHashCode(this);
+    }
+  }
+
+  @Override
+  public String toString() {
+    switch (kind) {
+    case INT:
+      return Integer.toString(intValue);
+    case FLOAT:
+      return Float.toString(floatValue);
+    case BOOL:
+      return Boolean.toString(intValue != 0);
+    case ARRAY:
+      return Arrays.toString(elements);
+    case STRUCT:
+      return new TreeMap<>(fields).toString();
+    default:
+      return function.toString();
+    }
+  }
+
+  private void checkKind(Kind expected) {
+    if (kind != expected) {
+      throw new IllegalStateException("Value is not a " + expected + ": " + kind);
+    }
+  }
+}
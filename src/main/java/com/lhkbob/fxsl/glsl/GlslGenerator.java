@@ -0,0 +1,864 @@
+package com.lhkbob.fxsl.glsl;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayAccess;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.StructType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.transform.ConcreteTypes;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * GLSL Generator
+ * ==============
+ *
+ * Generates GLSL source for an entry expression and every declaration it depends on. The source
+ * is streamed into an `Appendable`, such as a `Writer`, as it is generated; expressions are
+ * written directly to the output without first being converted to strings.
+ *
+ * The generated source contains, in order:
+ *
+ * 1. A `struct` definition for every struct type that is used, named `Struct`, `Struct_1`, etc.
+ * 2. A `uniform` for every referenced uniform and an `in` variable for every referenced
+ *    attribute, using their FXSL names.
+ * 3. A GLSL function for every referenced declaration, in dependency order so that each
+ *    function is defined before it is called. Declarations of function values become functions
+ *    with the same parameters. Any other value becomes a function without parameters that
+ *    computes the value, which GLSL compilers inline.
+ * 4. A function named by the caller that computes the entry expression.
+ *
+ * Declarations made within a function's body, i.e. by a `let` inside the function, are written
+ * as local variables of that function. Names are kept where possible and otherwise suffixed to
+ * avoid GLSL keywords, common built-in functions, and collisions between FXSL scopes. The caller
+ * is responsible for the `#version` directive and for a `main()` that uses the entry function.
+ *
+ * Only the concrete, first-order subset of FXSL can be expressed in GLSL: every expression needs
+ * a type made of primitives, fixed length arrays and structs. Types are taken from the
+ * environment where they were declared or inferred, and otherwise derived from the expressions
+ * themselves. Functions can only be declared as variables and called with all of their
+ * arguments, and recursion is not allowed. Anything else raises an
+ * {@link InvalidExpressionException}.
+ *
+ * Each referenced declaration is analyzed and written exactly once, so the time and memory of a
+ * generation are linear in the size of the program.
+ *
+ * @author Michael Ludwig
+ */
+public class GlslGenerator {
+  private static final Set<String> RESERVED_NAMES = new HashSet<>(Arrays.asList(
+      // keywords
+      "attribute", "const", "uniform", "varying", "buffer", "shared", "coherent", "volatile",
+      "restrict", "readonly", "writeonly", "layout", "centroid", "flat", "smooth",
+      "noperspective", "patch", "sample", "break", "continue", "do", "for", "while", "switch",
+      "case", "default", "if", "else", "subroutine", "in", "out", "inout", "true", "false",
+      "invariant", "precise", "discard", "return", "lowp", "mediump", "highp", "precision",
+      "struct", "void", "main", "asm", "class", "union", "enum", "typedef", "template", "this",
+      "goto", "inline", "noinline", "public", "static", "extern", "external", "interface", "long",
+      "short", "half", "fixed", "unsigned", "superp", "input", "output", "sizeof", "cast",
+      "namespace", "using",
+      // types
+      "bool", "int", "uint", "float", "double", "vec2", "vec3", "vec4", "bvec2", "bvec3",
+      "bvec4", "ivec2", "ivec3", "ivec4", "uvec2", "uvec3", "uvec4", "dvec2", "dvec3", "dvec4",
+      "mat2", "mat3", "mat4", "mat2x2", "mat2x3", "mat2x4", "mat3x2", "mat3x3", "mat3x4",
+      "mat4x2", "mat4x3", "mat4x4", "sampler1D", "sampler2D", "sampler3D", "samplerCube",
+      // built-in functions that a same named user function would overload
+      "radians", "degrees", "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+      "pow", "exp", "log", "exp2", "log2", "sqrt", "inversesqrt", "abs", "sign", "floor",
+      "trunc", "round", "ceil", "fract", "mod", "min", "max", "clamp", "mix", "step",
+      "smoothstep", "length", "distance", "dot", "cross", "normalize", "reflect", "refract",
+      "texture"));
+  // GLSL spelling of the native operators, by the name they are declared with
+  private static final Map<String, String> OPERATORS = new HashMap<>();
+
+  static {
+    for (String op : Arrays.asList(
+        "+", "-", "*", "/", "%", "&", "|", "^", "<", "<=", ">", ">=", "!", "~")) {
+      OPERATORS.put(op, op);
+    }
+    OPERATORS.put("=", "==");
+    OPERATORS.put("*^", "pow");
+  }
+
+  private final Environment environment;
+
+  /**
+   * Create a generator for expressions declared in `environment`. The environment is only read.
+   *
+   * @param environment
+   *     The environment that declares the generated expressions and their types
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public GlslGenerator(Environment environment) {
+    notNull("environment", environment);
+    this.environment = environment;
+  }
+
+  /**
+   * Write the GLSL source for `entry`, and every declaration it depends on, to `out`. The entry
+   * expression is written as a function called `entryName`, which has the entry's parameters if
+   * it's a function value and no parameters otherwise.
+   *
+   * Nothing is written if the program cannot be expressed in GLSL.
+   *
+   * @param entry
+   *     The expression to generate, e.g. the result of a parsed unit
+   * @param entryName
+   *     The name of the GLSL function that computes `entry`
+   * @param out
+   *     The output the source is appended to
+   * @throws java.io.IOException
+   *     if `out` fails
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws java.lang.IllegalArgumentException
+   *     if `entryName` is not a valid GLSL identifier, or is reserved
+   * @throws com.lhkbob.fxsl.lang.InvalidExpressionException
+   *     if `entry` or a declaration it depends on cannot be expressed in GLSL, e.g. because it
+   *     uses a uniform or attribute whose name is reserved or not a valid GLSL identifier
+   */
+  public void generate(Expression entry, String entryName, Appendable out) throws IOException {
+    notNull("entry", entry);
+    notNull("entryName", entryName);
+    notNull("out", out);
+    if (!isValidName(entryName)) {
+      throw new IllegalArgumentException("Not a valid GLSL function name: " + entryName);
+    }
+
+    Program program = new Program(entry);
+    try {
+      program.write(entryName, out);
+    } catch (WriteException e) {
+      throw e.getCause();
+    }
+  }
+
+  // True if `name` can be used unchanged as a GLSL identifier
+  private static boolean isValidName(String name) {
+    return name.matches("[A-Za-z_][A-Za-z0-9_]*") && !name.contains("__")
+        && !name.startsWith("gl_") && !RESERVED_NAMES.contains(name);
+  }
+
+  private static String sanitize(String name) {
+    StringBuilder sb = new StringBuilder(name.length());
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+          || (i > 0 && c >= '0' && c <= '9');
+      // GLSL reserves identifiers containing two consecutive underscores
+      if (valid && !(c == '_' && sb.length() > 0 && sb.charAt(sb.length() - 1) == '_')) {
+        sb.append(c);
+      } else if (!valid) {
+        sb.append('x');
+      }
+    }
+    String sanitized = sb.toString();
+    if (sanitized.startsWith("gl_") || sanitized.startsWith("_")) {
+      sanitized = "x" + sanitized;
+    }
+    return sanitized;
+  }
+
+  private static boolean isWithin(Scope scope, Scope ancestor) {
+    for (Scope s = scope; s != null; s = s.getParent()) {
+      if (s.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static InvalidExpressionException unsupported(Expression expr, String what) {
+    return new InvalidExpressionException(expr, what + " cannot be expressed in GLSL");
+  }
+
+  /**
+   * A declaration or the entry expression, written as a single GLSL function.
+   */
+  private static class Unit {
+    final Declaration<Expression> declaration; // null for the entry
+    final FunctionValue function; // null if the unit is not a function
+    final Expression body;
+
+    final List<Declaration<Expression>> parameters;
+    // Declarations within the function's body, in dependency order
+    final List<Declaration<Expression>> locals;
+    // Other declarations that the unit references
+    final Set<Declaration<Expression>> dependencies;
+    // Expressions whose types must be known to write the unit, children before parents
+    final List<Expression> typed;
+    boolean written;
+
+    Unit(Declaration<Expression> declaration, Expression value) {
+      this.declaration = declaration;
+      function = (value instanceof FunctionValue ? (FunctionValue) value : null);
+      body = (function != null ? function.getReturnValue() : value);
+      parameters = new ArrayList<>();
+      locals = new ArrayList<>();
+      dependencies = new LinkedHashSet<>();
+      typed = new ArrayList<>();
+      written = false;
+    }
+
+    boolean isLocal(Declaration<Expression> decl) {
+      return function != null && isWithin(decl.getScope(), function.getBodyScope());
+    }
+  }
+
+  /**
+   * The analysis of a single generation: the units in dependency order, the concrete type of
+   * every expression, and the uniforms, attributes and structs that must be declared.
+   */
+  private class Program {
+    final List<Unit> units;
+    final ConcreteTypes types;
+    final Map<StructType, String> structs;
+    final Map<String, Type> uniforms;
+    final Map<String, Type> attributes;
+
+    // Assigned while writing so that uniform and attribute names are reserved first
+    final Map<String, Integer> nameSuffixes;
+    final Map<Declaration<Expression>, String> names;
+
+    Program(Expression entry) {
+      units = new ArrayList<>();
+      types = new ConcreteTypes(environment);
+      structs = new LinkedHashMap<>();
+      uniforms = new LinkedHashMap<>();
+      attributes = new LinkedHashMap<>();
+      nameSuffixes = new HashMap<>();
+      names = new HashMap<>();
+
+      orderUnits(entry);
+    }
+
+    private void orderUnits(Expression entry) {
+      // Depth first, without recursion since chains of declarations can be very long
+      Map<Declaration<Expression>, Unit> analyzed = new HashMap<>();
+      Deque<Unit> path = new ArrayDeque<>();
+      Deque<Iterator<Declaration<Expression>>> pending = new ArrayDeque<>();
+
+      Unit entryUnit = analyze(null, entry);
+      path.push(entryUnit);
+      pending.push(entryUnit.dependencies.iterator());
+      while (!path.isEmpty()) {
+        Iterator<Declaration<Expression>> next = pending.peek();
+        if (next.hasNext()) {
+          Declaration<Expression> decl = next.next();
+          Unit unit = analyzed.get(decl);
+          if (unit == null) {
+            unit = analyze(decl, decl.getValue());
+            analyzed.put(decl, unit);
+            path.push(unit);
+            pending.push(unit.dependencies.iterator());
+          } else if (!unit.written) {
+            throw new InvalidExpressionException(
+                decl.getValue(), "Recursive declaration " + decl.getName()
+                + " cannot be expressed in GLSL");
+          }
+        } else {
+          Unit done = path.pop();
+          pending.pop();
+          complete(done);
+          done.written = true;
+          units.add(done);
+        }
+      }
+    }
+
+    private Unit analyze(Declaration<Expression> decl, Expression value) {
+      Unit unit = new Unit(decl, value);
+      if (unit.function != null) {
+        for (String name : unit.function.getParameters()) {
+          Declaration<Expression> param = environment.getDeclaredVariable(
+              unit.function.getBodyScope(), name);
+          if (param == null || !(param.getValue() instanceof Parameter)) {
+            throw new InvalidExpressionException(
+                unit.function, "Cannot find the declaration of parameter " + name);
+          }
+          unit.parameters.add(param);
+        }
+      }
+
+      unit.body.accept(new Scanner(unit));
+      return unit;
+    }
+
+    private void complete(Unit unit) {
+      // Every unit the unit depends on is complete, so deriving these types never recurses into
+      // another unit's declarations, and the typed expressions are ordered children first
+      for (Declaration<Expression> param : unit.parameters) {
+        getType(param.getValue());
+      }
+      for (Expression expr : unit.typed) {
+        Type type = getType(expr);
+        if (expr instanceof Uniform && uniforms.get(((Uniform) expr).getName()) == null) {
+          uniforms.put(((Uniform) expr).getName(), type);
+        } else if (expr instanceof Attribute
+                   && attributes.get(((Attribute) expr).getName()) == null) {
+          attributes.put(((Attribute) expr).getName(), type);
+        }
+      }
+      getType(unit.body);
+    }
+
+    /**
+     * Get the concrete type of `expr`, and declare the structs it uses.
+     */
+    Type getType(Expression expr) {
+      Type type = types.getType(expr);
+      if (type == null) {
+        throw new InvalidExpressionException(expr, "Expression has no concrete GLSL type");
+      }
+      declareStructs(type);
+      return type;
+    }
+
+    private void declareStructs(Type type) {
+      if (type instanceof ArrayType) {
+        declareStructs(((ArrayType) type).getComponentType());
+      } else if (type instanceof StructType && !structs.containsKey(type)) {
+        // Fields first, since GLSL structs must be defined before they're used
+        for (Type field : ((StructType) type).getFieldTypes().values()) {
+          declareStructs(field);
+        }
+        structs.put((StructType) type, null);
+      }
+    }
+
+    Declaration<Expression> resolve(VariableReference var) {
+      Declaration<Expression> decl = environment.getDeclaredVariable(
+          var.getScope(), var.getVariableName());
+      if (decl == null) {
+        throw new InvalidExpressionException(var, "Reference is undefined");
+      }
+      return decl;
+    }
+
+    // Returns the native operator's declaration if `call` invokes one, or null
+    Declaration<Expression> resolveOperator(FunctionCall call) {
+      if (call.getFunction() instanceof VariableReference) {
+        Declaration<Expression> decl = resolve((VariableReference) call.getFunction());
+        if (decl.getScope().equals(Scope.NATIVE_SCOPE) && OPERATORS.containsKey(decl.getName())) {
+          return decl;
+        }
+      }
+      return null;
+    }
+
+    // Returns the called function's declaration if `call` fully applies a declared function
+    Declaration<Expression> resolveFunction(FunctionCall call) {
+      if (call.getFunction() instanceof VariableReference) {
+        Declaration<Expression> decl = resolve((VariableReference) call.getFunction());
+        if (decl.getValue() instanceof FunctionValue && ((FunctionValue) decl.getValue())
+            .getParameters().size() == call.getSuppliedParameterCount()) {
+          return decl;
+        }
+      }
+      return null;
+    }
+
+    void write(String entryName, Appendable out) {
+      // Uniforms and attributes must keep their names, everything else gets a free name
+      reserveName(entryName);
+      for (String uniform : uniforms.keySet()) {
+        reserveName(uniform);
+      }
+      for (String attribute : attributes.keySet()) {
+        reserveName(attribute);
+      }
+
+      Emitter emitter = new Emitter(out);
+      for (StructType struct : structs.keySet()) {
+        String name = allocateName("Struct");
+        structs.put(struct, name);
+        emitter.append("struct ").append(name).append(" {\n");
+        for (Map.Entry<String, Type> field : new TreeMap<>(struct.getFieldTypes()).entrySet()) {
+          emitter.append("  ").appendType(field.getValue()).append(" ")
+                 .append(getFieldName(field.getKey())).append(";\n");
+        }
+        emitter.append("};\n\n");
+      }
+
+      for (Map.Entry<String, Type> uniform : uniforms.entrySet()) {
+        emitter.append("uniform ").appendType(uniform.getValue()).append(" ")
+               .append(uniform.getKey()).append(";\n");
+      }
+      for (Map.Entry<String, Type> attribute : attributes.entrySet()) {
+        emitter.append("in ").appendType(attribute.getValue()).append(" ")
+               .append(attribute.getKey()).append(";\n");
+      }
+      if (!uniforms.isEmpty() || !attributes.isEmpty()) {
+        emitter.append("\n");
+      }
+
+      for (Unit unit : units) {
+        String name = (unit.declaration != null ? allocateName(unit.declaration.getName())
+                                                : entryName);
+        if (unit.declaration != null) {
+          names.put(unit.declaration, name);
+        }
+        emitter.writeUnit(unit, name);
+      }
+    }
+
+    String getFieldName(String field) {
+      String name = sanitize(field);
+      return (RESERVED_NAMES.contains(name) ? name + "_" : name);
+    }
+
+    private void reserveName(String name) {
+      // The entry name was already checked, so only uniforms and attributes can fail this
+      if (!isValidName(name)) {
+        throw new InvalidExpressionException(
+            "Uniform or attribute name cannot be used as a GLSL identifier: " + name);
+      }
+      if (nameSuffixes.containsKey(name)) {
+        throw new InvalidExpressionException(
+            "Uniform, attribute or entry function are using the same name: " + name);
+      }
+      nameSuffixes.put(name, 1);
+    }
+
+    String allocateName(String fxslName) {
+      String base = sanitize(fxslName);
+      String name = base;
+      if (RESERVED_NAMES.contains(name) || nameSuffixes.containsKey(name)) {
+        Integer suffix = nameSuffixes.get(base);
+        int next = (suffix != null ? suffix : 1);
+        do {
+          name = base + "_" + next++;
+        } while (RESERVED_NAMES.contains(name) || nameSuffixes.containsKey(name));
+        nameSuffixes.put(base, next);
+      }
+      nameSuffixes.put(name, 1);
+      return name;
+    }
+
+    /**
+     * Finds the declarations, uniforms and attributes a unit references, and rejects everything
+     * that can't be written as GLSL.
+     */
+    private class Scanner extends DefaultExpressionVisitor<Void> {
+      private final Unit unit;
+      // Local declarations being scanned, to detect recursive local declarations
+      private final Set<Declaration<Expression>> scanning;
+      private final Set<Declaration<Expression>> scanned;
+      private final Set<Expression> scannedArguments;
+
+      Scanner(Unit unit) {
+        super(true);
+        this.unit = unit;
+        scanning = new HashSet<>();
+        scanned = new HashSet<>();
+        scannedArguments = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+      }
+
+      @Override
+      public Void visitArray(ArrayValue value) {
+        super.visitArray(value);
+        unit.typed.add(value);
+        return null;
+      }
+
+      @Override
+      public Void visitArrayLength(ArrayLength length) {
+        throw unsupported(length, "Array length");
+      }
+
+      @Override
+      public Void visitAttribute(Attribute attr) {
+        if (!attributes.containsKey(attr.getName())) {
+          attributes.put(attr.getName(), null);
+        }
+        unit.typed.add(attr);
+        return null;
+      }
+
+      @Override
+      public Void visitDynamicArray(DynamicArrayValue value) {
+        throw unsupported(value, "Dynamic array");
+      }
+
+      @Override
+      public Void visitFunction(FunctionValue function) {
+        throw unsupported(function, "Function that isn't a declared variable");
+      }
+
+      @Override
+      public Void visitFunctionCall(FunctionCall function) {
+        Declaration<Expression> callee = resolveOperator(function);
+        if (callee == null) {
+          callee = resolveFunction(function);
+          if (callee == null) {
+            throw unsupported(function, "Call that isn't a complete call of a declared function");
+          }
+          unit.dependencies.add(callee);
+        }
+        // The callee was handled above, and isn't a function used as a value
+        for (Expression arg : function.getParameterValues()) {
+          if (scannedArguments.add(arg)) {
+            arg.accept(this);
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public Void visitNativeExpression(NativeExpression expr) {
+        throw unsupported(expr, "Native expression");
+      }
+
+      @Override
+      public Void visitPrimitive(PrimitiveValue primitive) {
+        if (primitive.getType() == PrimitiveType.FLOAT) {
+          float value = (Float) primitive.getValue();
+          if (Float.isNaN(value) || Float.isInfinite(value)) {
+            throw unsupported(primitive, "Non-finite float");
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public Void visitStruct(StructValue struct) {
+        super.visitStruct(struct);
+        unit.typed.add(struct);
+        return null;
+      }
+
+      @Override
+      public Void visitUniform(Uniform uniform) {
+        if (!uniforms.containsKey(uniform.getName())) {
+          uniforms.put(uniform.getName(), null);
+        }
+        unit.typed.add(uniform);
+        return null;
+      }
+
+      @Override
+      public Void visitUnion(UnionValue union) {
+        throw unsupported(union, "Union");
+      }
+
+      @Override
+      public Void visitVariable(VariableReference var) {
+        Declaration<Expression> decl = resolve(var);
+        Expression value = decl.getValue();
+        if (decl.getScope().equals(Scope.NATIVE_SCOPE)) {
+          throw unsupported(var, "Native operator that isn't called");
+        } else if (value instanceof FunctionValue) {
+          throw unsupported(var, "Function that isn't called");
+        } else if (value instanceof Parameter) {
+          if (((Parameter) value).getFunction() != unit.function) {
+            throw unsupported(var, "Parameter of an enclosing function");
+          }
+        } else if (unit.isLocal(decl)) {
+          if (scanning.contains(decl)) {
+            throw new InvalidExpressionException(
+                var, "Recursive declaration " + decl.getName() + " cannot be expressed in GLSL");
+          } else if (scanned.add(decl)) {
+            // Dependencies of the local are written before it
+            scanning.add(decl);
+            value.accept(this);
+            unit.typed.add(value);
+            scanning.remove(decl);
+            unit.locals.add(decl);
+          }
+        } else {
+          unit.dependencies.add(decl);
+        }
+        return null;
+      }
+    }
+
+    /**
+     * Writes units, types and expressions to the output.
+     */
+    private class Emitter implements Expression.Visitor<Void> {
+      private final Appendable out;
+      private Unit unit; // the unit being written
+
+      Emitter(Appendable out) {
+        this.out = out;
+      }
+
+      Emitter append(String text) {
+        try {
+          out.append(text);
+        } catch (IOException e) {
+          throw new WriteException(e);
+        }
+        return this;
+      }
+
+      Emitter appendType(Type type) {
+        // GLSL lists the dimensions of nested arrays from the outermost array inwards
+        Type base = type;
+        while (base instanceof ArrayType) {
+          base = ((ArrayType) base).getComponentType();
+        }
+
+        if (base instanceof StructType) {
+          append(structs.get(base));
+        } else {
+          append(getPrimitiveName((PrimitiveType) base));
+        }
+        for (Type t = type; t instanceof ArrayType; t = ((ArrayType) t).getComponentType()) {
+          append("[").append(Integer.toString(((ArrayType) t).getLength().get())).append("]");
+        }
+        return this;
+      }
+
+      void writeUnit(Unit unit, String name) {
+        this.unit = unit;
+        appendType(getType(unit.body)).append(" ").append(name).append("(");
+        for (int i = 0; i < unit.parameters.size(); i++) {
+          Declaration<Expression> param = unit.parameters.get(i);
+          String paramName = allocateName(param.getName());
+          names.put(param, paramName);
+          if (i > 0) {
+            append(", ");
+          }
+          appendType(getType(param.getValue())).append(" ").append(paramName);
+        }
+        append(") {\n");
+
+        for (Declaration<Expression> local : unit.locals) {
+          String localName = allocateName(local.getName());
+          names.put(local, localName);
+          append("  ").appendType(getType(local.getValue())).append(" ").append(localName)
+                      .append(" = ");
+          local.getValue().accept(this);
+          append(";\n");
+        }
+
+        append("  return ");
+        unit.body.accept(this);
+        append(";\n}\n\n");
+      }
+
+      private String getPrimitiveName(PrimitiveType type) {
+        switch (type) {
+        case BOOL:
+          return "bool";
+        case INT:
+          return "int";
+        case FLOAT:
+          return "float";
+        case SAMPLER1D:
+          return "sampler1D";
+        case SAMPLER2D:
+          return "sampler2D";
+        case SAMPLER3D:
+          return "sampler3D";
+        case SAMPLERCUBE:
+          return "samplerCube";
+        default:
+          throw new UnsupportedOperationException("Unknown primitive type: " + type);
+        }
+      }
+
+      private void appendAll(List<Expression> values) {
+        for (int i = 0; i < values.size(); i++) {
+          if (i > 0) {
+            append(", ");
+          }
+          values.get(i).accept(this);
+        }
+      }
+
+      @Override
+      public Void visitArray(ArrayValue value) {
+        appendType(getType(value)).append("(");
+        appendAll(value.getElements());
+        append(")");
+        return null;
+      }
+
+      @Override
+      public Void visitArrayAccess(ArrayAccess access) {
+        access.getArray().accept(this);
+        append("[");
+        access.getIndex().accept(this);
+        append("]");
+        return null;
+      }
+
+      @Override
+      public Void visitArrayLength(ArrayLength length) {
+        throw unsupported(length, "Array length");
+      }
+
+      @Override
+      public Void visitAttribute(Attribute attr) {
+        append(attr.getName());
+        return null;
+      }
+
+      @Override
+      public Void visitDynamicArray(DynamicArrayValue value) {
+        throw unsupported(value, "Dynamic array");
+      }
+
+      @Override
+      public Void visitFieldAccess(StructFieldAccess access) {
+        access.getStruct().accept(this);
+        append(".").append(getFieldName(access.getField()));
+        return null;
+      }
+
+      @Override
+      public Void visitFunction(FunctionValue function) {
+        throw unsupported(function, "Function that isn't a declared variable");
+      }
+
+      @Override
+      public Void visitFunctionCall(FunctionCall function) {
+        Declaration<Expression> operator = resolveOperator(function);
+        if (operator == null) {
+          append(names.get(resolveFunction(function))).append("(");
+          appendAll(function.getParameterValues());
+          append(")");
+          return null;
+        }
+
+        String op = OPERATORS.get(operator.getName());
+        if (op.equals("pow")) {
+          append("pow(");
+          appendAll(function.getParameterValues());
+          append(")");
+        } else if (function.getSuppliedParameterCount() == 1) {
+          append("(").append(op);
+          function.getParameterValue(0).accept(this);
+          append(")");
+        } else {
+          append("(");
+          function.getParameterValue(0).accept(this);
+          append(" ").append(op).append(" ");
+          function.getParameterValue(1).accept(this);
+          append(")");
+        }
+        return null;
+      }
+
+      @Override
+      public Void visitIfThenElse(IfThenElse test) {
+        append("(");
+        test.getCondition().accept(this);
+        append(" ? ");
+        test.getTrueExpression().accept(this);
+        append(" : ");
+        test.getFalseExpression().accept(this);
+        append(")");
+        return null;
+      }
+
+      @Override
+      public Void visitNativeExpression(NativeExpression expr) {
+        throw unsupported(expr, "Native expression");
+      }
+
+      @Override
+      public Void visitParameter(Parameter param) {
+        append(names.get(environment.getDeclaredVariable(param.getScope(), param.getName())));
+        return null;
+      }
+
+      @Override
+      public Void visitPrimitive(PrimitiveValue primitive) {
+        if (primitive.getType() == PrimitiveType.FLOAT) {
+          // Float.toString always includes a decimal point, e.g. 1.0 or 1.0E10, as GLSL requires,
+          // and the scanner already rejected non-finite values
+          append(Float.toString((Float) primitive.getValue()));
+        } else {
+          append(primitive.getValue().toString());
+        }
+        return null;
+      }
+
+      @Override
+      public Void visitStruct(StructValue struct) {
+        append(structs.get(getType(struct))).append("(");
+        appendAll(new ArrayList<>(new TreeMap<>(struct.getFields()).values()));
+        append(")");
+        return null;
+      }
+
+      @Override
+      public Void visitUniform(Uniform uniform) {
+        append(uniform.getName());
+        return null;
+      }
+
+      @Override
+      public Void visitUnion(UnionValue union) {
+        throw unsupported(union, "Union");
+      }
+
+      @Override
+      public Void visitVariable(VariableReference var) {
+        Declaration<Expression> decl = resolve(var);
+        append(names.get(decl));
+        if (!(decl.getValue() instanceof Parameter) && !unit.isLocal(decl)) {
+          // Global values are written as functions without parameters
+          append("()");
+        }
+        return null;
+      }
+    }
+  }
+
+  // Carries an IOException of the output out of the expression visitors
+  private static class WriteException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    WriteException(IOException cause) {
+      super(cause);
+    }
+
+    @Override
+    public IOException getCause() {
+      return (IOException) super.getCause();
+    }
+  }
+}
@@ -10,16 +10,20 @@ import com.lhkbob.fxsl.lang.type.ParametricType;
 import com.lhkbob.fxsl.lang.type.PrimitiveType;
 import com.lhkbob.fxsl.lang.type.Type;
 import com.lhkbob.fxsl.lang.type.UnionType;
+import com.lhkbob.fxsl.util.Immutable;
+import com.lhkbob.fxsl.util.PersistentMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
 
 /**
  *
@@ -83,14 +87,28 @@ public class Environment {
       "int negate", PrimitiveType.INT, PrimitiveType.INT);
   public static final NativeExpression UNARY_TILDE = nativeFunction(
       "bitwise negate", PrimitiveType.INT, PrimitiveType.INT);
-  // Since expressions are immutable we can record their inferred and/or declared types
-  private final WeakHashMap<Expression, Type> expressionTypeCache;
-  // Includes both meta types and wildcard array lengths
-  private final WeakHashMap<Object, Object> metaBindings;
+  // Includes both meta types and wildcard array lengths, shared with all pushed environments
+  private final MetaBindings metaBindings;
+  private final int metaBindingMark;
   private final Environment parent;
   private final Scope rootScope;
-  private final Map<Scope, ScopeRules> scopeRules;
+  // Positions of parsed expressions, shared with all pushed environments like the meta bindings
+  private final SourcePositions sourcePositions;
+  private final int sourcePositionMark;
+  // All declarations and expression types; a pushed environment starts with its parent's
+  // snapshot and committing hands the child's snapshot back to the parent. Volatile so that a
+  // frozen environment can be published to other threads without synchronization.
+  private volatile Snapshot snapshot;
+  // Resolved names of recursive lookups, only valid while the snapshot's scope rules are the
+  // rules the cache was stamped with. Shared with pushed environments and handed back on commit.
+  private volatile ResolutionCache resolutions;
   private State state;
+
+  // Frozen environments never change their snapshot and instead remember the meta types created
+  // for expressions that had no type when frozen, so that every thread sees the same meta type.
+  // Environments pushed from a frozen environment read through to the same map.
+  private final boolean frozen;
+  private final ConcurrentMap<Expression, Type> frozenExpressionTypes;
   private int lengthUniqueCounter;
   private int paramUniqueCounter;
 
@@ -100,19 +118,28 @@ public class Environment {
 
   private Environment(Environment parent) {
     this.parent = parent;
-
-    expressionTypeCache = new WeakHashMap<>();
-    scopeRules = new HashMap<>();
-    metaBindings = new WeakHashMap<>();
+    frozen = false;
+    frozenExpressionTypes = (parent != null ? parent.frozenExpressionTypes : null);
 
     if (parent == null) {
-      ScopeRules nativeRules = new ScopeRules();
-      configureNativeScope(nativeRules);
-      scopeRules.put(Scope.NATIVE_SCOPE, nativeRules);
+      metaBindings = new MetaBindings();
+      metaBindingMark = -1;
+      sourcePositions = new SourcePositions();
+      sourcePositionMark = -1;
+
+      snapshot = configureNativeScope(Snapshot.EMPTY);
+      resolutions = null;
       rootScope = new Scope(Scope.NATIVE_SCOPE);
       lengthUniqueCounter = 0;
       paramUniqueCounter = 0;
     } else {
+      metaBindings = parent.metaBindings;
+      metaBindingMark = metaBindings.mark();
+      sourcePositions = parent.sourcePositions;
+      sourcePositionMark = sourcePositions.mark();
+      // The snapshot is persistent so sharing it is a constant time copy of the parent
+      snapshot = parent.snapshot;
+      resolutions = parent.resolutions;
       rootScope = parent.rootScope;
       lengthUniqueCounter = parent.lengthUniqueCounter;
       paramUniqueCounter = parent.paramUniqueCounter;
@@ -121,10 +148,40 @@ public class Environment {
     state = State.READY;
   }
 
+  private Environment(Environment source, boolean frozen) {
+    // Both frozen environments and the children pushed from them are roots, a frozen environment
+    // can never be committed into and a child of a frozen environment has nothing to commit to
+    parent = null;
+    this.frozen = frozen;
+    // A child of a frozen environment sees the meta types its source handed out, before and
+    // after the child was pushed
+    frozenExpressionTypes = (frozen ? new ConcurrentHashMap<Expression, Type>()
+                                    : source.frozenExpressionTypes);
+
+    metaBindings = new MetaBindings(source.metaBindings.compact());
+    metaBindingMark = -1;
+    // A frozen environment gets a private copy since its source may keep recording positions,
+    // and its children read through to that copy
+    sourcePositions = (frozen ? source.sourcePositions.compact()
+                              : new SourcePositions(source.sourcePositions));
+    sourcePositionMark = -1;
+
+    snapshot = source.snapshot;
+    resolutions = source.resolutions;
+    rootScope = source.rootScope;
+    lengthUniqueCounter = source.lengthUniqueCounter;
+    paramUniqueCounter = source.paramUniqueCounter;
+
+    state = State.READY;
+  }
+
   public Environment abort() {
     checkAbortStatus();
-    // only update state, no need to push in new mappings, etc.
+    // only update state, the snapshot of this environment is simply dropped
     state = State.ABORTED;
+    // except for meta bindings, which are shared and must be rolled back
+    metaBindings.rollback(metaBindingMark);
+    sourcePositions.rollback(sourcePositionMark);
 
     // see comment in commit()
     parent.state = State.READY;
@@ -153,25 +210,11 @@ public class Environment {
   public Environment commit() {
     checkCommitStatus();
 
-    // push all changes in this environment back into parent
-    // - either the context prevents putAll() from overriding the parent's value, or
-    //   overrides are allowed when they occur and putAll() behaves correctly.
-    parent.metaBindings.putAll(metaBindings);
-    parent.expressionTypeCache.putAll(expressionTypeCache);
-
-    for (Scope scope : scopeRules.keySet()) {
-      ScopeRules child = scopeRules.get(scope);
-      ScopeRules parent = this.parent.scopeRules.get(scope);
-
-      if (child != null) {
-        if (parent == null) {
-          parent = new ScopeRules();
-          this.parent.scopeRules.put(scope, parent);
-        }
-
-        parent.defs.putAll(child.defs);
-      }
-    }
+    // the child's snapshot started as the parent's snapshot and holds every change made since,
+    // so it replaces the parent's snapshot wholesale
+    metaBindings.release(metaBindingMark);
+    parent.snapshot = snapshot;
+    parent.resolutions = resolutions;
     parent.lengthUniqueCounter = lengthUniqueCounter;
     parent.paramUniqueCounter = paramUniqueCounter;
 
@@ -184,13 +227,48 @@ public class Environment {
     return parent;
   }
 
+  /**
+   * Get a read-only snapshot of this environment. The frozen environment contains every
+   * declaration, expression type and meta binding of this environment at the time of the call,
+   * and is unaffected by any later changes to this environment. It is immutable and thread safe,
+   * and any number of threads may concurrently {@link #push()} private children from it. Those
+   * children are independent environments that cannot be committed back into the frozen
+   * environment.
+   *
+   * Asking the frozen environment for the type of an expression that has none creates a meta type
+   * once and returns it to every caller. Its children, and the environments pushed from them,
+   * return the same meta type for such an expression, unless they record a type of their own for
+   * it. If a child asks for the type of an expression the frozen environment hasn't handed a type
+   * out for, the child creates a meta type that only it and its own children see.
+   *
+   * This is how a single prelude, such as the native scope and a common library of declarations,
+   * can be shared by many compilations without being rebuilt for each.
+   *
+   * @return A frozen copy of this environment, or this environment if it is already frozen
+   * @throws java.lang.IllegalStateException
+   *     if this environment is locked, committed, or aborted
+   */
+  public Environment freeze() {
+    if (frozen) {
+      return this;
+    }
+    checkLockStatus();
+    return new Environment(this, true);
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
   public ArrayType.Length newLengthWildcard() {
+    checkFrozenStatus();
     // Wildcard lengths are <= 0, which is why we decrement the counter
     int length = lengthUniqueCounter--;
     return new ArrayType.Length(length);
   }
 
   public ParametricType newParametricType(Scope scope) {
+    checkFrozenStatus();
     String label = "_p_" + Integer.toHexString(paramUniqueCounter++);
     return new ParametricType(scope, label);
   }
@@ -208,9 +286,42 @@ public class Environment {
       return Collections.singleton(Scope.NATIVE_SCOPE);
     }
 
-    Set<Scope> children = new HashSet<>();
-    accumulateChildScopes(scope, children);
-    return children;
+    PersistentMap<Scope, Scope> children = snapshot.childScopes.get(scope);
+    if (children == null) {
+      return Collections.emptySet();
+    }
+    Set<Scope> result = new HashSet<>();
+    for (Map.Entry<Scope, Scope> child : children) {
+      result.add(child.getKey());
+    }
+    return result;
+  }
+
+  /**
+   * Get every type declared in any scope of this environment, including the native scope. This
+   * is equivalent to collecting {@link #getDeclaredTypes(Scope)} for every scope reachable
+   * through {@link #getChildScopes(Scope)}, but takes time linear in the number of declarations.
+   *
+   * @return All declared types
+   */
+  public Set<Declaration<Type>> getAllDeclaredTypes() {
+    Set<Declaration<Type>> defs = new HashSet<>();
+    getAllDefinitions(Type.class, defs);
+    return defs;
+  }
+
+  /**
+   * Get every variable declared in any scope of this environment, including the native scope.
+   * This is equivalent to collecting {@link #getDeclaredVariables(Scope)} for every scope
+   * reachable through {@link #getChildScopes(Scope)}, but takes time linear in the number of
+   * declarations.
+   *
+   * @return All declared variables
+   */
+  public Set<Declaration<Expression>> getAllDeclaredVariables() {
+    Set<Declaration<Expression>> defs = new HashSet<>();
+    getAllDefinitions(Expression.class, defs);
+    return defs;
   }
 
   public Declaration<Type> getDeclaredType(Scope scope, String name) {
@@ -234,16 +345,43 @@ public class Environment {
   }
 
   public Type getExpressionType(Expression expr) {
-    Type cached = expressionTypeCache.get(expr);
+    Type cached = snapshot.expressionTypes.get(expr);
+    if (cached == null && frozenExpressionTypes != null) {
+      cached = frozenExpressionTypes.get(expr);
+      if (cached == null && frozen) {
+        Type meta = new MetaType(expr.getScope());
+        cached = frozenExpressionTypes.putIfAbsent(expr, meta);
+        if (cached == null) {
+          cached = meta;
+        }
+      }
+    }
     if (cached == null) {
       // The expression hasn't been processed, so its type is a new meta type
       cached = new MetaType(expr.getScope());
-      expressionTypeCache.put(expr, cached);
+      // A locked environment's snapshot is replaced when its child commits, so only remember the
+      // meta type when this environment can still be modified
+      if (state == State.READY) {
+        snapshot = snapshot.withExpressionType(expr, cached);
+      }
     }
 
     return cached;
   }
 
+  /**
+   * Get the position in the source that `expr` was parsed from. Positions are tracked by
+   * expression instance, so an equal expression that was created elsewhere, e.g. by a later
+   * transformation, has no position unless one was recorded for it as well.
+   *
+   * @param expr
+   *     The expression
+   * @return The source position of `expr`, or null if it is unknown
+   */
+  public SourcePosition getSourcePosition(Expression expr) {
+    return sourcePositions.get(expr);
+  }
+
   public Scope getRootScope() {
     return rootScope;
   }
@@ -253,11 +391,32 @@ public class Environment {
   }
 
   public Environment push() {
+    if (frozen) {
+      // Frozen environments are never locked, each child is independent
+      return new Environment(this, false);
+    }
     checkLockStatus();
     state = State.LOCKED;
     return new Environment(this);
   }
 
+  /**
+   * Get the type recorded for `expr` without creating a meta type for it if it has none. Unlike
+   * {@link #getExpressionType(Expression)} this never modifies the environment, so it is suitable
+   * for passes that only read the environment, such as code generation.
+   *
+   * @param expr
+   *     The expression
+   * @return The declared or inferred type of `expr`, or null if nothing was recorded
+   */
+  public Type getRecordedExpressionType(Expression expr) {
+    Type type = snapshot.expressionTypes.get(expr);
+    if (type == null && frozenExpressionTypes != null) {
+      type = frozenExpressionTypes.get(expr);
+    }
+    return type;
+  }
+
   public void setDeclaredType(Scope scope, String name, Type type) {
     setDefinition(Type.class, scope, name, type);
   }
@@ -266,25 +425,38 @@ public class Environment {
     setDefinition(Expression.class, scope, name, expression);
   }
 
-  public void setExpressionType(Expression expr, Type type) {
+  /**
+   * Record the position in the source that `expr` was parsed from, for use in diagnostics. If a
+   * position was already recorded for the instance then it is left unchanged.
+   *
+   * @param expr
+   *     The expression
+   * @param sourceName
+   *     The name of the source, e.g. a file path
+   * @param line
+   *     The line `expr` starts on, starting at 1
+   * @param column
+   *     The column `expr` starts at, starting at 0
+   * @throws java.lang.NullPointerException
+   *     if `expr` or `sourceName` are null
+   * @throws java.lang.IllegalStateException
+   *     if this environment is frozen, locked, committed, or aborted
+   */
+  public void setSourcePosition(Expression expr, String sourceName, int line, int column) {
+    notNull("expr", expr);
+    notNull("sourceName", sourceName);
     checkLockStatus();
-    validateScope(expr.getScope());
-    expressionTypeCache.put(expr, type);
+    sourcePositions.record(expr, sourceName, line, column);
   }
 
-  private void accumulateChildScopes(Scope parent, Set<Scope> children) {
-    for (Scope scope : scopeRules.keySet()) {
-      if (parent.equals(scope.getParent())) {
-        children.add(scope);
-      }
-    }
-    if (this.parent != null) {
-      this.parent.accumulateChildScopes(parent, children);
-    }
+  public void setExpressionType(Expression expr, Type type) {
+    checkLockStatus();
+    validateScope(expr.getScope());
+    snapshot = snapshot.withExpressionType(expr, type);
   }
 
   private <T> void addDefinition(Class<T> defnType, Scope scope, String name, T definition) {
-    // Don't recurse to the higher scopes (but do query all environments); it's okay to shadow a
+    // Don't recurse to the higher scopes; it's okay to shadow a
     // higher definition but it is not okay to redefine a variable in the same scope
     if (getDefinition(defnType, scope, name, false) != null) {
       throw new IllegalStateException(name + " is already defined in this scope");
@@ -294,15 +466,15 @@ public class Environment {
 
   private <T> void addMetaBinding(T wildcard, T toTarget) {
     checkLockStatus();
-    validateMetaBinding(wildcard);
-    metaBindings.put(wildcard, toTarget);
+    metaBindings.bind(wildcard, toTarget);
   }
 
-  private void addNativeVariable(ScopeRules nativeScope, String name, NativeExpression... exprs) {
+  private static Snapshot addNativeVariable(
+      Snapshot nativeScope, String name, NativeExpression... exprs) {
+    // Don't use setExpressionType since that fails if the scope is native
     if (exprs.length == 1) {
-      nativeScope.setDefinition(Expression.class, name, exprs[0]);
-      // Don't use setExpressionType since that fails if the scope is native
-      expressionTypeCache.put(exprs[0], exprs[0].getType());
+      return nativeScope.withDefinition(Expression.class, Scope.NATIVE_SCOPE, name, exprs[0])
+                        .withExpressionType(exprs[0], exprs[0].getType());
     } else {
       // create a union type, and since they are all native expressions the union type will be
       // known and concrete without using inference
@@ -312,9 +484,8 @@ public class Environment {
       }
       Type finalType = new UnionType(types);
       Expression finalExpr = new UnionValue(Scope.NATIVE_SCOPE, Arrays.asList(exprs));
-      nativeScope.setDefinition(Expression.class, name, finalExpr);
-      // Don't use setExpressionType since that fails if the scope is native
-      expressionTypeCache.put(finalExpr, finalType);
+      return nativeScope.withDefinition(Expression.class, Scope.NATIVE_SCOPE, name, finalExpr)
+                        .withExpressionType(finalExpr, finalType);
     }
   }
 
@@ -351,7 +522,15 @@ public class Environment {
     // anything else and it's fine
   }
 
+  private void checkFrozenStatus() {
+    if (frozen) {
+      throw new IllegalStateException(
+          "Environment is frozen, modify an environment pushed from it instead");
+    }
+  }
+
   private void checkLockStatus() {
+    checkFrozenStatus();
     switch (state) {
     case LOCKED:
       throw new IllegalStateException(
@@ -366,112 +545,133 @@ public class Environment {
     // anything else and it's fine
   }
 
-  private void configureNativeScope(ScopeRules nativeScope) {
+  private static Snapshot configureNativeScope(Snapshot nativeScope) {
     // default operators
-    addNativeVariable(nativeScope, "!", UNARY_BANG);
-    addNativeVariable(nativeScope, "~", UNARY_TILDE);
+    nativeScope = addNativeVariable(nativeScope, "!", UNARY_BANG);
+    nativeScope = addNativeVariable(nativeScope, "~", UNARY_TILDE);
 
-    addNativeVariable(nativeScope, "*^", BINARY_POW_FLOAT);
-    addNativeVariable(nativeScope, "%", BINARY_MOD_INT);
-    addNativeVariable(nativeScope, "&", BINARY_BITAND_INT);
-    addNativeVariable(nativeScope, "^", BINARY_BITXOR_INT);
+    nativeScope = addNativeVariable(nativeScope, "*^", BINARY_POW_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, "%", BINARY_MOD_INT);
+    nativeScope = addNativeVariable(nativeScope, "&", BINARY_BITAND_INT);
+    nativeScope = addNativeVariable(nativeScope, "^", BINARY_BITXOR_INT);
 
-    addNativeVariable(nativeScope, "|", BINARY_BITOR_INT, BINARY_UNION_FUNCTION);
+    nativeScope = addNativeVariable(nativeScope, "|", BINARY_BITOR_INT, BINARY_UNION_FUNCTION);
 
-    addNativeVariable(nativeScope, "+", BINARY_ADD_INT, BINARY_ADD_FLOAT);
-    addNativeVariable(
+    nativeScope = addNativeVariable(nativeScope, "+", BINARY_ADD_INT, BINARY_ADD_FLOAT);
+    nativeScope = addNativeVariable(
         nativeScope, "-", UNARY_SUB_INT, UNARY_SUB_FLOAT, BINARY_SUB_INT, BINARY_SUB_FLOAT);
-    addNativeVariable(nativeScope, "*", BINARY_MUL_INT, BINARY_MUL_FLOAT);
-    addNativeVariable(nativeScope, "/", BINARY_DIV_INT, BINARY_DIV_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, "*", BINARY_MUL_INT, BINARY_MUL_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, "/", BINARY_DIV_INT, BINARY_DIV_FLOAT);
 
-    addNativeVariable(nativeScope, "=", BINARY_EQ_BOOL, BINARY_EQ_INT, BINARY_EQ_FLOAT);
-    addNativeVariable(nativeScope, "<", BINARY_LT_INT, BINARY_LT_FLOAT);
-    addNativeVariable(nativeScope, "<=", BINARY_LE_INT, BINARY_LE_FLOAT);
-    addNativeVariable(nativeScope, ">", BINARY_GT_INT, BINARY_GT_FLOAT);
-    addNativeVariable(nativeScope, ">=", BINARY_GE_INT, BINARY_GE_FLOAT);
+    nativeScope = addNativeVariable(
+        nativeScope, "=", BINARY_EQ_BOOL, BINARY_EQ_INT, BINARY_EQ_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, "<", BINARY_LT_INT, BINARY_LT_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, "<=", BINARY_LE_INT, BINARY_LE_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, ">", BINARY_GT_INT, BINARY_GT_FLOAT);
+    nativeScope = addNativeVariable(nativeScope, ">=", BINARY_GE_INT, BINARY_GE_FLOAT);
 
     // primitive types
     for (PrimitiveType type : PrimitiveType.values()) {
-      nativeScope.setDefinition(Type.class, type.toString(), type);
+      nativeScope = nativeScope.withDefinition(
+          Type.class, Scope.NATIVE_SCOPE, type.toString(), type);
     }
+    return nativeScope;
   }
 
   private <T> Declaration<T> getDefinition(
       Class<T> defnType, Scope scope, String name, boolean recurseScopes) {
-    Declaration<T> def = getDefinitionInEnvironment(defnType, scope, name, recurseScopes);
-    if (def == null && parent != null) {
-      return parent.getDefinition(defnType, scope, name, recurseScopes);
-    } else {
-      return def;
+    // The snapshot holds everything committed to this environment so there's no need to query
+    // the parent environments
+    Snapshot current = snapshot;
+    if (!recurseScopes) {
+      return getDefinitionInScope(current, defnType, scope, name);
     }
-  }
 
-  private <T> Declaration<T> getDefinitionInEnvironment(
-      Class<T> defnType, Scope scope, String name, boolean recurseScopes) {
-    ScopeRules rules = scopeRules.get(scope);
-    T def = (rules != null ? rules.getDefinition(defnType, name) : null);
-    if (recurseScopes && def == null && scope.getParent() != null) {
-      // stay within the current environment
-      return getDefinitionInEnvironment(defnType, scope.getParent(), name, true);
-    } else {
-      return new Declaration<>(scope, name, def);
+    ResolutionCache cache = resolutions;
+    if (cache == null || cache.stamp != current.scopeRules) {
+      // Any change to the declarations, including a commit or abort of a child environment,
+      // replaces the scope rules and so invalidates every resolved name
+      cache = new ResolutionCache(current.scopeRules);
+      resolutions = cache;
     }
+
+    ResolutionKey key = new ResolutionKey(defnType, scope, name);
+    Object resolved = cache.resolved.get(key);
+    if (resolved == null) {
+      Declaration<T> def = null;
+      Scope s = scope;
+      for (; s != null; s = s.getParent()) {
+        def = getDefinitionInScope(current, defnType, s, name);
+        if (def != null) {
+          break;
+        }
+      }
+      resolved = (def != null ? def : ResolutionCache.UNRESOLVED);
+      cache.resolved.put(key, resolved);
+      if (s != scope) {
+        // Every scope between the lookup and the declaring scope resolves to the same declaration
+        for (Scope c = scope.getParent(); c != s; c = c.getParent()) {
+          cache.resolved.put(new ResolutionKey(defnType, c, name), resolved);
+        }
+      }
+    }
+
+    if (resolved == ResolutionCache.UNRESOLVED) {
+      return null;
+    }
+    // The key includes the declaration kind, so the declaration holds a T
+    @SuppressWarnings("unchecked")
+    Declaration<T> def = (Declaration<T>) resolved;
+    return def;
+  }
+
+  private static <T> Declaration<T> getDefinitionInScope(
+      Snapshot snapshot, Class<T> defnType, Scope scope, String name) {
+    // Reuse the declaration recorded in the snapshot instead of allocating a new one. A
+    // declaration of another kind is ignored; failing would make it possible to shadow a higher
+    // scope's variable with a type and then not be able to reference it. If there is no higher
+    // scoped variable returning null will still cause code to fail if it's trying to reference a
+    // defined type as if it were a variable.
+    Declaration<?> def = snapshot.declarations.get(new DeclarationKey(scope, name));
+    if (def != null && defnType.isInstance(def.getValue())) {
+      @SuppressWarnings("unchecked")
+      Declaration<T> cast = (Declaration<T>) def;
+      return cast;
+    }
+    return null;
   }
 
   private <T> void getDefinitions(Class<T> defType, Scope scope, Set<Declaration<T>> defs) {
-    ScopeRules rules = scopeRules.get(scope);
+    ScopeRules rules = snapshot.scopeRules.get(scope);
     if (rules != null) {
-      for (Map.Entry<String, Object> def : rules.defs.entrySet()) {
+      for (Map.Entry<String, Object> def : rules.defs) {
         if (defType.isInstance(def.getValue())) {
           defs.add(new Declaration<>(scope, def.getKey(), defType.cast(def.getValue())));
         }
       }
     }
+  }
 
-    if (parent != null) {
-      parent.getDefinitions(defType, scope, defs);
+  private <T> void getAllDefinitions(Class<T> defType, Set<Declaration<T>> defs) {
+    for (Map.Entry<DeclarationKey, Declaration<?>> def : snapshot.declarations) {
+      if (defType.isInstance(def.getValue().getValue())) {
+        // The value was checked, so the declaration is a Declaration<T>
+        @SuppressWarnings("unchecked")
+        Declaration<T> d = (Declaration<T>) def.getValue();
+        defs.add(d);
+      }
     }
   }
 
   private <T> T getMetaBinding(Class<T> metaClass, T wildcard) {
-    T bound = metaClass.cast(metaBindings.get(wildcard));
-    if (bound != null) {
-      // Follow the bound type to resolve any binding chain; if bound isn't chained to
-      // anything else then it's the end of the current bind chain and can be returned.
-      T chained = getMetaBinding(metaClass, bound);
-      return chained == null ? bound : chained;
-    } else if (parent != null) {
-      // There was nothing bound at this environment level, so query the parent
-      return parent.getMetaBinding(metaClass, wildcard);
-    } else {
-      // No binding at this level, and no parent to query
-      return null;
-    }
+    // The shared store resolves binding chains, including those bound by parent environments
+    return metaClass.cast(metaBindings.get(wildcard));
   }
 
   private <T> void setDefinition(Class<T> defnType, Scope scope, String name, T definition) {
     checkLockStatus();
     validateScope(scope);
-
-    ScopeRules rules = scopeRules.get(scope);
-    if (rules == null) {
-      rules = new ScopeRules();
-      scopeRules.put(scope, rules);
-    }
-
-    rules.setDefinition(defnType, name, definition);
-  }
-
-  private void validateMetaBinding(Object key) {
-    if (key == null) {
-      throw new NullPointerException("Wildcard cannot be null");
-    }
-    if (metaBindings.containsKey(key)) {
-      throw new IllegalStateException("Meta has already been bound to another type");
-    }
-    if (parent != null) {
-      parent.validateMetaBinding(key);
-    }
+    snapshot = snapshot.withDefinition(defnType, scope, name, definition);
   }
 
   private void validateScope(Scope s) {
@@ -509,33 +709,141 @@ public class Environment {
     ABORTED
   }
 
-  private static class ScopeRules {
-    private final Map<String, Object> defs;
+  @Immutable
+  private static final class DeclarationKey {
+    private final Scope scope;
+    private final String name;
 
-    public ScopeRules() {
-      defs = new HashMap<>();
+    private DeclarationKey(Scope scope, String name) {
+      this.scope = scope;
+      this.name = name;
     }
 
-    public <T> T getDefinition(Class<T> defnType, String name) {
-      Object oldDefinition = defs.get(name);
-      if (oldDefinition != null) {
-        // Confirm that the old definition is of the expected type
-        if (!defnType.isInstance(oldDefinition)) {
-          // One option would be to fail here, but that would make it possible to shadow a higher
-          // scope's variable with a type and then not be able to reference it. If there is no
-          // higher scoped variable returning null will still cause code to fail if it's trying to
-          // reference a defined type as if it were a variable.
-          return null;
-        }
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof DeclarationKey)) {
+        return false;
+      }
+      DeclarationKey k = (DeclarationKey) o;
+      return k.scope.equals(scope) && k.name.equals(name);
+    }
 
-        return defnType.cast(oldDefinition);
-      } else {
-        // Nothing defined
-        return null;
+    @Override
+    public int hashCode() {
+      return 31 * scope.hashCode() + name.hashCode();
+    }
+  }
+
+  private static final class ResolutionKey {
+    private final Class<?> kind;
+    private final Scope scope;
+    private final String name;
+
+    private ResolutionKey(Class<?> kind, Scope scope, String name) {
+      this.kind = kind;
+      this.scope = scope;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ResolutionKey)) {
+        return false;
+      }
+      ResolutionKey k = (ResolutionKey) o;
+      return k.kind == kind && k.scope.equals(scope) && k.name.equals(name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * kind.hashCode() + scope.hashCode()) + name.hashCode();
+    }
+  }
+
+  private static final class ResolutionCache {
+    // Cached for names that don't resolve, since the concurrent map can't hold null
+    private static final Object UNRESOLVED = new Object();
+
+    private final PersistentMap<Scope, ScopeRules> stamp;
+    // Concurrent so that frozen environments can share one cache between threads
+    private final ConcurrentMap<ResolutionKey, Object> resolved;
+
+    private ResolutionCache(PersistentMap<Scope, ScopeRules> stamp) {
+      this.stamp = stamp;
+      resolved = new ConcurrentHashMap<>();
+    }
+  }
+
+  @Immutable
+  private static final class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot(
+        PersistentMap.<Scope, ScopeRules>empty(),
+        PersistentMap.<Scope, PersistentMap<Scope, Scope>>empty(),
+        PersistentMap.<DeclarationKey, Declaration<?>>empty(),
+        PersistentMap.<Expression, Type>empty());
+
+    // Since expressions are immutable we can record their inferred and/or declared types
+    private final PersistentMap<Expression, Type> expressionTypes;
+    private final PersistentMap<Scope, ScopeRules> scopeRules;
+    // Parent to child index of every scope with rules and its ancestors; the inner maps are used
+    // as sets and map each child to itself
+    private final PersistentMap<Scope, PersistentMap<Scope, Scope>> childScopes;
+    // Every declaration in every scope, keyed by scope and name so that redefining a name
+    // replaces its entry
+    private final PersistentMap<DeclarationKey, Declaration<?>> declarations;
+
+    private Snapshot(PersistentMap<Scope, ScopeRules> scopeRules,
+                     PersistentMap<Scope, PersistentMap<Scope, Scope>> childScopes,
+                     PersistentMap<DeclarationKey, Declaration<?>> declarations,
+                     PersistentMap<Expression, Type> expressionTypes) {
+      this.scopeRules = scopeRules;
+      this.childScopes = childScopes;
+      this.declarations = declarations;
+      this.expressionTypes = expressionTypes;
+    }
+
+    public <T> Snapshot withDefinition(Class<T> defnType, Scope scope, String name, T defined) {
+      ScopeRules rules = scopeRules.get(scope);
+      PersistentMap<Scope, PersistentMap<Scope, Scope>> children = childScopes;
+      if (rules == null) {
+        rules = ScopeRules.EMPTY;
+        // Only scopes with declarations have rules, so a scope without any, e.g. the root scope
+        // of a unit that declares everything in nested scopes, is indexed through its
+        // descendants. Once an ancestor is already indexed, so is the rest of the chain.
+        for (Scope s = scope; s.getParent() != null; s = s.getParent()) {
+          PersistentMap<Scope, Scope> siblings = children.get(s.getParent());
+          if (siblings == null) {
+            siblings = PersistentMap.empty();
+          } else if (siblings.containsKey(s)) {
+            break;
+          }
+          children = children.put(s.getParent(), siblings.put(s, s));
+        }
       }
+
+      DeclarationKey key = new DeclarationKey(scope, name);
+      return new Snapshot(
+          scopeRules.put(scope, rules.setDefinition(defnType, name, defined)), children,
+          declarations.put(key, new Declaration<>(scope, name, defined)), expressionTypes);
+    }
+
+    public Snapshot withExpressionType(Expression expr, Type type) {
+      return new Snapshot(scopeRules, childScopes, declarations, expressionTypes.put(expr, type));
+    }
+  }
+
+  @Immutable
+  private static final class ScopeRules {
+    private static final ScopeRules EMPTY = new ScopeRules(
+        PersistentMap.<String, Object>empty());
+
+    private final PersistentMap<String, Object> defs;
+
+    private ScopeRules(PersistentMap<String, Object> defs) {
+      this.defs = defs;
     }
 
-    public <T> void setDefinition(Class<T> defnType, String name, T defined) {
+    public <T> ScopeRules setDefinition(Class<T> defnType, String name, T defined) {
       // Confirm that higher functions aren't abusing the API
       if (!defnType.isInstance(defined)) {
         throw new IllegalArgumentException(
@@ -556,7 +864,7 @@ public class Environment {
       }
 
       // Store in definition map
-      defs.put(name, defined);
+      return new ScopeRules(defs.put(name, defined));
     }
   }
 }
@@ -3,7 +3,9 @@ package com.lhkbob.fxsl.lang;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.type.Type;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -13,11 +15,11 @@ public final class EnvironmentUtils {
   private EnvironmentUtils() {}
 
   public static Set<Declaration<Type>> getAllTypes(Environment environment) {
-    return getTypesUnderScope(environment, Scope.NATIVE_SCOPE);
+    return environment.getAllDeclaredTypes();
   }
 
   public static Set<Declaration<Expression>> getAllVariables(Environment environment) {
-    return getVariablesUnderScope(environment, Scope.NATIVE_SCOPE);
+    return environment.getAllDeclaredVariables();
   }
 
   public static Set<Declaration<Type>> getTypesInScope(Environment environment, Scope scope) {
@@ -31,9 +33,8 @@ public final class EnvironmentUtils {
 
   public static Set<Declaration<Type>> getTypesUnderScope(Environment environment, Scope scope) {
     Set<Declaration<Type>> allVars = new HashSet<>();
-    allVars.addAll(environment.getDeclaredTypes(scope));
-    for (Scope child : environment.getChildScopes(scope)) {
-      allVars.addAll(getTypesUnderScope(environment, child));
+    for (Scope s : getScopesUnder(environment, scope)) {
+      allVars.addAll(environment.getDeclaredTypes(s));
     }
     return allVars;
   }
@@ -51,10 +52,19 @@ public final class EnvironmentUtils {
   public static Set<Declaration<Expression>> getVariablesUnderScope(
       Environment environment, Scope scope) {
     Set<Declaration<Expression>> allVars = new HashSet<>();
-    allVars.addAll(environment.getDeclaredVariables(scope));
-    for (Scope child : environment.getChildScopes(scope)) {
-      allVars.addAll(getVariablesUnderScope(environment, child));
+    for (Scope s : getScopesUnder(environment, scope)) {
+      allVars.addAll(environment.getDeclaredVariables(s));
     }
     return allVars;
   }
+
+  private static List<Scope> getScopesUnder(Environment environment, Scope scope) {
+    // Breadth first over the child index, so each scope of the subtree is visited once
+    List<Scope> scopes = new ArrayList<>();
+    scopes.add(scope);
+    for (int i = 0; i < scopes.size(); i++) {
+      scopes.addAll(environment.getChildScopes(scopes.get(i)));
+    }
+    return scopes;
+  }
 }
@@ -0,0 +1,339 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Meta Bindings
+ * =============
+ *
+ * Union-find store for the bindings of meta types and wildcard array lengths. A wildcard bound to
+ * another wildcard joins that wildcard's equivalence class, and a wildcard bound to anything else
+ * (a concrete type or length) sets the term for its whole class. Lookups are effectively constant
+ * time thanks to union by rank and path compression, regardless of how long the chain of
+ * bindings that produced a class was.
+ *
+ * The observable behavior matches a plain map of chained bindings: a wildcard that was never
+ * bound resolves to null, and a bound wildcard resolves to the term of its class, or to the one
+ * wildcard in its class that has not been bound yet.
+ *
+ * A single store is shared by an environment and all of its pushed children. Pushing records a
+ * mark in an undo trail, aborting rolls every change made since the mark back (including path
+ * compressions), and committing simply releases the mark. While no mark is open nothing is
+ * recorded. Like the rest of the environment, bound wildcards are weakly referenced.
+ *
+ * A store can also read through to a compacted, immutable base map of resolved bindings that was
+ * produced by {@link #compact()}. Stores created for a frozen environment only ever read from the
+ * base, so any number of threads can query them and branch new stores off of them concurrently.
+ *
+ * @author Michael Ludwig
+ */
+class MetaBindings {
+  // Resolved bindings from a frozen environment, never modified
+  private final Map<Object, Object> base;
+  // Created on the first bind so that read-only stores never touch a WeakHashMap
+  private WeakHashMap<Object, Node> nodes;
+  private final List<Change> trail;
+  private int openMarks;
+
+  public MetaBindings() {
+    this(Collections.<Object, Object>emptyMap());
+  }
+
+  public MetaBindings(Map<Object, Object> base) {
+    this.base = base;
+    nodes = null;
+    trail = new ArrayList<>();
+    openMarks = 0;
+  }
+
+  /**
+   * Bind the unbound wildcard `key` to `target`. If `target` is also a wildcard then the two
+   * equivalence classes are merged, otherwise `target` becomes the term of `key`'s class.
+   *
+   * @param key
+   *     The meta type or wildcard length to bind
+   * @param target
+   *     The type or length it is bound to
+   * @throws java.lang.NullPointerException
+   *     if `key` or `target` are null
+   * @throws java.lang.IllegalStateException
+   *     if `key` has already been bound
+   * @throws java.lang.IllegalArgumentException
+   *     if `target` is a wildcard that already resolves to `key`
+   */
+  public void bind(Object key, Object target) {
+    if (key == null) {
+      throw new NullPointerException("Wildcard cannot be null");
+    }
+    if (target == null) {
+      throw new NullPointerException("Bound target cannot be null");
+    }
+
+    if (base.containsKey(key)) {
+      throw new IllegalStateException("Meta has already been bound to another type");
+    }
+    // Bind to what the target resolved to when the base was frozen, this keeps every class of
+    // this store disjoint from the keys bound in the base
+    Object frozenTarget = base.get(target);
+    if (frozenTarget != null) {
+      target = frozenTarget;
+    }
+
+    Node keyNode = getOrCreateNode(key);
+    if (keyNode.target != null) {
+      throw new IllegalStateException("Meta has already been bound to another type");
+    }
+    // An unbound wildcard is the end of its class, so its class cannot have a term yet
+    Node keyRoot = find(keyNode);
+
+    if (isWildcard(target)) {
+      Node targetRoot = find(getOrCreateNode(target));
+      if (targetRoot == keyRoot) {
+        throw new IllegalArgumentException("Binding " + key + " to " + target + " creates a cycle");
+      }
+
+      record(keyRoot);
+      record(targetRoot);
+      // Key's class now resolves to whatever the target's class resolves to
+      Node newRoot;
+      if (keyRoot.rank > targetRoot.rank) {
+        targetRoot.parent = keyRoot;
+        newRoot = keyRoot;
+      } else {
+        keyRoot.parent = targetRoot;
+        if (keyRoot.rank == targetRoot.rank) {
+          targetRoot.rank++;
+        }
+        newRoot = targetRoot;
+      }
+      newRoot.term = targetRoot.term;
+      newRoot.end = targetRoot.end;
+    } else {
+      record(keyRoot);
+      keyRoot.term = target;
+      keyRoot.end = null;
+    }
+
+    record(keyNode);
+    keyNode.target = target;
+  }
+
+  /**
+   * Get the resolved binding of `key`. This returns null if `key` has never been bound.
+   *
+   * @param key
+   *     The meta type or wildcard length
+   * @return The term of key's class, or the unbound wildcard of its class, or null
+   */
+  public Object get(Object key) {
+    Object bound = getLocal(key);
+    if (bound == null) {
+      bound = base.get(key);
+      if (bound != null) {
+        // The base resolution may be a wildcard that has been bound in this store since
+        Object rebound = getLocal(bound);
+        if (rebound != null) {
+          bound = rebound;
+        }
+      }
+    }
+    return bound;
+  }
+
+  /**
+   * Compact every binding visible to this store into an immutable map from each bound key to its
+   * resolved binding. The map is suitable as the base of new stores and is safe to share between
+   * threads.
+   *
+   * @return The resolved bindings
+   */
+  public Map<Object, Object> compact() {
+    if (nodes == null) {
+      // nothing has been bound on top of the base, which is already compact and immutable
+      return base;
+    }
+
+    Map<Object, Object> compacted = new HashMap<>();
+    for (Object key : base.keySet()) {
+      compacted.put(key, get(key));
+    }
+    for (Map.Entry<Object, Node> node : nodes.entrySet()) {
+      if (node.getValue().target != null) {
+        compacted.put(node.getKey(), get(node.getKey()));
+      }
+    }
+    return Collections.unmodifiableMap(compacted);
+  }
+
+  private Object getLocal(Object key) {
+    Node node = (nodes != null ? nodes.get(key) : null);
+    if (node == null || node.target == null) {
+      return null;
+    }
+
+    Node root = find(node);
+    if (root.term != null) {
+      return root.term;
+    } else {
+      // The end wildcard is strongly reachable through the targets of the class so this is only
+      // null if it was never bound by anything, which can't happen for a bound key
+      return root.end.key.get();
+    }
+  }
+
+  /**
+   * Open a new mark in the undo trail. Every change made after this call can be reverted by
+   * {@link #rollback(int)} with the returned value.
+   *
+   * @return The mark
+   */
+  public int mark() {
+    openMarks++;
+    return trail.size();
+  }
+
+  /**
+   * Release the given mark, keeping every change made since it was opened. Once all marks are
+   * released the trail is cleared.
+   *
+   * @param mark
+   *     The mark returned by {@link #mark()}
+   */
+  public void release(int mark) {
+    openMarks--;
+    if (openMarks == 0) {
+      trail.clear();
+    }
+  }
+
+  /**
+   * Revert every change made since `mark` was opened, in reverse order, and release the mark.
+   *
+   * @param mark
+   *     The mark returned by {@link #mark()}
+   */
+  public void rollback(int mark) {
+    for (int i = trail.size() - 1; i >= mark; i--) {
+      // nodes can't be null if anything was recorded
+      trail.remove(i).undo(nodes);
+    }
+    release(mark);
+  }
+
+  private Node find(Node node) {
+    Node root = node;
+    while (root.parent != null) {
+      root = root.parent;
+    }
+
+    // Path compression, recorded so that it can be reverted along with the unions that made
+    // the path
+    while (node.parent != null && node.parent != root) {
+      Node next = node.parent;
+      record(node);
+      node.parent = root;
+      node = next;
+    }
+    return root;
+  }
+
+  private Node getOrCreateNode(Object key) {
+    if (nodes == null) {
+      nodes = new WeakHashMap<>();
+    }
+    Node node = nodes.get(key);
+    if (node == null) {
+      node = new Node(key);
+      nodes.put(key, node);
+      if (openMarks > 0) {
+        trail.add(new Change(key));
+      }
+    }
+    return node;
+  }
+
+  private void record(Node node) {
+    if (openMarks > 0) {
+      trail.add(new Change(node));
+    }
+  }
+
+  private static boolean isWildcard(Object value) {
+    return value instanceof MetaType ||
+           (value instanceof ArrayType.Length && ((ArrayType.Length) value).isWildcard());
+  }
+
+  private static class Node {
+    // Weak so that the node, held as a map value, does not keep its own key alive
+    private final WeakReference<Object> key;
+    // The value passed to bind(), held strongly just like the old binding map values so that
+    // the end of a class stays reachable from any of its bound members
+    private Object target;
+
+    private Node parent;
+    private int rank;
+    // Only meaningful for roots; if term is null then end is the unbound wildcard of the class
+    private Object term;
+    private Node end;
+
+    public Node(Object key) {
+      this.key = new WeakReference<>(key);
+      parent = null;
+      rank = 0;
+      term = null;
+      end = this;
+    }
+  }
+
+  private static class Change {
+    private final Object createdKey;
+    private final Node node;
+
+    private final Object target;
+    private final Node parent;
+    private final int rank;
+    private final Object term;
+    private final Node end;
+
+    public Change(Object createdKey) {
+      this.createdKey = createdKey;
+      node = null;
+      target = null;
+      parent = null;
+      rank = 0;
+      term = null;
+      end = null;
+    }
+
+    public Change(Node node) {
+      createdKey = null;
+      this.node = node;
+      target = node.target;
+      parent = node.parent;
+      rank = node.rank;
+      term = node.term;
+      end = node.end;
+    }
+
+    public void undo(WeakHashMap<Object, Node> nodes) {
+      if (createdKey != null) {
+        nodes.remove(createdKey);
+      } else {
+        node.target = target;
+        node.parent = parent;
+        node.rank = rank;
+        node.term = term;
+        node.end = end;
+      }
+    }
+  }
+}
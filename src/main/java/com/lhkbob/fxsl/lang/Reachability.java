@@ -0,0 +1,242 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import com.lhkbob.fxsl.lang.type.DefaultTypeVisitor;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Reachability
+ * ============
+ *
+ * The declarations of an environment that can be reached from a set of entry points. An entry is
+ * either an expression, such as the result of {@link com.lhkbob.fxsl.Parser#parse(String)}, or a
+ * named variable declaration. A declaration is reachable if an entry or the value of a reachable
+ * declaration refers to it, either through a {@link VariableReference} or through an alias in the
+ * type of an expression. The parameters of a reachable function are always reachable.
+ *
+ * Whole-program passes only have to process the reachable declarations, so compiling a shader
+ * that uses a few functions of a large library only costs those functions. The {@link
+ * com.lhkbob.fxsl.parser.semantics.SemanticsPipeline} and {@link
+ * com.lhkbob.fxsl.parser.semantics.SemanticsRunner} can validate just the reachable
+ * declarations, and the rest are reported by {@link #getDeadVariables()} and {@link
+ * #getDeadTypes()}.
+ *
+ * The closure is extended as entries are added, and each declaration and unique expression
+ * instance is only walked once no matter how many entries reach it. The environment is only read,
+ * and should not change while a reachability is in use.
+ *
+ * @author Michael Ludwig
+ */
+public class Reachability {
+  private final Environment environment;
+  private final Set<Declaration<Expression>> variables;
+  private final Set<Declaration<Type>> types;
+
+  // Reachable variables whose values haven't been walked yet
+  private final Deque<Declaration<Expression>> pending;
+  private final ExpressionWalker expressions;
+  private final TypeWalker typeWalker;
+
+  /**
+   * Create a reachability over `environment` with no entries, so nothing is reachable yet.
+   *
+   * @param environment
+   *     The environment whose declarations are analyzed
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public Reachability(Environment environment) {
+    notNull("environment", environment);
+    this.environment = environment;
+    variables = new LinkedHashSet<>();
+    types = new LinkedHashSet<>();
+    pending = new ArrayDeque<>();
+    expressions = new ExpressionWalker();
+    typeWalker = new TypeWalker();
+  }
+
+  /**
+   * Add `expr` as an entry point, making every declaration it depends on reachable.
+   *
+   * @param expr
+   *     The entry expression
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   */
+  public void addEntry(Expression expr) {
+    notNull("expr", expr);
+    expr.accept(expressions);
+    drain();
+  }
+
+  /**
+   * Add the variable `name`, as resolved from `scope`, as an entry point, making it and every
+   * declaration it depends on reachable.
+   *
+   * @param scope
+   *     The scope the name is resolved from
+   * @param name
+   *     The variable name
+   * @return The declaration of the variable
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws java.lang.IllegalArgumentException
+   *     if no variable named `name` is visible from `scope`
+   */
+  public Declaration<Expression> addEntry(Scope scope, String name) {
+    notNull("scope", scope);
+    notNull("name", name);
+    Declaration<Expression> decl = environment.getDeclaredVariable(scope, name);
+    if (decl == null) {
+      throw new IllegalArgumentException("No variable named " + name + " is visible in scope");
+    }
+    addVariable(decl);
+    drain();
+    return decl;
+  }
+
+  /**
+   * @param decl
+   *     The declaration
+   * @return True if `decl` is a variable or type declaration reachable from the entries
+   */
+  public boolean isReachable(Declaration<?> decl) {
+    return variables.contains(decl) || types.contains(decl);
+  }
+
+  /**
+   * @return The reachable variable declarations, in the order they were reached
+   */
+  public Set<Declaration<Expression>> getReachableVariables() {
+    return Collections.unmodifiableSet(variables);
+  }
+
+  /**
+   * @return The reachable type declarations, in the order they were reached
+   */
+  public Set<Declaration<Type>> getReachableTypes() {
+    return Collections.unmodifiableSet(types);
+  }
+
+  /**
+   * Get the variables declared in the environment that aren't reachable from the entries. Native
+   * declarations are never reported.
+   *
+   * @return A new set holding the unreachable variable declarations
+   */
+  public Set<Declaration<Expression>> getDeadVariables() {
+    Set<Declaration<Expression>> dead = new HashSet<>();
+    for (Declaration<Expression> decl : environment.getAllDeclaredVariables()) {
+      if (!decl.getScope().equals(Scope.NATIVE_SCOPE) && !variables.contains(decl)) {
+        dead.add(decl);
+      }
+    }
+    return dead;
+  }
+
+  /**
+   * Get the types declared in the environment that aren't reachable from the entries. Native
+   * declarations are never reported.
+   *
+   * @return A new set holding the unreachable type declarations
+   */
+  public Set<Declaration<Type>> getDeadTypes() {
+    Set<Declaration<Type>> dead = new HashSet<>();
+    for (Declaration<Type> decl : environment.getAllDeclaredTypes()) {
+      if (!decl.getScope().equals(Scope.NATIVE_SCOPE) && !types.contains(decl)) {
+        dead.add(decl);
+      }
+    }
+    return dead;
+  }
+
+  private void addVariable(Declaration<Expression> decl) {
+    if (variables.add(decl)) {
+      pending.add(decl);
+    }
+  }
+
+  private void addType(Type type) {
+    if (type != null) {
+      type.accept(typeWalker);
+    }
+  }
+
+  private void drain() {
+    // Declarations are walked from a work list instead of recursively, so long chains of
+    // variables referring to each other don't overflow the stack
+    while (!pending.isEmpty()) {
+      pending.poll().getValue().accept(expressions);
+    }
+  }
+
+  private class ExpressionWalker extends DefaultExpressionVisitor<Void> {
+    public ExpressionWalker() {
+      // each unique expression only needs to be walked once across all entries
+      super(true);
+    }
+
+    @Override
+    protected Void initialValue(Expression e) {
+      addType(environment.getRecordedExpressionType(e));
+
+      if (e instanceof VariableReference) {
+        VariableReference var = (VariableReference) e;
+        Declaration<Expression> decl = environment.getDeclaredVariable(
+            var.getScope(), var.getVariableName());
+        if (decl != null) {
+          addVariable(decl);
+        }
+      } else if (e instanceof FunctionValue) {
+        FunctionValue function = (FunctionValue) e;
+        if (!function.getParameters().isEmpty()) {
+          Declaration<Expression> param = environment.getDeclaredVariable(
+              function.getBodyScope(), function.getParameter(0));
+          if (param != null) {
+            // the parameter scope only holds the parameters and the lengths of their wildcard
+            // arrays, which are part of the function even if the body doesn't use them
+            for (Declaration<Expression> decl : environment.getDeclaredVariables(
+                param.getScope())) {
+              addVariable(decl);
+            }
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  private class TypeWalker extends DefaultTypeVisitor<Void> {
+    @Override
+    public Void visitAliasType(AliasType t) {
+      Declaration<Type> decl = environment.getDeclaredType(t.getScope(), t.getLabel());
+      if (decl != null && types.add(decl)) {
+        decl.getValue().accept(this);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitMetaType(MetaType t) {
+      Type bound = environment.getBoundMetaType(t);
+      if (bound != null) {
+        bound.accept(this);
+      }
+      return null;
+    }
+  }
+}
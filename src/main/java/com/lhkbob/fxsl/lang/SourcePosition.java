@@ -0,0 +1,69 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.util.Immutable;
+import com.lhkbob.fxsl.util.LogicalEquality;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Source Position
+ * ===============
+ *
+ * The location in the source that an expression was parsed from. Lines start at 1 and columns at
+ * 0, matching the positions ANTLR reports for syntax errors, so semantic and syntax errors of the
+ * same unit can be lined up with each other.
+ *
+ * Positions are not stored by the expressions themselves, see
+ * {@link Environment#getSourcePosition(com.lhkbob.fxsl.lang.expr.Expression)}.
+ *
+ * @author Michael Ludwig
+ */
+@Immutable
+@LogicalEquality(def = "Source positions are logically equal if their source names, lines and columns are equal.")
+public final class SourcePosition {
+  private final String sourceName;
+  private final int line;
+  private final int column;
+
+  public SourcePosition(String sourceName, int line, int column) {
+    notNull("sourceName", sourceName);
+    this.sourceName = sourceName;
+    this.line = line;
+    this.column = column;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof SourcePosition)) {
+      return false;
+    }
+    SourcePosition p = (SourcePosition) o;
+    return p.line == line && p.column == column && p.sourceName.equals(sourceName);
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
+  public int getLine() {
+    return line;
+  }
+
+  public String getSourceName() {
+    return sourceName;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 17;
+    hash += 31 * hash + sourceName.hashCode();
+    hash += 31 * hash + line;
+    hash += 31 * hash + column;
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return sourceName + ":" + line + ":" + column;
+  }
+}
@@ -0,0 +1,202 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.expr.Expression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Source Positions
+ * ================
+ *
+ * Side table from parsed expressions to the source position they were parsed from. Expressions
+ * are immutable, hash-consed values that don't need their position for anything but diagnostics,
+ * so rather than adding fields to every node the positions are kept here, keyed by the identity of
+ * the expression instance.
+ *
+ * The table is laid out in parallel arrays indexed by the order the positions were recorded in:
+ * the expressions, a packed `(source, line, column)` triple of ints per entry, and the next entry
+ * in the same hash bucket. Source names are stored once in a separate list and referred to by
+ * index. New entries are linked in at the head of their bucket, so the most recent entries can
+ * always be unlinked from the heads, which is what makes {@link #rollback(int)} cheap.
+ *
+ * Like {@link MetaBindings}, a single table is shared by an environment and all of its pushed
+ * children. Pushing records a mark, aborting discards every position recorded since that mark,
+ * and committing keeps them. A table can also read through to an immutable base table, which is
+ * how the children of a frozen environment see the positions of the frozen environment without
+ * modifying them.
+ *
+ * If an expression is recorded more than once, e.g. because hash-consing shared one instance
+ * between several occurrences, the first recorded position is kept.
+ *
+ * @author Michael Ludwig
+ */
+class SourcePositions {
+  private static final int INITIAL_CAPACITY = 64;
+  private static final int NO_ENTRY = -1;
+
+  // Positions from a frozen environment, never modified
+  private final SourcePositions base;
+
+  private final List<String> sourceNames;
+  private final Map<String, Integer> sourceIds;
+  // Most units come from one source, so remember the last one to skip the map lookup
+  private String lastSourceName;
+  private int lastSourceId;
+
+  private Expression[] expressions;
+  private int[] positions; // 3 ints per entry: source id, line, column
+  private int[] next;
+  private int[] buckets; // power of 2 length, twice the entry capacity
+  private int size;
+
+  public SourcePositions() {
+    this(null);
+  }
+
+  public SourcePositions(SourcePositions base) {
+    this.base = base;
+    sourceNames = new ArrayList<>();
+    sourceIds = new HashMap<>();
+    lastSourceName = null;
+    lastSourceId = NO_ENTRY;
+
+    expressions = new Expression[INITIAL_CAPACITY];
+    positions = new int[3 * INITIAL_CAPACITY];
+    next = new int[INITIAL_CAPACITY];
+    buckets = new int[2 * INITIAL_CAPACITY];
+    Arrays.fill(buckets, NO_ENTRY);
+    size = 0;
+  }
+
+  /**
+   * Create a copy of this table that includes the positions of its base table. The copy doesn't
+   * share any state with this table, so this table can keep changing while the copy is read by
+   * other threads.
+   *
+   * @return A flattened copy of this table
+   */
+  public SourcePositions compact() {
+    SourcePositions copy = (base != null ? base.compact() : new SourcePositions());
+    for (int i = 0; i < size; i++) {
+      copy.record(expressions[i], sourceNames.get(positions[3 * i]), positions[3 * i + 1],
+                  positions[3 * i + 2]);
+    }
+    return copy;
+  }
+
+  /**
+   * Get the position recorded for `expr`.
+   *
+   * @param expr
+   *     The expression
+   * @return The position of `expr`, or null if no position was recorded for this instance
+   */
+  public SourcePosition get(Expression expr) {
+    int entry = find(expr);
+    if (entry != NO_ENTRY) {
+      return new SourcePosition(sourceNames.get(positions[3 * entry]), positions[3 * entry + 1],
+                                positions[3 * entry + 2]);
+    }
+    return (base != null ? base.get(expr) : null);
+  }
+
+  public int mark() {
+    return size;
+  }
+
+  /**
+   * Record the position of `expr`, unless a position was already recorded for it.
+   *
+   * @param expr
+   *     The expression
+   * @param sourceName
+   *     The name of the source `expr` was parsed from
+   * @param line
+   *     The line of the start of `expr`
+   * @param column
+   *     The column of the start of `expr`
+   */
+  public void record(Expression expr, String sourceName, int line, int column) {
+    if (find(expr) != NO_ENTRY || (base != null && base.get(expr) != null)) {
+      return;
+    }
+    if (size == expressions.length) {
+      grow();
+    }
+
+    int entry = size++;
+    expressions[entry] = expr;
+    positions[3 * entry] = getSourceId(sourceName);
+    positions[3 * entry + 1] = line;
+    positions[3 * entry + 2] = column;
+    link(entry);
+  }
+
+  /**
+   * Discard every position recorded after `mark` was returned by {@link #mark()}.
+   *
+   * @param mark
+   *     The mark to roll back to
+   */
+  public void rollback(int mark) {
+    // Entries are at the head of their bucket, so newest first they can be unlinked in turn
+    while (size > mark) {
+      int entry = --size;
+      buckets[bucket(expressions[entry])] = next[entry];
+      expressions[entry] = null;
+    }
+  }
+
+  private int bucket(Expression expr) {
+    int hash = System.identityHashCode(expr);
+    // Spread the high bits since the bucket count is a power of 2
+    hash ^= (hash >>> 16);
+    return hash & (buckets.length - 1);
+  }
+
+  private int find(Expression expr) {
+    int entry = buckets[bucket(expr)];
+    while (entry != NO_ENTRY && expressions[entry] != expr) {
+      entry = next[entry];
+    }
+    return entry;
+  }
+
+  private int getSourceId(String sourceName) {
+    if (sourceName.equals(lastSourceName)) {
+      return lastSourceId;
+    }
+    Integer id = sourceIds.get(sourceName);
+    if (id == null) {
+      id = sourceNames.size();
+      sourceNames.add(sourceName);
+      sourceIds.put(sourceName, id);
+    }
+    lastSourceName = sourceName;
+    lastSourceId = id;
+    return id;
+  }
+
+  private void grow() {
+    int capacity = 2 * expressions.length;
+    expressions = Arrays.copyOf(expressions, capacity);
+    positions = Arrays.copyOf(positions, 3 * capacity);
+    next = Arrays.copyOf(next, capacity);
+    buckets = new int[2 * capacity];
+    Arrays.fill(buckets, NO_ENTRY);
+    // Relinking in recording order keeps the newest entries at the heads of their buckets
+    for (int i = 0; i < size; i++) {
+      link(i);
+    }
+  }
+
+  private void link(int entry) {
+    int bucket = bucket(expressions[entry]);
+    next[entry] = buckets[bucket];
+    buckets[bucket] = entry;
+  }
+}
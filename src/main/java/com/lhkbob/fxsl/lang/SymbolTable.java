@@ -0,0 +1,333 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import com.lhkbob.fxsl.lang.type.DefaultTypeVisitor;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.util.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Symbol Table
+ * ============
+ *
+ * A resolved view of the names of an environment. Every scope's declarations are numbered into
+ * slots, ordered by name, and every {@link VariableReference} and {@link AliasType} reachable from
+ * the environment's declarations is given a {@link Coordinate}: the number of parent scopes
+ * between the reference and the declaring scope, and the declaration's slot in that scope. Later
+ * passes, such as an evaluator that keeps one array of values per scope, can then find a
+ * reference's declaration by walking up `depth` scopes and indexing, instead of hashing the name
+ * at every scope on the way.
+ *
+ * Variables and types are numbered separately. References that don't resolve, which the {@link
+ * com.lhkbob.fxsl.parser.semantics.VariableReferenceChecker} reports, have no coordinate.
+ *
+ * The table is a snapshot of the environment when it was built and isn't updated by later
+ * changes to the environment. It is immutable and thread safe.
+ *
+ * @author Michael Ludwig
+ */
+@Immutable
+public final class SymbolTable {
+  private static final Comparator<Declaration<?>> BY_NAME = new Comparator<Declaration<?>>() {
+    @Override
+    public int compare(Declaration<?> a, Declaration<?> b) {
+      return a.getName().compareTo(b.getName());
+    }
+  };
+
+  private final Map<Scope, List<Declaration<Expression>>> variableSlots;
+  private final Map<Scope, List<Declaration<Type>>> typeSlots;
+  private final Map<VariableReference, Coordinate> variableCoordinates;
+  private final Map<AliasType, Coordinate> typeCoordinates;
+
+  /**
+   * Build the symbol table of `environment`, resolving every variable reference within the
+   * declared variables and every alias type within the declared types and the recorded types of
+   * those variables' expressions.
+   *
+   * @param environment
+   *     The environment to resolve
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public SymbolTable(Environment environment) {
+    notNull("environment", environment);
+    Collection<Declaration<Expression>> variables = environment.getAllDeclaredVariables();
+    Collection<Declaration<Type>> types = environment.getAllDeclaredTypes();
+
+    variableSlots = assignSlots(variables);
+    typeSlots = assignSlots(types);
+    variableCoordinates = new HashMap<>();
+    typeCoordinates = new HashMap<>();
+
+    ResolvingTypeVisitor typeVisitor = new ResolvingTypeVisitor(environment);
+    ResolvingExpressionVisitor exprVisitor = new ResolvingExpressionVisitor(
+        environment, typeVisitor);
+    for (Declaration<Expression> var : variables) {
+      var.getValue().accept(exprVisitor);
+    }
+    for (Declaration<Type> type : types) {
+      type.getValue().accept(typeVisitor);
+    }
+  }
+
+  /**
+   * Get the coordinate of a variable reference.
+   *
+   * @param reference
+   *     The reference
+   * @return The coordinate of the declaration `reference` resolves to, or null if it wasn't
+   * resolved when the table was built
+   */
+  public Coordinate getCoordinate(VariableReference reference) {
+    return variableCoordinates.get(reference);
+  }
+
+  /**
+   * Get the coordinate of an alias type.
+   *
+   * @param alias
+   *     The alias
+   * @return The coordinate of the type declaration `alias` resolves to, or null if it wasn't
+   * resolved when the table was built
+   */
+  public Coordinate getCoordinate(AliasType alias) {
+    return typeCoordinates.get(alias);
+  }
+
+  /**
+   * Get the variables declared in `scope`, indexed by slot.
+   *
+   * @param scope
+   *     The scope
+   * @return The scope's variables in slot order, which is empty if it declares none
+   */
+  public List<Declaration<Expression>> getVariableSlots(Scope scope) {
+    List<Declaration<Expression>> slots = variableSlots.get(scope);
+    return (slots != null ? slots : Collections.<Declaration<Expression>>emptyList());
+  }
+
+  /**
+   * Get the types declared in `scope`, indexed by slot.
+   *
+   * @param scope
+   *     The scope
+   * @return The scope's types in slot order, which is empty if it declares none
+   */
+  public List<Declaration<Type>> getTypeSlots(Scope scope) {
+    List<Declaration<Type>> slots = typeSlots.get(scope);
+    return (slots != null ? slots : Collections.<Declaration<Type>>emptyList());
+  }
+
+  /**
+   * Get the variable declaration at `coordinate` relative to `scope`.
+   *
+   * @param scope
+   *     The scope the coordinate is relative to, e.g. the scope of a reference
+   * @param coordinate
+   *     The coordinate
+   * @return The declaration
+   * @throws java.lang.IndexOutOfBoundsException
+   *     if the coordinate does not exist relative to `scope`
+   */
+  public Declaration<Expression> getVariable(Scope scope, Coordinate coordinate) {
+    return getVariableSlots(coordinate.getDeclaringScope(scope)).get(coordinate.getSlot());
+  }
+
+  /**
+   * Get the type declaration at `coordinate` relative to `scope`.
+   *
+   * @param scope
+   *     The scope the coordinate is relative to, e.g. the scope of an alias
+   * @param coordinate
+   *     The coordinate
+   * @return The declaration
+   * @throws java.lang.IndexOutOfBoundsException
+   *     if the coordinate does not exist relative to `scope`
+   */
+  public Declaration<Type> getType(Scope scope, Coordinate coordinate) {
+    return getTypeSlots(coordinate.getDeclaringScope(scope)).get(coordinate.getSlot());
+  }
+
+  private static <T> Map<Scope, List<Declaration<T>>> assignSlots(
+      Collection<Declaration<T>> declarations) {
+    Map<Scope, List<Declaration<T>>> slots = new HashMap<>();
+    for (Declaration<T> d : declarations) {
+      List<Declaration<T>> inScope = slots.get(d.getScope());
+      if (inScope == null) {
+        inScope = new ArrayList<>();
+        slots.put(d.getScope(), inScope);
+      }
+      inScope.add(d);
+    }
+    for (Map.Entry<Scope, List<Declaration<T>>> s : slots.entrySet()) {
+      // Names are unique within a scope, so ordering by name makes the slots deterministic
+      Collections.sort(s.getValue(), BY_NAME);
+      s.setValue(Collections.unmodifiableList(s.getValue()));
+    }
+    return slots;
+  }
+
+  private static <T> Coordinate toCoordinate(
+      Scope from, Declaration<T> declaration, Map<Scope, List<Declaration<T>>> slots) {
+    int depth = 0;
+    for (Scope s = from; !s.equals(declaration.getScope()); s = s.getParent()) {
+      depth++;
+    }
+    int slot = Collections.binarySearch(slots.get(declaration.getScope()), declaration, BY_NAME);
+    return new Coordinate(depth, slot);
+  }
+
+  /**
+   * Coordinate
+   * ==========
+   *
+   * The location of a declaration relative to the scope of a reference to it.
+   */
+  @Immutable
+  public static final class Coordinate {
+    private final int depth;
+    private final int slot;
+
+    /**
+     * Create a new coordinate.
+     *
+     * @param depth
+     *     The number of parent scopes between the reference and the declaring scope
+     * @param slot
+     *     The slot of the declaration in the declaring scope
+     * @throws java.lang.IllegalArgumentException
+     *     if `depth` or `slot` is negative
+     */
+    public Coordinate(int depth, int slot) {
+      if (depth < 0 || slot < 0) {
+        throw new IllegalArgumentException("Depth and slot must be at least 0");
+      }
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    /**
+     * @return The number of parent scopes between the reference and the declaring scope, 0 if
+     * the reference is in the declaring scope
+     */
+    public int getDepth() {
+      return depth;
+    }
+
+    /**
+     * @return The slot of the declaration in the declaring scope
+     */
+    public int getSlot() {
+      return slot;
+    }
+
+    /**
+     * Walk `depth` scopes up from `scope`.
+     *
+     * @param scope
+     *     The scope the coordinate is relative to
+     * @return The declaring scope
+     * @throws java.lang.IndexOutOfBoundsException
+     *     if `scope` has fewer than `depth` ancestors
+     */
+    public Scope getDeclaringScope(Scope scope) {
+      Scope s = scope;
+      for (int i = 0; i < depth && s != null; i++) {
+        s = s.getParent();
+      }
+      if (s == null) {
+        throw new IndexOutOfBoundsException("Scope has fewer than " + depth + " ancestors");
+      }
+      return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Coordinate)) {
+        return false;
+      }
+      Coordinate c = (Coordinate) o;
+      return c.depth == depth && c.slot == slot;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * depth + slot;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + depth + ", " + slot + ")";
+    }
+  }
+
+  private class ResolvingExpressionVisitor extends DefaultExpressionVisitor<Void> {
+    private final Environment environment;
+    private final ResolvingTypeVisitor typeVisitor;
+
+    public ResolvingExpressionVisitor(Environment environment, ResolvingTypeVisitor typeVisitor) {
+      // each unique expression only needs to be resolved once
+      super(true);
+      this.environment = environment;
+      this.typeVisitor = typeVisitor;
+    }
+
+    private void resolve(Expression e) {
+      Type type = environment.getRecordedExpressionType(e);
+      if (type != null) {
+        type.accept(typeVisitor);
+      }
+    }
+
+    @Override
+    protected Void initialValue(Expression e) {
+      resolve(e);
+      return null;
+    }
+
+    @Override
+    public Void visitVariable(VariableReference var) {
+      resolve(var);
+      if (!variableCoordinates.containsKey(var)) {
+        Declaration<Expression> decl = environment.getDeclaredVariable(
+            var.getScope(), var.getVariableName());
+        if (decl != null) {
+          variableCoordinates.put(var, toCoordinate(var.getScope(), decl, variableSlots));
+        }
+      }
+      return null;
+    }
+  }
+
+  private class ResolvingTypeVisitor extends DefaultTypeVisitor<Void> {
+    private final Environment environment;
+
+    public ResolvingTypeVisitor(Environment environment) {
+      this.environment = environment;
+    }
+
+    @Override
+    public Void visitAliasType(AliasType t) {
+      if (!typeCoordinates.containsKey(t)) {
+        Declaration<Type> decl = environment.getDeclaredType(t.getScope(), t.getLabel());
+        if (decl != null) {
+          typeCoordinates.put(t, toCoordinate(t.getScope(), decl, typeSlots));
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -52,6 +52,9 @@ public final class ArrayAccess extends EfficientEqualityBase implements Expressi
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     ArrayAccess a = compareHashCodes(ArrayAccess.class, o);
     return a != null && a.scope.equals(scope) && a.array.equals(array) && a.index.equals(index);
   }
@@ -30,6 +30,9 @@ public final class ArrayLength extends EfficientEqualityBase implements Expressi
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     ArrayLength a = compareHashCodes(ArrayLength.class, o);
     return a != null && a.scope.equals(scope) && a.pathToArrayType.equals(pathToArrayType);
   }
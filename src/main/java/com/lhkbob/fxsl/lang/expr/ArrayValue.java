@@ -62,6 +62,9 @@ public final class ArrayValue extends EfficientEqualityBase implements Expressio
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     ArrayValue v = compareHashCodes(ArrayValue.class, o);
     return v != null && v.scope.equals(scope) && v.elements.equals(elements);
   }
@@ -26,6 +26,9 @@ public class Attribute extends EfficientEqualityBase implements Expression {
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     Attribute a = compareHashCodes(Attribute.class, o);
     return a != null && a.scope.equals(scope) && a.name.equals(name);
   }
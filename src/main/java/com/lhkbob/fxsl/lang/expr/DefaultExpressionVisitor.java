@@ -2,13 +2,29 @@ package com.lhkbob.fxsl.lang.expr;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
  */
 public class DefaultExpressionVisitor<T> implements Expression.Visitor<T> {
   public static class ListExpressionVisitor<E> extends DefaultExpressionVisitor<List<E>> {
+    public ListExpressionVisitor() {
+      super();
+    }
+
+    protected ListExpressionVisitor(boolean memoize) {
+      super(memoize);
+    }
+
+    @Override
+    protected List<E> revisit(Expression e, List<E> previousResult) {
+      // The elements were already reported the first time the shared expression was visited
+      return Collections.emptyList();
+    }
+
     @Override
     protected List<E> initialValue(Expression e) {
       return Collections.emptyList();
@@ -35,6 +51,27 @@ public class DefaultExpressionVisitor<T> implements Expression.Visitor<T> {
     }
   }
 
+  // Results of the visited child expressions by identity, null when not memoizing
+  private final Map<Expression, T> visited;
+
+  public DefaultExpressionVisitor() {
+    this(false);
+  }
+
+  /**
+   * Create a visitor that optionally memoizes the results of child expressions by identity. A
+   * memoizing visitor only descends into each unique expression instance once, even if it is
+   * shared by many parents or visited from many roots, which is what makes a DAG produced by a
+   * hash-consing parse cheaper to process than the equivalent tree. Memoization is only valid if
+   * the result of visiting an expression doesn't depend on where it is reached from.
+   *
+   * @param memoize
+   *     True if the results of visited children should be reused
+   */
+  protected DefaultExpressionVisitor(boolean memoize) {
+    visited = (memoize ? new IdentityHashMap<Expression, T>() : null);
+  }
+
   @Override
   public T visitArray(ArrayValue value) {
     T result = initialValue(value);
@@ -129,7 +166,7 @@ public class DefaultExpressionVisitor<T> implements Expression.Visitor<T> {
   @Override
   public T visitUniform(Uniform uniform) {
     // Leaf node, return null until overridden
-    return null;
+    return initialValue(uniform);
   }
 
   @Override
@@ -151,8 +188,20 @@ public class DefaultExpressionVisitor<T> implements Expression.Visitor<T> {
     if (shortCircuit(previous)) {
       return previous;
     } else {
-      return combine(previous, next.accept(this));
+      return combine(previous, visitChild(next));
+    }
+  }
+
+  private T visitChild(Expression child) {
+    if (visited == null) {
+      return child.accept(this);
+    } else if (visited.containsKey(child)) {
+      return revisit(child, visited.get(child));
     }
+
+    T result = child.accept(this);
+    visited.put(child, result);
+    return result;
   }
 
   protected T combine(T previous, T next) {
@@ -167,6 +216,19 @@ public class DefaultExpressionVisitor<T> implements Expression.Visitor<T> {
     return null;
   }
 
+  /**
+   * Get the value to combine for a child expression that a memoizing visitor already visited.
+   *
+   * @param e
+   *     The child expression
+   * @param previousResult
+   *     The result of the first visit to `e`
+   * @return The value combined into the parent's result, by default `previousResult`
+   */
+  protected T revisit(Expression e, T previousResult) {
+    return previousResult;
+  }
+
   protected boolean shortCircuit(T value) {
     return false;
   }
@@ -31,6 +31,9 @@ public final class DynamicArrayValue extends EfficientEqualityBase implements Ex
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     DynamicArrayValue a = compareHashCodes(DynamicArrayValue.class, o);
     return a != null && scope.equals(a.scope) && length.equals(a.length) &&
         elementFunction.equals(a.elementFunction);
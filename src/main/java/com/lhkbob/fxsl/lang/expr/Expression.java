@@ -114,10 +114,8 @@ public interface Expression {
     T visitVariable(VariableReference var);
   }
 
-  // TODO: it would be cool to record where the expressions come from in the source, e.g filename and line
-  // so that if we have to print out error messages they can be more informative. Does this go in the
-  // environment? In the parse context? I don't think it belongs in the Expression interface since that
-  // overburdens the implementations when this data doesn't really affect behavior.
+  // Where an expression came from in the source is not part of the expression, since it doesn't
+  // affect behavior; the parser records it in the environment, see Environment.getSourcePosition()
 
   /**
    * Invoke the appropriate `visit` method of the visitor based on the concrete class type of this
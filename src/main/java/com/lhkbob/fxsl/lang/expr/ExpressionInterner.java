@@ -0,0 +1,68 @@
+package com.lhkbob.fxsl.lang.expr;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Expression Interner
+ * ===================
+ *
+ * A hash-consing table for expressions. Interning an expression returns the first interned
+ * expression that is logically equal to it, so a program whose expressions are all interned as
+ * they are constructed forms a DAG where every repeated subexpression, e.g. `foo + 3` used many
+ * times within the same scope, is a single shared instance. Since expressions are only equal when
+ * their scopes are the same instance, subexpressions are only shared within a scope.
+ *
+ * Interning is shallow: expressions must be interned bottom-up, i.e. an expression's children
+ * should already be interned when it is interned. This is how the parser constructs expressions,
+ * and it means that the equality checks performed by the table compare the children by reference.
+ *
+ * An interner holds strong references to its expressions and is meant to live as long as a single
+ * compilation, which keeps its expressions alive through its environment anyway. It is not thread
+ * safe.
+ *
+ * @author Michael Ludwig
+ */
+public final class ExpressionInterner {
+  private final Map<Expression, Expression> canonical;
+
+  /**
+   * Create a new interner that holds no expressions.
+   */
+  public ExpressionInterner() {
+    canonical = new HashMap<>();
+  }
+
+  /**
+   * Get the canonical instance of `expr`. If no expression equal to `expr` has been interned,
+   * `expr` becomes the canonical instance.
+   *
+   * @param expr
+   *     The expression to intern
+   * @param <E>
+   *     The expression class, an expression is only equal to expressions of the same class
+   * @return The canonical instance equal to `expr`
+   *
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   */
+  @SuppressWarnings("unchecked")
+  public <E extends Expression> E intern(E expr) {
+    notNull("expr", expr);
+    Expression existing = canonical.get(expr);
+    if (existing != null) {
+      return (E) existing;
+    }
+    canonical.put(expr, expr);
+    return expr;
+  }
+
+  /**
+   * @return The number of unique expressions that have been interned
+   */
+  public int size() {
+    return canonical.size();
+  }
+}
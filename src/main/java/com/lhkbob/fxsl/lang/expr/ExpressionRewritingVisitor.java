@@ -2,6 +2,7 @@ package com.lhkbob.fxsl.lang.expr;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -9,17 +10,32 @@ import java.util.Map;
  *
  */
 public class ExpressionRewritingVisitor implements Expression.Visitor<Expression> {
+  // Rewritten child expressions by identity, null when not memoizing
+  private final Map<Expression, Expression> rewritten;
+
+  public ExpressionRewritingVisitor() {
+    this(false);
+  }
+
+  /**
+   * Create a visitor that optionally memoizes the rewritten child expressions by identity. A
+   * memoizing visitor rewrites each unique expression instance once, and every parent that shared
+   * the original instance shares the single rewritten instance. Without memoization a shared
+   * expression is rewritten once per parent, which turns a DAG into a tree of equal copies.
+   * Memoization is only valid if the rewrite of an expression doesn't depend on where it is
+   * reached from.
+   *
+   * @param memoize
+   *     True if rewritten children should be reused
+   */
+  protected ExpressionRewritingVisitor(boolean memoize) {
+    rewritten = (memoize ? new IdentityHashMap<Expression, Expression>() : null);
+  }
+
   @Override
   public Expression visitArray(ArrayValue value) {
-    List<Expression> elements = new ArrayList<>();
-    boolean changed = false;
-    for (Expression v : value.getElements()) {
-      Expression newV = v.accept(this);
-      changed |= !v.equals(newV);
-      elements.add(newV);
-    }
-
-    if (changed) {
+    List<Expression> elements = rewriteAll(value.getElements());
+    if (elements != value.getElements()) {
       return new ArrayValue(value.getScope(), elements);
     } else {
       return value;
@@ -28,9 +44,9 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitArrayAccess(ArrayAccess access) {
-    Expression array = access.getArray().accept(this);
-    Expression index = access.getIndex().accept(this);
-    if (!access.getArray().equals(array) || !access.getIndex().equals(index)) {
+    Expression array = rewriteChild(access.getArray());
+    Expression index = rewriteChild(access.getIndex());
+    if (array != access.getArray() || index != access.getIndex()) {
       return new ArrayAccess(access.getScope(), array, index);
     } else {
       return access;
@@ -51,9 +67,9 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitDynamicArray(DynamicArrayValue value) {
-    Expression length = value.getLength().accept(this);
-    Expression element = value.getElementFunction().accept(this);
-    if (!value.getLength().equals(length) || !value.getElementFunction().equals(element)) {
+    Expression length = rewriteChild(value.getLength());
+    Expression element = rewriteChild(value.getElementFunction());
+    if (length != value.getLength() || element != value.getElementFunction()) {
       return new DynamicArrayValue(value.getScope(), length, element);
     } else {
       return value;
@@ -62,8 +78,8 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitFieldAccess(StructFieldAccess access) {
-    Expression newStruct = access.getStruct().accept(this);
-    if (!access.getStruct().equals(newStruct)) {
+    Expression newStruct = rewriteChild(access.getStruct());
+    if (newStruct != access.getStruct()) {
       return new StructFieldAccess(access.getScope(), newStruct, access.getField());
     } else {
       return access;
@@ -72,8 +88,8 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitFunction(FunctionValue function) {
-    Expression returnValue = function.getReturnValue().accept(this);
-    if (!function.getReturnValue().equals(returnValue)) {
+    Expression returnValue = rewriteChild(function.getReturnValue());
+    if (returnValue != function.getReturnValue()) {
       // FIXME how does this affect parameter expressions that exist within the function scope
       // but must now be updated to reflect the new function?
       // Likely we need to separate and have an object that represents a function declaration that
@@ -87,16 +103,9 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitFunctionCall(FunctionCall function) {
-    Expression functionValue = function.getFunction().accept(this);
-    List<Expression> params = new ArrayList<>();
-    boolean changed = !function.getFunction().equals(functionValue);
-    for (Expression v : function.getParameterValues()) {
-      Expression newV = v.accept(this);
-      changed |= !v.equals(newV);
-      params.add(newV);
-    }
-
-    if (changed) {
+    Expression functionValue = rewriteChild(function.getFunction());
+    List<Expression> params = rewriteAll(function.getParameterValues());
+    if (functionValue != function.getFunction() || params != function.getParameterValues()) {
       return new FunctionCall(function.getScope(), functionValue, params);
     } else {
       return function;
@@ -105,11 +114,11 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitIfThenElse(IfThenElse test) {
-    Expression condition = test.getCondition().accept(this);
-    Expression trueExpr = test.getTrueExpression().accept(this);
-    Expression falseExpr = test.getFalseExpression().accept(this);
-    if (!test.getCondition().equals(condition) || !test.getTrueExpression().equals(trueExpr)
-        || !test.getFalseExpression().equals(falseExpr)) {
+    Expression condition = rewriteChild(test.getCondition());
+    Expression trueExpr = rewriteChild(test.getTrueExpression());
+    Expression falseExpr = rewriteChild(test.getFalseExpression());
+    if (condition != test.getCondition() || trueExpr != test.getTrueExpression()
+        || falseExpr != test.getFalseExpression()) {
       return new IfThenElse(test.getScope(), condition, trueExpr, falseExpr);
     } else {
       return test;
@@ -123,7 +132,7 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitParameter(Parameter param) {
-    return null;
+    return param;
   }
 
   @Override
@@ -133,15 +142,19 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitStruct(StructValue struct) {
-    Map<String, Expression> structValues = new HashMap<>();
-    boolean changed = false;
+    // only copy the fields once a field value actually changes
+    Map<String, Expression> structValues = null;
     for (Map.Entry<String, Expression> f : struct.getFields().entrySet()) {
-      Expression newField = f.getValue().accept(this);
-      changed |= !f.getValue().equals(newField);
-      structValues.put(f.getKey(), newField);
+      Expression newField = rewriteChild(f.getValue());
+      if (structValues == null && newField != f.getValue()) {
+        structValues = new HashMap<>(struct.getFields());
+      }
+      if (structValues != null) {
+        structValues.put(f.getKey(), newField);
+      }
     }
 
-    if (changed) {
+    if (structValues != null) {
       return new StructValue(struct.getScope(), structValues);
     } else {
       return struct;
@@ -155,16 +168,9 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
 
   @Override
   public Expression visitUnion(UnionValue union) {
-    List<Expression> options = new ArrayList<>();
-    boolean changed = false;
-    for (Expression u : union.getOptions()) {
-      Expression newU = u.accept(this);
-      changed |= !u.equals(newU);
-      options.add(newU);
-    }
-
-    if (changed) {
-      return new ArrayValue(union.getScope(), options);
+    List<Expression> options = rewriteAll(union.getOptions());
+    if (options != union.getOptions()) {
+      return new UnionValue(union.getScope(), options);
     } else {
       return union;
     }
@@ -174,4 +180,40 @@ public class ExpressionRewritingVisitor implements Expression.Visitor<Expression
   public Expression visitVariable(VariableReference var) {
     return var;
   }
+
+  /**
+   * Rewrite a child expression by visiting it with this visitor, unless this visitor memoizes and
+   * has already rewritten the same instance.
+   *
+   * @param child
+   *     The child expression
+   * @return The rewritten child
+   */
+  protected Expression rewriteChild(Expression child) {
+    if (rewritten == null) {
+      return child.accept(this);
+    }
+
+    Expression result = rewritten.get(child);
+    if (result == null) {
+      result = child.accept(this);
+      rewritten.put(child, result);
+    }
+    return result;
+  }
+
+  private List<Expression> rewriteAll(List<Expression> expressions) {
+    // returns the original list if no expression changed
+    List<Expression> rewritten = null;
+    for (int i = 0; i < expressions.size(); i++) {
+      Expression e = rewriteChild(expressions.get(i));
+      if (rewritten == null && e != expressions.get(i)) {
+        rewritten = new ArrayList<>(expressions.subList(0, i));
+      }
+      if (rewritten != null) {
+        rewritten.add(e);
+      }
+    }
+    return (rewritten != null ? rewritten : expressions);
+  }
 }
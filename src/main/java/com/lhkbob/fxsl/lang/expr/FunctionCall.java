@@ -80,6 +80,9 @@ public final class FunctionCall extends EfficientEqualityBase implements Express
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     FunctionCall v = compareHashCodes(FunctionCall.class, o);
     return v != null && v.scope.equals(scope) && v.function.equals(function) &&
         v.parameterValues.equals(parameterValues);
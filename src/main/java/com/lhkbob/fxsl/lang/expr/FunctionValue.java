@@ -62,6 +62,9 @@ public final class FunctionValue extends EfficientEqualityBase implements Expres
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     FunctionValue v = compareHashCodes(FunctionValue.class, o);
     return v != null && v.scope.equals(scope) && v.parameters.equals(parameters) &&
         v.returnValue.equals(returnValue);
@@ -33,6 +33,9 @@ public class IfThenElse extends EfficientEqualityBase implements Expression {
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     IfThenElse t = compareHashCodes(IfThenElse.class, o);
     return t != null && t.scope.equals(scope) && t.condition.equals(condition) && t.trueExpr
         .equals(trueExpr) && t.falseExpr.equals(falseExpr);
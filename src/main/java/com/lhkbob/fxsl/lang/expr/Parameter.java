@@ -51,6 +51,9 @@ public final class Parameter extends EfficientEqualityBase implements Expression
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     Parameter t = compareHashCodes(Parameter.class, o);
     return t != null && t.name.equals(name) && t.function.equals(function);
   }
@@ -64,8 +64,11 @@ public final class PrimitiveValue extends EfficientEqualityBase implements Expre
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     PrimitiveValue v = compareHashCodes(PrimitiveValue.class, o);
-    return v.value.equals(value);
+    return v != null && v.value.equals(value);
   }
 
   @Override
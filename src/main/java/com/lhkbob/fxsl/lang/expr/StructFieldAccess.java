@@ -56,6 +56,9 @@ public final class StructFieldAccess extends EfficientEqualityBase implements Ex
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     StructFieldAccess a = compareHashCodes(StructFieldAccess.class, o);
     return a != null && a.scope.equals(scope) && a.struct.equals(struct) && a.field.equals(field);
   }
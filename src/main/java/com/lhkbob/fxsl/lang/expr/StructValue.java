@@ -64,6 +64,9 @@ public final class StructValue extends EfficientEqualityBase implements Expressi
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     StructValue v = compareHashCodes(StructValue.class, o);
     return v != null && v.scope.equals(scope) && v.fields.equals(fields);
   }
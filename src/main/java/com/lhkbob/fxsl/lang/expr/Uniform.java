@@ -27,6 +27,9 @@ public class Uniform extends EfficientEqualityBase implements Expression {
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     Uniform u = compareHashCodes(Uniform.class, o);
     return u != null && u.scope.equals(scope) && u.name.equals(name);
   }
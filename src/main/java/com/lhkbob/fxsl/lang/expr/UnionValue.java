@@ -69,6 +69,9 @@ public final class UnionValue extends EfficientEqualityBase implements Expressio
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     UnionValue v = compareHashCodes(UnionValue.class, o);
     return v != null && v.scope.equals(scope) && v.functions.equals(functions);
   }
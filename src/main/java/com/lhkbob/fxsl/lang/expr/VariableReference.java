@@ -57,6 +57,9 @@ public final class VariableReference extends EfficientEqualityBase implements Ex
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     VariableReference t = compareHashCodes(VariableReference.class, o);
     return t != null && t.name.equals(name) && t.scope.equals(scope);
   }
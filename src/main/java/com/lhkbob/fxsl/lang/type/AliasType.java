@@ -50,6 +50,9 @@ public class AliasType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object t) {
+    if (t == this) {
+      return true;
+    }
     AliasType a = compareHashCodes(AliasType.class, t);
     return a != null && a.scope.equals(scope) && a.label.equals(label);
   }
@@ -100,6 +100,9 @@ public final class ArrayType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object t) {
+    if (t == this) {
+      return true;
+    }
     ArrayType a = compareHashCodes(ArrayType.class, t);
     return a != null && a.length.equals(length) && a.componentType.equals(componentType);
   }
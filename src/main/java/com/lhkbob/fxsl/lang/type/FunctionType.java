@@ -64,6 +64,9 @@ public class FunctionType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object t) {
+    if (t == this) {
+      return true;
+    }
     FunctionType f = compareHashCodes(FunctionType.class, t);
     return f != null && f.returnType.equals(returnType) && f.parameters.equals(parameters);
   }
@@ -35,6 +35,9 @@ public class ParametricType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object t) {
+    if (t == this) {
+      return true;
+    }
     ParametricType p = compareHashCodes(ParametricType.class, t);
     return p != null && p.label.equals(label) && p.scope.equals(scope);
   }
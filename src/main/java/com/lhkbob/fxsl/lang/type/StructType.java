@@ -57,6 +57,9 @@ public final class StructType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object t) {
+    if (t == this) {
+      return true;
+    }
     StructType o = compareHashCodes(StructType.class, t);
     return o != null && o.fields.equals(fields);
   }
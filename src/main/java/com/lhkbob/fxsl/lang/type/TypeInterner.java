@@ -0,0 +1,186 @@
+package com.lhkbob.fxsl.lang.type;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Type Interner
+ * =============
+ *
+ * A hash-consing factory for types. Interning a type returns a canonical instance that is
+ * logically equal to it, so structurally equal types that are interned by the same interner are
+ * the same instance. Interning is deep: the component, parameter, field and option types of a
+ * type are interned first, so comparing two interned types never has to walk past their first
+ * level since the child types are compared by reference.
+ *
+ * Meta types are only equal to themselves and primitive types are already canonical, so both are
+ * returned as is. Every other type is canonicalized.
+ *
+ * The interner only weakly references the canonical instances, so types that are no longer used
+ * by the compiler can be garbage collected and a long-lived interner does not grow without
+ * bound. The table is split into independently locked segments so that it can be shared by
+ * concurrent compilations.
+ *
+ * @author Michael Ludwig
+ */
+public final class TypeInterner {
+  private static final int SEGMENT_COUNT = 16;
+
+  private final Segment[] segments;
+  private final InternVisitor internVisitor;
+
+  /**
+   * Create a new interner that holds no types.
+   */
+  public TypeInterner() {
+    segments = new Segment[SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment();
+    }
+    internVisitor = new InternVisitor();
+  }
+
+  /**
+   * Get the canonical instance of `type`. If no type equal to `type` has been interned, or it has
+   * been garbage collected since, `type` (or a copy of it whose child types were replaced by
+   * their canonical instances) becomes the canonical instance.
+   *
+   * @param type
+   *     The type to intern
+   * @return The canonical instance equal to `type`
+   *
+   * @throws java.lang.NullPointerException
+   *     if `type` is null
+   */
+  public Type intern(Type type) {
+    notNull("type", type);
+    return type.accept(internVisitor);
+  }
+
+  /**
+   * @return The number of canonical instances that have not been garbage collected
+   */
+  public int size() {
+    int size = 0;
+    for (Segment s : segments) {
+      size += s.size();
+    }
+    return size;
+  }
+
+  private Type canonicalize(Type type) {
+    // spread the cached hash so that the low bits used for the segment vary
+    int hash = type.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[hash & (SEGMENT_COUNT - 1)].canonicalize(type);
+  }
+
+  private class InternVisitor implements Type.Visitor<Type> {
+    @Override
+    public Type visitAliasType(AliasType t) {
+      return canonicalize(t);
+    }
+
+    @Override
+    public Type visitArrayType(ArrayType t) {
+      Type component = intern(t.getComponentType());
+      if (component != t.getComponentType()) {
+        t = new ArrayType(component, t.getLength());
+      }
+      return canonicalize(t);
+    }
+
+    @Override
+    public Type visitFunctionType(FunctionType t) {
+      Type returnType = intern(t.getReturnType());
+      List<Type> params = internAll(t.getParameterTypes());
+      if (returnType != t.getReturnType() || params != t.getParameterTypes()) {
+        t = new FunctionType(params, returnType);
+      }
+      return canonicalize(t);
+    }
+
+    @Override
+    public Type visitMetaType(MetaType t) {
+      return t;
+    }
+
+    @Override
+    public Type visitParametricType(ParametricType t) {
+      return canonicalize(t);
+    }
+
+    @Override
+    public Type visitPrimitiveType(PrimitiveType t) {
+      return t;
+    }
+
+    @Override
+    public Type visitStructType(StructType t) {
+      Map<String, Type> fields = null;
+      for (Map.Entry<String, Type> f : t.getFieldTypes().entrySet()) {
+        Type field = intern(f.getValue());
+        if (fields == null && field != f.getValue()) {
+          // copy the fields that were already canonical
+          fields = new LinkedHashMap<>();
+          for (Map.Entry<String, Type> g : t.getFieldTypes().entrySet()) {
+            if (g.getKey().equals(f.getKey())) {
+              break;
+            }
+            fields.put(g.getKey(), g.getValue());
+          }
+        }
+        if (fields != null) {
+          fields.put(f.getKey(), field);
+        }
+      }
+      return canonicalize(fields != null ? new StructType(fields) : t);
+    }
+
+    @Override
+    public Type visitUnionType(UnionType t) {
+      List<Type> options = internAll(t.getOptions());
+      return canonicalize(options != t.getOptions() ? new UnionType(options) : t);
+    }
+
+    private List<Type> internAll(List<Type> types) {
+      // returns the original list if every type was already canonical
+      List<Type> interned = null;
+      for (int i = 0; i < types.size(); i++) {
+        Type t = intern(types.get(i));
+        if (interned == null && t != types.get(i)) {
+          interned = new ArrayList<>(types.subList(0, i));
+        }
+        if (interned != null) {
+          interned.add(t);
+        }
+      }
+      return interned != null ? interned : types;
+    }
+  }
+
+  private static class Segment {
+    // the values must not strongly reference their keys or they would never be collected
+    private final WeakHashMap<Type, WeakReference<Type>> canonical = new WeakHashMap<>();
+
+    public synchronized Type canonicalize(Type type) {
+      WeakReference<Type> ref = canonical.get(type);
+      Type existing = (ref != null ? ref.get() : null);
+      if (existing != null) {
+        return existing;
+      }
+      canonical.put(type, new WeakReference<>(type));
+      return type;
+    }
+
+    public synchronized int size() {
+      return canonical.size();
+    }
+  }
+}
@@ -133,6 +133,10 @@ public final class TypePath extends EfficientEqualityBase {
       return (String) metadata;
     }
 
+    public NodeType getType() {
+      return type;
+    }
+
     @Override
     public int hashCode() {
       return type.hashCode() ^ (metadata == null ? 0 : metadata.hashCode());
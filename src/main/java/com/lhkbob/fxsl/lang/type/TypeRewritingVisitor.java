@@ -17,8 +17,8 @@ public class TypeRewritingVisitor implements Type.Visitor<Type> {
   @Override
   public Type visitArrayType(ArrayType t) {
     Type componentType = t.getComponentType().accept(this);
-    if (!t.getComponentType().equals(componentType)) {
-      return new ArrayType(componentType, t.getLength());
+    if (componentType != t.getComponentType()) {
+      return Types.intern(new ArrayType(componentType, t.getLength()));
     } else {
       return t;
     }
@@ -26,16 +26,10 @@ public class TypeRewritingVisitor implements Type.Visitor<Type> {
 
   @Override
   public Type visitFunctionType(FunctionType t) {
-    List<Type> paramTypes = new ArrayList<>();
     Type returnType = t.getReturnType().accept(this);
-    boolean changed = !t.getReturnType().equals(returnType);
-    for (Type p : t.getParameterTypes()) {
-      paramTypes.add(p.accept(this));
-      changed |= !p.equals(paramTypes.get(paramTypes.size() - 1));
-    }
-
-    if (changed) {
-      return new FunctionType(paramTypes, returnType);
+    List<Type> paramTypes = rewriteAll(t.getParameterTypes());
+    if (returnType != t.getReturnType() || paramTypes != t.getParameterTypes()) {
+      return Types.intern(new FunctionType(paramTypes, returnType));
     } else {
       return t;
     }
@@ -58,16 +52,20 @@ public class TypeRewritingVisitor implements Type.Visitor<Type> {
 
   @Override
   public Type visitStructType(StructType t) {
-    Map<String, Type> fieldTypes = new HashMap<>();
-    boolean changed = false;
+    // only copy the fields once a field type actually changes
+    Map<String, Type> fieldTypes = null;
     for (Map.Entry<String, Type> f : t.getFieldTypes().entrySet()) {
       Type fieldType = f.getValue().accept(this);
-      changed |= !f.getValue().equals(fieldType);
-      fieldTypes.put(f.getKey(), fieldType);
+      if (fieldTypes == null && fieldType != f.getValue()) {
+        fieldTypes = new HashMap<>(t.getFieldTypes());
+      }
+      if (fieldTypes != null) {
+        fieldTypes.put(f.getKey(), fieldType);
+      }
     }
 
-    if (changed) {
-      return new StructType(fieldTypes);
+    if (fieldTypes != null) {
+      return Types.intern(new StructType(fieldTypes));
     } else {
       return t;
     }
@@ -75,18 +73,26 @@ public class TypeRewritingVisitor implements Type.Visitor<Type> {
 
   @Override
   public Type visitUnionType(UnionType t) {
-    List<Type> unionTypes = new ArrayList<>();
-    boolean changed = false;
-    for (Type u : t.getOptions()) {
-      Type optionType = u.accept(this);
-      changed |= !u.equals(optionType);
-      unionTypes.add(optionType);
-    }
-
-    if (changed) {
-      return new UnionType(unionTypes);
+    List<Type> unionTypes = rewriteAll(t.getOptions());
+    if (unionTypes != t.getOptions()) {
+      return Types.intern(new UnionType(unionTypes));
     } else {
       return t;
     }
   }
+
+  private List<Type> rewriteAll(List<Type> types) {
+    // returns the original list if no type changed
+    List<Type> rewritten = null;
+    for (int i = 0; i < types.size(); i++) {
+      Type type = types.get(i).accept(this);
+      if (rewritten == null && type != types.get(i)) {
+        rewritten = new ArrayList<>(types.subList(0, i));
+      }
+      if (rewritten != null) {
+        rewritten.add(type);
+      }
+    }
+    return (rewritten != null ? rewritten : types);
+  }
 }
@@ -1,5 +1,6 @@
 package com.lhkbob.fxsl.lang.type;
 
+import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
 import com.lhkbob.fxsl.lang.InvalidExpressionException;
 import com.lhkbob.fxsl.lang.Scope;
@@ -20,7 +21,7 @@ import com.lhkbob.fxsl.lang.expr.VariableReference;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +30,9 @@ import java.util.Set;
  *
  */
 public final class Types {
+  // Shared by all compilations, it only weakly holds the types so it does not need to be cleared
+  private static final TypeInterner INTERNER = new TypeInterner();
+
   private Types() {
   }
 
@@ -38,9 +42,9 @@ public final class Types {
           @Override
           public Type visitAliasType(AliasType t) {
             // FIXME where do we handle type cycle checking? can it be done so that it solves meta type cycles as well?
-            Type lookup = env.getType(t.getScope(), t.getLabel());
+            Declaration<Type> lookup = env.getDeclaredType(t.getScope(), t.getLabel());
             if (lookup != null) {
-              return generalize(lookup, env);
+              return generalize(lookup.getValue(), env);
             } else {
               return t;
             }
@@ -51,11 +55,7 @@ public final class Types {
             Type component = generalize(t.getComponentType(), env);
             if (component != t.getComponentType()) {
               // meta type got lifted up
-              if (t.getWildcardLength() == null) {
-                return new ArrayType(t.getComponentType(), t.getConcreteLength());
-              } else {
-                return new ArrayType(t.getComponentType(), t.getWildcardLength());
-              }
+              return intern(new ArrayType(component, t.getLength()));
             } else {
               // no metas to change
               return t;
@@ -77,7 +77,7 @@ public final class Types {
 
             Type returnType = generalize(t.getReturnType(), env);
             if (changed || returnType != t.getReturnType()) {
-              return new FunctionType(pTypes, returnType);
+              return intern(new FunctionType(pTypes, returnType));
             } else {
               return t;
             }
@@ -85,7 +85,7 @@ public final class Types {
 
           @Override
           public Type visitMetaType(MetaType t) {
-            Type bound = env.getMetaTypeBinding(t);
+            Type bound = env.getBoundMetaType(t);
             if (bound != null) {
               return generalize(bound, env);
               // FIXME think about this, can this create an infinite loop?
@@ -122,7 +122,7 @@ public final class Types {
             }
 
             if (changed) {
-              return new StructType(fTypes);
+              return intern(new StructType(fTypes));
             } else {
               return t;
             }
@@ -131,7 +131,7 @@ public final class Types {
           @Override
           public Type visitUnionType(UnionType t) {
             boolean changed = false;
-            Set<Type> options = new HashSet<>();
+            Set<Type> options = new LinkedHashSet<>();
             for (Type u : t.getOptions()) {
               Type newU = generalize(u, env);
               if (newU != u) {
@@ -141,7 +141,7 @@ public final class Types {
             }
 
             if (changed) {
-              return new UnionType(options);
+              return intern(new UnionType(new ArrayList<>(options)));
             } else {
               return t;
             }
@@ -285,6 +285,21 @@ public final class Types {
         });
   }
 
+  /**
+   * Get the canonical instance of `type` from the interner shared by the compiler. Types created
+   * by {@link #generalize(Type, Environment)} and {@link #substitute(Type, Type, Type,
+   * Environment)} are interned, so structurally equal results are the same instance.
+   *
+   * @param type
+   *     The type to intern
+   * @return The canonical instance equal to `type`
+   *
+   * @see TypeInterner
+   */
+  public static Type intern(Type type) {
+    return INTERNER.intern(type);
+  }
+
   public static boolean occursIn(final Type a, final Type b, final Environment environment) {
     if (a.equals(b)) {
       return true;
@@ -366,85 +381,8 @@ public final class Types {
     return t;
   }
 
-  public static Type substitute(
-      final Type a, final Type b, final Type replaceWith, final Environment environment) {
-    if (a.equals(b)) {
-      return replaceWith;
-    }
-    return b.accept(
-        new Type.Visitor<Type>() {
-          @Override
-          public Type visitAliasType(AliasType t) {
-            Type bound = environment.getType(t.getScope(), t.getLabel());
-            if (bound != null) {
-              return substitute(a, bound, replaceWith, environment);
-            } else {
-              // this is a leaf type not equal to a, so it can't be substituted
-              return t;
-            }
-          }
-
-          @Override
-          public Type visitArrayType(ArrayType t) {
-            Type component = substitute(a, t.getComponentType(), replaceWith, environment);
-            if (t.getWildcardLength() != null) {
-              return new ArrayType(component, t.getWildcardLength());
-            } else {
-              return new ArrayType(component, t.getConcreteLength());
-            }
-          }
-
-          @Override
-          public Type visitFunctionType(FunctionType t) {
-            Type returnType = substitute(a, t.getReturnType(), replaceWith, environment);
-            List<Type> paramTypes = new ArrayList<>();
-            for (Type p : t.getParameterTypes()) {
-              paramTypes.add(substitute(a, p, replaceWith, environment));
-            }
-            return new FunctionType(paramTypes, returnType);
-          }
-
-          @Override
-          public Type visitMetaType(MetaType t) {
-            Type bound = environment.getMetaTypeBinding(t);
-            if (bound != null) {
-              return substitute(a, bound, replaceWith, environment);
-            } else {
-              // leaf type not equal to a, so it can't be substituted
-              return t;
-            }
-          }
-
-          @Override
-          public Type visitParametricType(ParametricType t) {
-            // this is a leaf type not equal to a, so it can't be substituted
-            return t;
-          }
-
-          @Override
-          public Type visitPrimitiveType(PrimitiveType t) {
-            // this is a leaf type not equal to a, so it can't be substituted
-            return t;
-          }
-
-          @Override
-          public Type visitStructType(StructType t) {
-            Map<String, Type> fields = new HashMap<>();
-            for (Map.Entry<String, Type> f : t.getFieldTypes().entrySet()) {
-              fields.put(f.getKey(), substitute(a, f.getValue(), replaceWith, environment));
-            }
-            return new StructType(fields);
-          }
-
-          @Override
-          public Type visitUnionType(UnionType t) {
-            Set<Type> union = new HashSet<>();
-            for (Type u : t.getOptions()) {
-              union.add(substitute(a, u, replaceWith, environment));
-            }
-            return new UnionType(union);
-          }
-        });
+  public static Type substitute(Type a, Type b, Type replaceWith, Environment environment) {
+    return new Substitution(a, replaceWith, environment).substitute(b);
   }
 
   public static Type unify(Type a, Type b, Environment environment) {
@@ -630,4 +568,127 @@ public final class Types {
           }
         });
   }
+
+  /**
+   * Replaces every occurrence of a type with another. Types that don't contain the replaced type
+   * are returned as is, so substituting into an unaffected type allocates nothing.
+   */
+  private static class Substitution implements Type.Visitor<Type> {
+    private final Type a;
+    private final Type replaceWith;
+    private final Environment environment;
+
+    public Substitution(Type a, Type replaceWith, Environment environment) {
+      this.a = a;
+      this.replaceWith = replaceWith;
+      this.environment = environment;
+    }
+
+    public Type substitute(Type b) {
+      if (a.equals(b)) {
+        return replaceWith;
+      }
+      return b.accept(this);
+    }
+
+    @Override
+    public Type visitAliasType(AliasType t) {
+      Declaration<Type> bound = environment.getDeclaredType(t.getScope(), t.getLabel());
+      if (bound != null) {
+        return substitute(bound.getValue());
+      } else {
+        // this is a leaf type not equal to a, so it can't be substituted
+        return t;
+      }
+    }
+
+    @Override
+    public Type visitArrayType(ArrayType t) {
+      Type component = substitute(t.getComponentType());
+      if (component == t.getComponentType()) {
+        return t;
+      } else {
+        return intern(new ArrayType(component, t.getLength()));
+      }
+    }
+
+    @Override
+    public Type visitFunctionType(FunctionType t) {
+      Type returnType = substitute(t.getReturnType());
+      List<Type> paramTypes = substituteAll(t.getParameterTypes());
+      if (returnType == t.getReturnType() && paramTypes == t.getParameterTypes()) {
+        return t;
+      }
+      return intern(new FunctionType(paramTypes, returnType));
+    }
+
+    @Override
+    public Type visitMetaType(MetaType t) {
+      Type bound = environment.getBoundMetaType(t);
+      if (bound != null) {
+        return substitute(bound);
+      } else {
+        // leaf type not equal to a, so it can't be substituted
+        return t;
+      }
+    }
+
+    @Override
+    public Type visitParametricType(ParametricType t) {
+      // this is a leaf type not equal to a, so it can't be substituted
+      return t;
+    }
+
+    @Override
+    public Type visitPrimitiveType(PrimitiveType t) {
+      // this is a leaf type not equal to a, so it can't be substituted
+      return t;
+    }
+
+    @Override
+    public Type visitStructType(StructType t) {
+      // only copy the fields once a field type actually changes
+      Map<String, Type> fields = null;
+      for (Map.Entry<String, Type> f : t.getFieldTypes().entrySet()) {
+        Type field = substitute(f.getValue());
+        if (fields == null && field != f.getValue()) {
+          fields = new HashMap<>(t.getFieldTypes());
+        }
+        if (fields != null) {
+          fields.put(f.getKey(), field);
+        }
+      }
+      return (fields != null ? intern(new StructType(fields)) : t);
+    }
+
+    @Override
+    public Type visitUnionType(UnionType t) {
+      List<Type> options = substituteAll(t.getOptions());
+      if (options == t.getOptions()) {
+        return t;
+      }
+
+      // substitution can make options equal, which the union must only hold once
+      Set<Type> union = new LinkedHashSet<>(options);
+      if (union.size() == 1) {
+        return union.iterator().next();
+      }
+      return intern(new UnionType(new ArrayList<>(union)));
+    }
+
+    private List<Type> substituteAll(List<Type> types) {
+      // returns the original list if no type changed
+      List<Type> substituted = null;
+      for (int i = 0; i < types.size(); i++) {
+        Type t = substitute(types.get(i));
+        if (substituted == null && t != types.get(i)) {
+          substituted = new ArrayList<>(types.subList(0, i));
+        }
+        if (substituted != null) {
+          substituted.add(t);
+        }
+      }
+      return (substituted != null ? substituted : types);
+    }
+  }
 }
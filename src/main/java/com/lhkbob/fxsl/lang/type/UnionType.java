@@ -73,6 +73,9 @@ public final class UnionType extends EfficientEqualityBase implements Type {
 
   @Override
   public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
     UnionType t = compareHashCodes(UnionType.class, o);
     return t != null && t.functions.equals(functions);
   }
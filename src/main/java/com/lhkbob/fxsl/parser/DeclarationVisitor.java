@@ -1,5 +1,6 @@
 package com.lhkbob.fxsl.parser;
 
+import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.type.Type;
 
@@ -8,9 +9,9 @@ import org.antlr.v4.runtime.misc.NotNull;
 import static com.lhkbob.fxsl.util.Preconditions.notNull;
 
 /**
- *
+ * Adds the visited declaration to the current scope and returns it.
  */
-public class DeclarationVisitor extends FXSLBaseVisitor<Void> {
+public class DeclarationVisitor extends FXSLBaseVisitor<Declaration<?>> {
   private final ParseContext context;
 
   public DeclarationVisitor(ParseContext context) {
@@ -19,25 +20,25 @@ public class DeclarationVisitor extends FXSLBaseVisitor<Void> {
   }
 
   @Override
-  public Void visitTypeDef(@NotNull FXSLParser.TypeDefContext ctx) {
-    String typeName = ctx.Identifier().getText();
+  public Declaration<Type> visitTypeDef(@NotNull FXSLParser.TypeDefContext ctx) {
+    String typeName = context.intern(ctx.Identifier().getText());
     Type type = ctx.type().accept(context.getTypeVisitor());
-    context.getEnvironment().addDeclaredType(context.getCurrentScope(), typeName, type);
-    return null;
+    context.addDeclaredType(context.getCurrentScope(), typeName, type);
+    return new Declaration<>(context.getCurrentScope(), typeName, type);
   }
 
   @Override
-  public Void visitVarDef(@NotNull FXSLParser.VarDefContext ctx) {
+  public Declaration<Expression> visitVarDef(@NotNull FXSLParser.VarDefContext ctx) {
     Expression expression = ctx.expr().accept(context.getExpressionVisitor());
 
     String varName;
     if (ctx.optTypeKeyValue().Identifier() != null) {
-      varName = ctx.optTypeKeyValue().Identifier().getText();
+      varName = context.intern(ctx.optTypeKeyValue().Identifier().getText());
     } else {
-      varName = ctx.optTypeKeyValue().typeKeyValue().Identifier().getText();
+      varName = context.intern(ctx.optTypeKeyValue().typeKeyValue().Identifier().getText());
       context.startNewVariableDeclaration(varName);
       try {
-        context.getEnvironment().setExpressionType(
+        context.setExpressionType(
             expression,
             ctx.optTypeKeyValue().typeKeyValue().type().accept(context.getTypeVisitor()));
       } finally {
@@ -45,7 +46,7 @@ public class DeclarationVisitor extends FXSLBaseVisitor<Void> {
       }
     }
 
-    context.getEnvironment().addDeclaredVariable(context.getCurrentScope(), varName, expression);
-    return null;
+    context.addDeclaredVariable(context.getCurrentScope(), varName, expression);
+    return new Declaration<>(context.getCurrentScope(), varName, expression);
   }
 }
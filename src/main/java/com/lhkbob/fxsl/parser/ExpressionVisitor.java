@@ -46,14 +46,15 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
       elems.add(e.accept(this));
     }
 
-    return new ArrayValue(context.getCurrentScope(), elems);
+    return context.share(new ArrayValue(context.getCurrentScope(), elems), ctx.getStart());
   }
 
   @Override
   public ArrayAccess visitArrayAccess(@NotNull FXSLParser.ArrayAccessContext ctx) {
     Expression value = ctx.value.accept(this);
     Expression index = ctx.index.accept(this);
-    return new ArrayAccess(context.getCurrentScope(), value, index);
+    return context.share(
+        new ArrayAccess(context.getCurrentScope(), value, index), ctx.getStart());
   }
 
   @Override
@@ -61,20 +62,21 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     String name;
     Type declaredType;
     if (ctx.optTypeKeyValue().typeKeyValue() != null) {
-      name = ctx.optTypeKeyValue().typeKeyValue().Identifier().getText();
+      name = context.intern(ctx.optTypeKeyValue().typeKeyValue().Identifier().getText());
       if (context.isInsideVariableDeclaration()) {
         throw new IllegalStateException(
             "Should not be possible to have attribute expression in a variable's declared type");
       }
       declaredType = ctx.optTypeKeyValue().typeKeyValue().type().accept(context.getTypeVisitor());
     } else {
-      name = ctx.optTypeKeyValue().Identifier().getText();
+      name = context.intern(ctx.optTypeKeyValue().Identifier().getText());
       declaredType = null;
     }
 
-    Attribute attr = new Attribute(context.getCurrentScope(), name);
+    Attribute attr = context.share(
+        new Attribute(context.getCurrentScope(), name), ctx.getStart());
     if (declaredType != null) {
-      context.getEnvironment().setExpressionType(attr, declaredType);
+      context.setExpressionType(attr, declaredType);
     }
     return attr;
   }
@@ -84,22 +86,28 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     Expression left = ctx.left.accept(this);
     Expression right = ctx.right.accept(this);
 
-    Expression function = new VariableReference(context.getCurrentScope(), ctx.op.getText());
-    return new FunctionCall(context.getCurrentScope(), function, Arrays.asList(left, right));
+    Expression function = context.share(
+        new VariableReference(context.getCurrentScope(), context.intern(ctx.op.getText())),
+        ctx.op);
+    return context.share(
+        new FunctionCall(context.getCurrentScope(), function, Arrays.asList(left, right)),
+        ctx.getStart());
   }
 
   @Override
   public Expression visitDynamicArray(@NotNull FXSLParser.DynamicArrayContext ctx) {
     Expression length = ctx.length.accept(this);
     Expression elements = ctx.func.accept(this);
-    return new DynamicArrayValue(context.getCurrentScope(), length, elements);
+    return context.share(
+        new DynamicArrayValue(context.getCurrentScope(), length, elements), ctx.getStart());
   }
 
   @Override
   public StructFieldAccess visitFieldAccess(@NotNull FXSLParser.FieldAccessContext ctx) {
     Expression value = ctx.value.accept(this);
-    String fieldName = ctx.field.getText();
-    return new StructFieldAccess(context.getCurrentScope(), value, fieldName);
+    String fieldName = context.intern(ctx.field.getText());
+    return context.share(
+        new StructFieldAccess(context.getCurrentScope(), value, fieldName), ctx.getStart());
   }
 
   @Override
@@ -108,10 +116,10 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     List<FXSLParser.TypeContext> parameterTypes = new ArrayList<>();
     for (FXSLParser.OptTypeKeyValueContext p : ctx.params) {
       if (p.typeKeyValue() != null) {
-        parameterNames.add(p.typeKeyValue().Identifier().getText());
+        parameterNames.add(context.intern(p.typeKeyValue().Identifier().getText()));
         parameterTypes.add(p.typeKeyValue().type());
       } else {
-        parameterNames.add(p.Identifier().getText());
+        parameterNames.add(context.intern(p.Identifier().getText()));
         parameterTypes.add(null);
       }
     }
@@ -121,21 +129,23 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
       Expression body = ctx.returnExpr.accept(this);
       // The function itself is in the parent scope, but don't pop off the current scope yet since
       // it will need to be active when the parameters are created.
-      FunctionValue function = new FunctionValue(funcScope.getParent(), parameterNames, body);
+      FunctionValue function = context.share(
+          new FunctionValue(funcScope.getParent(), parameterNames, body), ctx.getStart());
 
       // Now add all the parameter expressions to the body scope
       for (int i = 0; i < parameterNames.size(); i++) {
-        Parameter param = new Parameter(function, parameterNames.get(i));
+        Parameter param = context.share(
+            new Parameter(function, parameterNames.get(i)), ctx.params.get(i).getStart());
         if (parameterTypes.get(i) != null) {
           context.startNewVariableDeclaration(parameterNames.get(i));
           try {
-            context.getEnvironment()
-                .setExpressionType(param, parameterTypes.get(i).accept(context.getTypeVisitor()));
+            context.setExpressionType(
+                param, parameterTypes.get(i).accept(context.getTypeVisitor()));
           } finally {
             context.finishVariableDeclaration();
           }
         }
-        context.getEnvironment().addDeclaredVariable(funcScope, parameterNames.get(i), param);
+        context.addDeclaredVariable(funcScope, parameterNames.get(i), param);
       }
 
       return function;
@@ -151,7 +161,8 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     for (FXSLParser.ExprContext p : ctx.params) {
       args.add(p.accept(this));
     }
-    return new FunctionCall(context.getCurrentScope(), function, args);
+    return context.share(
+        new FunctionCall(context.getCurrentScope(), function, args), ctx.getStart());
   }
 
   @Override
@@ -159,7 +170,8 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     Expression condition = ctx.condition.accept(this);
     Expression trueExpr = ctx.trueExpr.accept(this);
     Expression falseExpr = ctx.falseExpr.accept(this);
-    return new IfThenElse(context.getCurrentScope(), condition, trueExpr, falseExpr);
+    return context.share(
+        new IfThenElse(context.getCurrentScope(), condition, trueExpr, falseExpr), ctx.getStart());
   }
 
   @Override
@@ -178,11 +190,14 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
   @Override
   public PrimitiveValue visitPrimitive(@NotNull FXSLParser.PrimitiveContext ctx) {
     if (ctx.Boolean() != null) {
-      return new PrimitiveValue(Boolean.parseBoolean(ctx.Boolean().getText()));
+      return context.share(
+          new PrimitiveValue(Boolean.parseBoolean(ctx.Boolean().getText())), ctx.getStart());
     } else if (ctx.Integer() != null) {
-      return new PrimitiveValue(Integer.parseInt(ctx.Integer().getText()));
+      return context.share(
+          new PrimitiveValue(Integer.parseInt(ctx.Integer().getText())), ctx.getStart());
     } else if (ctx.Float() != null) {
-      return new PrimitiveValue(Float.parseFloat(ctx.Float().getText()));
+      return context.share(
+          new PrimitiveValue(Float.parseFloat(ctx.Float().getText())), ctx.getStart());
     } else {
       throw new IllegalStateException("Not a real primitive value");
     }
@@ -211,16 +226,20 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     Map<String, Expression> fields = new HashMap<>();
     for (FXSLParser.ExprKeyValueContext f : ctx.exprKeyValue()) {
       Expression value = f.expr().accept(this);
-      fields.put(f.Identifier().getText(), value);
+      fields.put(context.intern(f.Identifier().getText()), value);
     }
-    return new StructValue(context.getCurrentScope(), fields);
+    return context.share(new StructValue(context.getCurrentScope(), fields), ctx.getStart());
   }
 
   @Override
   public FunctionCall visitUnaryExpression(@NotNull FXSLParser.UnaryExpressionContext ctx) {
     Expression arg = ctx.expr().accept(this);
-    Expression function = new VariableReference(context.getCurrentScope(), ctx.op.getText());
-    return new FunctionCall(context.getCurrentScope(), function, Collections.singletonList(arg));
+    Expression function = context.share(
+        new VariableReference(context.getCurrentScope(), context.intern(ctx.op.getText())),
+        ctx.op);
+    return context.share(
+        new FunctionCall(context.getCurrentScope(), function, Collections.singletonList(arg)),
+        ctx.getStart());
   }
 
   @Override
@@ -228,28 +247,30 @@ public class ExpressionVisitor extends FXSLBaseVisitor<Expression> {
     String name;
     Type declaredType;
     if (ctx.optTypeKeyValue().typeKeyValue() != null) {
-      name = ctx.optTypeKeyValue().typeKeyValue().Identifier().getText();
+      name = context.intern(ctx.optTypeKeyValue().typeKeyValue().Identifier().getText());
       if (context.isInsideVariableDeclaration()) {
         throw new IllegalStateException(
             "Should not be possible to have uniform expression in a variable's declared type");
       }
       declaredType = ctx.optTypeKeyValue().typeKeyValue().type().accept(context.getTypeVisitor());
     } else {
-      name = ctx.optTypeKeyValue().Identifier().getText();
+      name = context.intern(ctx.optTypeKeyValue().Identifier().getText());
       declaredType = null;
     }
 
-    Uniform uniform = new Uniform(context.getCurrentScope(), name);
+    Uniform uniform = context.share(
+        new Uniform(context.getCurrentScope(), name), ctx.getStart());
     if (declaredType != null) {
-      context.getEnvironment().setExpressionType(uniform, declaredType);
+      context.setExpressionType(uniform, declaredType);
     }
     return uniform;
   }
 
   @Override
   public VariableReference visitVariable(@NotNull FXSLParser.VariableContext ctx) {
-    String varName = ctx.Identifier().getText();
-    return new VariableReference(context.getCurrentScope(), varName);
+    String varName = context.intern(ctx.Identifier().getText());
+    return context.share(
+        new VariableReference(context.getCurrentScope(), varName), ctx.getStart());
   }
 
 }
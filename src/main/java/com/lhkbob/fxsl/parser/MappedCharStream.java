@@ -0,0 +1,168 @@
+package com.lhkbob.fxsl.parser;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Mapped Char Stream
+ * ==================
+ *
+ * A character stream over a memory-mapped file. Shader sources are almost always plain ASCII, in
+ * which case every byte is a character and the lexer reads straight from the mapped pages without
+ * the source ever being copied onto the heap. A source that contains any other UTF-8 sequence is
+ * decoded once into a heap buffer of UTF-16 characters, the same representation that {@link
+ * org.antlr.v4.runtime.ANTLRInputStream} uses, since the lexer must be able to seek by character
+ * index.
+ *
+ * Token text is only copied out of the mapping when it is requested. The mapping stays valid
+ * after the channel it was created from is closed, and is released once the stream and every
+ * token referencing it have been garbage collected.
+ *
+ * @author Michael Ludwig
+ */
+public class MappedCharStream implements CharStream {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String sourceName;
+  // Exactly one of these is non-null; ascii is the mapped file, decoded is used for non-ASCII
+  private final ByteBuffer ascii;
+  private final CharBuffer decoded;
+  private final int size;
+
+  private int p;
+
+  /**
+   * Map the remainder of `channel`, starting at its current position, and decode it as UTF-8.
+   *
+   * @param channel
+   *     The channel to map, which may be closed once the stream has been created
+   * @param sourceName
+   *     The name reported for the source, e.g. the file's path
+   * @throws java.io.IOException
+   *     if the channel could not be mapped, or its content isn't valid UTF-8
+   * @throws java.lang.IllegalArgumentException
+   *     if the content is larger than 2GB
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   */
+  public MappedCharStream(FileChannel channel, String sourceName) throws IOException {
+    notNull("channel", channel);
+    notNull("sourceName", sourceName);
+    long length = channel.size() - channel.position();
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Source is too large to map: " + length + " bytes");
+    }
+
+    ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, channel.position(), length);
+    this.sourceName = sourceName;
+    if (isAscii(mapped)) {
+      ascii = mapped;
+      decoded = null;
+      size = mapped.limit();
+    } else {
+      ascii = null;
+      decoded = UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT)
+                     .onUnmappableCharacter(CodingErrorAction.REPORT).decode(mapped);
+      size = decoded.limit();
+    }
+    p = 0;
+  }
+
+  @Override
+  public void consume() {
+    if (p >= size) {
+      throw new IllegalStateException("cannot consume EOF");
+    }
+    p++;
+  }
+
+  @Override
+  public int LA(int i) {
+    if (i == 0) {
+      // undefined
+      return 0;
+    } else if (i < 0) {
+      // e.g., translate LA(-1) to use offset 0
+      i++;
+    }
+
+    int index = p + i - 1;
+    if (index < 0 || index >= size) {
+      return IntStream.EOF;
+    }
+    return charAt(index);
+  }
+
+  @Override
+  public int mark() {
+    // The whole source is available so there's nothing to keep around
+    return -1;
+  }
+
+  @Override
+  public void release(int marker) {
+  }
+
+  @Override
+  public int index() {
+    return p;
+  }
+
+  @Override
+  public void seek(int index) {
+    p = Math.min(Math.max(index, 0), size);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String getSourceName() {
+    return sourceName;
+  }
+
+  @Override
+  public String getText(Interval interval) {
+    int start = interval.a;
+    int stop = Math.min(interval.b, size - 1);
+    if (start >= size || stop < start) {
+      return "";
+    }
+
+    char[] text = new char[stop - start + 1];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = charAt(start + i);
+    }
+    return new String(text);
+  }
+
+  @Override
+  public String toString() {
+    return getText(Interval.of(0, size - 1));
+  }
+
+  private char charAt(int index) {
+    return (ascii != null ? (char) ascii.get(index) : decoded.get(index));
+  }
+
+  private static boolean isAscii(ByteBuffer buffer) {
+    for (int i = buffer.position(); i < buffer.limit(); i++) {
+      if (buffer.get(i) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -2,9 +2,21 @@ package com.lhkbob.fxsl.parser;
 
 import com.lhkbob.fxsl.lang.Environment;
 import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.ExpressionInterner;
 import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.Type;
 import com.lhkbob.fxsl.lang.type.TypePath;
 
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  *
  */
@@ -14,19 +26,60 @@ public class ParseContext {
   private final ExpressionVisitor exprVisitor;
   private final TypeVisitor typeVisitor;
 
+  // Canonical instance of every identifier read from the source
+  private final Map<String, String> identifiers;
+
   private Scope currentScope;
+  // null when expressions are not hash-consed
+  private ExpressionInterner interner;
+  // null when changes to the environment are not being recorded
+  private List<ParseRecording.Change> recording;
 
   private TypePath.Builder currentTypePath; // null implies no variable source, e.g. type declaration
 
   public ParseContext() {
-    environment = new Environment();
+    this(new Environment());
+  }
+
+  public ParseContext(Environment environment) {
+    if (environment.isFrozen()) {
+      // Parsing adds declarations so it must happen in a private child of the frozen environment
+      environment = environment.push();
+    }
+    this.environment = environment;
     currentScope = environment.getRootScope();
 
     declVisitor = new DeclarationVisitor(this);
     exprVisitor = new ExpressionVisitor(this);
     typeVisitor = new TypeVisitor(this);
+    identifiers = new HashMap<>();
 
     currentTypePath = null;
+    recording = null;
+    interner = null;
+  }
+
+  public void addDeclaredType(Scope scope, String name, Type type) {
+    environment.addDeclaredType(scope, name, type);
+    if (recording != null) {
+      recording.add(new ParseRecording.TypeDeclaration(scope, name, type));
+    }
+  }
+
+  public void addDeclaredVariable(Scope scope, String name, Expression expression) {
+    environment.addDeclaredVariable(scope, name, expression);
+    if (recording != null) {
+      recording.add(new ParseRecording.VariableDeclaration(scope, name, expression));
+    }
+  }
+
+  public ParseRecording finishRecording(Expression result) {
+    if (recording == null) {
+      throw new IllegalStateException("No recording to finish");
+    }
+    ParseRecording finished = new ParseRecording(environment.getRootScope(), result, recording);
+    recording = null;
+    return finished;
   }
 
   public void finishVariableDeclaration() {
@@ -60,10 +113,47 @@ public class ParseContext {
     return typeVisitor;
   }
 
+  /**
+   * Get the canonical instance of an identifier read from the source. Every occurrence of a name
+   * in a parse shares one string instead of each token holding its own copy, which saves the
+   * memory of the duplicates that the expressions, types and declarations would otherwise keep.
+   * Equal names are then usually the same instance, so the `equals` calls made when they are
+   * looked up in the environment's declaration maps succeed on identity without comparing
+   * characters.
+   *
+   * @param identifier
+   *     The identifier text
+   * @return The canonical string equal to `identifier`
+   */
+  public String intern(String identifier) {
+    String canonical = identifiers.get(identifier);
+    if (canonical == null) {
+      identifiers.put(identifier, identifier);
+      canonical = identifier;
+    }
+    return canonical;
+  }
+
+  public boolean isHashConsing() {
+    return interner != null;
+  }
+
   public boolean isInsideVariableDeclaration() {
     return currentTypePath != null;
   }
 
+  public boolean isRecording() {
+    return recording != null;
+  }
+
+  public ArrayType.Length newLengthWildcard() {
+    ArrayType.Length wildcard = environment.newLengthWildcard();
+    if (recording != null) {
+      recording.add(new ParseRecording.LengthWildcard(wildcard));
+    }
+    return wildcard;
+  }
+
   public void pop() {
     if (currentScope.equals(environment.getRootScope())) {
       throw new IllegalStateException("Cannot pop past the root scope");
@@ -76,6 +166,62 @@ public class ParseContext {
     return currentScope;
   }
 
+  /**
+   * Enable or disable hash-consing of the parsed expressions. When enabled every expression built
+   * by the visitors is interned, so repeated subexpressions within a scope are parsed into a
+   * single shared instance and the parsed program is a DAG instead of a tree. Disabling it forgets
+   * the interned expressions.
+   *
+   * @param hashCons
+   *     True if expressions should be interned as they are parsed
+   */
+  public void setHashConsing(boolean hashCons) {
+    if (!hashCons) {
+      interner = null;
+    } else if (interner == null) {
+      interner = new ExpressionInterner();
+    }
+  }
+
+  public void setExpressionType(Expression expr, Type type) {
+    environment.setExpressionType(expr, type);
+    if (recording != null) {
+      recording.add(new ParseRecording.ExpressionType(expr, type));
+    }
+  }
+
+  /**
+   * Get the instance of a newly parsed expression to use in the parsed program, which is `expr`
+   * itself unless hash-consing is enabled and an equal expression was already parsed. The position
+   * of `start` is recorded as the source position of the returned instance, unless it already has
+   * one.
+   *
+   * @param expr
+   *     The parsed expression
+   * @param start
+   *     The first token of the expression
+   * @param <E>
+   *     The expression type
+   * @return The instance to use for `expr`
+   */
+  public <E extends Expression> E share(E expr, Token start) {
+    E shared = (interner != null ? interner.intern(expr) : expr);
+    String sourceName = start.getTokenSource().getSourceName();
+    if (sourceName == null || sourceName.isEmpty()) {
+      sourceName = IntStream.UNKNOWN_SOURCE_NAME;
+    }
+    environment.setSourcePosition(
+        shared, sourceName, start.getLine(), start.getCharPositionInLine());
+    return shared;
+  }
+
+  public void startRecording() {
+    if (recording != null) {
+      throw new IllegalStateException("Already recording");
+    }
+    recording = new ArrayList<>();
+  }
+
   public void startNewVariableDeclaration(String name) {
     if (currentTypePath != null) {
       throw new IllegalStateException("Cannot start a new variable before previous is finished");
@@ -0,0 +1,171 @@
+package com.lhkbob.fxsl.parser;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.util.Immutable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parse Recording
+ * ===============
+ *
+ * The complete effect that parsing a unit had on its environment: the declarations it added, the
+ * declared types of its expressions and the wildcard lengths it allocated, in order, along with
+ * the expression the parse produced. Since expressions and types are immutable a recording can be
+ * replayed into other environments that share the same root scope, which reproduces the parse
+ * without running the lexer or parser again. Source positions are not recorded, so the expressions
+ * of a replayed unit have no {@link Environment#getSourcePosition(Expression) source position}.
+ *
+ * Recordings are created by {@link ParseContext#startRecording()} and
+ * {@link ParseContext#finishRecording(Expression)}.
+ *
+ * @author Michael Ludwig
+ */
+@Immutable
+public final class ParseRecording {
+  private final Scope rootScope;
+  private final Expression result;
+  private final List<Change> changes;
+
+  ParseRecording(Scope rootScope, Expression result, List<? extends Change> changes) {
+    this.rootScope = rootScope;
+    this.result = result;
+    this.changes = Collections.unmodifiableList(new ArrayList<>(changes));
+  }
+
+  /**
+   * @return The number of changes made to the environment by the recorded parse
+   */
+  public int getChangeCount() {
+    return changes.size();
+  }
+
+  List<Change> getChanges() {
+    return changes;
+  }
+
+  /**
+   * @return The expression returned by the recorded parse
+   */
+  public Expression getResult() {
+    return result;
+  }
+
+  /**
+   * @return The root scope of the environment the parse was recorded in
+   */
+  public Scope getRootScope() {
+    return rootScope;
+  }
+
+  /**
+   * Apply the recorded changes to `environment`. The changes are applied within a pushed child
+   * environment, which is committed only if every change could be reproduced exactly. The replay
+   * fails if `environment` has a different root scope, if it already holds any of the recorded
+   * declarations (e.g. the same unit was already loaded), or if it would allocate different
+   * wildcard lengths than the recorded parse did. A failed replay leaves `environment` unchanged.
+   *
+   * @param environment
+   *     The environment to modify, it must not be locked or frozen
+   * @return True if the recording was replayed, false if the unit must be parsed normally
+   */
+  public boolean replay(Environment environment) {
+    if (!rootScope.equals(environment.getRootScope())) {
+      return false;
+    }
+
+    Environment child = environment.push();
+    try {
+      for (Change c : changes) {
+        if (!c.apply(child)) {
+          child.abort();
+          return false;
+        }
+      }
+    } catch (IllegalStateException | IllegalArgumentException e) {
+      // Most likely the unit has already been declared in this environment
+      child.abort();
+      return false;
+    }
+    child.commit();
+    return true;
+  }
+
+  // Change fields are package-private so RecordingCodec can serialize them
+  static abstract class Change {
+    public abstract boolean apply(Environment environment);
+  }
+
+  static class TypeDeclaration extends Change {
+    final Scope scope;
+    final String name;
+    final Type type;
+
+    public TypeDeclaration(Scope scope, String name, Type type) {
+      this.scope = scope;
+      this.name = name;
+      this.type = type;
+    }
+
+    @Override
+    public boolean apply(Environment environment) {
+      environment.addDeclaredType(scope, name, type);
+      return true;
+    }
+  }
+
+  static class VariableDeclaration extends Change {
+    final Scope scope;
+    final String name;
+    final Expression expression;
+
+    public VariableDeclaration(Scope scope, String name, Expression expression) {
+      this.scope = scope;
+      this.name = name;
+      this.expression = expression;
+    }
+
+    @Override
+    public boolean apply(Environment environment) {
+      environment.addDeclaredVariable(scope, name, expression);
+      return true;
+    }
+  }
+
+  static class ExpressionType extends Change {
+    final Expression expression;
+    final Type type;
+
+    public ExpressionType(Expression expression, Type type) {
+      this.expression = expression;
+      this.type = type;
+    }
+
+    @Override
+    public boolean apply(Environment environment) {
+      environment.setExpressionType(expression, type);
+      return true;
+    }
+  }
+
+  static class LengthWildcard extends Change {
+    final ArrayType.Length wildcard;
+
+    public LengthWildcard(ArrayType.Length wildcard) {
+      this.wildcard = wildcard;
+    }
+
+    @Override
+    public boolean apply(Environment environment) {
+      // Recorded types refer to this exact wildcard, so the environment must allocate the same
+      // one or the replayed types could collide with wildcards allocated elsewhere
+      return wildcard.equals(environment.newLengthWildcard());
+    }
+  }
+}
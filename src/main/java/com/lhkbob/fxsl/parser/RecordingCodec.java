@@ -0,0 +1,860 @@
+package com.lhkbob.fxsl.parser;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayAccess;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.ParametricType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.StructType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.lang.type.TypePath;
+import com.lhkbob.fxsl.lang.type.UnionType;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Recording Codec
+ * ===============
+ *
+ * A compact, versioned binary format for {@link ParseRecording parse recordings}, and with them
+ * the expression and type graphs and the declarations a parse produced. Each node is written as a
+ * tag followed by its fields and children, so the graph is rebuilt with a single forward pass
+ * over the bytes.
+ *
+ * Every expression, type, scope and string is written once. Repeated occurrences are written as
+ * a back-reference to the index of the first occurrence, which keeps the format small for
+ * the heavily shared subgraphs the parser produces and preserves the identity of meta types,
+ * which are only equal to themselves. Scopes are written as their parent chain; the native scope
+ * and the root scope of the recording are written as markers and are mapped to
+ * {@link Scope#NATIVE_SCOPE} and the root scope of the environment the recording is decoded for.
+ * Native expressions are written by name and decoded to the constants in {@link Environment}.
+ *
+ * The first bytes of an encoded recording are a magic number and {@link #FORMAT_VERSION}; data
+ * written by a different version of the format is rejected when decoded.
+ *
+ * @author Michael Ludwig
+ */
+public final class RecordingCodec {
+  /**
+   * The version of the binary format, incremented whenever the layout of encoded recordings
+   * changes incompatibly.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  private static final int MAGIC = 0x4658534c; // "FXSL"
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final Map<String, NativeExpression> NATIVE_EXPRESSIONS = nativeExpressions();
+
+  // change tags
+  private static final int TYPE_DECLARATION = 1;
+  private static final int VARIABLE_DECLARATION = 2;
+  private static final int EXPRESSION_TYPE = 3;
+  private static final int LENGTH_WILDCARD = 4;
+
+  // node tags shared by expressions and types, 0 marks a back-reference
+  private static final int REFERENCE = 0;
+  private static final int ARRAY_ACCESS = 1;
+  private static final int ARRAY_LENGTH = 2;
+  private static final int ARRAY_VALUE = 3;
+  private static final int ATTRIBUTE = 4;
+  private static final int DYNAMIC_ARRAY = 5;
+  private static final int FIELD_ACCESS = 6;
+  private static final int FUNCTION_VALUE = 7;
+  private static final int FUNCTION_CALL = 8;
+  private static final int IF_THEN_ELSE = 9;
+  private static final int NATIVE_EXPRESSION = 10;
+  private static final int PARAMETER = 11;
+  private static final int PRIMITIVE_VALUE = 12;
+  private static final int STRUCT_VALUE = 13;
+  private static final int UNIFORM = 14;
+  private static final int UNION_VALUE = 15;
+  private static final int VARIABLE = 16;
+  private static final int ALIAS_TYPE = 17;
+  private static final int ARRAY_TYPE = 18;
+  private static final int FUNCTION_TYPE = 19;
+  private static final int META_TYPE = 20;
+  private static final int PARAMETRIC_TYPE = 21;
+  private static final int PRIMITIVE_TYPE = 22;
+  private static final int STRUCT_TYPE = 23;
+  private static final int UNION_TYPE = 24;
+
+  // scope markers, any larger value is a back-reference offset by SCOPE_REFERENCE
+  private static final int NATIVE_SCOPE = 0;
+  private static final int ROOT_SCOPE = 1;
+  private static final int NEW_SCOPE = 2;
+  private static final int SCOPE_REFERENCE = 3;
+
+  private RecordingCodec() {
+  }
+
+  /**
+   * Encode `recording` into the binary format.
+   *
+   * @param recording
+   *     The recording to encode
+   * @return The encoded recording
+   *
+   * @throws java.lang.NullPointerException
+   *     if `recording` is null
+   * @throws java.lang.IllegalArgumentException
+   *     if the recording references a native expression that is not defined by {@link
+   *     Environment}, or scopes that are not children of its root scope or the native scope
+   */
+  public static byte[] encode(ParseRecording recording) {
+    notNull("recording", recording);
+
+    Writer out = new Writer(recording.getRootScope());
+    out.writeInt(MAGIC);
+    out.writeVarInt(FORMAT_VERSION);
+
+    List<ParseRecording.Change> changes = recording.getChanges();
+    out.writeVarInt(changes.size());
+    for (ParseRecording.Change c : changes) {
+      if (c instanceof ParseRecording.TypeDeclaration) {
+        ParseRecording.TypeDeclaration d = (ParseRecording.TypeDeclaration) c;
+        out.writeVarInt(TYPE_DECLARATION);
+        out.writeScope(d.scope);
+        out.writeString(d.name);
+        out.writeType(d.type);
+      } else if (c instanceof ParseRecording.VariableDeclaration) {
+        ParseRecording.VariableDeclaration d = (ParseRecording.VariableDeclaration) c;
+        out.writeVarInt(VARIABLE_DECLARATION);
+        out.writeScope(d.scope);
+        out.writeString(d.name);
+        out.writeExpression(d.expression);
+      } else if (c instanceof ParseRecording.ExpressionType) {
+        ParseRecording.ExpressionType t = (ParseRecording.ExpressionType) c;
+        out.writeVarInt(EXPRESSION_TYPE);
+        out.writeExpression(t.expression);
+        out.writeType(t.type);
+      } else {
+        ParseRecording.LengthWildcard w = (ParseRecording.LengthWildcard) c;
+        out.writeVarInt(LENGTH_WILDCARD);
+        out.writeSignedVarInt(w.wildcard.get());
+      }
+    }
+
+    out.writeBoolean(recording.getResult() != null);
+    if (recording.getResult() != null) {
+      out.writeExpression(recording.getResult());
+    }
+    return out.bytes.toByteArray();
+  }
+
+  /**
+   * Decode a recording from the remaining bytes of `data`, such as a memory mapped file. The
+   * recorded root scope is replaced with `rootScope`, so the returned recording can be replayed
+   * into environments with that root scope. Every other scope of the recording is created anew.
+   *
+   * @param data
+   *     The encoded recording, its position is advanced past the recording
+   * @param rootScope
+   *     The root scope the decoded recording is replayed into
+   * @return The decoded recording
+   *
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws java.lang.IllegalArgumentException
+   *     if the data was not written by this version of the format or is malformed
+   */
+  public static ParseRecording decode(ByteBuffer data, Scope rootScope) {
+    notNull("data", data);
+    notNull("rootScope", rootScope);
+
+    try {
+      Reader in = new Reader(data, rootScope);
+      if (data.getInt() != MAGIC) {
+        throw new IllegalArgumentException("Data is not an encoded recording");
+      }
+      int version = in.readVarInt();
+      if (version != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Unsupported recording format version: " + version);
+      }
+
+      int changeCount = in.readVarInt();
+      List<ParseRecording.Change> changes = new ArrayList<>(changeCount);
+      for (int i = 0; i < changeCount; i++) {
+        int tag = in.readVarInt();
+        switch (tag) {
+        case TYPE_DECLARATION:
+          changes.add(
+              new ParseRecording.TypeDeclaration(in.readScope(), in.readString(), in.readType()));
+          break;
+        case VARIABLE_DECLARATION:
+          changes.add(
+              new ParseRecording.VariableDeclaration(
+                  in.readScope(), in.readString(), in.readExpression()));
+          break;
+        case EXPRESSION_TYPE:
+          changes.add(new ParseRecording.ExpressionType(in.readExpression(), in.readType()));
+          break;
+        case LENGTH_WILDCARD:
+          changes.add(
+              new ParseRecording.LengthWildcard(new ArrayType.Length(in.readSignedVarInt())));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown change tag: " + tag);
+        }
+      }
+
+      Expression result = (data.get() != 0 ? in.readExpression() : null);
+      return new ParseRecording(rootScope, result, changes);
+    } catch (BufferUnderflowException | ClassCastException | IndexOutOfBoundsException |
+        NullPointerException e) {
+      // Truncated data or tags that decoded to the wrong kind of node
+      throw new IllegalArgumentException("Malformed recording", e);
+    }
+  }
+
+  private static Map<String, NativeExpression> nativeExpressions() {
+    Map<String, NativeExpression> natives = new HashMap<>();
+    for (Field f : Environment.class.getFields()) {
+      if (Modifier.isStatic(f.getModifiers()) && f.getType().equals(NativeExpression.class)) {
+        try {
+          NativeExpression e = (NativeExpression) f.get(null);
+          natives.put(e.getName(), e);
+        } catch (IllegalAccessException e) {
+          // public fields are always accessible
+          throw new RuntimeException(e);
+        }
+      }
+    }
+    return Collections.unmodifiableMap(natives);
+  }
+
+  private static class Writer implements Expression.Visitor<Void>, Type.Visitor<Void> {
+    private final ByteArrayOutputStream bytes;
+    private final Scope rootScope;
+
+    private final Map<Object, Integer> nodes;
+    private final Map<Scope, Integer> scopes;
+    private final Map<String, Integer> strings;
+
+    public Writer(Scope rootScope) {
+      this.rootScope = rootScope;
+      bytes = new ByteArrayOutputStream();
+      // Identity so that distinct but equal meta types stay distinct
+      nodes = new IdentityHashMap<>();
+      scopes = new HashMap<>();
+      strings = new HashMap<>();
+    }
+
+    @Override
+    public Void visitAliasType(AliasType t) {
+      begin(ALIAS_TYPE);
+      writeScope(t.getScope());
+      writeString(t.getLabel());
+      return end(t);
+    }
+
+    @Override
+    public Void visitArray(ArrayValue value) {
+      begin(ARRAY_VALUE);
+      writeExpressions(value.getElements());
+      writeScope(value.getScope());
+      return end(value);
+    }
+
+    @Override
+    public Void visitArrayAccess(ArrayAccess access) {
+      begin(ARRAY_ACCESS);
+      writeExpression(access.getArray());
+      writeExpression(access.getIndex());
+      writeScope(access.getScope());
+      return end(access);
+    }
+
+    @Override
+    public Void visitArrayLength(ArrayLength length) {
+      begin(ARRAY_LENGTH);
+      TypePath path = length.getPathToArrayType();
+      writeExpression(path.getRoot());
+      writeScope(length.getScope());
+      writeVarInt(path.getPath().size());
+      for (TypePath.Node n : path.getPath()) {
+        writeVarInt(n.getType().ordinal());
+        if (Integer.class.equals(n.getType().getMetadataType())) {
+          writeVarInt(n.getIntData());
+        } else if (String.class.equals(n.getType().getMetadataType())) {
+          writeString(n.getStringData());
+        }
+      }
+      return end(length);
+    }
+
+    @Override
+    public Void visitArrayType(ArrayType t) {
+      begin(ARRAY_TYPE);
+      writeType(t.getComponentType());
+      writeSignedVarInt(t.getLength().get());
+      return end(t);
+    }
+
+    @Override
+    public Void visitAttribute(Attribute attr) {
+      begin(ATTRIBUTE);
+      writeScope(attr.getScope());
+      writeString(attr.getName());
+      return end(attr);
+    }
+
+    @Override
+    public Void visitDynamicArray(DynamicArrayValue value) {
+      begin(DYNAMIC_ARRAY);
+      writeExpression(value.getLength());
+      writeExpression(value.getElementFunction());
+      writeScope(value.getScope());
+      return end(value);
+    }
+
+    @Override
+    public Void visitFieldAccess(StructFieldAccess access) {
+      begin(FIELD_ACCESS);
+      writeExpression(access.getStruct());
+      writeScope(access.getScope());
+      writeString(access.getField());
+      return end(access);
+    }
+
+    @Override
+    public Void visitFunction(FunctionValue function) {
+      begin(FUNCTION_VALUE);
+      writeExpression(function.getReturnValue());
+      writeScope(function.getScope());
+      writeVarInt(function.getParameters().size());
+      for (String p : function.getParameters()) {
+        writeString(p);
+      }
+      return end(function);
+    }
+
+    @Override
+    public Void visitFunctionCall(FunctionCall function) {
+      begin(FUNCTION_CALL);
+      writeExpression(function.getFunction());
+      writeExpressions(function.getParameterValues());
+      writeScope(function.getScope());
+      return end(function);
+    }
+
+    @Override
+    public Void visitFunctionType(FunctionType t) {
+      begin(FUNCTION_TYPE);
+      writeTypes(t.getParameterTypes());
+      writeType(t.getReturnType());
+      return end(t);
+    }
+
+    @Override
+    public Void visitIfThenElse(IfThenElse test) {
+      begin(IF_THEN_ELSE);
+      writeExpression(test.getCondition());
+      writeExpression(test.getTrueExpression());
+      writeExpression(test.getFalseExpression());
+      writeScope(test.getScope());
+      return end(test);
+    }
+
+    @Override
+    public Void visitMetaType(MetaType t) {
+      begin(META_TYPE);
+      writeScope(t.getScope());
+      return end(t);
+    }
+
+    @Override
+    public Void visitNativeExpression(NativeExpression expr) {
+      begin(NATIVE_EXPRESSION);
+      if (NATIVE_EXPRESSIONS.get(expr.getName()) != expr) {
+        throw new IllegalArgumentException(
+            "Native expression is not defined by Environment: " + expr.getName());
+      }
+      writeString(expr.getName());
+      return end(expr);
+    }
+
+    @Override
+    public Void visitParameter(Parameter param) {
+      begin(PARAMETER);
+      writeExpression(param.getFunction());
+      writeString(param.getName());
+      return end(param);
+    }
+
+    @Override
+    public Void visitParametricType(ParametricType t) {
+      begin(PARAMETRIC_TYPE);
+      writeScope(t.getScope());
+      writeString(t.getLabel());
+      return end(t);
+    }
+
+    @Override
+    public Void visitPrimitive(PrimitiveValue primitive) {
+      begin(PRIMITIVE_VALUE);
+      writeVarInt(primitive.getType().ordinal());
+      switch (primitive.getType()) {
+      case FLOAT:
+        writeInt(Float.floatToIntBits((Float) primitive.getValue()));
+        break;
+      case INT:
+        writeSignedVarInt((Integer) primitive.getValue());
+        break;
+      default:
+        writeBoolean((Boolean) primitive.getValue());
+        break;
+      }
+      return end(primitive);
+    }
+
+    @Override
+    public Void visitPrimitiveType(PrimitiveType t) {
+      begin(PRIMITIVE_TYPE);
+      writeVarInt(t.ordinal());
+      return end(t);
+    }
+
+    @Override
+    public Void visitStruct(StructValue struct) {
+      begin(STRUCT_VALUE);
+      writeVarInt(struct.getFields().size());
+      for (Map.Entry<String, Expression> f : struct.getFields().entrySet()) {
+        writeString(f.getKey());
+        writeExpression(f.getValue());
+      }
+      writeScope(struct.getScope());
+      return end(struct);
+    }
+
+    @Override
+    public Void visitStructType(StructType t) {
+      begin(STRUCT_TYPE);
+      writeVarInt(t.getFieldTypes().size());
+      for (Map.Entry<String, Type> f : t.getFieldTypes().entrySet()) {
+        writeString(f.getKey());
+        writeType(f.getValue());
+      }
+      return end(t);
+    }
+
+    @Override
+    public Void visitUniform(Uniform uniform) {
+      begin(UNIFORM);
+      writeScope(uniform.getScope());
+      writeString(uniform.getName());
+      return end(uniform);
+    }
+
+    @Override
+    public Void visitUnion(UnionValue union) {
+      begin(UNION_VALUE);
+      writeExpressions(union.getOptions());
+      writeScope(union.getScope());
+      return end(union);
+    }
+
+    @Override
+    public Void visitUnionType(UnionType t) {
+      begin(UNION_TYPE);
+      writeTypes(t.getOptions());
+      return end(t);
+    }
+
+    @Override
+    public Void visitVariable(VariableReference var) {
+      begin(VARIABLE);
+      writeScope(var.getScope());
+      writeString(var.getVariableName());
+      return end(var);
+    }
+
+    public void writeBoolean(boolean value) {
+      bytes.write(value ? 1 : 0);
+    }
+
+    public void writeExpression(Expression e) {
+      Integer index = nodes.get(e);
+      if (index == null) {
+        e.accept(this);
+      } else {
+        writeVarInt(REFERENCE);
+        writeVarInt(index);
+      }
+    }
+
+    public void writeInt(int value) {
+      bytes.write(value >>> 24);
+      bytes.write(value >>> 16);
+      bytes.write(value >>> 8);
+      bytes.write(value);
+    }
+
+    public void writeScope(Scope scope) {
+      if (Scope.NATIVE_SCOPE.equals(scope)) {
+        writeVarInt(NATIVE_SCOPE);
+      } else if (rootScope.equals(scope)) {
+        writeVarInt(ROOT_SCOPE);
+      } else {
+        Integer index = scopes.get(scope);
+        if (index != null) {
+          writeVarInt(SCOPE_REFERENCE + index);
+        } else if (scope.getParent() == null) {
+          throw new IllegalArgumentException("Scope is not a child of the root scope: " + scope);
+        } else {
+          writeVarInt(NEW_SCOPE);
+          writeScope(scope.getParent());
+          scopes.put(scope, scopes.size());
+        }
+      }
+    }
+
+    public void writeSignedVarInt(int value) {
+      // zig-zag encoding so that small negative values (wildcards) stay small
+      writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public void writeString(String value) {
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeVarInt(index + 1);
+      } else {
+        writeVarInt(0);
+        byte[] utf = value.getBytes(UTF_8);
+        writeVarInt(utf.length);
+        bytes.write(utf, 0, utf.length);
+        strings.put(value, strings.size());
+      }
+    }
+
+    public void writeType(Type t) {
+      Integer index = nodes.get(t);
+      if (index == null) {
+        t.accept(this);
+      } else {
+        writeVarInt(REFERENCE);
+        writeVarInt(index);
+      }
+    }
+
+    public void writeVarInt(int value) {
+      while ((value & ~0x7f) != 0) {
+        bytes.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      bytes.write(value);
+    }
+
+    private void begin(int tag) {
+      writeVarInt(tag);
+    }
+
+    private Void end(Object node) {
+      // A node's index is assigned after its children, which is when the reader can create it
+      nodes.put(node, nodes.size());
+      return null;
+    }
+
+    private void writeExpressions(List<Expression> exprs) {
+      writeVarInt(exprs.size());
+      for (Expression e : exprs) {
+        writeExpression(e);
+      }
+    }
+
+    private void writeTypes(List<Type> types) {
+      writeVarInt(types.size());
+      for (Type t : types) {
+        writeType(t);
+      }
+    }
+  }
+
+  private static class Reader {
+    private final ByteBuffer data;
+    private final Scope rootScope;
+
+    private final List<Object> nodes;
+    private final List<Scope> scopes;
+    private final List<String> strings;
+
+    public Reader(ByteBuffer data, Scope rootScope) {
+      this.data = data;
+      this.rootScope = rootScope;
+      nodes = new ArrayList<>();
+      scopes = new ArrayList<>();
+      strings = new ArrayList<>();
+    }
+
+    public Expression readExpression() {
+      return (Expression) readNode();
+    }
+
+    public Scope readScope() {
+      int marker = readVarInt();
+      switch (marker) {
+      case NATIVE_SCOPE:
+        return Scope.NATIVE_SCOPE;
+      case ROOT_SCOPE:
+        return rootScope;
+      case NEW_SCOPE:
+        Scope scope = new Scope(readScope());
+        scopes.add(scope);
+        return scope;
+      default:
+        return scopes.get(marker - SCOPE_REFERENCE);
+      }
+    }
+
+    public int readSignedVarInt() {
+      int value = readVarInt();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() {
+      int index = readVarInt();
+      if (index > 0) {
+        return strings.get(index - 1);
+      }
+
+      byte[] utf = new byte[readVarInt()];
+      data.get(utf);
+      String value = new String(utf, UTF_8);
+      strings.add(value);
+      return value;
+    }
+
+    public Type readType() {
+      return (Type) readNode();
+    }
+
+    public int readVarInt() {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = data.get();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    private Object readNode() {
+      int tag = readVarInt();
+      if (tag == REFERENCE) {
+        return nodes.get(readVarInt());
+      }
+
+      Object node;
+      switch (tag) {
+      case ALIAS_TYPE:
+        node = new AliasType(readScope(), readString());
+        break;
+      case ARRAY_VALUE: {
+        List<Expression> elements = readExpressions();
+        node = new ArrayValue(readScope(), elements);
+        break;
+      }
+      case ARRAY_ACCESS: {
+        Expression array = readExpression();
+        Expression index = readExpression();
+        node = new ArrayAccess(readScope(), array, index);
+        break;
+      }
+      case ARRAY_LENGTH:
+        node = readArrayLength();
+        break;
+      case ARRAY_TYPE:
+        node = new ArrayType(readType(), new ArrayType.Length(readSignedVarInt()));
+        break;
+      case ATTRIBUTE:
+        node = new Attribute(readScope(), readString());
+        break;
+      case DYNAMIC_ARRAY: {
+        Expression length = readExpression();
+        Expression elementFunction = readExpression();
+        node = new DynamicArrayValue(readScope(), length, elementFunction);
+        break;
+      }
+      case FIELD_ACCESS: {
+        Expression struct = readExpression();
+        node = new StructFieldAccess(readScope(), struct, readString());
+        break;
+      }
+      case FUNCTION_VALUE: {
+        Expression returnValue = readExpression();
+        Scope scope = readScope();
+        List<String> parameters = new ArrayList<>();
+        for (int i = readVarInt(); i > 0; i--) {
+          parameters.add(readString());
+        }
+        node = new FunctionValue(scope, parameters, returnValue);
+        break;
+      }
+      case FUNCTION_CALL: {
+        Expression function = readExpression();
+        List<Expression> parameters = readExpressions();
+        node = new FunctionCall(readScope(), function, parameters);
+        break;
+      }
+      case FUNCTION_TYPE:
+        node = new FunctionType(readTypes(), readType());
+        break;
+      case IF_THEN_ELSE: {
+        Expression condition = readExpression();
+        Expression trueExpr = readExpression();
+        Expression falseExpr = readExpression();
+        node = new IfThenElse(readScope(), condition, trueExpr, falseExpr);
+        break;
+      }
+      case META_TYPE:
+        node = new MetaType(readScope());
+        break;
+      case NATIVE_EXPRESSION: {
+        String name = readString();
+        node = NATIVE_EXPRESSIONS.get(name);
+        if (node == null) {
+          throw new IllegalArgumentException("Unknown native expression: " + name);
+        }
+        break;
+      }
+      case PARAMETER:
+        node = new Parameter((FunctionValue) readExpression(), readString());
+        break;
+      case PARAMETRIC_TYPE:
+        node = new ParametricType(readScope(), readString());
+        break;
+      case PRIMITIVE_VALUE:
+        node = readPrimitive();
+        break;
+      case PRIMITIVE_TYPE:
+        node = PrimitiveType.values()[readVarInt()];
+        break;
+      case STRUCT_VALUE: {
+        Map<String, Expression> fields = new LinkedHashMap<>();
+        for (int i = readVarInt(); i > 0; i--) {
+          fields.put(readString(), readExpression());
+        }
+        node = new StructValue(readScope(), fields);
+        break;
+      }
+      case STRUCT_TYPE: {
+        Map<String, Type> fields = new LinkedHashMap<>();
+        for (int i = readVarInt(); i > 0; i--) {
+          fields.put(readString(), readType());
+        }
+        node = new StructType(fields);
+        break;
+      }
+      case UNIFORM:
+        node = new Uniform(readScope(), readString());
+        break;
+      case UNION_VALUE: {
+        List<Expression> options = readExpressions();
+        node = new UnionValue(readScope(), options);
+        break;
+      }
+      case UNION_TYPE:
+        node = new UnionType(readTypes());
+        break;
+      case VARIABLE:
+        node = new VariableReference(readScope(), readString());
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown node tag: " + tag);
+      }
+
+      nodes.add(node);
+      return node;
+    }
+
+    private ArrayLength readArrayLength() {
+      TypePath.Builder path = TypePath.newPath((VariableReference) readExpression());
+      Scope scope = readScope();
+      TypePath.NodeType[] types = TypePath.NodeType.values();
+      for (int i = readVarInt(); i > 0; i--) {
+        switch (types[readVarInt()]) {
+        case ARRAY_COMPONENT:
+          path.pushArrayComponent();
+          break;
+        case FUNCTION_PARAMETER:
+          path.pushFunctionParameter(readVarInt());
+          break;
+        case FUNCTION_RETURN:
+          path.pushFunctionReturn();
+          break;
+        case STRUCT_FIELD:
+          path.pushStructField(readString());
+          break;
+        case UNION_ELEMENT:
+          path.pushUnionElement(readVarInt());
+          break;
+        }
+      }
+      return new ArrayLength(scope, path.create());
+    }
+
+    private List<Expression> readExpressions() {
+      int count = readVarInt();
+      List<Expression> exprs = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        exprs.add(readExpression());
+      }
+      return exprs;
+    }
+
+    private PrimitiveValue readPrimitive() {
+      switch (PrimitiveType.values()[readVarInt()]) {
+      case FLOAT:
+        return new PrimitiveValue(Float.intBitsToFloat(data.getInt()));
+      case INT:
+        return new PrimitiveValue(readSignedVarInt());
+      default:
+        return new PrimitiveValue(data.get() != 0);
+      }
+    }
+
+    private List<Type> readTypes() {
+      int count = readVarInt();
+      List<Type> types = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        types.add(readType());
+      }
+      return types;
+    }
+  }
+}
@@ -12,6 +12,7 @@ import com.lhkbob.fxsl.lang.type.PrimitiveType;
 import com.lhkbob.fxsl.lang.type.StructType;
 import com.lhkbob.fxsl.lang.type.Type;
 import com.lhkbob.fxsl.lang.type.TypePath;
+import com.lhkbob.fxsl.lang.type.Types;
 import com.lhkbob.fxsl.lang.type.UnionType;
 
 import org.antlr.v4.runtime.misc.NotNull;
@@ -41,7 +42,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
   @Override
   public Type visitAliasType(@NotNull FXSLParser.AliasTypeContext ctx) {
     // Alias types are not part of type paths
-    String name = ctx.Identifier().getText();
+    String name = context.intern(ctx.Identifier().getText());
     if (name.startsWith("_")) {
       if (!context.isInsideVariableDeclaration()) {
         throw new IllegalStateException(
@@ -53,11 +54,11 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
         return new MetaType(context.getCurrentScope());
       } else {
         // create a parametric type
-        return new ParametricType(context.getCurrentScope(), name.substring(1));
+        return Types.intern(new ParametricType(context.getCurrentScope(), name.substring(1)));
       }
     } else {
       // this is a type name reference
-      return new AliasType(context.getCurrentScope(), name);
+      return Types.intern(new AliasType(context.getCurrentScope(), name));
     }
   }
 
@@ -83,11 +84,11 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
       if (length <= 0) {
         throw new IllegalStateException("Array length must be at least 1 or a wildcard");
       }
-      return new ArrayType(componentType, new ArrayType.Length(length));
+      return Types.intern(new ArrayType(componentType, new ArrayType.Length(length)));
     } else {
       // wildcard array length
-      String lengthName = ctx.arrayLength().Identifier().getText();
-      if (context.isInsideVariableDeclaration()) {
+      String lengthName = context.intern(ctx.arrayLength().Identifier().getText());
+      if (!context.isInsideVariableDeclaration()) {
         throw new IllegalStateException(
             "Cannot specify a wildcard array length inside a type declaration: " + lengthName);
       }
@@ -96,10 +97,11 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
 
       // Create an expression in the current scope for this array, using the current type path
       TypePath path = context.getCurrentTypePath().create();
-      Expression length = new ArrayLength(context.getCurrentScope(), path);
-      context.getEnvironment().addDeclaredVariable(context.getCurrentScope(), lengthName, length);
-      context.getEnvironment().setExpressionType(length, PrimitiveType.INT);
-      return new ArrayType(componentType, lengthLabel);
+      Expression length = context.share(
+          new ArrayLength(context.getCurrentScope(), path), ctx.getStart());
+      context.addDeclaredVariable(context.getCurrentScope(), lengthName, length);
+      context.setExpressionType(length, PrimitiveType.INT);
+      return Types.intern(new ArrayType(componentType, lengthLabel));
     }
   }
 
@@ -126,7 +128,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
       context.getCurrentTypePath().pushFunctionReturn();
     }
     try {
-      return new FunctionType(parameters, visit(ctx.returnType));
+      return Types.intern(new FunctionType(parameters, visit(ctx.returnType)));
     } finally {
       if (context.isInsideVariableDeclaration()) {
         context.getCurrentTypePath().pop();
@@ -138,7 +140,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
   public Type visitStructType(@NotNull FXSLParser.StructTypeContext ctx) {
     Map<String, Type> fields = new HashMap<>(ctx.typeKeyValue().size());
     for (FXSLParser.TypeKeyValueContext f : ctx.typeKeyValue()) {
-      String name = f.Identifier().getText();
+      String name = context.intern(f.Identifier().getText());
 
       // Record the current type path node as each field is parsed.
       if (context.isInsideVariableDeclaration()) {
@@ -152,7 +154,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
         }
       }
     }
-    return new StructType(fields);
+    return Types.intern(new StructType(fields));
   }
 
   @Override
@@ -172,7 +174,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
       }
       element++;
     }
-    return new UnionType(types);
+    return Types.intern(new UnionType(types));
   }
 
   private ArrayType.Length getLength(String label) {
@@ -183,7 +185,7 @@ public class TypeVisitor extends FXSLBaseVisitor<Type> {
     }
     ArrayType.Length id = map.get(label);
     if (id == null) {
-      id = context.getEnvironment().newLengthWildcard();
+      id = context.newLengthWildcard();
       map.put(label, id);
     }
 
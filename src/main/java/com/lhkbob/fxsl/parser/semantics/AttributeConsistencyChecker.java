@@ -2,14 +2,10 @@ package com.lhkbob.fxsl.parser.semantics;
 
 import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
-import com.lhkbob.fxsl.lang.EnvironmentUtils;
-import com.lhkbob.fxsl.lang.expr.Attribute;
-import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
 import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.Attribute;
 import com.lhkbob.fxsl.lang.type.Type;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,7 +13,7 @@ import java.util.Map;
 /**
  *
  */
-public class AttributeConsistencyChecker implements SemanticsChecker {
+public class AttributeConsistencyChecker implements FusableChecker {
   @Override
   public boolean continueOnFailure() {
     // Although all attributes with the same name need to have the same type, the code may otherwise
@@ -27,44 +23,63 @@ public class AttributeConsistencyChecker implements SemanticsChecker {
 
   @Override
   public void validate(Environment environment) throws SemanticsException {
-    List<SemanticsProblem.ExpressionProblem> problems = new ArrayList<>();
-    AttributeVisitor visitor = new AttributeVisitor(environment);
-    for (Declaration<Expression> var : EnvironmentUtils.getAllVariables(environment)) {
-      problems.addAll(var.getValue().accept(visitor));
-    }
+    new SemanticsPipeline(this).validate(environment);
+  }
 
-    if (!problems.isEmpty()) {
-      throw new SemanticsException(
-          "References to named attributes have inconsistent types", problems);
-    }
+  @Override
+  public SemanticsPass createPass(Environment environment) {
+    return new AttributePass(environment);
   }
 
-  private static class AttributeVisitor extends DefaultExpressionVisitor.ListExpressionVisitor<SemanticsProblem.ExpressionProblem> {
-    private final Map<String, Type> attributeTypes;
+  @Override
+  public String getFailureMessage() {
+    return "References to named attributes have inconsistent types";
+  }
+
+  @Override
+  public boolean isDeclarationLocal() {
+    // the first attribute seen with a name determines the type the others are compared to
+    return false;
+  }
+
+  private static class AttributePass implements SemanticsPass {
     private final Environment environment;
+    private final Map<String, Type> attributeTypes;
 
-    public AttributeVisitor(Environment env) {
+    public AttributePass(Environment env) {
       attributeTypes = new HashMap<>();
       environment = env;
     }
 
     @Override
-    public List<SemanticsProblem.ExpressionProblem> visitAttribute(Attribute attr) {
+    public void checkVariable(Declaration<Expression> variable, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkType(Declaration<Type> type, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkExpression(Expression expr, List<SemanticsProblem> problems) {
+      if (!(expr instanceof Attribute)) {
+        return;
+      }
+
+      Attribute attr = (Attribute) expr;
       Type actualType = environment.getExpressionType(attr);
       Type existingType = attributeTypes.get(attr.getName());
       if (existingType != null) {
         // FIXME Is strict equality necessary, or can we allow different types as long as they unify?
         if (!existingType.equals(actualType)) {
-          return Collections.singletonList(
+          problems.add(
               new SemanticsProblem.ExpressionProblem(
                   String.format(
                       "Attribute has conflicting types (%s vs. %s)", actualType, existingType),
-                  attr));
+                  attr, environment.getSourcePosition(attr)));
         }
       } else {
         attributeTypes.put(attr.getName(), actualType);
       }
-      return Collections.emptyList();
     }
   }
 }
@@ -2,12 +2,11 @@ package com.lhkbob.fxsl.parser.semantics;
 
 import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
-import com.lhkbob.fxsl.lang.EnvironmentUtils;
+import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.type.AliasType;
 import com.lhkbob.fxsl.lang.type.DefaultTypeVisitor;
 import com.lhkbob.fxsl.lang.type.Type;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
@@ -15,7 +14,7 @@ import java.util.Stack;
 /**
  *
  */
-public class CyclicTypeChecker implements SemanticsChecker {
+public class CyclicTypeChecker implements FusableChecker {
   @Override
   public boolean continueOnFailure() {
     return false;
@@ -23,19 +22,48 @@ public class CyclicTypeChecker implements SemanticsChecker {
 
   @Override
   public void validate(Environment environment) throws SemanticsException {
-    CyclicVisitor visitor = new CyclicVisitor(environment);
-    List<SemanticsProblem.TypeProblem> allProblems = new ArrayList<>();
-    for (Declaration<Type> type : EnvironmentUtils.getAllTypes(environment)) {
+    new SemanticsPipeline(this).validate(environment);
+  }
+
+  @Override
+  public SemanticsPass createPass(Environment environment) {
+    return new CyclicPass(environment);
+  }
+
+  @Override
+  public String getFailureMessage() {
+    return "Declared types cannot be cyclic";
+  }
+
+  @Override
+  public boolean isDeclarationLocal() {
+    // cycles are followed through the environment, but each declared type is checked on its own
+    return true;
+  }
+
+  private static class CyclicPass implements SemanticsPass {
+    private final CyclicVisitor visitor;
+
+    public CyclicPass(Environment environment) {
+      visitor = new CyclicVisitor(environment);
+    }
+
+    @Override
+    public void checkVariable(Declaration<Expression> variable, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkType(Declaration<Type> type, List<SemanticsProblem> problems) {
       visitor.typeStack.push(type);
       try {
-        allProblems.addAll(type.getValue().accept(visitor));
+        problems.addAll(type.getValue().accept(visitor));
       } finally {
         visitor.typeStack.pop();
       }
     }
 
-    if (!allProblems.isEmpty()) {
-      throw new SemanticsException("Declared types cannot be cyclic", allProblems);
+    @Override
+    public void checkExpression(Expression expr, List<SemanticsProblem> problems) {
     }
   }
 
@@ -0,0 +1,43 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.lang.Environment;
+
+/**
+ * Fusable Checker
+ * ===============
+ *
+ * A semantics checker whose validation can be expressed as a {@link SemanticsPass} over the
+ * declarations and expressions of an environment. A {@link SemanticsPipeline} fuses consecutive
+ * fusable checkers so the environment is only walked once for all of them. Validating a fusable
+ * checker by itself must produce the same problems as running its pass in a pipeline, which is
+ * easiest to guarantee by validating through a pipeline holding only the checker.
+ *
+ * @author Michael Ludwig
+ */
+public interface FusableChecker extends SemanticsChecker {
+  /**
+   * Create the pass that validates `environment`. A new pass is created for every validation, so
+   * a pass may accumulate state while the checker itself stays stateless and thread safe.
+   *
+   * @param environment
+   *     The environment being validated
+   * @return A new pass for the environment
+   */
+  SemanticsPass createPass(Environment environment);
+
+  /**
+   * @return The message of the exception thrown when this checker finds problems
+   */
+  String getFailureMessage();
+
+  /**
+   * Get whether or not the problems a pass finds for a declaration only depend on that
+   * declaration. If so, a {@link SemanticsRunner} may split the declarations among several passes
+   * that run in parallel. Checkers that compare declarations with each other, e.g. requiring
+   * every uniform with the same name to have the same type, must return false so that a single
+   * pass sees every declaration.
+   *
+   * @return True if declarations can be validated independently of each other
+   */
+  boolean isDeclarationLocal();
+}
@@ -2,20 +2,18 @@ package com.lhkbob.fxsl.parser.semantics;
 
 import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
-import com.lhkbob.fxsl.lang.EnvironmentUtils;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.type.DefaultTypeVisitor;
 import com.lhkbob.fxsl.lang.type.ParametricType;
 import com.lhkbob.fxsl.lang.type.Type;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 /**
  *
  */
-public class ReservedNameChecker implements SemanticsChecker {
+public class ReservedNameChecker implements FusableChecker {
   @Override
   public boolean continueOnFailure() {
     // Although we don't want people to declare variables with reserved names, because unintended
@@ -25,17 +23,46 @@ public class ReservedNameChecker implements SemanticsChecker {
 
   @Override
   public void validate(Environment environment) throws SemanticsException {
-    ParametricNameVisitor visitor = new ParametricNameVisitor();
-    List<SemanticsProblem> problems = new ArrayList<>();
-    for (Declaration<Expression> var : EnvironmentUtils.getAllVariables(environment)) {
+    new SemanticsPipeline(this).validate(environment);
+  }
+
+  @Override
+  public SemanticsPass createPass(Environment environment) {
+    return new ReservedNamePass(environment);
+  }
+
+  @Override
+  public String getFailureMessage() {
+    return "Reserved names check failed";
+  }
+
+  @Override
+  public boolean isDeclarationLocal() {
+    return true;
+  }
+
+  private static class ReservedNamePass implements SemanticsPass {
+    private final Environment environment;
+    private final ParametricNameVisitor visitor;
+
+    public ReservedNamePass(Environment environment) {
+      this.environment = environment;
+      visitor = new ParametricNameVisitor();
+    }
+
+    @Override
+    public void checkVariable(Declaration<Expression> var, List<SemanticsProblem> problems) {
       if (var.getName().startsWith(Environment.RESERVED_NAME_PREFIX)) {
         problems.add(
             new SemanticsProblem.ExpressionProblem(
-                "Variable name uses reserved prefix: " + var.getName(), var.getValue()));
+                "Variable name uses reserved prefix: " + var.getName(), var.getValue(),
+                environment.getSourcePosition(var.getValue())));
       }
       problems.addAll(environment.getExpressionType(var.getValue()).accept(visitor));
     }
-    for (Declaration<Type> type : EnvironmentUtils.getAllTypes(environment)) {
+
+    @Override
+    public void checkType(Declaration<Type> type, List<SemanticsProblem> problems) {
       if (type.getName().startsWith(Environment.RESERVED_NAME_PREFIX)) {
         problems.add(
             new SemanticsProblem.TypeProblem(
@@ -44,8 +71,8 @@ public class ReservedNameChecker implements SemanticsChecker {
       problems.addAll(type.getValue().accept(visitor));
     }
 
-    if (!problems.isEmpty()) {
-      throw new SemanticsException("Reserved names check failed", problems);
+    @Override
+    public void checkExpression(Expression expr, List<SemanticsProblem> problems) {
     }
   }
 
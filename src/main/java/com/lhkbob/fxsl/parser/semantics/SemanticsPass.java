@@ -0,0 +1,57 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.List;
+
+/**
+ * Semantics Pass
+ * ==============
+ *
+ * The state of a single {@link FusableChecker} validation of an environment. A {@link
+ * SemanticsPipeline} walks the environment once and hands every declaration and expression to
+ * the passes of all of its fused checkers, so a pass only looks at the element it's given and
+ * never walks the environment itself.
+ *
+ * Every variable declaration is reported, in order, before the expressions of its value, and all
+ * variables are reported before any type declaration. Expressions are reported parents before
+ * children, and a subexpression is only reported the first time its instance is reached, so a
+ * pass sees the shared subexpressions of a hash-consed parse a single time. A value shared by
+ * several variables is still reported once for each of them.
+ *
+ * @author Michael Ludwig
+ */
+public interface SemanticsPass {
+  /**
+   * Check a declared variable. Its value's expressions are reported afterwards by {@link
+   * #checkExpression(Expression, List)}.
+   *
+   * @param variable
+   *     The variable declaration
+   * @param problems
+   *     The list to add any detected problems to
+   */
+  void checkVariable(Declaration<Expression> variable, List<SemanticsProblem> problems);
+
+  /**
+   * Check a declared type.
+   *
+   * @param type
+   *     The type declaration
+   * @param problems
+   *     The list to add any detected problems to
+   */
+  void checkType(Declaration<Type> type, List<SemanticsProblem> problems);
+
+  /**
+   * Check an expression that is part of a declared variable's value.
+   *
+   * @param expr
+   *     The expression
+   * @param problems
+   *     The list to add any detected problems to
+   */
+  void checkExpression(Expression expr, List<SemanticsProblem> problems);
+}
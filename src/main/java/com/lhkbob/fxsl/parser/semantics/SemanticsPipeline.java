@@ -0,0 +1,223 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.EnvironmentUtils;
+import com.lhkbob.fxsl.lang.Reachability;
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+import static com.lhkbob.fxsl.util.Preconditions.validCollection;
+
+/**
+ * Semantics Pipeline
+ * ==================
+ *
+ * Runs a list of semantics checkers in order, equivalent to validating each checker in turn and
+ * stopping after the first failing checker that does not continue on failure. Consecutive {@link
+ * FusableChecker fusable checkers} are fused: the environment's declarations are collected once
+ * and each unique expression is visited once, with every declaration and expression handed to
+ * the passes of all the fused checkers. Other checkers, e.g. the type inferer, validate the
+ * environment on their own between the fused groups.
+ *
+ * All checkers of a fused group run even if an earlier checker in the group stops the pipeline,
+ * but their problems are discarded so the reported problems match running the checkers one at a
+ * time.
+ *
+ * A pipeline is as thread safe as its checkers.
+ *
+ * @author Michael Ludwig
+ */
+public class SemanticsPipeline implements SemanticsChecker {
+  private final List<SemanticsChecker> checkers;
+
+  /**
+   * Create a pipeline running the given checkers in order.
+   *
+   * @param checkers
+   *     The checkers
+   * @throws java.lang.NullPointerException
+   *     if `checkers` is null or contains null elements
+   */
+  public SemanticsPipeline(SemanticsChecker... checkers) {
+    this(Arrays.asList(checkers));
+  }
+
+  /**
+   * Create a pipeline running the given checkers in order.
+   *
+   * @param checkers
+   *     The checkers
+   * @throws java.lang.NullPointerException
+   *     if `checkers` is null or contains null elements
+   */
+  public SemanticsPipeline(List<? extends SemanticsChecker> checkers) {
+    validCollection("checkers", checkers);
+    this.checkers = Collections.unmodifiableList(new ArrayList<>(checkers));
+  }
+
+  /**
+   * @return The checkers run by the pipeline, in order
+   */
+  public List<SemanticsChecker> getCheckers() {
+    return checkers;
+  }
+
+  @Override
+  public boolean continueOnFailure() {
+    for (SemanticsChecker c : checkers) {
+      if (!c.continueOnFailure()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void validate(Environment environment) throws SemanticsException {
+    validate(environment, EnvironmentUtils.getAllVariables(environment),
+             EnvironmentUtils.getAllTypes(environment));
+  }
+
+  /**
+   * Validate only the declarations of `environment` that are reachable from the entries of
+   * `reachability`, so that unused library declarations cost nothing. The fused checkers only
+   * see the reachable declarations; other checkers still validate the environment on their own.
+   *
+   * @param environment
+   *     The environment to validate
+   * @param reachability
+   *     The reachable declarations of `environment`
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws SemanticsException
+   *     if any checker found a problem in a reachable declaration
+   */
+  public void validate(Environment environment, Reachability reachability)
+      throws SemanticsException {
+    notNull("environment", environment);
+    notNull("reachability", reachability);
+    validate(environment, reachability.getReachableVariables(), reachability.getReachableTypes());
+  }
+
+  private void validate(
+      Environment environment, Collection<Declaration<Expression>> variables,
+      Collection<Declaration<Type>> types) throws SemanticsException {
+    List<SemanticsProblem> problems = new ArrayList<>();
+    // The message of the only failing checker, or the standard banner when several failed
+    String message = null;
+    // The exception of the only failing checker when it isn't fusable, which is rethrown as is
+    SemanticsException failure = null;
+    int failedCount = 0;
+
+    int i = 0;
+    while (i < checkers.size()) {
+      if (!(checkers.get(i) instanceof FusableChecker)) {
+        SemanticsChecker checker = checkers.get(i++);
+        try {
+          checker.validate(environment);
+        } catch (SemanticsException e) {
+          problems.addAll(e.getProblems());
+          failure = e;
+          failedCount++;
+          if (!checker.continueOnFailure()) {
+            break;
+          }
+        }
+        continue;
+      }
+
+      List<FusableChecker> group = new ArrayList<>();
+      while (i < checkers.size() && checkers.get(i) instanceof FusableChecker) {
+        group.add((FusableChecker) checkers.get(i++));
+      }
+
+      List<List<SemanticsProblem>> groupProblems = validateFused(
+          group, environment, variables, types);
+      boolean stop = false;
+      for (int j = 0; j < group.size(); j++) {
+        if (!groupProblems.get(j).isEmpty()) {
+          problems.addAll(groupProblems.get(j));
+          message = group.get(j).getFailureMessage();
+          failure = null;
+          failedCount++;
+          if (!group.get(j).continueOnFailure()) {
+            stop = true;
+            break;
+          }
+        }
+      }
+      if (stop) {
+        break;
+      }
+    }
+
+    if (!problems.isEmpty()) {
+      if (failedCount == 1 && failure != null) {
+        // Its problems are all of the problems, and this keeps the checker's own message
+        throw failure;
+      }
+      throw new SemanticsException(failedCount == 1 ? message : "", problems);
+    }
+  }
+
+  /**
+   * Run the passes of `group` over the given declarations, which are the whole environment when
+   * run by a pipeline but can be any subset when run by a {@link SemanticsRunner}.
+   *
+   * @return The problems of each checker of the group, in the same order as the group
+   */
+  static List<List<SemanticsProblem>> validateFused(
+      List<? extends FusableChecker> group, Environment environment,
+      Collection<Declaration<Expression>> variables, Collection<Declaration<Type>> types) {
+    List<SemanticsPass> passes = new ArrayList<>(group.size());
+    List<List<SemanticsProblem>> problems = new ArrayList<>(group.size());
+    for (FusableChecker c : group) {
+      passes.add(c.createPass(environment));
+      problems.add(new ArrayList<SemanticsProblem>());
+    }
+
+    FusedVisitor visitor = new FusedVisitor(passes, problems);
+    for (Declaration<Expression> var : variables) {
+      for (int i = 0; i < passes.size(); i++) {
+        passes.get(i).checkVariable(var, problems.get(i));
+      }
+      var.getValue().accept(visitor);
+    }
+
+    for (Declaration<Type> type : types) {
+      for (int i = 0; i < passes.size(); i++) {
+        passes.get(i).checkType(type, problems.get(i));
+      }
+    }
+    return problems;
+  }
+
+  private static class FusedVisitor extends DefaultExpressionVisitor<Void> {
+    private final List<SemanticsPass> passes;
+    private final List<List<SemanticsProblem>> problems;
+
+    public FusedVisitor(List<SemanticsPass> passes, List<List<SemanticsProblem>> problems) {
+      // each unique expression is only handed to the passes once
+      super(true);
+      this.passes = passes;
+      this.problems = problems;
+    }
+
+    @Override
+    protected Void initialValue(Expression e) {
+      for (int i = 0; i < passes.size(); i++) {
+        passes.get(i).checkExpression(e, problems.get(i));
+      }
+      return null;
+    }
+  }
+}
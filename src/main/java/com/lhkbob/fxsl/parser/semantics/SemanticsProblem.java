@@ -1,6 +1,13 @@
 package com.lhkbob.fxsl.parser.semantics;
 
+import com.lhkbob.fxsl.lang.SourcePosition;
+import com.lhkbob.fxsl.lang.expr.Attribute;
 import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
 import com.lhkbob.fxsl.lang.type.Type;
 
 /**
@@ -10,17 +17,34 @@ public interface SemanticsProblem {
   class ExpressionProblem implements SemanticsProblem {
     private final Expression failingExpr;
     private final String message;
+    private final SourcePosition position;
 
     public ExpressionProblem(String message) {
       this(message, null);
     }
 
     public ExpressionProblem(String message, Expression failingExpr) {
+      this(message, failingExpr, null);
+    }
+
+    /**
+     * Create a problem that reports where the failing expression was parsed from, as returned by
+     * {@link com.lhkbob.fxsl.lang.Environment#getSourcePosition(Expression)}.
+     *
+     * @param message
+     *     The message, may be null if `failingExpr` isn't
+     * @param failingExpr
+     *     The failing expression, may be null if `message` isn't
+     * @param position
+     *     The source position of `failingExpr`, or null if unknown
+     */
+    public ExpressionProblem(String message, Expression failingExpr, SourcePosition position) {
       if (message == null && failingExpr == null) {
         throw new IllegalArgumentException("Both message and expression cannot be null");
       }
       this.message = message;
       this.failingExpr = failingExpr;
+      this.position = position;
     }
 
     public ExpressionProblem(Expression failingExpr) {
@@ -37,18 +61,50 @@ public interface SemanticsProblem {
       return message;
     }
 
+    /**
+     * @return The source position of the failing expression, or null if unknown
+     */
+    public SourcePosition getSourcePosition() {
+      return position;
+    }
+
     @Override
     public String toString() {
-      if (failingExpr != null && message != null) {
-        return String.format("Error in expression (%s), message: %s", failingExpr, message);
-      } else if (failingExpr != null) {
-        return String.format("Error in expression (%s)", failingExpr);
+      // With a known position the whole expression is just noise, e.g. a large function body
+      String expr = null;
+      if (failingExpr != null) {
+        expr = (position != null ? " at " + position + " in " + describe(failingExpr)
+                                 : " in expression (" + failingExpr + ")");
+      }
+
+      if (expr != null && message != null) {
+        return String.format("Error%s, message: %s", expr, message);
+      } else if (expr != null) {
+        return "Error" + expr;
       } else if (message != null) {
         return String.format("Type error, message: %s", message);
       } else {
         return ""; // Won't happen
       }
     }
+
+    private static String describe(Expression expr) {
+      if (expr instanceof VariableReference) {
+        return "variable " + ((VariableReference) expr).getVariableName();
+      } else if (expr instanceof Parameter) {
+        return "parameter " + ((Parameter) expr).getName();
+      } else if (expr instanceof Uniform) {
+        return "uniform " + ((Uniform) expr).getName();
+      } else if (expr instanceof Attribute) {
+        return "attribute " + ((Attribute) expr).getName();
+      } else if (expr instanceof NativeExpression) {
+        return "native " + ((NativeExpression) expr).getName();
+      } else if (expr instanceof StructFieldAccess) {
+        return "access of field " + ((StructFieldAccess) expr).getField();
+      } else {
+        return expr.getClass().getSimpleName();
+      }
+    }
   }
 
   class TypeProblem implements SemanticsProblem {
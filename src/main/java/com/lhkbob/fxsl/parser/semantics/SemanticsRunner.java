@@ -0,0 +1,336 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.EnvironmentUtils;
+import com.lhkbob.fxsl.lang.Reachability;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+import static com.lhkbob.fxsl.util.Preconditions.validCollection;
+
+/**
+ * Semantics Runner
+ * ================
+ *
+ * Runs a list of semantics checkers concurrently, reporting the same problems as a {@link
+ * SemanticsPipeline} of the same checkers. The checkers are split into stages that end with a
+ * checker that does not {@link SemanticsChecker#continueOnFailure() continue on failure}. Every
+ * checker before it in the stage can't be stopped by it and it can't be stopped by them, so the
+ * checkers of a stage run in parallel. A stage only starts once the previous stage passed.
+ *
+ * Within a stage, consecutive {@link FusableChecker fusable checkers} whose declarations can be
+ * validated independently are fused and their declarations are split into fixed size chunks that
+ * are validated in parallel. Fusable checkers that compare declarations with each other are fused
+ * into a single task that sees every declaration, and all other checkers run as their own task.
+ *
+ * Problems are merged in checker order and, within a checker, in the order the declarations are
+ * reported to a pipeline, so the result doesn't depend on how the tasks were scheduled. The only
+ * difference from a pipeline is that an expression shared by declarations in different chunks,
+ * which only happens for hash-consed parses, is reported once per chunk instead of once.
+ *
+ * Checkers validate a {@link Environment#freeze() frozen} copy of the environment, so they must
+ * not modify it; a checker that needs to record results should push a private child
+ * environment. The checkers of a stage are run by the executor, but the validating thread runs
+ * any task that hasn't started yet itself instead of waiting, so a runner can safely share an
+ * executor with the tasks that call it.
+ *
+ * @author Michael Ludwig
+ */
+public class SemanticsRunner implements SemanticsChecker {
+  // Declarations are cheap to check, so a chunk must be large enough to cover the task overhead
+  private static final int CHUNK_SIZE = 128;
+
+  private final ExecutorService executor;
+  private final List<SemanticsChecker> checkers;
+
+  /**
+   * Create a runner that runs the given checkers on `executor`.
+   *
+   * @param executor
+   *     The executor running the checkers of each stage
+   * @param checkers
+   *     The checkers, in the order their problems are reported
+   * @throws java.lang.NullPointerException
+   *     if any argument is null or `checkers` contains null elements
+   */
+  public SemanticsRunner(ExecutorService executor, List<? extends SemanticsChecker> checkers) {
+    notNull("executor", executor);
+    validCollection("checkers", checkers);
+    this.executor = executor;
+    this.checkers = Collections.unmodifiableList(new ArrayList<>(checkers));
+  }
+
+  /**
+   * @return The checkers run by the runner, in order
+   */
+  public List<SemanticsChecker> getCheckers() {
+    return checkers;
+  }
+
+  @Override
+  public boolean continueOnFailure() {
+    for (SemanticsChecker c : checkers) {
+      if (!c.continueOnFailure()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public void validate(Environment environment) throws SemanticsException {
+    validate(environment, null, null);
+  }
+
+  /**
+   * Validate only the declarations of `environment` that are reachable from the entries of
+   * `reachability`, so that unused library declarations cost nothing. The fused checkers only
+   * see the reachable declarations; other checkers still validate the environment on their own.
+   *
+   * @param environment
+   *     The environment to validate
+   * @param reachability
+   *     The reachable declarations of `environment`
+   * @throws java.lang.NullPointerException
+   *     if any argument is null
+   * @throws SemanticsException
+   *     if any checker found a problem in a reachable declaration
+   */
+  public void validate(Environment environment, Reachability reachability)
+      throws SemanticsException {
+    notNull("environment", environment);
+    notNull("reachability", reachability);
+    validate(environment, reachability.getReachableVariables(), reachability.getReachableTypes());
+  }
+
+  private void validate(
+      Environment environment, Collection<Declaration<Expression>> reachableVariables,
+      Collection<Declaration<Type>> reachableTypes) throws SemanticsException {
+    Environment frozen = environment.freeze();
+    // Collected at most once and shared by all chunked tasks, null means every declaration
+    List<Declaration<Expression>> variables = (reachableVariables != null
+                                               ? new ArrayList<>(reachableVariables) : null);
+    List<Declaration<Type>> types = (reachableTypes != null ? new ArrayList<>(reachableTypes)
+                                                            : null);
+
+    List<SemanticsProblem> problems = new ArrayList<>();
+    // The message of the only failing checker, or the standard banner when several failed
+    String message = null;
+    // The exception of the only failing checker when it isn't fusable, which is rethrown as is
+    SemanticsException failure = null;
+    int failedCount = 0;
+
+    int stageStart = 0;
+    while (stageStart < checkers.size()) {
+      int stageEnd = stageStart;
+      while (stageEnd < checkers.size() - 1 && checkers.get(stageEnd).continueOnFailure()) {
+        stageEnd++;
+      }
+      List<SemanticsChecker> stage = checkers.subList(stageStart, stageEnd + 1);
+      stageStart = stageEnd + 1;
+
+      if (variables == null && needsDeclarations(stage)) {
+        variables = new ArrayList<>(EnvironmentUtils.getAllVariables(frozen));
+        types = new ArrayList<>(EnvironmentUtils.getAllTypes(frozen));
+      }
+
+      SemanticsException[] failures = new SemanticsException[stage.size()];
+      List<List<SemanticsProblem>> stageProblems = runStage(
+          stage, frozen, variables, types, failures);
+      for (int i = 0; i < stage.size(); i++) {
+        if (!stageProblems.get(i).isEmpty()) {
+          problems.addAll(stageProblems.get(i));
+          failedCount++;
+          failure = failures[i];
+          message = (stage.get(i) instanceof FusableChecker
+                     ? ((FusableChecker) stage.get(i)).getFailureMessage() : null);
+        }
+      }
+
+      if (!stageProblems.get(stage.size() - 1).isEmpty()
+          && !stage.get(stage.size() - 1).continueOnFailure()) {
+        break;
+      }
+    }
+
+    if (!problems.isEmpty()) {
+      if (failedCount == 1 && failure != null) {
+        // Its problems are all of the problems, and this keeps the checker's own message
+        throw failure;
+      }
+      throw new SemanticsException(failedCount == 1 ? message : "", problems);
+    }
+  }
+
+  private List<List<SemanticsProblem>> runStage(
+      List<SemanticsChecker> stage, Environment environment,
+      List<Declaration<Expression>> variables, List<Declaration<Type>> types,
+      SemanticsException[] failures) {
+    // Each task reports the problems of a contiguous range of the stage's checkers
+    List<FutureTask<List<List<SemanticsProblem>>>> tasks = new ArrayList<>();
+    List<Integer> firstChecker = new ArrayList<>();
+    // The tasks of the checkers that aren't fused, by checker index
+    Map<Integer, CheckerTask> checkerTasks = new HashMap<>();
+
+    int i = 0;
+    while (i < stage.size()) {
+      SemanticsChecker checker = stage.get(i);
+      if (!(checker instanceof FusableChecker)) {
+        CheckerTask task = new CheckerTask(checker, environment);
+        checkerTasks.put(i, task);
+        firstChecker.add(i++);
+        tasks.add(new FutureTask<>(task));
+        continue;
+      }
+
+      boolean local = ((FusableChecker) checker).isDeclarationLocal();
+      List<FusableChecker> group = new ArrayList<>();
+      int groupStart = i;
+      while (i < stage.size() && stage.get(i) instanceof FusableChecker
+             && ((FusableChecker) stage.get(i)).isDeclarationLocal() == local) {
+        group.add((FusableChecker) stage.get(i++));
+      }
+
+      if (local) {
+        for (int v = 0; v < variables.size(); v += CHUNK_SIZE) {
+          List<Declaration<Expression>> chunk = variables.subList(
+              v, Math.min(v + CHUNK_SIZE, variables.size()));
+          firstChecker.add(groupStart);
+          tasks.add(new FutureTask<>(new FusedTask(
+              group, environment, chunk, Collections.<Declaration<Type>>emptyList())));
+        }
+        for (int t = 0; t < types.size(); t += CHUNK_SIZE) {
+          List<Declaration<Type>> chunk = types.subList(t, Math.min(t + CHUNK_SIZE, types.size()));
+          firstChecker.add(groupStart);
+          tasks.add(new FutureTask<>(new FusedTask(
+              group, environment, Collections.<Declaration<Expression>>emptyList(), chunk)));
+        }
+      } else {
+        firstChecker.add(groupStart);
+        tasks.add(new FutureTask<>(new FusedTask(group, environment, variables, types)));
+      }
+    }
+
+    for (FutureTask<?> task : tasks) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // A saturated or shut down executor just means this thread runs the task below
+      }
+    }
+    // Run anything the executor hasn't started yet, a task that's already running or done is
+    // left alone, so this thread never waits on a task that's still queued behind it
+    for (FutureTask<?> task : tasks) {
+      task.run();
+    }
+
+    List<List<SemanticsProblem>> problems = new ArrayList<>(stage.size());
+    for (int c = 0; c < stage.size(); c++) {
+      problems.add(new ArrayList<SemanticsProblem>());
+    }
+    // Tasks were created in checker and then chunk order, so appending keeps that order
+    for (int t = 0; t < tasks.size(); t++) {
+      List<List<SemanticsProblem>> taskProblems = getResult(tasks.get(t));
+      for (int c = 0; c < taskProblems.size(); c++) {
+        problems.get(firstChecker.get(t) + c).addAll(taskProblems.get(c));
+      }
+    }
+    for (Map.Entry<Integer, CheckerTask> task : checkerTasks.entrySet()) {
+      // Safe to read, getResult() waited for every task to complete
+      failures[task.getKey()] = task.getValue().failure;
+    }
+    return problems;
+  }
+
+  private static boolean needsDeclarations(List<SemanticsChecker> stage) {
+    for (SemanticsChecker c : stage) {
+      if (c instanceof FusableChecker) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static <T> T getResult(FutureTask<T> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          // The task is already running, so finish waiting and restore the interrupt afterwards
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          } else if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+          } else {
+            throw new RuntimeException("Unexpected exception from semantics check", e.getCause());
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static class CheckerTask implements Callable<List<List<SemanticsProblem>>> {
+    private final SemanticsChecker checker;
+    private final Environment environment;
+    private SemanticsException failure;
+
+    public CheckerTask(SemanticsChecker checker, Environment environment) {
+      this.checker = checker;
+      this.environment = environment;
+    }
+
+    @Override
+    public List<List<SemanticsProblem>> call() {
+      try {
+        checker.validate(environment);
+        return Collections.singletonList(Collections.<SemanticsProblem>emptyList());
+      } catch (SemanticsException e) {
+        failure = e;
+        return Collections.singletonList(e.getProblems());
+      }
+    }
+  }
+
+  private static class FusedTask implements Callable<List<List<SemanticsProblem>>> {
+    private final List<FusableChecker> group;
+    private final Environment environment;
+    private final List<Declaration<Expression>> variables;
+    private final List<Declaration<Type>> types;
+
+    public FusedTask(
+        List<FusableChecker> group, Environment environment,
+        List<Declaration<Expression>> variables, List<Declaration<Type>> types) {
+      this.group = group;
+      this.environment = environment;
+      this.variables = variables;
+      this.types = types;
+    }
+
+    @Override
+    public List<List<SemanticsProblem>> call() {
+      return SemanticsPipeline.validateFused(group, environment, variables, types);
+    }
+  }
+}
@@ -61,7 +61,8 @@ public class TypeInferer implements SemanticsChecker {
         workingEnv.abort();
         throw new SemanticsException(
             "Type inference failed",
-            Collections.singletonList(new SemanticsProblem.ExpressionProblem(expr)));
+            Collections.singletonList(new SemanticsProblem.ExpressionProblem(
+                null, expr, env.getSourcePosition(expr))));
       } else {
         workingEnv.setExpressionType(expr, inferred);
         workingEnv.commit();
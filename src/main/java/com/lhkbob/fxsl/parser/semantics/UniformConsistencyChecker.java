@@ -2,14 +2,10 @@ package com.lhkbob.fxsl.parser.semantics;
 
 import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
-import com.lhkbob.fxsl.lang.EnvironmentUtils;
-import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.expr.Uniform;
 import com.lhkbob.fxsl.lang.type.Type;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,7 +13,7 @@ import java.util.Map;
 /**
  *
  */
-public class UniformConsistencyChecker implements SemanticsChecker {
+public class UniformConsistencyChecker implements FusableChecker {
   @Override
   public boolean continueOnFailure() {
     // Although all uniforms with the same name need to have the same type, the code may otherwise
@@ -27,44 +23,63 @@ public class UniformConsistencyChecker implements SemanticsChecker {
 
   @Override
   public void validate(Environment environment) throws SemanticsException {
-    List<SemanticsProblem.ExpressionProblem> problems = new ArrayList<>();
-    UniformVisitor visitor = new UniformVisitor(environment);
-    for (Declaration<Expression> var : EnvironmentUtils.getAllVariables(environment)) {
-      problems.addAll(var.getValue().accept(visitor));
-    }
+    new SemanticsPipeline(this).validate(environment);
+  }
 
-    if (!problems.isEmpty()) {
-      throw new SemanticsException(
-          "References to named uniforms have inconsistent types", problems);
-    }
+  @Override
+  public SemanticsPass createPass(Environment environment) {
+    return new UniformPass(environment);
+  }
+
+  @Override
+  public String getFailureMessage() {
+    return "References to named uniforms have inconsistent types";
+  }
+
+  @Override
+  public boolean isDeclarationLocal() {
+    // the first uniform seen with a name determines the type the others are compared to
+    return false;
   }
 
-  private static class UniformVisitor extends DefaultExpressionVisitor.ListExpressionVisitor<SemanticsProblem.ExpressionProblem> {
+  private static class UniformPass implements SemanticsPass {
     private final Environment environment;
     private final Map<String, Type> uniformTypes;
 
-    public UniformVisitor(Environment env) {
+    public UniformPass(Environment env) {
       uniformTypes = new HashMap<>();
       environment = env;
     }
 
     @Override
-    public List<SemanticsProblem.ExpressionProblem> visitUniform(Uniform uniform) {
+    public void checkVariable(Declaration<Expression> variable, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkType(Declaration<Type> type, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkExpression(Expression expr, List<SemanticsProblem> problems) {
+      if (!(expr instanceof Uniform)) {
+        return;
+      }
+
+      Uniform uniform = (Uniform) expr;
       Type actualType = environment.getExpressionType(uniform);
       Type existingType = uniformTypes.get(uniform.getName());
       if (existingType != null) {
         // FIXME Is strict equality necessary, or can we allow different types as long as they unify?
         if (!existingType.equals(actualType)) {
-          return Collections.singletonList(
+          problems.add(
               new SemanticsProblem.ExpressionProblem(
                   String.format(
                       "Uniform has conflicting types (%s vs. %s)", actualType, existingType),
-                  uniform));
+                  uniform, environment.getSourcePosition(uniform)));
         }
       } else {
         uniformTypes.put(uniform.getName(), actualType);
       }
-      return Collections.emptyList();
     }
   }
 }
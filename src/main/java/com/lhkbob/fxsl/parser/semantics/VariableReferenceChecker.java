@@ -2,19 +2,16 @@ package com.lhkbob.fxsl.parser.semantics;
 
 import com.lhkbob.fxsl.lang.Declaration;
 import com.lhkbob.fxsl.lang.Environment;
-import com.lhkbob.fxsl.lang.EnvironmentUtils;
-import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
 import com.lhkbob.fxsl.lang.expr.Expression;
 import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.Type;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
  *
  */
-public class VariableReferenceChecker implements SemanticsChecker {
+public class VariableReferenceChecker implements FusableChecker {
   @Override
   public boolean continueOnFailure() {
     return false;
@@ -22,31 +19,47 @@ public class VariableReferenceChecker implements SemanticsChecker {
 
   @Override
   public void validate(Environment environment) throws SemanticsException {
-    VariableVisitor visitor = new VariableVisitor(environment);
-    List<SemanticsProblem.ExpressionProblem> problems = new ArrayList<>();
-    for (Declaration<Expression> expr : EnvironmentUtils.getAllVariables(environment)) {
-        problems.addAll(expr.getValue().accept(visitor));
-    }
+    new SemanticsPipeline(this).validate(environment);
+  }
 
-    if (!problems.isEmpty()) {
-      throw new SemanticsException("Undefined variables", problems);
-    }
+  @Override
+  public SemanticsPass createPass(Environment environment) {
+    return new VariablePass(environment);
+  }
+
+  @Override
+  public String getFailureMessage() {
+    return "Undefined variables";
+  }
+
+  @Override
+  public boolean isDeclarationLocal() {
+    return true;
   }
 
-  private static class VariableVisitor extends DefaultExpressionVisitor.ListExpressionVisitor<SemanticsProblem.ExpressionProblem> {
+  private static class VariablePass implements SemanticsPass {
     private final Environment env;
 
-    public VariableVisitor(Environment env) {
+    public VariablePass(Environment env) {
       this.env = env;
     }
 
     @Override
-    public List<SemanticsProblem.ExpressionProblem> visitVariable(VariableReference var) {
-      if (env.getDeclaredVariable(var.getScope(), var.getVariableName()) == null) {
-        return Collections.singletonList(
-            new SemanticsProblem.ExpressionProblem("Reference is undefined", var));
-      } else {
-        return null;
+    public void checkVariable(Declaration<Expression> variable, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkType(Declaration<Type> type, List<SemanticsProblem> problems) {
+    }
+
+    @Override
+    public void checkExpression(Expression expr, List<SemanticsProblem> problems) {
+      if (expr instanceof VariableReference) {
+        VariableReference var = (VariableReference) expr;
+        if (env.getDeclaredVariable(var.getScope(), var.getVariableName()) == null) {
+          problems.add(new SemanticsProblem.ExpressionProblem(
+              "Reference is undefined", var, env.getSourcePosition(var)));
+        }
       }
     }
   }
@@ -0,0 +1,317 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayAccess;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.StructType;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Concrete Types
+ * ==============
+ *
+ * Determines the concrete types of expressions: types made only of primitives, arrays with known
+ * lengths, and structs of concrete types. These are the types that have a direct equivalent in
+ * GLSL, so the backend passes need them for every expression they generate code for.
+ *
+ * The type recorded in the environment is used when it is concrete, after resolving aliases and
+ * the meta types and wildcard lengths bound by inference. Otherwise the type is derived from the
+ * expression itself: primitives have their own type, native operators the return type of the
+ * overload selected by the argument types, calls of declared functions the type of the function's
+ * body, variables the type of their value, and so on. This is enough to type the first-order
+ * programs the backend supports even where inference hasn't run.
+ *
+ * Types are computed once per expression instance and remembered, so a single instance should be
+ * used for an unchanging environment.
+ *
+ * @author Michael Ludwig
+ */
+public class ConcreteTypes {
+  private final Environment environment;
+  private final Map<Expression, Type> types;
+  // Expressions known to have no concrete type, and the expressions being typed
+  private final Set<Expression> unknown;
+  private final Set<Expression> typing;
+
+  /**
+   * Create a new instance that types expressions declared in `environment`. The environment is
+   * only read.
+   *
+   * @param environment
+   *     The environment the typed expressions were declared in
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public ConcreteTypes(Environment environment) {
+    notNull("environment", environment);
+    this.environment = environment;
+    types = new IdentityHashMap<>();
+    unknown = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+    typing = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+  }
+
+  /**
+   * Get the concrete type of `expr`.
+   *
+   * @param expr
+   *     The expression
+   * @return The concrete type, or null if the type of `expr` isn't concrete or can't be
+   * determined, e.g. because `expr` is a function or refers to itself
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   */
+  public Type getType(Expression expr) {
+    notNull("expr", expr);
+    Type type = types.get(expr);
+    if (type != null || unknown.contains(expr) || !typing.add(expr)) {
+      return type;
+    }
+
+    Type recorded = environment.getRecordedExpressionType(expr);
+    type = (recorded != null ? getConcreteType(recorded) : null);
+    if (type == null) {
+      type = expr.accept(new TypeDeriver());
+    }
+
+    typing.remove(expr);
+    if (type != null) {
+      types.put(expr, type);
+    } else {
+      unknown.add(expr);
+    }
+    return type;
+  }
+
+  /**
+   * Get the concrete type that `type` refers to, resolving aliases, meta types and wildcard lengths
+   * in the environment.
+   *
+   * @param type
+   *     The type
+   * @return The concrete type, or null if `type` isn't concrete, e.g. because it contains a
+   * function type or an unbound meta type
+   * @throws java.lang.NullPointerException
+   *     if `type` is null
+   */
+  public Type getConcreteType(Type type) {
+    notNull("type", type);
+    if (type instanceof PrimitiveType) {
+      return type;
+    } else if (type instanceof MetaType) {
+      Type bound = environment.getBoundMetaType((MetaType) type);
+      return (bound != null ? getConcreteType(bound) : null);
+    } else if (type instanceof AliasType) {
+      AliasType alias = (AliasType) type;
+      Declaration<Type> decl = environment.getDeclaredType(alias.getScope(), alias.getLabel());
+      return (decl != null ? getConcreteType(decl.getValue()) : null);
+    } else if (type instanceof ArrayType) {
+      ArrayType array = (ArrayType) type;
+      Type component = getConcreteType(array.getComponentType());
+      ArrayType.Length length = array.getLength();
+      if (length.isWildcard()) {
+        length = environment.getBoundArrayLength(length);
+      }
+      if (component == null || length == null || length.isWildcard()) {
+        return null;
+      }
+      return (component == array.getComponentType() && length == array.getLength()
+              ? array : new ArrayType(component, length));
+    } else if (type instanceof StructType) {
+      Map<String, Type> fields = new HashMap<>();
+      boolean changed = false;
+      for (Map.Entry<String, Type> f : ((StructType) type).getFieldTypes().entrySet()) {
+        Type field = getConcreteType(f.getValue());
+        if (field == null) {
+          return null;
+        }
+        changed |= (field != f.getValue());
+        fields.put(f.getKey(), field);
+      }
+      return (changed ? new StructType(fields) : type);
+    } else {
+      // function, union and parametric types have no concrete equivalent
+      return null;
+    }
+  }
+
+  /**
+   * Use `type` as the type of `expr`, for expressions that aren't declared in the environment yet.
+   */
+  void setType(Expression expr, Type type) {
+    types.put(expr, type);
+    unknown.remove(expr);
+  }
+
+  /**
+   * Derives the type of expressions that have no concrete type in the environment.
+   */
+  private class TypeDeriver implements Expression.Visitor<Type> {
+    @Override
+    public Type visitArray(ArrayValue value) {
+      Type component = getType(value.getElement(0));
+      return (component != null ? new ArrayType(component, new ArrayType.Length(value.getLength()))
+                                : null);
+    }
+
+    @Override
+    public Type visitArrayAccess(ArrayAccess access) {
+      Type array = getType(access.getArray());
+      return (array instanceof ArrayType ? ((ArrayType) array).getComponentType() : null);
+    }
+
+    @Override
+    public Type visitArrayLength(ArrayLength length) {
+      return PrimitiveType.INT;
+    }
+
+    @Override
+    public Type visitAttribute(Attribute attr) {
+      return null;
+    }
+
+    @Override
+    public Type visitDynamicArray(DynamicArrayValue value) {
+      return null;
+    }
+
+    @Override
+    public Type visitFieldAccess(StructFieldAccess access) {
+      Type struct = getType(access.getStruct());
+      return (struct instanceof StructType ? ((StructType) struct).getFieldType(access.getField())
+                                           : null);
+    }
+
+    @Override
+    public Type visitFunction(FunctionValue function) {
+      return null;
+    }
+
+    @Override
+    public Type visitFunctionCall(FunctionCall function) {
+      if (!(function.getFunction() instanceof VariableReference)) {
+        return null;
+      }
+      VariableReference callee = (VariableReference) function.getFunction();
+      Declaration<Expression> decl = environment.getDeclaredVariable(
+          callee.getScope(), callee.getVariableName());
+      if (decl == null) {
+        return null;
+      }
+
+      if (decl.getScope().equals(Scope.NATIVE_SCOPE)) {
+        // Select the overload whose parameters match the argument types
+        List<Expression> options = (decl.getValue() instanceof UnionValue
+                                    ? ((UnionValue) decl.getValue()).getOptions()
+                                    : Collections.singletonList(decl.getValue()));
+        for (Expression option : options) {
+          Type type = (option instanceof NativeExpression ? ((NativeExpression) option).getType()
+                                                          : null);
+          if (type instanceof FunctionType && matches((FunctionType) type, function)) {
+            return ((FunctionType) type).getReturnType();
+          }
+        }
+        return null;
+      } else if (decl.getValue() instanceof FunctionValue) {
+        FunctionValue called = (FunctionValue) decl.getValue();
+        return (called.getParameters().size() == function.getSuppliedParameterCount()
+                ? getType(called.getReturnValue()) : null);
+      } else {
+        return null;
+      }
+    }
+
+    @Override
+    public Type visitIfThenElse(IfThenElse test) {
+      return getType(test.getTrueExpression());
+    }
+
+    @Override
+    public Type visitNativeExpression(NativeExpression expr) {
+      return null;
+    }
+
+    @Override
+    public Type visitParameter(Parameter param) {
+      return null;
+    }
+
+    @Override
+    public Type visitPrimitive(PrimitiveValue primitive) {
+      return primitive.getType();
+    }
+
+    @Override
+    public Type visitStruct(StructValue struct) {
+      Map<String, Type> fields = new HashMap<>();
+      for (Map.Entry<String, Expression> f : struct.getFields().entrySet()) {
+        Type field = getType(f.getValue());
+        if (field == null) {
+          return null;
+        }
+        fields.put(f.getKey(), field);
+      }
+      return new StructType(fields);
+    }
+
+    @Override
+    public Type visitUniform(Uniform uniform) {
+      return null;
+    }
+
+    @Override
+    public Type visitUnion(UnionValue union) {
+      return null;
+    }
+
+    @Override
+    public Type visitVariable(VariableReference var) {
+      Declaration<Expression> decl = environment.getDeclaredVariable(
+          var.getScope(), var.getVariableName());
+      return (decl != null && !decl.getScope().equals(Scope.NATIVE_SCOPE)
+              ? getType(decl.getValue()) : null);
+    }
+
+    private boolean matches(FunctionType type, FunctionCall call) {
+      if (type.getParameterCount() != call.getSuppliedParameterCount()) {
+        return false;
+      }
+      for (int i = 0; i < type.getParameterCount(); i++) {
+        if (!type.getParameterType(i).equals(getType(call.getParameterValue(i)))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,336 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.ExpressionRewritingVisitor;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.Type;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Constant Folder
+ * ===============
+ *
+ * Rewriting pass that evaluates the native operators of the environment at compile time, wherever
+ * their arguments are known:
+ *
+ * * Calls of native operators whose arguments are all primitive values are replaced with the
+ *   resulting primitive value, e.g. `2 * 3 + 1` becomes `7`.
+ * * Calls with one primitive argument are simplified with the identities `x + 0`, `x - 0`,
+ *   `x * 1`, `x / 1` and, for ints, `x * 0`. Negations that cancel, `!!b` and `~~i`, are removed.
+ * * An `if` with a primitive condition is replaced by the branch that would be taken, and the
+ *   other branch is never visited. An `if` whose branches are equal is replaced by the branch.
+ * * References to variables whose value folds to a primitive are replaced by that primitive.
+ *
+ * Native operators are found by resolving the invoked variable in the environment, so an operator
+ * that a unit shadows with its own declaration is left alone. Since operator overloads are chosen
+ * by the types of the primitive arguments, the folded expression must already have passed type
+ * checking: an ill-typed call like `x * 1` where `x` is a float would otherwise fold to `x`.
+ *
+ * Operations whose results are undefined in GLSL, such as an int division by zero or `pow` with a
+ * negative base, are not folded so that the GPU behaves as it would have without folding.
+ *
+ * The folder does not modify the environment. Expressions that don't change are returned as is,
+ * and it remembers the folded values of the declarations it resolved, so a single instance should
+ * be used to fold all expressions of an unchanging environment.
+ *
+ * @author Michael Ludwig
+ */
+public class ConstantFolder extends ExpressionRewritingVisitor {
+  private final Environment environment;
+  // Folded values of the resolved declarations, a declaration maps to null while it is folded so
+  // that recursive references are left as is
+  private final Map<Declaration<Expression>, Expression> foldedDeclarations;
+
+  /**
+   * Create a folder that resolves variables and operators in `environment`.
+   *
+   * @param environment
+   *     The environment the folded expressions were declared in
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public ConstantFolder(Environment environment) {
+    notNull("environment", environment);
+    this.environment = environment;
+    foldedDeclarations = new HashMap<>();
+  }
+
+  /**
+   * Fold `expr`.
+   *
+   * @param expr
+   *     The expression to fold
+   * @return The folded expression, or `expr` if nothing could be folded
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   */
+  public Expression fold(Expression expr) {
+    notNull("expr", expr);
+    return expr.accept(this);
+  }
+
+  @Override
+  public Expression visitFunctionCall(FunctionCall function) {
+    FunctionCall call = (FunctionCall) super.visitFunctionCall(function);
+    NativeExpression operator = getOperator(call);
+    if (operator == null) {
+      return call;
+    }
+
+    List<Expression> args = call.getParameterValues();
+    Expression folded;
+    if (args.size() == 1) {
+      folded = foldUnary(operator, args.get(0));
+    } else {
+      folded = foldBinary(operator, args.get(0), args.get(1));
+    }
+    return (folded != null ? folded : call);
+  }
+
+  @Override
+  public Expression visitIfThenElse(IfThenElse test) {
+    Expression condition = test.getCondition().accept(this);
+    if (isPrimitive(condition, PrimitiveType.BOOL)) {
+      // Only the branch that is taken is visited, the other is dead code
+      Expression taken = (getBoolean(condition) ? test.getTrueExpression()
+                                                : test.getFalseExpression());
+      return taken.accept(this);
+    }
+
+    Expression trueExpr = test.getTrueExpression().accept(this);
+    Expression falseExpr = test.getFalseExpression().accept(this);
+    if (trueExpr.equals(falseExpr)) {
+      return trueExpr;
+    } else if (condition != test.getCondition() || trueExpr != test.getTrueExpression()
+        || falseExpr != test.getFalseExpression()) {
+      return new IfThenElse(test.getScope(), condition, trueExpr, falseExpr);
+    } else {
+      return test;
+    }
+  }
+
+  @Override
+  public Expression visitVariable(VariableReference var) {
+    Declaration<Expression> decl = environment.getDeclaredVariable(
+        var.getScope(), var.getVariableName());
+    if (decl == null || decl.getScope().equals(Scope.NATIVE_SCOPE)) {
+      return var;
+    }
+
+    if (!foldedDeclarations.containsKey(decl)) {
+      foldedDeclarations.put(decl, null);
+      foldedDeclarations.put(decl, decl.getValue().accept(this));
+    }
+    Expression value = foldedDeclarations.get(decl);
+    return (value instanceof PrimitiveValue ? value : var);
+  }
+
+  private NativeExpression getOperator(FunctionCall call) {
+    Expression function = call.getFunction();
+    if (function instanceof VariableReference) {
+      VariableReference var = (VariableReference) function;
+      Declaration<Expression> decl = environment.getDeclaredVariable(
+          var.getScope(), var.getVariableName());
+      if (decl == null || !decl.getScope().equals(Scope.NATIVE_SCOPE)) {
+        return null;
+      }
+      function = decl.getValue();
+    }
+
+    List<Expression> options;
+    if (function instanceof UnionValue) {
+      options = ((UnionValue) function).getOptions();
+    } else {
+      options = Collections.singletonList(function);
+    }
+
+    // Select the overload by the types of the primitive arguments, which must be unambiguous
+    List<Expression> args = call.getParameterValues();
+    NativeExpression selected = null;
+    for (Expression option : options) {
+      if (!(option instanceof NativeExpression)) {
+        continue;
+      }
+      Type type = ((NativeExpression) option).getType();
+      if (!(type instanceof FunctionType)
+          || ((FunctionType) type).getParameterCount() != args.size()) {
+        continue;
+      }
+
+      boolean matches = true;
+      for (int i = 0; i < args.size(); i++) {
+        Type paramType = ((FunctionType) type).getParameterType(i);
+        if (args.get(i) instanceof PrimitiveValue
+            && !paramType.equals(((PrimitiveValue) args.get(i)).getType())) {
+          matches = false;
+        }
+      }
+      if (matches) {
+        if (selected != null) {
+          return null;
+        }
+        selected = (NativeExpression) option;
+      }
+    }
+    return selected;
+  }
+
+  private Expression foldUnary(NativeExpression op, Expression arg) {
+    if (arg instanceof PrimitiveValue) {
+      if (op == Environment.UNARY_BANG) {
+        return new PrimitiveValue(!getBoolean(arg));
+      } else if (op == Environment.UNARY_TILDE) {
+        return new PrimitiveValue(~getInt(arg));
+      } else if (op == Environment.UNARY_SUB_INT) {
+        return new PrimitiveValue(-getInt(arg));
+      } else if (op == Environment.UNARY_SUB_FLOAT) {
+        return new PrimitiveValue(-getFloat(arg));
+      }
+    } else if ((op == Environment.UNARY_BANG || op == Environment.UNARY_TILDE)
+        && arg instanceof FunctionCall && getOperator((FunctionCall) arg) == op) {
+      // !!b and ~~i, the argument was already folded so it's a call of the same operator
+      return ((FunctionCall) arg).getParameterValue(0);
+    }
+    return null;
+  }
+
+  private Expression foldBinary(NativeExpression op, Expression left, Expression right) {
+    if (left instanceof PrimitiveValue && right instanceof PrimitiveValue) {
+      return evaluate(op, (PrimitiveValue) left, (PrimitiveValue) right);
+    }
+
+    if (op == Environment.BINARY_ADD_INT || op == Environment.BINARY_ADD_FLOAT) {
+      if (isZero(left)) {
+        return right;
+      } else if (isZero(right)) {
+        return left;
+      }
+    } else if (op == Environment.BINARY_SUB_INT || op == Environment.BINARY_SUB_FLOAT) {
+      if (isZero(right)) {
+        return left;
+      }
+    } else if (op == Environment.BINARY_MUL_INT || op == Environment.BINARY_MUL_FLOAT) {
+      if (isOne(left)) {
+        return right;
+      } else if (isOne(right)) {
+        return left;
+      } else if (op == Environment.BINARY_MUL_INT && (isZero(left) || isZero(right))) {
+        // Expressions have no side effects, and unlike floats there's no NaN or infinity
+        return new PrimitiveValue(0);
+      }
+    } else if (op == Environment.BINARY_DIV_INT || op == Environment.BINARY_DIV_FLOAT) {
+      if (isOne(right)) {
+        return left;
+      }
+    }
+    return null;
+  }
+
+  private static Expression evaluate(
+      NativeExpression op, PrimitiveValue left, PrimitiveValue right) {
+    if (left.getType() == PrimitiveType.INT) {
+      int a = getInt(left);
+      int b = getInt(right);
+      if (op == Environment.BINARY_ADD_INT) {
+        return new PrimitiveValue(a + b);
+      } else if (op == Environment.BINARY_SUB_INT) {
+        return new PrimitiveValue(a - b);
+      } else if (op == Environment.BINARY_MUL_INT) {
+        return new PrimitiveValue(a * b);
+      } else if (op == Environment.BINARY_DIV_INT) {
+        return (b != 0 ? new PrimitiveValue(a / b) : null);
+      } else if (op == Environment.BINARY_MOD_INT) {
+        // GLSL leaves the sign of the remainder undefined when either operand is negative
+        return (a >= 0 && b > 0 ? new PrimitiveValue(a % b) : null);
+      } else if (op == Environment.BINARY_BITAND_INT) {
+        return new PrimitiveValue(a & b);
+      } else if (op == Environment.BINARY_BITOR_INT) {
+        return new PrimitiveValue(a | b);
+      } else if (op == Environment.BINARY_BITXOR_INT) {
+        return new PrimitiveValue(a ^ b);
+      } else if (op == Environment.BINARY_EQ_INT) {
+        return new PrimitiveValue(a == b);
+      } else if (op == Environment.BINARY_LT_INT) {
+        return new PrimitiveValue(a < b);
+      } else if (op == Environment.BINARY_LE_INT) {
+        return new PrimitiveValue(a <= b);
+      } else if (op == Environment.BINARY_GT_INT) {
+        return new PrimitiveValue(a > b);
+      } else if (op == Environment.BINARY_GE_INT) {
+        return new PrimitiveValue(a >= b);
+      }
+    } else if (left.getType() == PrimitiveType.FLOAT) {
+      float a = getFloat(left);
+      float b = getFloat(right);
+      if (op == Environment.BINARY_ADD_FLOAT) {
+        return new PrimitiveValue(a + b);
+      } else if (op == Environment.BINARY_SUB_FLOAT) {
+        return new PrimitiveValue(a - b);
+      } else if (op == Environment.BINARY_MUL_FLOAT) {
+        return new PrimitiveValue(a * b);
+      } else if (op == Environment.BINARY_DIV_FLOAT) {
+        return (b != 0f ? new PrimitiveValue(a / b) : null);
+      } else if (op == Environment.BINARY_POW_FLOAT) {
+        // GLSL's pow is undefined for negative bases, or a zero base with a non-positive exponent
+        return (a > 0f || (a == 0f && b > 0f) ? new PrimitiveValue((float) Math.pow(a, b)) : null);
+      } else if (op == Environment.BINARY_EQ_FLOAT) {
+        return new PrimitiveValue(a == b);
+      } else if (op == Environment.BINARY_LT_FLOAT) {
+        return new PrimitiveValue(a < b);
+      } else if (op == Environment.BINARY_LE_FLOAT) {
+        return new PrimitiveValue(a <= b);
+      } else if (op == Environment.BINARY_GT_FLOAT) {
+        return new PrimitiveValue(a > b);
+      } else if (op == Environment.BINARY_GE_FLOAT) {
+        return new PrimitiveValue(a >= b);
+      }
+    } else if (left.getType() == PrimitiveType.BOOL) {
+      if (op == Environment.BINARY_EQ_BOOL) {
+        return new PrimitiveValue(getBoolean(left) == getBoolean(right));
+      }
+    }
+    return null;
+  }
+
+  private static boolean getBoolean(Expression primitive) {
+    return (Boolean) ((PrimitiveValue) primitive).getValue();
+  }
+
+  private static float getFloat(Expression primitive) {
+    return (Float) ((PrimitiveValue) primitive).getValue();
+  }
+
+  private static int getInt(Expression primitive) {
+    return (Integer) ((PrimitiveValue) primitive).getValue();
+  }
+
+  private static boolean isOne(Expression expr) {
+    return (isPrimitive(expr, PrimitiveType.INT) && getInt(expr) == 1)
+        || (isPrimitive(expr, PrimitiveType.FLOAT) && getFloat(expr) == 1f);
+  }
+
+  private static boolean isPrimitive(Expression expr, PrimitiveType type) {
+    return expr instanceof PrimitiveValue && ((PrimitiveValue) expr).getType() == type;
+  }
+
+  private static boolean isZero(Expression expr) {
+    return (isPrimitive(expr, PrimitiveType.INT) && getInt(expr) == 0)
+        || (isPrimitive(expr, PrimitiveType.FLOAT) && getFloat(expr) == 0f);
+  }
+}
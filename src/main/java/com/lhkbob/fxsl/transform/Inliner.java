@@ -0,0 +1,395 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.ExpressionRewritingVisitor;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.NativeExpression;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Inliner
+ * =======
+ *
+ * Rewriting pass that replaces calls of known functions with the function's body, where each
+ * reference to a parameter is replaced by the argument the call supplied. This is the beta
+ * reduction that {@link Expression} describes as the meaning of a call.
+ *
+ * A call is inlined when its function can be found statically: a function literal, a variable
+ * whose declaration is a function, or a partial application of either. Partial applications are
+ * flattened, so `var add1 = add(1); add1(2)` inlines `add` with both `1` and `2`. Calls that
+ * supply fewer arguments than the function has parameters are left alone since the result is
+ * itself a function, and extra arguments are applied to the inlined body.
+ *
+ * Arguments are substituted by instance, so every reference to a parameter shares the single
+ * rewritten argument. An argument that is used more than once and is not trivial, i.e. isn't a
+ * primitive, a variable, a uniform or an attribute, is additionally bound to a new variable named
+ * after the parameter and declared in a new scope under the call's scope. The body then
+ * references that variable, like a `let`, so the argument is computed once by generated code
+ * instead of once per use. Local declarations of the function that depend on its parameters are
+ * redeclared the same way with their substituted values.
+ *
+ * The cost of inlining is the number of distinct expressions in the function's body, after calls
+ * within the body have been inlined. Functions that cost more than the inliner's budget are not
+ * inlined, nor are recursive calls of a function that is being inlined, or functions that contain
+ * nested functions or dynamic arrays, since those can't be rewritten without capturing the
+ * parameters.
+ *
+ * The inliner adds the declarations of bound arguments to the environment, so the environment
+ * must not be frozen or locked. The environment isn't otherwise modified, so calls within the
+ * values of other declarations that `expr` references are not inlined into those declarations.
+ * Expressions that don't change are returned as is.
+ *
+ * @author Michael Ludwig
+ */
+public class Inliner extends ExpressionRewritingVisitor {
+  /**
+   * The budget used by {@link #Inliner(Environment)}, large enough for typical math helpers.
+   */
+  public static final int DEFAULT_BUDGET = 64;
+
+  private final Environment environment;
+  private final int budget;
+
+  // Bodies with their calls inlined, and the analysis of those bodies, by function identity
+  private final Map<FunctionValue, Expression> inlinedBodies;
+  private final Map<FunctionValue, BodyInfo> bodyInfos;
+  // Functions whose bodies are being inlined, calls to these are recursive
+  private final Set<FunctionValue> inlining;
+
+  /**
+   * Create an inliner with the {@link #DEFAULT_BUDGET default budget}.
+   *
+   * @param environment
+   *     The environment the inlined expressions were declared in
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public Inliner(Environment environment) {
+    this(environment, DEFAULT_BUDGET);
+  }
+
+  /**
+   * Create an inliner that inlines functions whose bodies have at most `budget` expressions.
+   *
+   * @param environment
+   *     The environment the inlined expressions were declared in
+   * @param budget
+   *     The maximum size of an inlined function body
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   * @throws java.lang.IllegalArgumentException
+   *     if `budget` is negative
+   */
+  public Inliner(Environment environment, int budget) {
+    super(true);
+    notNull("environment", environment);
+    if (budget < 0) {
+      throw new IllegalArgumentException("Budget cannot be negative: " + budget);
+    }
+    this.environment = environment;
+    this.budget = budget;
+    inlinedBodies = new IdentityHashMap<>();
+    bodyInfos = new IdentityHashMap<>();
+    inlining = Collections.newSetFromMap(new IdentityHashMap<FunctionValue, Boolean>());
+  }
+
+  /**
+   * Inline the calls within `expr`.
+   *
+   * @param expr
+   *     The expression to rewrite
+   * @return The rewritten expression, or `expr` if no call could be inlined
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   */
+  public Expression inline(Expression expr) {
+    notNull("expr", expr);
+    return expr.accept(this);
+  }
+
+  @Override
+  public Expression visitFunctionCall(FunctionCall function) {
+    FunctionCall call = (FunctionCall) super.visitFunctionCall(function);
+
+    // Follow variables and partial applications to the function that is finally invoked, the
+    // arguments of partial applications precede the arguments of the call
+    List<Expression> args = new ArrayList<>(call.getParameterValues());
+    Expression callee = call.getFunction();
+    Expression reference = callee;
+    Set<Declaration<Expression>> followed = new HashSet<>();
+    while (!(callee instanceof FunctionValue)) {
+      if (callee instanceof VariableReference) {
+        Declaration<Expression> decl = resolve((VariableReference) callee);
+        if (decl == null || decl.getScope().equals(Scope.NATIVE_SCOPE) || !followed.add(decl)) {
+          return call;
+        }
+        reference = callee;
+        callee = decl.getValue();
+      } else if (callee instanceof FunctionCall) {
+        FunctionCall partial = (FunctionCall) callee;
+        List<Expression> partialArgs = new ArrayList<>();
+        for (Expression arg : partial.getParameterValues()) {
+          partialArgs.add(rewriteChild(arg));
+        }
+        args.addAll(0, partialArgs);
+        reference = callee = partial.getFunction();
+      } else {
+        return call;
+      }
+    }
+
+    FunctionValue target = (FunctionValue) callee;
+    int paramCount = target.getParameters().size();
+    if (args.size() < paramCount) {
+      // Still a partial application, so the result is a function that can't be inlined yet
+      return call;
+    }
+
+    List<Expression> applied = args.subList(0, paramCount);
+    List<Expression> extra = args.subList(paramCount, args.size());
+    Expression result = inlineCall(call, target, applied);
+    if (result == null) {
+      if (args.size() == call.getSuppliedParameterCount() || !extra.isEmpty()) {
+        // Nothing was flattened, or the flattened call would be flattened again by the next visit
+        return call;
+      }
+      return new FunctionCall(call.getScope(), reference, new ArrayList<>(applied));
+    } else if (!extra.isEmpty()) {
+      // The body evaluates to a function that takes the remaining arguments
+      result = new FunctionCall(call.getScope(), result, new ArrayList<>(extra)).accept(this);
+    }
+    return result;
+  }
+
+  private Expression inlineCall(FunctionCall call, FunctionValue function, List<Expression> args) {
+    if (inlining.contains(function)) {
+      return null;
+    }
+
+    List<Declaration<Expression>> params = new ArrayList<>();
+    for (String name : function.getParameters()) {
+      Declaration<Expression> param = environment.getDeclaredVariable(
+          function.getBodyScope(), name);
+      if (param == null || !(param.getValue() instanceof Parameter)
+          || !((Parameter) param.getValue()).getFunction().equals(function)) {
+        return null;
+      }
+      params.add(param);
+    }
+
+    Expression body = inlinedBodies.get(function);
+    if (body == null) {
+      inlining.add(function);
+      try {
+        body = function.getReturnValue().accept(this);
+      } finally {
+        inlining.remove(function);
+      }
+      inlinedBodies.put(function, body);
+    }
+
+    BodyInfo info = bodyInfos.get(function);
+    if (info == null) {
+      info = new BodyInfo(params.get(0).getScope());
+      body.accept(info);
+      bodyInfos.put(function, info);
+    }
+    if (!info.inlinable || info.size > budget) {
+      return null;
+    }
+
+    Substitution substitution = new Substitution(info, new Scope(call.getScope()));
+    for (int i = 0; i < params.size(); i++) {
+      Declaration<Expression> param = params.get(i);
+      Expression arg = args.get(i);
+      Integer uses = info.uses.get(param);
+      if (uses != null && uses > 1 && !isTrivial(arg)) {
+        arg = substitution.bind(param.getName(), arg);
+      }
+      substitution.replacements.put(param, arg);
+    }
+    return body.accept(substitution);
+  }
+
+  private Declaration<Expression> resolve(VariableReference var) {
+    return environment.getDeclaredVariable(var.getScope(), var.getVariableName());
+  }
+
+  private static boolean isTrivial(Expression expr) {
+    return expr instanceof PrimitiveValue || expr instanceof VariableReference
+        || expr instanceof Uniform || expr instanceof Attribute || expr instanceof Parameter
+        || expr instanceof NativeExpression;
+  }
+
+  private static boolean isWithin(Scope scope, Scope ancestor) {
+    for (Scope s = scope; s != null; s = s.getParent()) {
+      if (s.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Measures an inlined body, counting the distinct expressions within it, including the values of
+   * the function's own local declarations, and the number of references to each declaration.
+   */
+  private class BodyInfo extends DefaultExpressionVisitor<Void> {
+    // The scope of the parameters, every local declaration of the function is within it
+    private final Scope functionScope;
+    private final Map<Declaration<Expression>, Integer> uses;
+    private int size;
+    private boolean inlinable;
+
+    BodyInfo(Scope functionScope) {
+      super(true);
+      this.functionScope = functionScope;
+      uses = new HashMap<>();
+      size = 0;
+      inlinable = true;
+    }
+
+    @Override
+    protected Void initialValue(Expression e) {
+      size++;
+      return null;
+    }
+
+    @Override
+    protected Void revisit(Expression e, Void previousResult) {
+      // A shared variable is still a separate use of its declaration
+      if (e instanceof VariableReference) {
+        countUse((VariableReference) e);
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitArrayLength(ArrayLength length) {
+      inlinable = false;
+      return super.visitArrayLength(length);
+    }
+
+    @Override
+    public Void visitDynamicArray(DynamicArrayValue value) {
+      inlinable = false;
+      return super.visitDynamicArray(value);
+    }
+
+    @Override
+    public Void visitFunction(FunctionValue function) {
+      inlinable = false;
+      return super.visitFunction(function);
+    }
+
+    @Override
+    public Void visitVariable(VariableReference var) {
+      super.visitVariable(var);
+      Declaration<Expression> decl = countUse(var);
+      if (decl != null && uses.get(decl) == 1 && isLocal(decl)
+          && !(decl.getValue() instanceof Parameter)) {
+        // The value of a local declaration is part of the body that is inlined
+        decl.getValue().accept(this);
+      }
+      return null;
+    }
+
+    boolean isLocal(Declaration<Expression> decl) {
+      return isWithin(decl.getScope(), functionScope);
+    }
+
+    private Declaration<Expression> countUse(VariableReference var) {
+      Declaration<Expression> decl = resolve(var);
+      if (decl != null) {
+        Integer count = uses.get(decl);
+        uses.put(decl, count == null ? 1 : count + 1);
+      }
+      return decl;
+    }
+  }
+
+  /**
+   * Replaces the parameters of a single inlined call, and redeclares the local declarations that
+   * depend on them in the call's new scope.
+   */
+  private class Substitution extends ExpressionRewritingVisitor {
+    private final BodyInfo info;
+    private final Scope scope;
+    private final Map<Declaration<Expression>, Expression> replacements;
+    private final Set<String> boundNames;
+
+    Substitution(BodyInfo info, Scope scope) {
+      super(true);
+      this.info = info;
+      this.scope = scope;
+      replacements = new HashMap<>();
+      boundNames = new HashSet<>();
+    }
+
+    Expression bind(String name, Expression value) {
+      String bound = name;
+      for (int i = 1; !boundNames.add(bound); i++) {
+        bound = name + "_" + i;
+      }
+      environment.addDeclaredVariable(scope, bound, value);
+      return new VariableReference(scope, bound);
+    }
+
+    @Override
+    public Expression visitFunctionCall(FunctionCall function) {
+      Expression call = super.visitFunctionCall(function);
+      if (call != function && ((FunctionCall) call).getFunction() != function.getFunction()) {
+        // A function was passed as an argument, so the call might be inlined now
+        return Inliner.this.visitFunctionCall((FunctionCall) call);
+      }
+      return call;
+    }
+
+    @Override
+    public Expression visitVariable(VariableReference var) {
+      Declaration<Expression> decl = resolve(var);
+      if (decl == null) {
+        return var;
+      }
+
+      Expression replacement = replacements.get(decl);
+      if (replacement == null && info.isLocal(decl)) {
+        // A recursive reference within the value is left as is
+        replacements.put(decl, var);
+        Expression value = rewriteChild(decl.getValue());
+        if (value == decl.getValue()) {
+          // Doesn't depend on the parameters, so the original declaration is still valid
+          replacement = var;
+        } else if (isTrivial(value)) {
+          replacement = value;
+        } else {
+          replacement = bind(decl.getName(), value);
+        }
+        replacements.put(decl, replacement);
+      }
+      return (replacement != null ? replacement : var);
+    }
+  }
+}
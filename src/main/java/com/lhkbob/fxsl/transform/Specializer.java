@@ -0,0 +1,624 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayAccess;
+import com.lhkbob.fxsl.lang.expr.ArrayLength;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Attribute;
+import com.lhkbob.fxsl.lang.expr.DynamicArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.ExpressionRewritingVisitor;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructFieldAccess;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.UnionValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.FunctionType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.ParametricType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.StructType;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.lang.type.TypePath;
+import com.lhkbob.fxsl.lang.type.TypeRewritingVisitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * Specializer
+ * ===========
+ *
+ * Rewriting pass that replaces polymorphic functions with concrete copies, since GLSL has no
+ * generics. A function is polymorphic when its parameters have parametric types, like `_T`, no
+ * declared type, or arrays with wildcard lengths, like `float[n]`.
+ *
+ * Every full call of a declared function whose arguments have concrete types is redirected to a
+ * copy of the function that is specialized for those types:
+ *
+ * * The parametric types, meta types and wildcard lengths of the parameters are matched against
+ *   the argument types. Arguments that don't fit the parameters raise an
+ *   {@link InvalidExpressionException}.
+ * * The copy's parameters are declared with the concrete argument types, and references to a
+ *   wildcard length, like `n`, are replaced by the length.
+ * * The copy's local declarations and body are copied into new scopes, and calls within them are
+ *   specialized in turn, so a polymorphic function can call other polymorphic functions.
+ * * The copy is declared with the function's name in a new scope under the function's scope.
+ *
+ * Copies are cached by function and by the concrete {@link FunctionType} of the instantiation, so
+ * a function is copied and specialized once for each distinct signature it is called with, no
+ * matter how many calls use that signature. Monomorphic functions are copied once, so that the
+ * calls within them are specialized too. Declarations referenced by the rewritten expression whose
+ * values change are redeclared in new scopes as well.
+ *
+ * Argument types are determined by {@link ConcreteTypes}. Calls whose arguments don't have
+ * concrete types, partial applications, and functions with nested functions or dynamic arrays are
+ * left alone; running the {@link Inliner} first removes most of those.
+ *
+ * The specializer adds its copies to the environment, so the environment must not be frozen or
+ * locked.
+ *
+ * @author Michael Ludwig
+ */
+public class Specializer extends ExpressionRewritingVisitor {
+  // Bounds the specializations of a function that are in progress at once, since polymorphic
+  // recursion like `f(x) = f([x, x])` would otherwise instantiate forever
+  private static final int MAX_NESTED_SPECIALIZATIONS = 16;
+
+  private final Environment environment;
+  private final ConcreteTypes types;
+
+  // References to the declared copies of each function by the concrete type of the copy
+  private final Map<FunctionValue, Map<FunctionType, VariableReference>> specializations;
+  private final Map<FunctionValue, Type> returnTypes;
+  private final Map<FunctionValue, Integer> nesting;
+  // Rewritten references of declarations, a declaration maps to null while it's rewritten or if
+  // its value didn't change
+  private final Map<Declaration<Expression>, Expression> rewrittenDeclarations;
+
+  /**
+   * Create a specializer for expressions declared in `environment`.
+   *
+   * @param environment
+   *     The environment the specialized expressions were declared in
+   * @throws java.lang.NullPointerException
+   *     if `environment` is null
+   */
+  public Specializer(Environment environment) {
+    super(true);
+    notNull("environment", environment);
+    this.environment = environment;
+    types = new ConcreteTypes(environment);
+    specializations = new IdentityHashMap<>();
+    returnTypes = new IdentityHashMap<>();
+    nesting = new IdentityHashMap<>();
+    rewrittenDeclarations = new HashMap<>();
+  }
+
+  /**
+   * Get the number of function copies this specializer has created.
+   *
+   * @return The number of distinct specializations
+   */
+  public int getSpecializationCount() {
+    int count = 0;
+    for (Map<FunctionType, VariableReference> copies : specializations.values()) {
+      count += copies.size();
+    }
+    return count;
+  }
+
+  /**
+   * Specialize the calls within `expr`.
+   *
+   * @param expr
+   *     The expression to rewrite
+   * @return The rewritten expression, or `expr` if nothing was specialized
+   * @throws java.lang.NullPointerException
+   *     if `expr` is null
+   * @throws com.lhkbob.fxsl.lang.InvalidExpressionException
+   *     if a call's arguments don't fit the function's parameters
+   */
+  public Expression specialize(Expression expr) {
+    notNull("expr", expr);
+    return expr.accept(this);
+  }
+
+  @Override
+  public Expression visitFunction(FunctionValue function) {
+    // A function that isn't called, such as the entry of a unit, is copied if its declared
+    // parameter types are concrete
+    Instantiation instance = Instantiation.create(this, function);
+    if (instance == null) {
+      return function;
+    }
+    List<Type> paramTypes = new ArrayList<>();
+    for (Declaration<Expression> param : instance.parameters) {
+      Type recorded = environment.getRecordedExpressionType(param.getValue());
+      Type type = (recorded != null ? types.getConcreteType(recorded) : null);
+      if (type == null || !instance.match(recorded, type)) {
+        return function;
+      }
+      paramTypes.add(type);
+    }
+    return copy(function, instance, paramTypes);
+  }
+
+  @Override
+  public Expression visitFunctionCall(FunctionCall function) {
+    FunctionCall call = (FunctionCall) super.visitFunctionCall(function);
+    if (!(call.getFunction() instanceof VariableReference)) {
+      return call;
+    }
+    Declaration<Expression> decl = resolve((VariableReference) call.getFunction());
+    if (decl == null || decl.getScope().equals(Scope.NATIVE_SCOPE)
+        || !(decl.getValue() instanceof FunctionValue)) {
+      return call;
+    }
+    FunctionValue callee = (FunctionValue) decl.getValue();
+    if (callee.getParameters().size() != call.getSuppliedParameterCount()) {
+      return call;
+    }
+
+    List<Type> argTypes = new ArrayList<>();
+    for (Expression arg : call.getParameterValues()) {
+      Type type = types.getType(arg);
+      if (type == null) {
+        return call;
+      }
+      argTypes.add(type);
+    }
+
+    Instantiation instance = Instantiation.create(this, callee);
+    if (instance == null) {
+      return call;
+    }
+    for (int i = 0; i < argTypes.size(); i++) {
+      Type pattern = environment.getRecordedExpressionType(instance.parameters.get(i).getValue());
+      if (pattern != null && !instance.match(pattern, argTypes.get(i))) {
+        throw new InvalidExpressionException(
+            call, "Argument " + i + " of type " + argTypes.get(i) + " does not fit parameter "
+            + callee.getParameter(i) + " of type " + pattern);
+      }
+    }
+
+    Type returnType = returnTypes.get(callee);
+    if (returnType == null) {
+      returnType = environment.getRecordedExpressionType(callee.getReturnValue());
+      if (returnType == null) {
+        // Unknown, but the same for every signature since it is determined by the parameters
+        returnType = new MetaType(callee.getBodyScope());
+      }
+      returnTypes.put(callee, returnType);
+    }
+    FunctionType signature = new FunctionType(argTypes, instance.substitute(returnType));
+
+    Map<FunctionType, VariableReference> copies = specializations.get(callee);
+    if (copies == null) {
+      copies = new HashMap<>();
+      specializations.put(callee, copies);
+    }
+    VariableReference copy = copies.get(signature);
+    if (copy == null) {
+      Integer depth = nesting.get(callee);
+      depth = (depth == null ? 1 : depth + 1);
+      if (depth > MAX_NESTED_SPECIALIZATIONS) {
+        throw new InvalidExpressionException(
+            call, "Polymorphic recursion of " + decl.getName() + " has no finite specialization");
+      }
+
+      // The copy is cached before it is built so recursive calls with the same types find it
+      Scope scope = new Scope(decl.getScope());
+      copy = new VariableReference(scope, decl.getName());
+      copies.put(signature, copy);
+      nesting.put(callee, depth);
+      try {
+        environment.addDeclaredVariable(scope, decl.getName(), copy(callee, instance, argTypes));
+      } finally {
+        nesting.put(callee, depth - 1);
+      }
+    }
+    return new FunctionCall(call.getScope(), copy, call.getParameterValues());
+  }
+
+  @Override
+  public Expression visitVariable(VariableReference var) {
+    Declaration<Expression> decl = resolve(var);
+    if (decl == null || decl.getScope().equals(Scope.NATIVE_SCOPE)
+        || decl.getValue() instanceof FunctionValue || decl.getValue() instanceof Parameter
+        || decl.getValue() instanceof ArrayLength) {
+      // Functions are specialized where they're called
+      return var;
+    }
+
+    if (!rewrittenDeclarations.containsKey(decl)) {
+      rewrittenDeclarations.put(decl, null);
+      Expression value = decl.getValue().accept(this);
+      // Unchanged declarations keep mapping to null, so each reference is kept as is instead of
+      // being replaced by the first reference to the declaration, which can be in another scope
+      Expression rewritten = null;
+      if (value != decl.getValue()) {
+        Scope scope = new Scope(decl.getScope());
+        environment.addDeclaredVariable(scope, decl.getName(), value);
+        rewritten = new VariableReference(scope, decl.getName());
+      }
+      rewrittenDeclarations.put(decl, rewritten);
+    }
+    Expression rewritten = rewrittenDeclarations.get(decl);
+    return (rewritten != null ? rewritten : var);
+  }
+
+  private FunctionValue copy(FunctionValue function, Instantiation instance, List<Type> paramTypes) {
+    Copier copier = new Copier(instance, paramTypes);
+    Expression body = function.getReturnValue().accept(copier).accept(this);
+    Scope bodyScope = copier.mapScope(function.getBodyScope());
+    if (!bodyScope.equals(body.getScope())
+        && function.getReturnValue() instanceof VariableReference) {
+      // A body that is only a reference can be replaced by a rewritten declaration or a length,
+      // which aren't in the copy's body scope, so it is declared locally under the same name to
+      // keep the copy's parameters in its body scope
+      String name = ((VariableReference) function.getReturnValue()).getVariableName();
+      environment.addDeclaredVariable(bodyScope, name, body);
+      body = new VariableReference(bodyScope, name);
+    }
+    FunctionValue copy = new FunctionValue(function.getScope(), function.getParameters(), body);
+
+    Scope paramScope = copier.mapScope(instance.functionScope);
+    for (int i = 0; i < paramTypes.size(); i++) {
+      Parameter param = new Parameter(copy, function.getParameter(i));
+      environment.addDeclaredVariable(paramScope, function.getParameter(i), param);
+      environment.setExpressionType(param, paramTypes.get(i));
+    }
+    return copy;
+  }
+
+  private Declaration<Expression> resolve(VariableReference var) {
+    return environment.getDeclaredVariable(var.getScope(), var.getVariableName());
+  }
+
+  private static boolean isWithin(Scope scope, Scope ancestor) {
+    for (Scope s = scope; s != null; s = s.getParent()) {
+      if (s.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The parameters of a function and the concrete types and lengths its type variables are bound
+   * to by a call.
+   */
+  private static class Instantiation extends TypeRewritingVisitor {
+    final Environment environment;
+    final List<Declaration<Expression>> parameters;
+    // The scope of the parameters, which contains every local declaration of the function
+    final Scope functionScope;
+
+    final Map<Type, Type> typeVariables; // parametric and meta types
+    final Map<ArrayType.Length, ArrayType.Length> lengths;
+
+    private Instantiation(Environment environment, List<Declaration<Expression>> parameters) {
+      this.environment = environment;
+      this.parameters = parameters;
+      functionScope = parameters.get(0).getScope();
+      typeVariables = new HashMap<>();
+      lengths = new HashMap<>();
+    }
+
+    // Returns null if the parameter declarations can't be found
+    static Instantiation create(Specializer specializer, FunctionValue function) {
+      List<Declaration<Expression>> params = new ArrayList<>();
+      for (String name : function.getParameters()) {
+        Declaration<Expression> param = specializer.environment.getDeclaredVariable(
+            function.getBodyScope(), name);
+        if (param == null || !(param.getValue() instanceof Parameter)
+            || !((Parameter) param.getValue()).getFunction().equals(function)) {
+          return null;
+        }
+        params.add(param);
+      }
+      return new Instantiation(specializer.environment, params);
+    }
+
+    /**
+     * Bind the type variables of `pattern` so that it equals the concrete type `type`, returning
+     * false if that isn't possible.
+     */
+    boolean match(Type pattern, Type type) {
+      if (pattern instanceof MetaType) {
+        Type bound = environment.getBoundMetaType((MetaType) pattern);
+        if (bound != null) {
+          return match(bound, type);
+        }
+        return bindVariable(pattern, type);
+      } else if (pattern instanceof ParametricType) {
+        return bindVariable(pattern, type);
+      } else if (pattern instanceof AliasType) {
+        AliasType alias = (AliasType) pattern;
+        Declaration<Type> decl = environment.getDeclaredType(alias.getScope(), alias.getLabel());
+        return decl != null && match(decl.getValue(), type);
+      } else if (pattern instanceof PrimitiveType) {
+        return pattern.equals(type);
+      } else if (pattern instanceof ArrayType) {
+        if (!(type instanceof ArrayType)) {
+          return false;
+        }
+        ArrayType array = (ArrayType) pattern;
+        ArrayType concrete = (ArrayType) type;
+        return matchLength(array.getLength(), concrete.getLength())
+            && match(array.getComponentType(), concrete.getComponentType());
+      } else if (pattern instanceof StructType) {
+        if (!(type instanceof StructType)) {
+          return false;
+        }
+        Map<String, Type> fields = ((StructType) pattern).getFieldTypes();
+        Map<String, Type> concrete = ((StructType) type).getFieldTypes();
+        if (!fields.keySet().equals(concrete.keySet())) {
+          return false;
+        }
+        for (Map.Entry<String, Type> f : fields.entrySet()) {
+          if (!match(f.getValue(), concrete.get(f.getKey()))) {
+            return false;
+          }
+        }
+        return true;
+      } else {
+        // function and union types are never concrete
+        return false;
+      }
+    }
+
+    Type substitute(Type pattern) {
+      return pattern.accept(this);
+    }
+
+    @Override
+    public Type visitAliasType(AliasType t) {
+      Declaration<Type> decl = environment.getDeclaredType(t.getScope(), t.getLabel());
+      return (decl != null ? decl.getValue().accept(this) : t);
+    }
+
+    @Override
+    public Type visitArrayType(ArrayType t) {
+      Type component = t.getComponentType().accept(this);
+      ArrayType.Length length = t.getLength();
+      if (length.isWildcard()) {
+        ArrayType.Length bound = environment.getBoundArrayLength(length);
+        if (bound == null || bound.isWildcard()) {
+          bound = lengths.get(length);
+        }
+        length = (bound != null ? bound : length);
+      }
+      return (component != t.getComponentType() || length != t.getLength()
+              ? new ArrayType(component, length) : t);
+    }
+
+    @Override
+    public Type visitMetaType(MetaType t) {
+      Type bound = environment.getBoundMetaType(t);
+      if (bound != null) {
+        return bound.accept(this);
+      }
+      bound = typeVariables.get(t);
+      return (bound != null ? bound : t);
+    }
+
+    @Override
+    public Type visitParametricType(ParametricType t) {
+      Type bound = typeVariables.get(t);
+      return (bound != null ? bound : t);
+    }
+
+    private boolean bindVariable(Type variable, Type type) {
+      Type bound = typeVariables.get(variable);
+      if (bound == null) {
+        typeVariables.put(variable, type);
+        return true;
+      }
+      return bound.equals(type);
+    }
+
+    private boolean matchLength(ArrayType.Length pattern, ArrayType.Length length) {
+      if (!pattern.isWildcard()) {
+        return pattern.equals(length);
+      }
+      ArrayType.Length bound = environment.getBoundArrayLength(pattern);
+      if (bound == null || bound.isWildcard()) {
+        bound = lengths.get(pattern);
+      }
+      if (bound == null) {
+        lengths.put(pattern, length);
+        return true;
+      }
+      return bound.equals(length);
+    }
+  }
+
+  /**
+   * Copies the body and local declarations of a function into new scopes, referencing the
+   * parameters of the copy instead of the original's.
+   */
+  private class Copier extends ExpressionRewritingVisitor {
+    private final Instantiation instance;
+    private final Map<Declaration<Expression>, Type> paramTypes;
+    private final Map<Scope, Scope> scopes;
+    // Local declarations that were copied, or are being copied
+    private final Map<Declaration<Expression>, Boolean> locals;
+
+    Copier(Instantiation instance, List<Type> paramTypes) {
+      super(true);
+      this.instance = instance;
+      this.paramTypes = new HashMap<>();
+      for (int i = 0; i < paramTypes.size(); i++) {
+        this.paramTypes.put(instance.parameters.get(i), paramTypes.get(i));
+      }
+      scopes = new HashMap<>();
+      locals = new HashMap<>();
+    }
+
+    Scope mapScope(Scope scope) {
+      if (scope == null || !isWithin(scope, instance.functionScope)) {
+        return scope;
+      }
+      Scope mapped = scopes.get(scope);
+      if (mapped == null) {
+        mapped = new Scope(mapScope(scope.getParent()));
+        scopes.put(scope, mapped);
+      }
+      return mapped;
+    }
+
+    @Override
+    public Expression visitArray(ArrayValue value) {
+      List<Expression> elements = new ArrayList<>();
+      for (Expression e : value.getElements()) {
+        elements.add(rewriteChild(e));
+      }
+      return new ArrayValue(mapScope(value.getScope()), elements);
+    }
+
+    @Override
+    public Expression visitArrayAccess(ArrayAccess access) {
+      return new ArrayAccess(mapScope(access.getScope()), rewriteChild(access.getArray()),
+                             rewriteChild(access.getIndex()));
+    }
+
+    @Override
+    public Expression visitArrayLength(ArrayLength length) {
+      return new PrimitiveValue(getLength(length));
+    }
+
+    @Override
+    public Expression visitAttribute(Attribute attr) {
+      return copyType(attr, new Attribute(mapScope(attr.getScope()), attr.getName()));
+    }
+
+    @Override
+    public Expression visitDynamicArray(DynamicArrayValue value) {
+      throw new InvalidExpressionException(value, "Dynamic arrays cannot be specialized");
+    }
+
+    @Override
+    public Expression visitFieldAccess(StructFieldAccess access) {
+      return new StructFieldAccess(mapScope(access.getScope()), rewriteChild(access.getStruct()),
+                                   access.getField());
+    }
+
+    @Override
+    public Expression visitFunction(FunctionValue function) {
+      throw new InvalidExpressionException(function, "Nested functions cannot be specialized");
+    }
+
+    @Override
+    public Expression visitFunctionCall(FunctionCall function) {
+      List<Expression> args = new ArrayList<>();
+      for (Expression arg : function.getParameterValues()) {
+        args.add(rewriteChild(arg));
+      }
+      return new FunctionCall(mapScope(function.getScope()), rewriteChild(function.getFunction()),
+                              args);
+    }
+
+    @Override
+    public Expression visitIfThenElse(IfThenElse test) {
+      return new IfThenElse(mapScope(test.getScope()), rewriteChild(test.getCondition()),
+                            rewriteChild(test.getTrueExpression()),
+                            rewriteChild(test.getFalseExpression()));
+    }
+
+    @Override
+    public Expression visitStruct(StructValue struct) {
+      Map<String, Expression> fields = new HashMap<>();
+      for (Map.Entry<String, Expression> f : struct.getFields().entrySet()) {
+        fields.put(f.getKey(), rewriteChild(f.getValue()));
+      }
+      return new StructValue(mapScope(struct.getScope()), fields);
+    }
+
+    @Override
+    public Expression visitUniform(Uniform uniform) {
+      return copyType(uniform, new Uniform(mapScope(uniform.getScope()), uniform.getName()));
+    }
+
+    @Override
+    public Expression visitUnion(UnionValue union) {
+      List<Expression> options = new ArrayList<>();
+      for (Expression option : union.getOptions()) {
+        options.add(rewriteChild(option));
+      }
+      return new UnionValue(mapScope(union.getScope()), options);
+    }
+
+    @Override
+    public Expression visitVariable(VariableReference var) {
+      Declaration<Expression> decl = resolve(var);
+      VariableReference copy = new VariableReference(mapScope(var.getScope()),
+                                                     var.getVariableName());
+      if (decl == null || !isWithin(decl.getScope(), instance.functionScope)) {
+        // Declared outside of the function, so the copied reference still resolves to it. The
+        // reference is copied anyway so that the copied body never equals the original's, which
+        // would make the copy's parameters equal to the original's parameters.
+        return copy;
+      }
+
+      Type paramType = paramTypes.get(decl);
+      if (paramType != null) {
+        // The copy's parameters are only declared once the copied body is complete
+        types.setType(copy, paramType);
+      } else if (decl.getValue() instanceof ArrayLength) {
+        return new PrimitiveValue(getLength((ArrayLength) decl.getValue()));
+      } else if (!locals.containsKey(decl)) {
+        locals.put(decl, true);
+        Expression value = decl.getValue().accept(this).accept(Specializer.this);
+        environment.addDeclaredVariable(mapScope(decl.getScope()), decl.getName(), value);
+      }
+      return copy;
+    }
+
+    // The type of an input is only recorded for the parsed expression, so the copy needs it too
+    private Expression copyType(Expression original, Expression copy) {
+      Type type = environment.getRecordedExpressionType(original);
+      if (type != null) {
+        environment.setExpressionType(copy, type);
+      }
+      return copy;
+    }
+
+    private int getLength(ArrayLength length) {
+      TypePath path = length.getPathToArrayType();
+      Declaration<Expression> root = resolve(path.getRoot());
+      Type type = paramTypes.get(root);
+      for (TypePath.Node node : path.getPath()) {
+        if (type instanceof ArrayType && node.getType() == TypePath.NodeType.ARRAY_COMPONENT) {
+          type = ((ArrayType) type).getComponentType();
+        } else if (type instanceof StructType
+                   && node.getType() == TypePath.NodeType.STRUCT_FIELD) {
+          type = ((StructType) type).getFieldType(node.getStringData());
+        } else {
+          type = null;
+          break;
+        }
+      }
+      if (!(type instanceof ArrayType)) {
+        throw new InvalidExpressionException(length, "Cannot determine the array length");
+      }
+      return ((ArrayType) type).getLength().get();
+    }
+  }
+}
@@ -0,0 +1,336 @@
+package com.lhkbob.fxsl.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.lhkbob.fxsl.util.Preconditions.notNull;
+
+/**
+ * PersistentMap
+ * =============
+ *
+ * An immutable hash map implemented as a hash array mapped trie. Updating the map returns a new
+ * map that shares all unmodified structure with the original, so an update costs O(log32 n) new
+ * nodes instead of a copy of the entire map, and keeping old versions of the map around is free.
+ * This is what allows {@link com.lhkbob.fxsl.lang.Environment} to push and commit without copying
+ * its contents.
+ *
+ * Keys use the logical equality defined by `equals()` and `hashCode()`. Neither keys nor values
+ * may be null. Iteration order is unspecified but is stable for a given map instance.
+ *
+ * @author Michael Ludwig
+ */
+@Immutable
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+  private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(
+      BitmapNode.EMPTY, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Get the empty map. The returned instance is shared.
+   *
+   * @return An empty map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  /**
+   * @return True if `key` is mapped to a value
+   */
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Get the value mapped to `key`.
+   *
+   * @param key
+   *     The key to look up
+   * @return The mapped value, or null if the key is not in the map
+   */
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    if (key == null) {
+      return null;
+    }
+    return (V) root.get(0, hash(key), key);
+  }
+
+  /**
+   * @return True if the map has no entries
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator<>(root);
+  }
+
+  /**
+   * Get a map that is equal to this map except that `key` is mapped to `value`. If `key` is
+   * already mapped to the identical `value` then this map is returned.
+   *
+   * @param key
+   *     The key
+   * @param value
+   *     The value
+   * @return The updated map
+   * @throws java.lang.NullPointerException
+   *     if `key` or `value` are null
+   */
+  public PersistentMap<K, V> put(K key, V value) {
+    notNull("key", key);
+    notNull("value", value);
+
+    boolean[] added = new boolean[1];
+    Node newRoot = root.put(0, hash(key), key, value, added);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  /**
+   * @return The number of entries in the map
+   */
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    boolean first = true;
+    for (Map.Entry<K, V> e : this) {
+      if (!first) {
+        sb.append(", ");
+      }
+      sb.append(e.getKey()).append('=').append(e.getValue());
+      first = false;
+    }
+    return sb.append('}').toString();
+  }
+
+  private static int hash(Object key) {
+    // Spread the higher bits down since the first levels of the trie only use the low bits
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & 0x1f);
+  }
+
+  private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2,
+                                 Object value2) {
+    int hash1 = hash(key1);
+    if (hash1 == hash2) {
+      return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+    }
+    // Two distinct hashes always differ in some 5 bit chunk before the shift reaches 32
+    boolean[] added = new boolean[1];
+    return BitmapNode.EMPTY.put(shift, hash1, key1, value1, added)
+                           .put(shift, hash2, key2, value2, added);
+  }
+
+  private static Object[] copyAndSet(Object[] array, int index, Object value) {
+    Object[] copy = array.clone();
+    copy[index] = value;
+    return copy;
+  }
+
+  private static abstract class Node {
+    // The flat key-value array of the node, where a null key means the value is a child node
+    protected final Object[] array;
+
+    protected Node(Object[] array) {
+      this.array = array;
+    }
+
+    public abstract Object get(int shift, int hash, Object key);
+
+    public abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+  }
+
+  private static final class BitmapNode extends Node {
+    private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+
+    private BitmapNode(int bitmap, Object[] array) {
+      super(array);
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+
+      int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+      Object k = array[index];
+      Object v = array[index + 1];
+      if (k == null) {
+        return ((Node) v).get(shift + 5, hash, key);
+      } else if (key.equals(k)) {
+        return v;
+      } else {
+        return null;
+      }
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int index = 2 * Integer.bitCount(bitmap & (bit - 1));
+
+      if ((bitmap & bit) != 0) {
+        Object k = array[index];
+        Object v = array[index + 1];
+        if (k == null) {
+          Node child = ((Node) v).put(shift + 5, hash, key, value, added);
+          return child == v ? this : new BitmapNode(bitmap, copyAndSet(array, index + 1, child));
+        } else if (key.equals(k)) {
+          return v == value ? this : new BitmapNode(bitmap, copyAndSet(array, index + 1, value));
+        } else {
+          // Push both entries down into a new child node
+          added[0] = true;
+          Node child = createNode(shift + 5, k, v, hash, key, value);
+          Object[] newArray = array.clone();
+          newArray[index] = null;
+          newArray[index + 1] = child;
+          return new BitmapNode(bitmap, newArray);
+        }
+      } else {
+        added[0] = true;
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+    }
+  }
+
+  private static final class CollisionNode extends Node {
+    private final int hash;
+
+    private CollisionNode(int hash, Object[] array) {
+      super(array);
+      this.hash = hash;
+    }
+
+    @Override
+    public Object get(int shift, int hash, Object key) {
+      if (hash != this.hash) {
+        return null;
+      }
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return array[i + 1];
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // Nest this collision node within a bitmap node so the new key can branch off of it
+        BitmapNode parent = new BitmapNode(bit(this.hash, shift), new Object[] { null, this });
+        return parent.put(shift, hash, key, value, added);
+      }
+
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return array[i + 1] == value ? this : new CollisionNode(
+              hash, copyAndSet(array, i + 1, value));
+        }
+      }
+
+      added[0] = true;
+      Object[] newArray = new Object[array.length + 2];
+      System.arraycopy(array, 0, newArray, 0, array.length);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      return new CollisionNode(hash, newArray);
+    }
+  }
+
+  private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+    // Depth-first stack of node arrays and the index of the next pair to visit in each
+    private final List<Object[]> arrays;
+    private final List<Integer> indices;
+    private Map.Entry<K, V> next;
+
+    public EntryIterator(Node root) {
+      arrays = new ArrayList<>();
+      indices = new ArrayList<>();
+      arrays.add(root.array);
+      indices.add(0);
+      next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<K, V> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<K, V> result = next;
+      next = advance();
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("PersistentMap is immutable");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map.Entry<K, V> advance() {
+      while (!arrays.isEmpty()) {
+        int top = arrays.size() - 1;
+        Object[] array = arrays.get(top);
+        int index = indices.get(top);
+
+        if (index >= array.length) {
+          arrays.remove(top);
+          indices.remove(top);
+          continue;
+        }
+
+        indices.set(top, index + 2);
+        if (array[index] == null) {
+          arrays.add(((Node) array[index + 1]).array);
+          indices.add(0);
+        } else {
+          return new AbstractMap.SimpleImmutableEntry<>((K) array[index], (V) array[index + 1]);
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.parser.semantics.SemanticsChecker;
+import com.lhkbob.fxsl.parser.semantics.VariableReferenceChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link BatchCompiler}.
+ *
+ * @author Michael Ludwig
+ */
+public class BatchCompilerTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private static List<SemanticsChecker> checkers() {
+        return Arrays.<SemanticsChecker>asList(new VariableReferenceChecker());
+    }
+
+    private static Environment prelude() {
+        // library declarations live in the prelude's root scope
+        Environment prelude = new Environment();
+        prelude.addDeclaredVariable(prelude.getRootScope(), "scale", new PrimitiveValue(2.0f));
+        prelude.addDeclaredType(
+                prelude.getRootScope(), "vec2",
+                new ArrayType(PrimitiveType.FLOAT, new ArrayType.Length(2)));
+        return prelude;
+    }
+
+    @Test
+    public void testUnitOrder() throws Exception {
+        BatchCompiler compiler = new BatchCompiler(executor, checkers());
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            sources.put("unit" + i, "var x = " + i + "; x + 1");
+        }
+
+        List<BatchCompiler.Unit> units = compiler.compileSources(sources);
+        assertEquals(50, units.size());
+        for (int i = 0; i < 50; i++) {
+            BatchCompiler.Unit unit = units.get(i);
+            assertEquals("unit" + i, unit.getName());
+            assertTrue(unit.toString(), unit.isSuccessful());
+            assertNotNull(unit.getExpression());
+            assertNotNull(unit.getEnvironment());
+        }
+    }
+
+    @Test
+    public void testErrorsAreReportedPerUnit() throws Exception {
+        BatchCompiler compiler = new BatchCompiler(executor, checkers());
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("ok", "var a = 1; a");
+        sources.put("undefined", "var a = b + 1; a");
+        sources.put("redefined", "var a = 1; var a = 2; a");
+        sources.put("ok2", "var a = 2; a");
+
+        List<BatchCompiler.Unit> units = compiler.compileSources(sources);
+        assertTrue(units.get(0).isSuccessful());
+        assertTrue(units.get(3).isSuccessful());
+
+        // semantic problems are collected, the unit is still parsed
+        assertNull(units.get(1).getFailure());
+        assertEquals(1, units.get(1).getProblems().size());
+        assertNotNull(units.get(1).getExpression());
+        assertFalse(units.get(1).isSuccessful());
+
+        // exceptions while parsing are reported as the unit's failure
+        assertTrue(units.get(2).getFailure() instanceof IllegalStateException);
+        assertNull(units.get(2).getExpression());
+        assertNull(units.get(2).getEnvironment());
+        assertFalse(units.get(2).isSuccessful());
+    }
+
+    @Test
+    public void testPreludeIsShared() throws Exception {
+        Environment prelude = prelude();
+        BatchCompiler compiler = new BatchCompiler(prelude, executor, checkers());
+        assertTrue(compiler.getPrelude().isFrozen());
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("a", "var v:vec2 = [1.0, scale]; v");
+        sources.put("b", "var w = scale * 3.0; w");
+        List<BatchCompiler.Unit> units = compiler.compileSources(sources);
+        for (BatchCompiler.Unit unit : units) {
+            assertTrue(unit.toString(), unit.isSuccessful());
+            assertNotSame(prelude, unit.getEnvironment());
+        }
+        // a unit's declarations are private to it
+        Expression a = units.get(0).getExpression();
+        Expression b = units.get(1).getExpression();
+        assertNotNull(units.get(0).getEnvironment().getDeclaredVariable(a.getScope(), "v"));
+        assertNull(units.get(1).getEnvironment().getDeclaredVariable(b.getScope(), "v"));
+        assertNull(prelude.getDeclaredVariable(prelude.getRootScope(), "v"));
+    }
+
+    @Test
+    public void testUnitsShadowPreludeNames() throws Exception {
+        Environment prelude = prelude();
+        BatchCompiler compiler = new BatchCompiler(prelude, executor, checkers());
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        sources.put("shadow", "var scale = 3; scale");
+        sources.put("prelude", "scale");
+        List<BatchCompiler.Unit> units = compiler.compileSources(sources);
+        for (BatchCompiler.Unit unit : units) {
+            assertTrue(unit.toString(), unit.isSuccessful());
+        }
+
+        Expression shadow = units.get(0).getExpression();
+        Declaration<Expression> declared = units.get(0).getEnvironment().getDeclaredVariable(
+                shadow.getScope(), "scale");
+        assertEquals(shadow.getScope(), declared.getScope());
+        assertEquals(new PrimitiveValue(3), declared.getValue());
+
+        // the unit scope of each unit is a child of the prelude's root scope
+        Expression ref = units.get(1).getExpression();
+        assertFalse(prelude.getRootScope().equals(ref.getScope()));
+        assertEquals(prelude.getRootScope(), ref.getScope().getParent());
+        declared = units.get(1).getEnvironment().getDeclaredVariable(ref.getScope(), "scale");
+        assertEquals(prelude.getRootScope(), declared.getScope());
+        assertEquals(new PrimitiveValue(2.0f), declared.getValue());
+    }
+}
@@ -0,0 +1,149 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.parser.ParseRecording;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link DiskCache}.
+ *
+ * @author Michael Ludwig
+ */
+public class DiskCacheTest {
+    private static final String SOURCE = "var x = 1; var f = (a:int -> a + x); f(2)";
+
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("fxsl-cache");
+    }
+
+    @After
+    public void teardown() throws IOException {
+        for (Path file : entries()) {
+            Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+
+    private List<Path> entries() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory)) {
+            for (Path file : dir) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private DiskCache cache(String version) throws IOException {
+        return new DiskCache(directory.toFile(), version);
+    }
+
+    private static void store(DiskCache disk) {
+        // parsing through a disk backed parse cache writes the unit to disk
+        new Parser(new Environment(), new ParseCache(10, 1000, disk)).parse(SOURCE);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        DiskCache disk = cache("1");
+        store(disk);
+        assertEquals(1, entries().size());
+
+        // a different process would load it into an unrelated environment
+        Environment env = new Environment();
+        ParseRecording recording = disk.load(SOURCE, env.getRootScope());
+        assertNotNull(recording);
+        assertEquals(1, disk.getHitCount());
+        assertEquals(env.getRootScope(), recording.getRootScope());
+        assertTrue(recording.replay(env));
+
+        Expression result = recording.getResult();
+        assertNotNull(env.getDeclaredVariable(result.getScope(), "x"));
+        assertNotNull(env.getDeclaredVariable(result.getScope(), "f"));
+
+        // a parse cache with nothing in memory is satisfied from disk
+        ParseCache memory = new ParseCache(10, 1000, disk);
+        assertNotNull(new Parser(new Environment(), memory).parse(SOURCE));
+        assertEquals(1, memory.getHitCount());
+        assertEquals(1, memory.size());
+
+        // the first parse looked on disk before storing the unit
+        assertEquals(1, disk.getMissCount());
+        assertNull(disk.load("1 + 2", env.getRootScope()));
+        assertEquals(2, disk.getMissCount());
+    }
+
+    @Test
+    public void testVersionMismatch() throws IOException {
+        store(cache("1"));
+
+        DiskCache other = cache("2");
+        assertNull(other.load(SOURCE, new Environment().getRootScope()));
+        assertEquals(1, other.getMissCount());
+        // entries of other versions are left alone
+        assertEquals(1, entries().size());
+        assertNotNull(cache("1").load(SOURCE, new Environment().getRootScope()));
+    }
+
+    @Test
+    public void testCorruptEntries() throws IOException {
+        DiskCache disk = cache("1");
+        store(disk);
+        Path file = entries().get(0);
+        byte[] data = Files.readAllBytes(file);
+
+        List<byte[]> corrupt = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            corrupt.add(Arrays.copyOf(data, i));
+        }
+        // a negative variable length integer at every offset, which the decoder does not always
+        // report as an IllegalArgumentException
+        byte[] negative = {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x0f};
+        for (int i = 4; i < data.length; i++) {
+            byte[] damaged = data.clone();
+            System.arraycopy(negative, 0, damaged, i, Math.min(negative.length, data.length - i));
+            corrupt.add(damaged);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            byte[] damaged = data.clone();
+            damaged[random.nextInt(damaged.length)] = (byte) random.nextInt();
+            corrupt.add(damaged);
+            byte[] garbage = new byte[random.nextInt(2 * data.length)];
+            random.nextBytes(garbage);
+            corrupt.add(garbage);
+        }
+
+        for (byte[] bytes : corrupt) {
+            Files.write(file, bytes);
+            ParseRecording recording;
+            try {
+                recording = disk.load(SOURCE, new Environment().getRootScope());
+            } catch (RuntimeException e) {
+                throw new AssertionError("Load failed for " + Arrays.toString(bytes), e);
+            }
+            if (recording == null) {
+                // corrupt entries are removed
+                assertFalse(Files.exists(file));
+            }
+        }
+        assertTrue(disk.getMissCount() >= data.length);
+    }
+}
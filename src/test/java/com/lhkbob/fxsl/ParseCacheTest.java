@@ -0,0 +1,107 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link ParseCache}.
+ *
+ * @author Michael Ludwig
+ */
+public class ParseCacheTest {
+    private static final String SOURCE = "var x = 1; var y = x + 2; y";
+
+    private static Expression parse(Environment prelude, ParseCache cache, String source) {
+        return new Parser(prelude, cache).parse(source);
+    }
+
+    @Test
+    public void testHitReplaysDeclarations() {
+        Environment prelude = new Environment().freeze();
+        ParseCache cache = new ParseCache(10, 1000);
+
+        Expression first = parse(prelude, cache, SOURCE);
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Parser parser = new Parser(prelude, cache);
+        Expression second = parser.parse(SOURCE);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(first, second);
+
+        // the replayed declarations are visible in the second parser's environment
+        Environment env = parser.getEnvironment();
+        assertNotNull(env.getDeclaredVariable(second.getScope(), "x"));
+        assertNotNull(env.getDeclaredVariable(second.getScope(), "y"));
+    }
+
+    @Test
+    public void testKeyedByRootScope() {
+        ParseCache cache = new ParseCache(10, 1000);
+
+        // unrelated environments have different root scopes and never share entries
+        new Parser(new Environment(), cache).parse(SOURCE);
+        new Parser(new Environment(), cache).parse(SOURCE);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+
+        // different source text against the same prelude misses as well
+        Environment prelude = new Environment().freeze();
+        parse(prelude, cache, SOURCE);
+        parse(prelude, cache, "var x = 1; x");
+        assertEquals(0, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        Environment prelude = new Environment().freeze();
+        ParseCache cache = new ParseCache(2, 1000);
+
+        parse(prelude, cache, "1");
+        parse(prelude, cache, "2");
+        // touch the first unit so the second is the least recently used
+        parse(prelude, cache, "1");
+        parse(prelude, cache, "3");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        parse(prelude, cache, "1");
+        assertEquals(2, cache.getHitCount());
+        parse(prelude, cache, "2");
+        assertEquals(2, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+    }
+
+    @Test
+    public void testSourceLengthBound() {
+        Environment prelude = new Environment().freeze();
+        ParseCache cache = new ParseCache(10, 10);
+
+        // longer than the bound, so never cached
+        parse(prelude, cache, SOURCE);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEvictionCount());
+
+        parse(prelude, cache, "1 + 2 + 3");
+        parse(prelude, cache, "4 + 5");
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new ParseCache(0, 10);
+    }
+}
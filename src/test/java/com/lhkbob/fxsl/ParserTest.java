@@ -0,0 +1,164 @@
+package com.lhkbob.fxsl;
+
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.EnvironmentUtils;
+import com.lhkbob.fxsl.lang.SourcePosition;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.Type;
+import com.lhkbob.fxsl.parser.semantics.SemanticsProblem;
+import org.antlr.v4.runtime.IntStream;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Parser}.
+ *
+ * @author Michael Ludwig
+ */
+public class ParserTest {
+    private static final String SOURCE =
+            "type t = float[3]; var b2 = 4; var a = 1; var b = let var c = a + 2 in c * b2; "
+            + "a + 1; var d:t = zz; b;";
+
+    private static class RecordingListener implements ParseListener {
+        private final List<String> statements = new ArrayList<>();
+
+        @Override
+        public void declaredType(Declaration<Type> declaration) {
+            statements.add("type " + declaration.getName());
+        }
+
+        @Override
+        public void declaredVariable(Declaration<Expression> declaration) {
+            statements.add("var " + declaration.getName() + " = " + declaration.getValue());
+        }
+
+        @Override
+        public void parsedExpression(Expression expression) {
+            statements.add(expression.toString());
+        }
+    }
+
+    @Test
+    public void testIncrementalParseReportsStatementsInOrder() {
+        RecordingListener listener = new RecordingListener();
+        Expression result = new Parser().parseIncrementally(new StringReader(SOURCE), listener);
+
+        assertEquals("b", result.toString());
+        assertEquals(Arrays.asList("type t", "var b2 = 4", "var a = 1", "var b = *(c, b2)",
+                                   "+(a, 1)", "var d = zz", "b"), listener.statements);
+    }
+
+    @Test
+    public void testIncrementalParseMatchesParse() {
+        Parser full = new Parser();
+        Expression expected = full.parse(SOURCE);
+        Parser incremental = new Parser();
+        Expression actual = incremental.parseIncrementally(
+                new StringReader(SOURCE), new RecordingListener());
+
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(declarations(full.getEnvironment()),
+                     declarations(incremental.getEnvironment()));
+    }
+
+    @Test
+    public void testListenerSeesDeclaredEnvironment() {
+        final Parser parser = new Parser();
+        final List<Declaration<Expression>> resolved = new ArrayList<>();
+        parser.parseIncrementally(new StringReader("var x = 1; var y = x"), new RecordingListener() {
+            @Override
+            public void declaredVariable(Declaration<Expression> declaration) {
+                resolved.add(parser.getEnvironment().getDeclaredVariable(
+                        declaration.getScope(), declaration.getName()));
+            }
+        });
+
+        assertEquals(2, resolved.size());
+        assertEquals("x", resolved.get(0).getName());
+        assertEquals("y", resolved.get(1).getName());
+    }
+
+    @Test
+    public void testTwoStageMatchesLL() {
+        Parser twoStage = new Parser();
+        assertTrue(twoStage.isTwoStageParsing());
+        Parser ll = new Parser();
+        ll.setTwoStageParsing(false);
+
+        assertEquals(ll.parse(SOURCE).toString(), twoStage.parse(SOURCE).toString());
+        assertEquals(declarations(ll.getEnvironment()), declarations(twoStage.getEnvironment()));
+    }
+
+    private static List<String> declarations(Environment env) {
+        // Scopes differ between parsers, so compare the names and values
+        List<String> names = new ArrayList<>();
+        for (Declaration<Expression> d : EnvironmentUtils.getAllVariables(env)) {
+            names.add(d.getName() + " = " + d.getValue());
+        }
+        for (Declaration<Type> d : EnvironmentUtils.getAllTypes(env)) {
+            names.add("type " + d.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Test
+    public void testSourcePositions() {
+        Parser parser = new Parser();
+        parser.parse("var a = 1;\nvar b = a +\n  zz; b");
+        Environment env = parser.getEnvironment();
+
+        FunctionCall b = null;
+        for (Declaration<Expression> d : EnvironmentUtils.getAllVariables(env)) {
+            if (d.getName().equals("b")) {
+                b = (FunctionCall) d.getValue();
+            }
+        }
+        assertNotNull(b);
+        String source = IntStream.UNKNOWN_SOURCE_NAME;
+        assertEquals(new SourcePosition(source, 2, 8), env.getSourcePosition(b));
+        assertEquals(new SourcePosition(source, 2, 10), env.getSourcePosition(b.getFunction()));
+        assertEquals(new SourcePosition(source, 3, 2),
+                     env.getSourcePosition(b.getParameterValue(1)));
+    }
+
+    @Test
+    public void testProblemsReportSourcePositions() throws Exception {
+        Parser parser = new Parser();
+        Expression result = parser.parseIncrementally(
+                new StringReader("var a = 1;\nvar b = a + zz; b"), new RecordingListener());
+        VariableReference zz = (VariableReference) ((FunctionCall) parser.getEnvironment()
+                .getDeclaredVariable(result.getScope(), "b").getValue()).getParameterValue(1);
+
+        SemanticsProblem.ExpressionProblem problem = new SemanticsProblem.ExpressionProblem(
+                "Reference is undefined", zz, parser.getEnvironment().getSourcePosition(zz));
+        assertEquals(2, problem.getSourcePosition().getLine());
+        assertEquals(12, problem.getSourcePosition().getColumn());
+        assertEquals("Error at " + problem.getSourcePosition() + " in variable zz, message: " +
+                     "Reference is undefined", problem.toString());
+
+        // only the kind of a node is reported, not the whole expression
+        Expression b = parser.getEnvironment().getDeclaredVariable(result.getScope(), "b")
+                .getValue();
+        problem = new SemanticsProblem.ExpressionProblem(
+                null, b, parser.getEnvironment().getSourcePosition(b));
+        assertEquals("Error at " + problem.getSourcePosition() + " in FunctionCall",
+                     problem.toString());
+
+        // without a position the expression is all there is to go on
+        problem = new SemanticsProblem.ExpressionProblem("Reference is undefined", b);
+        assertEquals("Error in expression (" + b + "), message: Reference is undefined",
+                     problem.toString());
+    }
+}
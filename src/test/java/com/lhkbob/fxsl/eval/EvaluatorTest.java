@@ -0,0 +1,137 @@
+package com.lhkbob.fxsl.eval;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Evaluator}.
+ *
+ * @author Michael Ludwig
+ */
+public class EvaluatorTest {
+    private static Value evaluate(String source) {
+        Parser parser = new Parser();
+        return new Evaluator(parser.getEnvironment()).evaluate(parser.parse(source));
+    }
+
+    private static void assertInvalid(String source) {
+        try {
+            evaluate(source);
+            fail("Expected InvalidExpressionException");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNativeOperators() {
+        assertEquals(Value.of(7), evaluate("1 + 2 * 3"));
+        assertEquals(Value.of(-1), evaluate("7 / 4 - 7 % 4 + 1"));
+        assertEquals(Value.of(7), evaluate("6 & 3 | 1 ^ 4"));
+        assertEquals(Value.of(-2), evaluate("~1"));
+        assertEquals(Value.of(2.5f), evaluate("5.0 / 2.0"));
+        assertEquals(Value.of(8f), evaluate("2.0 *^ 3.0"));
+        assertEquals(Value.of(-3f), evaluate("-3.0"));
+        assertEquals(Value.of(true), evaluate("1 < 2"));
+        assertEquals(Value.of(false), evaluate("2.0 <= 1.0"));
+        assertEquals(Value.of(true), evaluate("var b = 1 > 2; !b"));
+        assertEquals(Value.of(true), evaluate("var b = 3 >= 3; b"));
+    }
+
+    @Test
+    public void testNativeExpressions() {
+        Evaluator evaluator = new Evaluator(new Environment());
+        Value eq = evaluator.evaluate(Environment.BINARY_EQ_BOOL);
+        assertEquals(Value.of(true), evaluator.apply(eq, Value.of(false), Value.of(false)));
+        eq = evaluator.evaluate(Environment.BINARY_EQ_FLOAT);
+        assertEquals(Value.of(false), evaluator.apply(eq, Value.of(1f), Value.of(Float.NaN)));
+        Value neg = evaluator.evaluate(Environment.UNARY_SUB_INT);
+        assertEquals(Value.of(-4), evaluator.apply(neg, Value.of(4)));
+    }
+
+    @Test
+    public void testIfThenElse() {
+        assertEquals(Value.of(1), evaluate("if 1 < 2 then 1 else 2"));
+        // declarations and the branch that isn't taken are only evaluated when needed
+        assertEquals(Value.of(0), evaluate("var x = 1 / 0; if true then 0 else x"));
+    }
+
+    @Test
+    public void testArraysAndStructs() {
+        assertEquals(Value.array(Value.of(1), Value.of(4)),
+                     evaluate("var a = [1, 2, 3, 4]; [a[0], a[3]]"));
+        Map<String, Value> fields = new HashMap<>();
+        fields.put("x", Value.of(1f));
+        fields.put("y", Value.array(Value.of(true)));
+        assertEquals(Value.struct(fields), evaluate("{x: 1.0, y: [true]}"));
+        assertEquals(Value.of(2f), evaluate("var s = {x: 1.0, y: 2.0}; s{x} + s{y} - 1.0"));
+        assertEquals(Value.array(Value.of(0), Value.of(1), Value.of(4)),
+                     evaluate("var sq = (i:int -> i * i); [3:sq]"));
+    }
+
+    @Test
+    public void testFunctions() {
+        assertEquals(Value.of(3), evaluate(
+                "var add = (x:int, y:int -> x + y); var add1 = add(1); add1(2)"));
+        assertEquals(Value.of(6f), evaluate(
+                "var twice = (f:(float -> float), x:float -> f(f(x))); " +
+                "twice((x:float -> x * 2.0), 1.5)"));
+        // closures capture the parameters of the enclosing function
+        assertEquals(Value.of(5), evaluate(
+                "var adder = (x:int -> (y:int -> x + y)); var a = adder(2); a(3)"));
+        assertEquals(Value.of(120), evaluate(
+                "var fact = (n:int -> let var r = n * fact(n - 1) in if n <= 1 then 1 else r); " +
+                "fact(5)"));
+        assertEquals(Value.of(3f), evaluate(
+                "var sum = (v:float[n] -> v[0] + v[n - 1]); sum([1.0, 5.0, 2.0])"));
+    }
+
+    @Test
+    public void testApply() {
+        Parser parser = new Parser();
+        Evaluator evaluator = new Evaluator(parser.getEnvironment());
+        Value add = evaluator.evaluate(parser.parse("(x:float, y:float -> x + y)"));
+        assertEquals(Value.Kind.FUNCTION, add.getKind());
+        assertEquals(Value.of(3f), evaluator.apply(add, Value.of(1f), Value.of(2f)));
+        Value add1 = evaluator.apply(add, Value.of(1f));
+        assertEquals(Value.of(5f), evaluator.apply(add1, Value.of(4f)));
+    }
+
+    @Test
+    public void testInputs() {
+        Parser parser = new Parser();
+        Evaluator evaluator = new Evaluator(parser.getEnvironment());
+        Expression result = parser.parse(
+                "var scale = uniform(scale:float); var pos = attr(pos:float[2]); " +
+                "[pos[0] * scale, pos[1] * scale]");
+        evaluator.setInput("scale", Value.of(2f));
+        evaluator.setInput("pos", Value.array(Value.of(1f), Value.of(3f)));
+        assertEquals(Value.array(Value.of(2f), Value.of(6f)), evaluator.evaluate(result));
+
+        evaluator.setInput("scale", Value.of(-1f));
+        assertEquals(Value.array(Value.of(-1f), Value.of(-3f)), evaluator.evaluate(result));
+
+        evaluator.setInput("pos", null);
+        try {
+            evaluator.evaluate(result);
+            fail("Expected InvalidExpressionException");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        assertInvalid("1 / 0");
+        assertInvalid("5 % 0");
+        assertInvalid("var a = [1, 2]; var i = 2; a[i]");
+    }
+}
@@ -0,0 +1,152 @@
+package com.lhkbob.fxsl.glsl;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GlslGenerator}, which compare the generated source text.
+ *
+ * @author Michael Ludwig
+ */
+public class GlslGeneratorTest {
+    private static String generate(String source) throws IOException {
+        Parser parser = new Parser();
+        Expression result = parser.parse(source);
+        StringBuilder out = new StringBuilder();
+        new GlslGenerator(parser.getEnvironment()).generate(result, "shade", out);
+        return out.toString();
+    }
+
+    private static void assertUnsupported(String source) throws IOException {
+        Parser parser = new Parser();
+        Expression result = parser.parse(source);
+        StringBuilder out = new StringBuilder();
+        try {
+            new GlslGenerator(parser.getEnvironment()).generate(result, "shade", out);
+            fail("Expected InvalidExpressionException");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void testValuesUniformsAndFunctions() throws IOException {
+        String glsl = generate("var time = uniform(time:float); " +
+                               "var sq = (x:float -> let var y = x * x in y + time); " +
+                               "sq(2.0) + 1.0");
+        assertEquals("uniform float time;\n" +
+                     "\n" +
+                     "float time_1() {\n" +
+                     "  return time;\n" +
+                     "}\n" +
+                     "\n" +
+                     "float sq(float x) {\n" +
+                     "  float y = (x * x);\n" +
+                     "  return (y + time_1());\n" +
+                     "}\n" +
+                     "\n" +
+                     "float shade() {\n" +
+                     "  return (sq(2.0) + 1.0);\n" +
+                     "}\n" +
+                     "\n", glsl);
+    }
+
+    @Test
+    public void testStructsArraysAndAttributes() throws IOException {
+        String glsl = generate("(x:int -> let var a = {c: [1.0, 2.0], b: x} in " +
+                               "if a{b} > 0 then a{c}[x] else attr(pos:float) *^ 2.0)");
+        assertEquals("struct Struct {\n" +
+                     "  int b;\n" +
+                     "  float[2] c;\n" +
+                     "};\n" +
+                     "\n" +
+                     "in float pos;\n" +
+                     "\n" +
+                     "float shade(int x) {\n" +
+                     "  Struct a = Struct(x, float[2](1.0, 2.0));\n" +
+                     "  return pow(((a.b > 0) ? a.c[x] : pos), 2.0);\n" +
+                     "}\n" +
+                     "\n", glsl);
+    }
+
+    @Test
+    public void testReservedNamesAreRenamed() throws IOException {
+        String glsl = generate("var pos = 1; var f = (x:int, int:int -> x / int); f(pos, 2)");
+        assertEquals("int f(int x, int int_1) {\n" +
+                     "  return (x / int_1);\n" +
+                     "}\n" +
+                     "\n" +
+                     "int pos() {\n" +
+                     "  return 1;\n" +
+                     "}\n" +
+                     "\n" +
+                     "int shade() {\n" +
+                     "  return f(pos(), 2);\n" +
+                     "}\n" +
+                     "\n", glsl);
+    }
+
+    @Test
+    public void testDeclarationsAreWrittenInDependencyOrder() throws IOException {
+        int count = 5000;
+        // Declare the chain backwards so that source order is the opposite of dependency order
+        StringBuilder source = new StringBuilder();
+        for (int i = count - 1; i > 0; i--) {
+            source.append("var d").append(i).append(" = d").append(i - 1).append(" + 1.0; ");
+        }
+        source.append("var d0 = 1.0; d").append(count - 1);
+
+        String glsl = generate(source.toString());
+        int last = -1;
+        for (int i = 0; i < count; i++) {
+            int index = glsl.indexOf("float d" + i + "() {\n");
+            assertTrue("d" + i + " is written after its dependency", index > last);
+            last = index;
+        }
+        assertTrue(glsl.indexOf("float shade() {\n") > last);
+    }
+
+    @Test
+    public void testUnsupportedExpressions() throws IOException {
+        // recursion
+        assertUnsupported("var f = (x:int -> f(x)); f(1)");
+        // functions as values
+        assertUnsupported("var g = (x:int -> x); g");
+        assertUnsupported("var g = (x:int -> x); var h = g; h(1)");
+        // partial application
+        assertUnsupported("var g = (x:int, y:int -> x + y); var h = g(1); h(2)");
+    }
+
+    @Test
+    public void testNonFiniteFloats() throws IOException {
+        // the declaration of a is valid and comes first, but still nothing may be written
+        assertUnsupported("var a = (x:float -> x + 1.0); " +
+                          "var b = 340000000000000000000000000000000000000000.0; a(2.0) + b");
+        assertUnsupported("(x:float -> x * 340000000000000000000000000000000000000000.0)");
+    }
+
+    @Test
+    public void testInputNamesMustBeValidIdentifiers() throws IOException {
+        assertUnsupported("uniform(gl_Position:float) + 1.0");
+        assertUnsupported("attr(gl_Color:float) + 1.0");
+        assertUnsupported("uniform(sampler2D:float) + 1.0");
+        assertUnsupported("attr(out:float) + 1.0");
+        assertUnsupported("uniform(a__b:float) + 1.0");
+        // the same names are fine for declarations, which are renamed
+        assertEquals("float sampler2D_1() {\n" +
+                     "  return 1.0;\n" +
+                     "}\n" +
+                     "\n" +
+                     "float shade() {\n" +
+                     "  return (sampler2D_1() + 1.0);\n" +
+                     "}\n" +
+                     "\n", generate("var sampler2D = 1.0; sampler2D + 1.0"));
+    }
+}
@@ -0,0 +1,171 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.Type;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Environment}.
+ *
+ * @author Michael Ludwig
+ */
+public class EnvironmentTest {
+    @Test
+    public void testUndefinedLookupsReturnNull() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope inner = new Scope(root);
+        env.addDeclaredVariable(root, "x", new PrimitiveValue(1));
+
+        assertNull(env.getDeclaredVariable(root, "y"));
+        assertNull(env.getDeclaredVariable(inner, "y"));
+        assertNull(env.getDeclaredType(inner, "x"));
+
+        // the first declaration of a name looks it up before defining it
+        env.addDeclaredVariable(inner, "y", new PrimitiveValue(2));
+        assertEquals(new PrimitiveValue(2), env.getDeclaredVariable(inner, "y").getValue());
+    }
+
+    @Test
+    public void testRepeatedLookupReturnsSameDeclaration() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope inner = new Scope(new Scope(root));
+        env.addDeclaredVariable(root, "x", new PrimitiveValue(1));
+
+        Declaration<Expression> x = env.getDeclaredVariable(inner, "x");
+        assertEquals(root, x.getScope());
+        assertSame(x, env.getDeclaredVariable(inner, "x"));
+        assertSame(x, env.getDeclaredVariable(inner.getParent(), "x"));
+        assertSame(x, env.getDeclaredVariable(root, "x"));
+        assertNull(env.getDeclaredType(inner, "x"));
+        assertNull(env.getDeclaredVariable(inner, "y"));
+    }
+
+    @Test
+    public void testShadowingInvalidatesLookups() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope middle = new Scope(root);
+        Scope inner = new Scope(middle);
+        env.addDeclaredVariable(root, "x", new PrimitiveValue(1));
+        assertEquals(root, env.getDeclaredVariable(inner, "x").getScope());
+        assertNull(env.getDeclaredVariable(inner, "y"));
+
+        env.addDeclaredVariable(middle, "x", new PrimitiveValue(2));
+        env.addDeclaredVariable(inner, "y", new PrimitiveValue(3));
+        assertEquals(middle, env.getDeclaredVariable(inner, "x").getScope());
+        assertEquals(new PrimitiveValue(3), env.getDeclaredVariable(inner, "y").getValue());
+        assertEquals(root, env.getDeclaredVariable(root, "x").getScope());
+    }
+
+    @Test
+    public void testLookupsFollowCommitAndAbort() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope inner = new Scope(root);
+        env.addDeclaredVariable(root, "x", new PrimitiveValue(1));
+        assertEquals(root, env.getDeclaredVariable(inner, "x").getScope());
+
+        Environment child = env.push();
+        child.addDeclaredVariable(inner, "x", new PrimitiveValue(2));
+        child.addDeclaredType(inner, "t", PrimitiveType.INT);
+        assertEquals(inner, child.getDeclaredVariable(inner, "x").getScope());
+        child.abort();
+        assertEquals(root, env.getDeclaredVariable(inner, "x").getScope());
+        assertNull(env.getDeclaredType(inner, "t"));
+
+        child = env.push();
+        child.addDeclaredVariable(inner, "x", new PrimitiveValue(3));
+        child.commit();
+        assertEquals(new PrimitiveValue(3), env.getDeclaredVariable(inner, "x").getValue());
+        assertEquals(new PrimitiveValue(3),
+                     env.freeze().getDeclaredVariable(inner, "x").getValue());
+    }
+
+    @Test
+    public void testFrozenMetaTypesAreSharedWithChildren() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Expression before = new VariableReference(root, "a");
+        Expression after = new VariableReference(root, "b");
+        Expression local = new VariableReference(root, "c");
+
+        Environment frozen = env.freeze();
+        Type beforeType = frozen.getExpressionType(before);
+        Environment child = frozen.push();
+        Environment grandchild = child.push();
+        Type afterType = frozen.getExpressionType(after);
+
+        // meta types handed out by the frozen environment before and after the push are shared
+        assertSame(beforeType, child.getExpressionType(before));
+        assertSame(beforeType, grandchild.getRecordedExpressionType(before));
+        assertSame(afterType, child.getRecordedExpressionType(after));
+        assertSame(afterType, frozen.push().getExpressionType(after));
+
+        // but a meta type created by a child stays private to it
+        Type localType = child.getExpressionType(local);
+        assertNull(frozen.getRecordedExpressionType(local));
+        assertNotSame(localType, frozen.push().getExpressionType(local));
+    }
+
+    @Test
+    public void testSourcePositionsFollowCommitAbortAndFreeze() {
+        Environment env = new Environment();
+        Expression a = new PrimitiveValue(1);
+        Expression b = new PrimitiveValue(1);
+        env.setSourcePosition(a, "unit", 1, 4);
+        env.setSourcePosition(a, "unit", 9, 9);
+        assertEquals(new SourcePosition("unit", 1, 4), env.getSourcePosition(a));
+        // Positions are tracked by instance, not by equality
+        assertNull(env.getSourcePosition(b));
+
+        Environment child = env.push();
+        child.setSourcePosition(b, "other", 2, 0);
+        assertEquals(new SourcePosition("other", 2, 0), child.getSourcePosition(b));
+        child.abort();
+        assertNull(env.getSourcePosition(b));
+
+        child = env.push();
+        child.setSourcePosition(b, "other", 3, 0);
+        child.commit();
+        assertEquals(new SourcePosition("other", 3, 0), env.getSourcePosition(b));
+
+        Environment frozen = env.freeze();
+        Expression c = new PrimitiveValue(2);
+        env.setSourcePosition(c, "unit", 4, 0);
+        assertNull(frozen.getSourcePosition(c));
+        assertEquals(new SourcePosition("unit", 1, 4), frozen.getSourcePosition(a));
+
+        Environment fromFrozen = frozen.push();
+        fromFrozen.setSourcePosition(c, "unit", 5, 0);
+        assertEquals(new SourcePosition("other", 3, 0), fromFrozen.getSourcePosition(b));
+        assertEquals(new SourcePosition("unit", 5, 0), fromFrozen.getSourcePosition(c));
+        assertNull(frozen.getSourcePosition(c));
+    }
+
+    @Test
+    public void testManySourcePositions() {
+        Environment env = new Environment();
+        Expression[] exprs = new Expression[1000];
+        for (int i = 0; i < exprs.length; i++) {
+            exprs[i] = new PrimitiveValue(i);
+            env.setSourcePosition(exprs[i], "unit", i + 1, i % 80);
+        }
+
+        Environment child = env.push();
+        for (int i = 0; i < exprs.length; i++) {
+            child.setSourcePosition(new PrimitiveValue(i), "unit", 1, 0);
+        }
+        child.abort();
+
+        for (int i = 0; i < exprs.length; i++) {
+            assertEquals(new SourcePosition("unit", i + 1, i % 80), env.getSourcePosition(exprs[i]));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import com.lhkbob.fxsl.lang.type.Type;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link EnvironmentUtils}.
+ *
+ * @author Michael Ludwig
+ */
+public class EnvironmentUtilsTest {
+    @Test
+    public void testChildScopesIncludeScopesWithoutDeclarations() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope middle = new Scope(root);
+        Scope leaf = new Scope(middle);
+        env.addDeclaredVariable(leaf, "x", new PrimitiveValue(1));
+
+        assertEquals(Collections.singleton(root), env.getChildScopes(Scope.NATIVE_SCOPE));
+        assertEquals(Collections.singleton(middle), env.getChildScopes(root));
+        assertEquals(Collections.singleton(leaf), env.getChildScopes(middle));
+        assertTrue(env.getChildScopes(leaf).isEmpty());
+    }
+
+    @Test
+    public void testAllDeclarationsMatchScopeTraversal() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope a = new Scope(root);
+        Scope b = new Scope(a);
+        env.addDeclaredVariable(root, "x", new PrimitiveValue(1));
+        env.addDeclaredVariable(b, "x", new PrimitiveValue(2));
+        env.addDeclaredType(a, "t", PrimitiveType.FLOAT);
+        // redefining a name replaces the old declaration
+        env.setDeclaredVariable(root, "x", new PrimitiveValue(3));
+
+        Set<Declaration<Expression>> vars = EnvironmentUtils.getAllVariables(env);
+        assertEquals(EnvironmentUtils.getVariablesUnderScope(env, Scope.NATIVE_SCOPE), vars);
+        assertTrue(vars.contains(
+                new Declaration<Expression>(root, "x", new PrimitiveValue(3))));
+        assertFalse(vars.contains(
+                new Declaration<Expression>(root, "x", new PrimitiveValue(1))));
+        assertTrue(vars.contains(new Declaration<Expression>(b, "x", new PrimitiveValue(2))));
+
+        Set<Declaration<Type>> types = EnvironmentUtils.getAllTypes(env);
+        assertEquals(EnvironmentUtils.getTypesUnderScope(env, Scope.NATIVE_SCOPE), types);
+        assertTrue(types.contains(new Declaration<Type>(a, "t", PrimitiveType.FLOAT)));
+
+        Set<Declaration<Expression>> underA = new HashSet<>();
+        underA.add(new Declaration<Expression>(b, "x", new PrimitiveValue(2)));
+        assertEquals(underA, EnvironmentUtils.getVariablesUnderScope(env, a));
+    }
+
+    @Test
+    public void testIndexFollowsCommitAndAbort() {
+        Environment env = new Environment();
+        Scope root = env.getRootScope();
+        Scope committed = new Scope(root);
+        Scope aborted = new Scope(root);
+        int nativeCount = EnvironmentUtils.getAllVariables(env).size();
+
+        Environment child = env.push();
+        child.addDeclaredVariable(aborted, "y", new PrimitiveValue(1));
+        assertEquals(Collections.singleton(aborted), child.getChildScopes(root));
+        child.abort();
+        assertTrue(env.getChildScopes(root).isEmpty());
+        assertEquals(nativeCount, EnvironmentUtils.getAllVariables(env).size());
+
+        child = env.push();
+        child.addDeclaredVariable(committed, "z", new PrimitiveValue(2));
+        child.commit();
+        assertEquals(Collections.singleton(committed), env.getChildScopes(root));
+        assertEquals(nativeCount + 1, EnvironmentUtils.getAllVariables(env).size());
+        assertEquals(EnvironmentUtils.getAllVariables(env),
+                     EnvironmentUtils.getAllVariables(env.freeze()));
+    }
+}
@@ -0,0 +1,175 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link MetaBindings}.
+ *
+ * @author Michael Ludwig
+ */
+public class MetaBindingsTest {
+    @Test
+    public void testUnboundIsNull() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType m = new MetaType(Scope.NATIVE_SCOPE);
+        assertNull(bindings.get(m));
+    }
+
+    @Test
+    public void testChainResolvesToTerm() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType[] chain = new MetaType[100];
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = new MetaType(Scope.NATIVE_SCOPE);
+        }
+        for (int i = 0; i < chain.length - 1; i++) {
+            bindings.bind(chain[i], chain[i + 1]);
+        }
+
+        // before the end is bound, everything resolves to the unbound end of the chain
+        assertEquals(chain[chain.length - 1], bindings.get(chain[0]));
+        assertEquals(chain[chain.length - 1], bindings.get(chain[50]));
+        assertNull(bindings.get(chain[chain.length - 1]));
+
+        bindings.bind(chain[chain.length - 1], PrimitiveType.FLOAT);
+        for (MetaType m : chain) {
+            assertEquals(PrimitiveType.FLOAT, bindings.get(m));
+        }
+    }
+
+    @Test
+    public void testMergeIntoExistingClass() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType a = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType b = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType c = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType d = new MetaType(Scope.NATIVE_SCOPE);
+
+        bindings.bind(a, b);
+        bindings.bind(c, d);
+        // b is unbound so it can still join d's class
+        bindings.bind(b, c);
+        assertEquals(d, bindings.get(a));
+        assertEquals(d, bindings.get(b));
+        assertEquals(d, bindings.get(c));
+        assertNull(bindings.get(d));
+    }
+
+    @Test
+    public void testWildcardLengths() {
+        MetaBindings bindings = new MetaBindings();
+        ArrayType.Length w1 = new ArrayType.Length(-1);
+        ArrayType.Length w2 = new ArrayType.Length(-2);
+        ArrayType.Length three = new ArrayType.Length(3);
+
+        bindings.bind(w1, w2);
+        assertEquals(w2, bindings.get(w1));
+        bindings.bind(w2, three);
+        assertEquals(three, bindings.get(w1));
+        assertEquals(three, bindings.get(w2));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRebindFails() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType m = new MetaType(Scope.NATIVE_SCOPE);
+        bindings.bind(m, PrimitiveType.INT);
+        bindings.bind(m, PrimitiveType.FLOAT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCycleFails() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType a = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType b = new MetaType(Scope.NATIVE_SCOPE);
+        bindings.bind(a, b);
+        bindings.bind(b, a);
+    }
+
+    @Test
+    public void testRollback() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType a = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType b = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType c = new MetaType(Scope.NATIVE_SCOPE);
+        bindings.bind(a, b);
+
+        int outer = bindings.mark();
+        bindings.bind(b, c);
+        int inner = bindings.mark();
+        bindings.bind(c, PrimitiveType.BOOL);
+        // path compression after the mark must be reverted too
+        assertEquals(PrimitiveType.BOOL, bindings.get(a));
+        bindings.rollback(inner);
+
+        assertEquals(c, bindings.get(a));
+        assertNull(bindings.get(c));
+
+        bindings.rollback(outer);
+        assertEquals(b, bindings.get(a));
+        assertNull(bindings.get(b));
+        assertNull(bindings.get(c));
+
+        // and the rolled back keys can be bound again
+        bindings.bind(b, PrimitiveType.INT);
+        assertEquals(PrimitiveType.INT, bindings.get(a));
+    }
+
+    @Test
+    public void testRelease() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType a = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType b = new MetaType(Scope.NATIVE_SCOPE);
+
+        int outer = bindings.mark();
+        int inner = bindings.mark();
+        bindings.bind(a, b);
+        bindings.release(inner);
+        assertEquals(b, bindings.get(a));
+
+        bindings.rollback(outer);
+        assertNull(bindings.get(a));
+    }
+
+    @Test
+    public void testCompactedBase() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType a = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType b = new MetaType(Scope.NATIVE_SCOPE);
+        MetaType c = new MetaType(Scope.NATIVE_SCOPE);
+        bindings.bind(a, b);
+
+        MetaBindings branch1 = new MetaBindings(bindings.compact());
+        MetaBindings branch2 = new MetaBindings(bindings.compact());
+        assertEquals(b, branch1.get(a));
+        assertNull(branch1.get(b));
+
+        // binding the unbound end of the base is private to each branch
+        branch1.bind(b, PrimitiveType.INT);
+        branch2.bind(c, a);
+        branch2.bind(b, PrimitiveType.FLOAT);
+        assertEquals(PrimitiveType.INT, branch1.get(a));
+        assertEquals(PrimitiveType.FLOAT, branch2.get(a));
+        assertEquals(PrimitiveType.FLOAT, branch2.get(c));
+        assertEquals(b, bindings.get(a));
+
+        // compacting a branch includes both the base and the branch's own bindings
+        MetaBindings nested = new MetaBindings(branch2.compact());
+        assertEquals(PrimitiveType.FLOAT, nested.get(a));
+        assertEquals(PrimitiveType.FLOAT, nested.get(c));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRebindBaseFails() {
+        MetaBindings bindings = new MetaBindings();
+        MetaType m = new MetaType(Scope.NATIVE_SCOPE);
+        bindings.bind(m, PrimitiveType.INT);
+
+        new MetaBindings(bindings.compact()).bind(m, PrimitiveType.FLOAT);
+    }
+}
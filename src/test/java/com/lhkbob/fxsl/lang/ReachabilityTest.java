@@ -0,0 +1,104 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.type.Type;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Reachability}.
+ *
+ * @author Michael Ludwig
+ */
+public class ReachabilityTest {
+    private static Set<String> names(Set<? extends Declaration<?>> decls) {
+        Set<String> names = new HashSet<>();
+        for (Declaration<?> d : decls) {
+            names.add(d.getName());
+        }
+        return names;
+    }
+
+    private static Set<String> names(String... names) {
+        Set<String> set = new HashSet<>();
+        for (String n : names) {
+            set.add(n);
+        }
+        return set;
+    }
+
+    @Test
+    public void testReachableFromExpression() {
+        Parser parser = new Parser();
+        Expression result = parser.parse(
+                "var a = 1; var b = a + 2; var unused = b * 2; var f = (x:int, v:float[n] -> x + b); " +
+                "f(1, [1.0])");
+        Reachability reachability = new Reachability(parser.getEnvironment());
+        reachability.addEntry(result);
+
+        Set<Declaration<Expression>> reachable = reachability.getReachableVariables();
+        // the native + is reachable too, and parameters are part of their function
+        assertEquals(names("a", "b", "f", "x", "v", "n", "+"), names(reachable));
+        assertEquals(names("unused"), names(reachability.getDeadVariables()));
+        for (Declaration<Expression> d : reachability.getDeadVariables()) {
+            assertFalse(reachability.isReachable(d));
+        }
+    }
+
+    @Test
+    public void testNamedEntries() {
+        Parser parser = new Parser();
+        Expression result = parser.parse("var a = 1; var b = a + 2; var c = 3; c");
+        Reachability reachability = new Reachability(parser.getEnvironment());
+        assertTrue(reachability.getReachableVariables().isEmpty());
+
+        Declaration<Expression> b = reachability.addEntry(result.getScope(), "b");
+        assertEquals("b", b.getName());
+        assertTrue(reachability.isReachable(b));
+        assertEquals(names("c"), names(reachability.getDeadVariables()));
+
+        try {
+            reachability.addEntry(result.getScope(), "undefined");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReachableTypes() {
+        Parser parser = new Parser();
+        Expression result = parser.parse(
+                "type t = w[2]; type w = float; type u = int; var p = (x:t -> x[0]); p");
+        Reachability reachability = new Reachability(parser.getEnvironment());
+        reachability.addEntry(result);
+
+        Set<Declaration<Type>> types = reachability.getReachableTypes();
+        // primitive type names are native type declarations
+        assertEquals(names("t", "w", "float"), names(types));
+        assertEquals(names("u"), names(reachability.getDeadTypes()));
+    }
+
+    @Test
+    public void testLongDeclarationChains() {
+        int count = 5000;
+        StringBuilder source = new StringBuilder("var d0 = 1.0; ");
+        for (int i = 1; i < count; i++) {
+            source.append("var d").append(i).append(" = d").append(i - 1).append(" + 1.0; ");
+        }
+        source.append("var dead = 2.0; d").append(count - 1);
+
+        Parser parser = new Parser();
+        Expression result = parser.parse(source.toString());
+        Reachability reachability = new Reachability(parser.getEnvironment());
+        reachability.addEntry(result);
+        // every link of the chain and the native +
+        assertEquals(count + 1, reachability.getReachableVariables().size());
+        assertEquals(names("dead"), names(reachability.getDeadVariables()));
+    }
+}
@@ -0,0 +1,114 @@
+package com.lhkbob.fxsl.lang;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.expr.DefaultExpressionVisitor;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.AliasType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link SymbolTable}.
+ *
+ * @author Michael Ludwig
+ */
+public class SymbolTableTest {
+    private static final String SOURCE =
+            "type t = float[3]; var b2 = 4; var a = 1; var b = let var c = a + 2 in c * b2; "
+            + "var d:t = zz; b";
+
+    private static Environment parse(String source) {
+        Parser parser = new Parser();
+        parser.parse(source);
+        return parser.getEnvironment();
+    }
+
+    private static Scope scopeOf(Environment env, String variable) {
+        for (Declaration<Expression> d : env.getAllDeclaredVariables()) {
+            if (d.getName().equals(variable)) {
+                return d.getScope();
+            }
+        }
+        throw new AssertionError("No variable named " + variable);
+    }
+
+    @Test
+    public void testSlotsAreOrderedByName() {
+        Environment env = parse(SOURCE);
+        SymbolTable table = new SymbolTable(env);
+        Scope unit = scopeOf(env, "a");
+
+        List<String> names = new ArrayList<>();
+        for (Declaration<Expression> d : table.getVariableSlots(unit)) {
+            names.add(d.getName());
+        }
+        assertEquals(Arrays.asList("a", "b", "b2", "d"), names);
+        assertEquals(1, table.getTypeSlots(unit).size());
+        assertTrue(table.getVariableSlots(new Scope(unit)).isEmpty());
+    }
+
+    @Test
+    public void testReferenceCoordinates() {
+        Environment env = parse(SOURCE);
+        SymbolTable table = new SymbolTable(env);
+        Scope unit = scopeOf(env, "a");
+        Scope let = scopeOf(env, "c");
+        assertEquals(unit, let.getParent());
+
+        VariableReference c = new VariableReference(let, "c");
+        assertEquals(new SymbolTable.Coordinate(0, 0), table.getCoordinate(c));
+        assertEquals(new SymbolTable.Coordinate(1, 0),
+                     table.getCoordinate(new VariableReference(let, "a")));
+        // the let body ends before the multiplication, so b2 is referenced from the unit scope
+        assertEquals(new SymbolTable.Coordinate(0, 2),
+                     table.getCoordinate(new VariableReference(unit, "b2")));
+        // operators resolve to the native scope
+        assertEquals(Scope.NATIVE_SCOPE, table.getCoordinate(new VariableReference(let, "+"))
+                                              .getDeclaringScope(let));
+        assertNull(table.getCoordinate(new VariableReference(unit, "zz")));
+
+        VariableReference aRef = new VariableReference(let, "a");
+        assertEquals(env.getDeclaredVariable(let, "a"),
+                     table.getVariable(let, table.getCoordinate(aRef)));
+        assertEquals(env.getDeclaredVariable(let, "c"),
+                     table.getVariable(let, table.getCoordinate(c)));
+    }
+
+    @Test
+    public void testAliasCoordinates() {
+        Environment env = parse(SOURCE);
+        SymbolTable table = new SymbolTable(env);
+        Scope unit = scopeOf(env, "a");
+
+        // the alias is only reachable through the declared type of d's value
+        AliasType t = new AliasType(unit, "t");
+        assertEquals(new SymbolTable.Coordinate(0, 0), table.getCoordinate(t));
+        assertEquals(env.getDeclaredType(unit, "t"), table.getType(unit, table.getCoordinate(t)));
+    }
+
+    @Test
+    public void testIdentifiersAreInterned() {
+        Environment env = parse(SOURCE);
+        Scope unit = scopeOf(env, "a");
+        String declared = env.getDeclaredVariable(unit, "b2").getName();
+
+        // the reference to b2 in the let body shares the declared name's string
+        Expression body = env.getDeclaredVariable(unit, "b").getValue();
+        assertSame(declared, findReference(body, "b2").getVariableName());
+    }
+
+    private static VariableReference findReference(Expression root, final String name) {
+        return root.accept(new DefaultExpressionVisitor<VariableReference>() {
+            @Override
+            public VariableReference visitVariable(VariableReference var) {
+                return (var.getVariableName().equals(name) ? var : null);
+            }
+        });
+    }
+}
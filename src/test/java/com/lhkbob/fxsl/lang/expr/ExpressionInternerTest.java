@@ -0,0 +1,68 @@
+package com.lhkbob.fxsl.lang.expr;
+
+import com.lhkbob.fxsl.lang.Scope;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link ExpressionInterner}.
+ *
+ * @author Michael Ludwig
+ */
+public class ExpressionInternerTest {
+    @Test
+    public void testEqualExpressionsAreSame() {
+        ExpressionInterner interner = new ExpressionInterner();
+        Scope scope = new Scope();
+
+        Expression a = interner.intern(new VariableReference(scope, "a"));
+        Expression three = interner.intern(new PrimitiveValue(3));
+        Expression plus = interner.intern(new VariableReference(scope, "+"));
+        FunctionCall first = interner.intern(
+                new FunctionCall(scope, plus, Arrays.asList(a, three)));
+
+        FunctionCall second = new FunctionCall(
+                scope, interner.intern(new VariableReference(scope, "+")),
+                Arrays.asList(interner.intern(new VariableReference(scope, "a")),
+                              interner.intern(new PrimitiveValue(3))));
+        assertNotSame(first, second);
+        assertSame(first, interner.intern(second));
+        assertEquals(4, interner.size());
+    }
+
+    @Test
+    public void testScopesAreNotMerged() {
+        ExpressionInterner interner = new ExpressionInterner();
+        Scope s1 = new Scope();
+        Scope s2 = new Scope();
+
+        Expression v1 = interner.intern(new VariableReference(s1, "a"));
+        Expression v2 = interner.intern(new VariableReference(s2, "a"));
+        assertNotSame(v1, v2);
+        assertSame(v1, interner.intern(new VariableReference(s1, "a")));
+    }
+
+    @Test
+    public void testMemoizedVisitorVisitsSharedOnce() {
+        Scope scope = new Scope();
+        final Expression shared = new VariableReference(scope, "a");
+        Expression call = new FunctionCall(
+                scope, new VariableReference(scope, "+"), Arrays.asList(shared, shared));
+
+        final int[] count = new int[1];
+        DefaultExpressionVisitor<Integer> visitor = new DefaultExpressionVisitor<Integer>(true) {
+            @Override
+            public Integer visitVariable(VariableReference var) {
+                if (var == shared) {
+                    count[0]++;
+                }
+                return null;
+            }
+        };
+        call.accept(visitor);
+        assertEquals(1, count[0]);
+    }
+}
@@ -0,0 +1,102 @@
+package com.lhkbob.fxsl.lang.expr;
+
+import com.lhkbob.fxsl.lang.Scope;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link ExpressionRewritingVisitor}.
+ *
+ * @author Michael Ludwig
+ */
+public class ExpressionRewritingVisitorTest {
+    // Replaces every primitive 1 with 2 and leaves everything else alone
+    private static class OneToTwo extends ExpressionRewritingVisitor {
+        @Override
+        public Expression visitPrimitive(PrimitiveValue primitive) {
+            if (primitive.equals(new PrimitiveValue(1))) {
+                return new PrimitiveValue(2);
+            }
+            return primitive;
+        }
+    }
+
+    private static FunctionValue function(Scope scope, Expression returnValue) {
+        return new FunctionValue(scope, Arrays.asList("a"), returnValue);
+    }
+
+    @Test
+    public void testUnchangedReturnsSameInstance() {
+        Scope s = new Scope();
+        FunctionValue f = function(s, new VariableReference(new Scope(s), "a"));
+        Map<String, Expression> fields = new HashMap<>();
+        fields.put("x", new PrimitiveValue(3));
+        fields.put("y", new ArrayValue(s, Arrays.asList(new PrimitiveValue(4), f)));
+
+        List<Expression> exprs = Arrays.<Expression>asList(
+                new StructValue(s, fields),
+                new FunctionCall(s, f, Arrays.<Expression>asList(new PrimitiveValue(5))),
+                new IfThenElse(s, new PrimitiveValue(true), new PrimitiveValue(6),
+                               new PrimitiveValue(7)),
+                new UnionValue(s, Arrays.asList(f, function(s, new PrimitiveValue(8)))),
+                new Parameter(f, "a"));
+        for (Expression e : exprs) {
+            assertSame(e, e.accept(new OneToTwo()));
+            assertSame(e, e.accept(new ExpressionRewritingVisitor()));
+        }
+    }
+
+    @Test
+    public void testChangedChildrenAreRebuilt() {
+        Scope s = new Scope();
+        ArrayValue array = new ArrayValue(s, Arrays.asList(
+                new PrimitiveValue(3), new PrimitiveValue(1), new PrimitiveValue(4)));
+        Expression rewritten = array.accept(new OneToTwo());
+        assertNotSame(array, rewritten);
+        assertEquals(new ArrayValue(s, Arrays.asList(
+                new PrimitiveValue(3), new PrimitiveValue(2), new PrimitiveValue(4))), rewritten);
+
+        Map<String, Expression> fields = new HashMap<>();
+        fields.put("x", new PrimitiveValue(1));
+        fields.put("y", new PrimitiveValue(5));
+        StructValue struct = new StructValue(s, fields);
+        StructValue rewrittenStruct = (StructValue) struct.accept(new OneToTwo());
+        assertEquals(new PrimitiveValue(2), rewrittenStruct.getFields().get("x"));
+        assertSame(fields.get("y"), rewrittenStruct.getFields().get("y"));
+        // the original is unchanged
+        assertEquals(new PrimitiveValue(1), struct.getFields().get("x"));
+    }
+
+    @Test
+    public void testUnion() {
+        Scope s = new Scope();
+        FunctionValue keep = function(s, new PrimitiveValue(5));
+        UnionValue union = new UnionValue(
+                s, Arrays.asList(keep, function(s, new PrimitiveValue(1))));
+
+        Expression rewritten = union.accept(new OneToTwo());
+        // unions are rebuilt as unions, with unchanged options shared
+        assertTrue(rewritten instanceof UnionValue);
+        UnionValue rewrittenUnion = (UnionValue) rewritten;
+        assertEquals(s, rewrittenUnion.getScope());
+        assertEquals(2, rewrittenUnion.getOptions().size());
+        assertSame(keep, rewrittenUnion.getOption(0));
+        assertEquals(function(s, new PrimitiveValue(2)), rewrittenUnion.getOption(1));
+    }
+
+    @Test
+    public void testParameter() {
+        Scope s = new Scope();
+        FunctionValue f = function(s, new PrimitiveValue(1));
+        Parameter param = new Parameter(f, "a");
+        // parameters are leaves, rewriting their function would make it a different function
+        assertSame(param, param.accept(new OneToTwo()));
+        assertSame(param, param.accept(new ExpressionRewritingVisitor()));
+    }
+}
@@ -0,0 +1,84 @@
+package com.lhkbob.fxsl.lang.type;
+
+import com.lhkbob.fxsl.lang.Scope;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link TypeInterner}.
+ *
+ * @author Michael Ludwig
+ */
+public class TypeInternerTest {
+    @Test
+    public void testEqualTypesAreSame() {
+        TypeInterner interner = new TypeInterner();
+        Type a = new FunctionType(
+                Arrays.asList(new ArrayType(PrimitiveType.FLOAT, new ArrayType.Length(3))),
+                PrimitiveType.INT);
+        Type b = new FunctionType(
+                Arrays.asList(new ArrayType(PrimitiveType.FLOAT, new ArrayType.Length(3))),
+                PrimitiveType.INT);
+        assertNotSame(a, b);
+
+        Type ia = interner.intern(a);
+        assertSame(a, ia);
+        assertSame(ia, interner.intern(b));
+        assertSame(ia, interner.intern(ia));
+    }
+
+    @Test
+    public void testChildrenAreInterned() {
+        TypeInterner interner = new TypeInterner();
+        Type array = interner.intern(new ArrayType(PrimitiveType.INT, new ArrayType.Length(4)));
+
+        Map<String, Type> fields = new HashMap<>();
+        fields.put("a", new ArrayType(PrimitiveType.INT, new ArrayType.Length(4)));
+        fields.put("b", PrimitiveType.BOOL);
+        StructType struct = (StructType) interner.intern(new StructType(fields));
+        assertSame(array, struct.getFieldType("a"));
+
+        UnionType union = (UnionType) interner.intern(
+                new UnionType(
+                        Arrays.asList(
+                                new ArrayType(PrimitiveType.INT, new ArrayType.Length(4)),
+                                PrimitiveType.FLOAT)));
+        assertSame(array, union.getOption(0));
+    }
+
+    @Test
+    public void testMetaTypesAreNotMerged() {
+        TypeInterner interner = new TypeInterner();
+        Scope scope = new Scope();
+        MetaType m1 = new MetaType(scope);
+        MetaType m2 = new MetaType(scope);
+        assertSame(m1, interner.intern(m1));
+        assertSame(m2, interner.intern(m2));
+
+        Type a1 = interner.intern(new ArrayType(m1, new ArrayType.Length(2)));
+        Type a2 = interner.intern(new ArrayType(m2, new ArrayType.Length(2)));
+        assertNotSame(a1, a2);
+        assertSame(a1, interner.intern(new ArrayType(m1, new ArrayType.Length(2))));
+    }
+
+    @Test
+    public void testReferencedTypesSurviveCollection() throws Exception {
+        TypeInterner interner = new TypeInterner();
+        Scope scope = new Scope();
+        for (int i = 0; i < 1000; i++) {
+            interner.intern(new AliasType(scope, "t" + i));
+        }
+        Type kept = interner.intern(new AliasType(scope, "kept"));
+
+        // collection isn't guaranteed to run, but when it does it must keep the referenced type
+        System.gc();
+        Thread.sleep(10);
+        assertTrue(interner.size() >= 1);
+        assertSame(kept, interner.intern(new AliasType(scope, "kept")));
+    }
+}
@@ -0,0 +1,67 @@
+package com.lhkbob.fxsl.lang.type;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the substitution of {@link com.lhkbob.fxsl.lang.type.Types}.
+ *
+ * @author Michael Ludwig
+ */
+public class TypesTest {
+    private static FunctionType function(Type param, Type returnType) {
+        return new FunctionType(Collections.singletonList(param), returnType);
+    }
+
+    @Test
+    public void testSubstituteUnchanged() {
+        Environment env = new Environment();
+        Scope s = env.getRootScope();
+        ParametricType p = new ParametricType(s, "_T");
+        ArrayType array = new ArrayType(PrimitiveType.FLOAT, new ArrayType.Length(2));
+        Type type = new UnionType(Arrays.asList(
+                function(PrimitiveType.INT, array),
+                function(PrimitiveType.FLOAT, PrimitiveType.BOOL)));
+
+        // nothing to replace, so the very same instance is returned
+        assertSame(type, Types.substitute(p, type, PrimitiveType.INT, env));
+    }
+
+    @Test
+    public void testSubstitute() {
+        Environment env = new Environment();
+        Scope s = env.getRootScope();
+        ParametricType p = new ParametricType(s, "_T");
+        FunctionType unchanged = function(PrimitiveType.BOOL, PrimitiveType.BOOL);
+        Type type = new UnionType(Arrays.asList(unchanged, function(p, p)));
+
+        UnionType result = (UnionType) Types.substitute(p, type, PrimitiveType.INT, env);
+        assertEquals(2, result.getOptions().size());
+        assertSame(unchanged, result.getOptions().get(0));
+        assertEquals(function(PrimitiveType.INT, PrimitiveType.INT), result.getOptions().get(1));
+    }
+
+    @Test
+    public void testSubstituteMergesUnionOptions() {
+        Environment env = new Environment();
+        Scope s = env.getRootScope();
+        ParametricType p = new ParametricType(s, "_T");
+        FunctionType intFunc = function(PrimitiveType.INT, PrimitiveType.INT);
+        FunctionType floatFunc = function(PrimitiveType.FLOAT, PrimitiveType.FLOAT);
+
+        // the replaced option becomes equal to the first, which is kept in its place
+        Type type = new UnionType(Arrays.asList(intFunc, function(p, p), floatFunc));
+        UnionType merged = (UnionType) Types.substitute(p, type, PrimitiveType.INT, env);
+        assertEquals(Arrays.<Type>asList(intFunc, floatFunc), merged.getOptions());
+
+        // when every option becomes the same type the union collapses to that type
+        type = new UnionType(Arrays.asList(function(p, PrimitiveType.INT), intFunc));
+        assertEquals(intFunc, Types.substitute(p, type, PrimitiveType.INT, env));
+    }
+}
@@ -0,0 +1,94 @@
+package com.lhkbob.fxsl.parser;
+
+import com.lhkbob.fxsl.Parser;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link MappedCharStream}.
+ *
+ * @author Michael Ludwig
+ */
+public class MappedCharStreamTest {
+    private static final String ASCII = "var x = 1; // one\nvar y = x + 2; y";
+    private static final String UNICODE = "var x = 1; /* \u00e9t\u00e9 \u2603 */ var y = x + 2; y";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile("unit.fxsl");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(Charset.forName("UTF-8")));
+        }
+        return file;
+    }
+
+    private static MappedCharStream map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new MappedCharStream(channel, file.getName());
+        }
+    }
+
+    private static void assertSameStream(CharStream expected, CharStream actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getText(Interval.of(0, expected.size())),
+                     actual.getText(Interval.of(0, actual.size())));
+        assertEquals(expected.getText(Interval.of(4, 8)), actual.getText(Interval.of(4, 8)));
+        while (expected.LA(1) != IntStream.EOF) {
+            assertEquals(expected.LA(1), actual.LA(1));
+            assertEquals(expected.LA(2), actual.LA(2));
+            expected.consume();
+            actual.consume();
+            assertEquals(expected.LA(-1), actual.LA(-1));
+            assertEquals(expected.index(), actual.index());
+        }
+        assertEquals(IntStream.EOF, actual.LA(1));
+
+        actual.seek(3);
+        expected.seek(3);
+        assertEquals(expected.LA(1), actual.LA(1));
+    }
+
+    @Test
+    public void testAsciiMatchesInputStream() throws IOException {
+        MappedCharStream stream = map(write(ASCII));
+        assertEquals("unit.fxsl", stream.getSourceName());
+        assertSameStream(new ANTLRInputStream(ASCII), stream);
+    }
+
+    @Test
+    public void testUnicodeMatchesInputStream() throws IOException {
+        assertSameStream(new ANTLRInputStream(UNICODE), map(write(UNICODE)));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        MappedCharStream stream = map(write(""));
+        assertEquals(0, stream.size());
+        assertEquals(IntStream.EOF, stream.LA(1));
+        assertEquals("", stream.getText(Interval.of(0, 10)));
+    }
+
+    @Test
+    public void testParseFile() throws IOException {
+        File file = write(UNICODE);
+        assertEquals(new Parser().parse(UNICODE).toString(),
+                     new Parser().parseFile(file.toPath()).toString());
+    }
+}
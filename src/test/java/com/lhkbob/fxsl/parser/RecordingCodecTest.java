@@ -0,0 +1,114 @@
+package com.lhkbob.fxsl.parser;
+
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Scope;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.Parameter;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.ArrayType;
+import com.lhkbob.fxsl.lang.type.MetaType;
+import com.lhkbob.fxsl.lang.type.Type;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link RecordingCodec}.
+ *
+ * @author Michael Ludwig
+ */
+public class RecordingCodecTest {
+    @Test
+    public void testRoundTrip() {
+        Environment original = new Environment();
+        Scope unit = new Scope(original.getRootScope());
+        Scope body = new Scope(unit);
+
+        FunctionValue f = new FunctionValue(
+                unit, Arrays.asList("a"), new VariableReference(body, "a"));
+        Expression array = new ArrayValue(
+                unit, Arrays.asList(new PrimitiveValue(1.5f), new PrimitiveValue(-3)));
+        Expression call = new FunctionCall(unit, f, Arrays.asList(array));
+        MetaType meta = new MetaType(unit);
+
+        List<ParseRecording.Change> changes = new ArrayList<>();
+        changes.add(new ParseRecording.LengthWildcard(new ArrayType.Length(0)));
+        changes.add(new ParseRecording.VariableDeclaration(unit, "f", f));
+        changes.add(new ParseRecording.VariableDeclaration(body, "a", new Parameter(f, "a")));
+        changes.add(new ParseRecording.ExpressionType(f, meta));
+        changes.add(new ParseRecording.ExpressionType(call, meta));
+        changes.add(new ParseRecording.ExpressionType(
+                new VariableReference(unit, "n"), Environment.BINARY_ADD_INT.getType()));
+        ParseRecording recording = new ParseRecording(original.getRootScope(), call, changes);
+
+        Environment target = new Environment();
+        ParseRecording decoded = RecordingCodec.decode(
+                ByteBuffer.wrap(RecordingCodec.encode(recording)), target.getRootScope());
+        assertEquals(target.getRootScope(), decoded.getRootScope());
+        assertEquals(recording.getChangeCount(), decoded.getChangeCount());
+        assertTrue(decoded.replay(target));
+
+        FunctionCall result = (FunctionCall) decoded.getResult();
+        FunctionValue decodedF = (FunctionValue) result.getFunction();
+        Scope decodedUnit = decodedF.getScope();
+        assertEquals(target.getRootScope(), decodedUnit.getParent());
+        assertEquals(decodedF, target.getDeclaredVariable(decodedUnit, "f").getValue());
+        assertEquals(new Parameter(decodedF, "a"),
+                     target.getDeclaredVariable(decodedF.getBodyScope(), "a").getValue());
+        assertEquals(new PrimitiveValue(1.5f),
+                     ((ArrayValue) result.getParameterValue(0)).getElement(0));
+        assertEquals(new PrimitiveValue(-3),
+                     ((ArrayValue) result.getParameterValue(0)).getElement(1));
+
+        // the meta type is shared by both expressions and is still only equal to itself
+        Type decodedMeta = target.getExpressionType(decodedF);
+        assertTrue(decodedMeta instanceof MetaType);
+        assertSame(decodedMeta, target.getExpressionType(result));
+        assertNotSame(meta, decodedMeta);
+
+        assertEquals(Environment.BINARY_ADD_INT.getType(),
+                     target.getExpressionType(new VariableReference(decodedUnit, "n")));
+    }
+
+    @Test
+    public void testNativeExpressionsAreShared() {
+        Environment env = new Environment();
+        Scope unit = new Scope(env.getRootScope());
+        Expression call = new FunctionCall(
+                unit, Environment.BINARY_ADD_FLOAT,
+                Arrays.asList(new PrimitiveValue(1f), new PrimitiveValue(2f)));
+        ParseRecording recording = new ParseRecording(
+                env.getRootScope(), call, new ArrayList<ParseRecording.Change>());
+
+        ParseRecording decoded = RecordingCodec.decode(
+                ByteBuffer.wrap(RecordingCodec.encode(recording)), new Scope());
+        FunctionCall result = (FunctionCall) decoded.getResult();
+        assertSame(Environment.BINARY_ADD_FLOAT, result.getFunction());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersion() {
+        ParseRecording recording = new ParseRecording(
+                new Scope(), new PrimitiveValue(true), new ArrayList<ParseRecording.Change>());
+        byte[] data = RecordingCodec.encode(recording);
+        data[4] = RecordingCodec.FORMAT_VERSION + 1;
+        RecordingCodec.decode(ByteBuffer.wrap(data), new Scope());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedData() {
+        ParseRecording recording = new ParseRecording(
+                new Scope(), new PrimitiveValue(true), new ArrayList<ParseRecording.Change>());
+        byte[] data = RecordingCodec.encode(recording);
+        RecordingCodec.decode(ByteBuffer.wrap(data, 0, data.length - 1), new Scope());
+    }
+}
@@ -0,0 +1,141 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.Reachability;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link SemanticsPipeline}.
+ *
+ * @author Michael Ludwig
+ */
+public class SemanticsPipelineTest {
+    private static final String SOURCE =
+            "var x = zz + 2; var __y = x * 3; type a = b; type b = a; var u = uniform(m:float); x";
+
+    private static Environment parse(String source) {
+        Parser parser = new Parser();
+        parser.parse(source);
+        return parser.getEnvironment();
+    }
+
+    // A checker that isn't fusable and always fails with its own message
+    private static SemanticsChecker failing(final String message) {
+        return new SemanticsChecker() {
+            @Override
+            public boolean continueOnFailure() {
+                return true;
+            }
+
+            @Override
+            public void validate(Environment environment) throws SemanticsException {
+                throw new SemanticsException(
+                        message, new SemanticsProblem.ExpressionProblem("problem"));
+            }
+        };
+    }
+
+    private static List<SemanticsProblem> problems(SemanticsChecker checker, Environment env) {
+        try {
+            checker.validate(env);
+            return Collections.emptyList();
+        } catch (SemanticsException e) {
+            return e.getProblems();
+        }
+    }
+
+    @Test
+    public void testFusedMatchesSequential() {
+        Environment env = parse(SOURCE);
+        List<SemanticsChecker> checkers = Arrays.<SemanticsChecker>asList(
+                new UniformConsistencyChecker(), new ReservedNameChecker(),
+                new VariableReferenceChecker(), new AttributeConsistencyChecker(),
+                new CyclicTypeChecker());
+
+        List<SemanticsProblem> expected = new ArrayList<>();
+        for (SemanticsChecker c : checkers) {
+            List<SemanticsProblem> p = problems(c, env);
+            expected.addAll(p);
+            if (!p.isEmpty() && !c.continueOnFailure()) {
+                break;
+            }
+        }
+
+        List<SemanticsProblem> actual = problems(new SemanticsPipeline(checkers), env);
+        assertFalse(actual.isEmpty());
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testStopsAfterFailingChecker() {
+        Environment env = parse(SOURCE);
+        List<SemanticsProblem> variables = problems(new VariableReferenceChecker(), env);
+        assertEquals(1, variables.size());
+
+        // the cyclic type problems are discarded since undefined variables stop the pipeline
+        List<SemanticsProblem> actual = problems(
+                new SemanticsPipeline(new VariableReferenceChecker(), new CyclicTypeChecker()), env);
+        assertEquals(variables.toString(), actual.toString());
+        assertFalse(problems(new CyclicTypeChecker(), env).isEmpty());
+    }
+
+    @Test
+    public void testValidEnvironment() throws SemanticsException {
+        Environment env = parse("var x = 1; var y = x + 2; y");
+        new SemanticsPipeline(new VariableReferenceChecker(), new CyclicTypeChecker())
+                .validate(env);
+    }
+
+    @Test
+    public void testValidatesReachableDeclarations() throws SemanticsException {
+        Parser parser = new Parser();
+        Expression result = parser.parse("var bad = zz + 1; var __y = 2; var x = 1; x + 2");
+        Environment env = parser.getEnvironment();
+        SemanticsPipeline pipeline = new SemanticsPipeline(
+                new VariableReferenceChecker(), new ReservedNameChecker());
+        assertFalse(problems(pipeline, env).isEmpty());
+
+        // the problems are all in declarations the result doesn't use
+        Reachability reachability = new Reachability(env);
+        reachability.addEntry(result);
+        pipeline.validate(env, reachability);
+        assertEquals(2, reachability.getDeadVariables().size());
+    }
+
+    @Test
+    public void testSingleFailureKeepsMessage() {
+        Environment env = parse("var x = 1; x");
+        SemanticsChecker checker = failing("Custom failure");
+        String expected = null;
+        try {
+            checker.validate(env);
+        } catch (SemanticsException e) {
+            expected = e.getMessage();
+        }
+
+        try {
+            new SemanticsPipeline(checker, new VariableReferenceChecker()).validate(env);
+            fail("Expected SemanticsException");
+        } catch (SemanticsException e) {
+            assertEquals(expected, e.getMessage());
+            assertTrue(e.getMessage().startsWith("Custom failure"));
+        }
+
+        try {
+            new SemanticsPipeline(checker, failing("Other failure")).validate(env);
+            fail("Expected SemanticsException");
+        } catch (SemanticsException e) {
+            assertEquals(2, e.getProblems().size());
+            assertTrue(e.getMessage().startsWith("Semantic failures"));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.lhkbob.fxsl.parser.semantics;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Environment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link SemanticsRunner}.
+ *
+ * @author Michael Ludwig
+ */
+public class SemanticsRunnerTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    private static Environment parse(String source) {
+        Parser parser = new Parser();
+        parser.parse(source);
+        return parser.getEnvironment();
+    }
+
+    private static String largeSource() {
+        // enough declarations that they are split into several chunks
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String ref = (i % 97 == 0 ? "undefined" + i : "x" + Math.max(0, i - 1));
+            source.append("var x").append(i).append(" = ").append(ref).append(" + 1;\n");
+        }
+        for (int i = 0; i < 300; i++) {
+            String value = (i % 50 == 0 ? "t" + (i + 1) : "float[" + (i + 1) + "]");
+            source.append("type t").append(i).append(" = ").append(value).append(";\n");
+        }
+        return source.append("type t300 = t0; x0").toString();
+    }
+
+    // A checker that isn't fusable and always fails with its own message
+    private static SemanticsChecker failing(final String message) {
+        return new SemanticsChecker() {
+            @Override
+            public boolean continueOnFailure() {
+                return true;
+            }
+
+            @Override
+            public void validate(Environment environment) throws SemanticsException {
+                throw new SemanticsException(
+                        message, new SemanticsProblem.ExpressionProblem("problem"));
+            }
+        };
+    }
+
+    private static List<SemanticsProblem> problems(SemanticsChecker checker, Environment env) {
+        try {
+            checker.validate(env);
+            return Collections.emptyList();
+        } catch (SemanticsException e) {
+            return e.getProblems();
+        }
+    }
+
+    private static List<SemanticsChecker> checkers() {
+        return Arrays.<SemanticsChecker>asList(
+                new ReservedNameChecker(), new UniformConsistencyChecker(),
+                new CyclicTypeChecker(), new AttributeConsistencyChecker(),
+                new VariableReferenceChecker());
+    }
+
+    @Test
+    public void testMatchesPipeline() {
+        Environment env = parse(largeSource());
+        List<SemanticsProblem> expected = problems(new SemanticsPipeline(checkers()), env);
+        List<SemanticsProblem> actual = problems(new SemanticsRunner(executor, checkers()), env);
+        assertFalse(actual.isEmpty());
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testStopsAfterFailingStage() {
+        Environment env = parse("var x = zz + 2; type a = b; type b = a; x");
+        List<SemanticsProblem> cyclic = problems(new CyclicTypeChecker(), env);
+        assertEquals(2, cyclic.size());
+
+        // undefined variables are never reported since the cyclic types stop the runner first
+        SemanticsRunner runner = new SemanticsRunner(
+                executor, Arrays.<SemanticsChecker>asList(
+                        new CyclicTypeChecker(), new VariableReferenceChecker()));
+        assertEquals(cyclic.toString(), problems(runner, env).toString());
+    }
+
+    @Test
+    public void testValidateFromExecutorTask() throws Exception {
+        // the only thread of the executor is busy running the validation, so the runner must run
+        // the checkers itself instead of waiting for them
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            final Environment env = parse(largeSource());
+            final SemanticsRunner runner = new SemanticsRunner(single, checkers());
+            Future<List<SemanticsProblem>> result = single.submit(
+                    new Callable<List<SemanticsProblem>>() {
+                        @Override
+                        public List<SemanticsProblem> call() {
+                            return problems(runner, env);
+                        }
+                    });
+            assertEquals(problems(new SemanticsPipeline(checkers()), env).toString(),
+                         result.get(30, TimeUnit.SECONDS).toString());
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSingleFailureKeepsMessage() {
+        Environment env = parse("var x = 1; x");
+        SemanticsChecker checker = failing("Custom failure");
+        String expected = null;
+        try {
+            checker.validate(env);
+        } catch (SemanticsException e) {
+            expected = e.getMessage();
+        }
+
+        try {
+            new SemanticsRunner(executor, Arrays.asList(checker, new VariableReferenceChecker()))
+                    .validate(env);
+            fail("Expected SemanticsException");
+        } catch (SemanticsException e) {
+            assertEquals(expected, e.getMessage());
+            assertTrue(e.getMessage().startsWith("Custom failure"));
+        }
+
+        try {
+            new SemanticsRunner(executor, Arrays.asList(checker, failing("Other failure")))
+                    .validate(env);
+            fail("Expected SemanticsException");
+        } catch (SemanticsException e) {
+            assertEquals(2, e.getProblems().size());
+            assertTrue(e.getMessage().startsWith("Semantic failures"));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.IfThenElse;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link ConstantFolder}.
+ *
+ * @author Michael Ludwig
+ */
+public class ConstantFolderTest {
+    private static Expression fold(String source) {
+        Parser parser = new Parser();
+        Expression result = parser.parse(source);
+        return new ConstantFolder(parser.getEnvironment()).fold(result);
+    }
+
+    private static Expression foldReturnValue(String source) {
+        Expression function = fold(source);
+        assertTrue(function instanceof FunctionValue);
+        return ((FunctionValue) function).getReturnValue();
+    }
+
+    @Test
+    public void testFoldsPrimitiveOperators() {
+        assertEquals(new PrimitiveValue(5), fold("1 + 2 * 3 - 4 / 2 + 7 % 3 + -1"));
+        assertEquals(new PrimitiveValue(8f), fold("2.0 *^ 3.0"));
+        assertEquals(new PrimitiveValue(1.5f), fold("3.0 / 2.0"));
+        assertEquals(new PrimitiveValue(true), fold("var c = 2 < 1; !c"));
+        assertEquals(new PrimitiveValue(6), fold("var a = 1 + 2; var b = a * 2; b"));
+    }
+
+    @Test
+    public void testUndefinedOperationsAreNotFolded() {
+        assertTrue(fold("1 / 0") instanceof FunctionCall);
+        assertTrue(fold("-1 % 2") instanceof FunctionCall);
+        assertTrue(fold("var n = -2.0; n *^ 0.5") instanceof FunctionCall);
+    }
+
+    @Test
+    public void testIdentities() {
+        Expression x = foldReturnValue("(x:int -> x * 1 + 0 - 0)");
+        assertTrue(x instanceof VariableReference);
+        assertEquals("x", ((VariableReference) x).getVariableName());
+
+        x = foldReturnValue("(x:float -> 1.0 * x / 1.0)");
+        assertEquals("x", ((VariableReference) x).getVariableName());
+
+        Expression b = foldReturnValue("(b:bool -> !!b)");
+        assertEquals("b", ((VariableReference) b).getVariableName());
+
+        assertEquals(new PrimitiveValue(0), foldReturnValue("(x:int -> 0 * x + 0)"));
+        // Only ints are multiplied by 0, since floats could be NaN or infinite
+        assertTrue(foldReturnValue("(x:float -> 0.0 * x)") instanceof FunctionCall);
+    }
+
+    @Test
+    public void testPrunesIfThenElse() {
+        assertEquals(new PrimitiveValue(3), fold("if 1 < 2 then 1 + 2 else 4"));
+        assertEquals(new PrimitiveValue(4), fold("if 2 < 1 then 1 / 0 else 4"));
+        assertEquals(new PrimitiveValue(4), fold("var t = 2.0 < 1.0; if t then 3 else 4"));
+
+        Expression same = foldReturnValue("(b:bool -> if b then 1 + 1 else 2)");
+        assertEquals(new PrimitiveValue(2), same);
+
+        Expression kept = foldReturnValue("(b:bool -> if b then 1 + 1 else 3)");
+        assertTrue(kept instanceof IfThenElse);
+        assertEquals(new PrimitiveValue(2), ((IfThenElse) kept).getTrueExpression());
+    }
+
+    @Test
+    public void testUnchangedExpressionIsReturned() {
+        Parser parser = new Parser();
+        Expression result = parser.parse("(x:int -> x + uniform(y:int))");
+        assertSame(result, new ConstantFolder(parser.getEnvironment()).fold(result));
+    }
+}
@@ -0,0 +1,120 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.Uniform;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Inliner}.
+ *
+ * @author Michael Ludwig
+ */
+public class InlinerTest {
+    private static Expression inlineAndFold(String source) {
+        Parser parser = new Parser();
+        Expression result = parser.parse(source);
+        Expression inlined = new Inliner(parser.getEnvironment()).inline(result);
+        return new ConstantFolder(parser.getEnvironment()).fold(inlined);
+    }
+
+    private static Declaration<Expression> resolve(Environment env, Expression var) {
+        assertTrue(var instanceof VariableReference);
+        VariableReference ref = (VariableReference) var;
+        return env.getDeclaredVariable(ref.getScope(), ref.getVariableName());
+    }
+
+    @Test
+    public void testInlinesCalls() {
+        Parser parser = new Parser();
+        Expression result = parser.parse(
+                "var add = (x:int, y:int -> x + y); add(1, uniform(u:int))");
+        Expression inlined = new Inliner(parser.getEnvironment()).inline(result);
+
+        assertTrue(inlined instanceof FunctionCall);
+        FunctionCall call = (FunctionCall) inlined;
+        assertEquals("+", ((VariableReference) call.getFunction()).getVariableName());
+        assertEquals(new PrimitiveValue(1), call.getParameterValue(0));
+        assertTrue(call.getParameterValue(1) instanceof Uniform);
+
+        assertEquals(new PrimitiveValue(7), inlineAndFold(
+                "var sq = (x:int -> x * x); var f = (y:int -> sq(y) + 3); f(2)"));
+    }
+
+    @Test
+    public void testPartialApplication() {
+        assertEquals(new PrimitiveValue(3), inlineAndFold(
+                "var add = (x:int, y:int -> x + y); var add1 = add(1); add1(2)"));
+
+        // A call that is still partial is a function and isn't inlined
+        Parser parser = new Parser();
+        Expression result = parser.parse("var add = (x:int, y:int -> x + y); add(1)");
+        assertSame(result, new Inliner(parser.getEnvironment()).inline(result));
+    }
+
+    @Test
+    public void testFunctionArguments() {
+        assertEquals(new PrimitiveValue(3), inlineAndFold(
+                "var app = (g:(int -> int), v:int -> g(v)); var inc = (x:int -> x + 1); " +
+                "app(inc, 2)"));
+    }
+
+    @Test
+    public void testSharedArgumentsAreBound() {
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        Expression result = parser.parse(
+                "var sq = (x:float -> x * x); sq(uniform(t:float) + 1.0)");
+        FunctionCall call = (FunctionCall) new Inliner(env).inline(result);
+
+        // Both uses reference a single declaration of the argument
+        assertSame(call.getParameterValue(0), call.getParameterValue(1));
+        Declaration<Expression> bound = resolve(env, call.getParameterValue(0));
+        assertEquals("x", bound.getName());
+        assertTrue(bound.getValue() instanceof FunctionCall);
+
+        // Trivial arguments are substituted directly
+        parser = new Parser();
+        result = parser.parse("var sq = (x:float -> x * x); sq(uniform(t:float))");
+        call = (FunctionCall) new Inliner(parser.getEnvironment()).inline(result);
+        assertTrue(call.getParameterValue(0) instanceof Uniform);
+        assertSame(call.getParameterValue(0), call.getParameterValue(1));
+    }
+
+    @Test
+    public void testLocalsAreRedeclared() {
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        Expression result = parser.parse(
+                "var f = (x:float -> let var y = x * 2.0 in [y, y]); f(uniform(t:float))");
+        ArrayValue array = (ArrayValue) new Inliner(env).inline(result);
+
+        assertSame(array.getElement(0), array.getElement(1));
+        Declaration<Expression> local = resolve(env, array.getElement(0));
+        assertEquals("y", local.getName());
+        FunctionCall value = (FunctionCall) local.getValue();
+        assertTrue(value.getParameterValue(0) instanceof Uniform);
+    }
+
+    @Test
+    public void testBudgetAndRecursionLimitInlining() {
+        Parser parser = new Parser();
+        Expression result = parser.parse("var f = (x:int -> x + 1); f(2)");
+        assertSame(result, new Inliner(parser.getEnvironment(), 3).inline(result));
+        assertNotSame(result, new Inliner(parser.getEnvironment(), 4).inline(result));
+
+        parser = new Parser();
+        result = parser.parse("var f = (x:int -> f(x)); f(1)");
+        Expression inlined = new Inliner(parser.getEnvironment()).inline(result);
+        assertEquals("f", ((VariableReference) ((FunctionCall) inlined).getFunction())
+                .getVariableName());
+    }
+}
@@ -0,0 +1,203 @@
+package com.lhkbob.fxsl.transform;
+
+import com.lhkbob.fxsl.Parser;
+import com.lhkbob.fxsl.glsl.GlslGenerator;
+import com.lhkbob.fxsl.lang.Declaration;
+import com.lhkbob.fxsl.lang.Environment;
+import com.lhkbob.fxsl.lang.InvalidExpressionException;
+import com.lhkbob.fxsl.lang.expr.ArrayValue;
+import com.lhkbob.fxsl.lang.expr.Expression;
+import com.lhkbob.fxsl.lang.expr.FunctionCall;
+import com.lhkbob.fxsl.lang.expr.FunctionValue;
+import com.lhkbob.fxsl.lang.expr.PrimitiveValue;
+import com.lhkbob.fxsl.lang.expr.StructValue;
+import com.lhkbob.fxsl.lang.expr.VariableReference;
+import com.lhkbob.fxsl.lang.type.PrimitiveType;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link Specializer}.
+ *
+ * @author Michael Ludwig
+ */
+public class SpecializerTest {
+    private static Declaration<Expression> resolve(Environment env, Expression var) {
+        assertTrue(var instanceof VariableReference);
+        VariableReference ref = (VariableReference) var;
+        return env.getDeclaredVariable(ref.getScope(), ref.getVariableName());
+    }
+
+    private static Expression callee(Expression call) {
+        assertTrue(call instanceof FunctionCall);
+        return ((FunctionCall) call).getFunction();
+    }
+
+    private static void assertInvalid(String source) {
+        Parser parser = new Parser();
+        Expression result = parser.parse(source);
+        try {
+            new Specializer(parser.getEnvironment()).specialize(result);
+            fail("Expected InvalidExpressionException");
+        } catch (InvalidExpressionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSpecializationsAreCached() {
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        StringBuilder source = new StringBuilder("var twice = (x:_T -> [x, x]); [");
+        for (int i = 0; i < 500; i++) {
+            source.append(i > 0 ? ", " : "").append("twice(").append(i).append(".0)");
+        }
+        Expression result = parser.parse(source.append("]").toString());
+
+        Specializer specializer = new Specializer(env);
+        ArrayValue array = (ArrayValue) specializer.specialize(result);
+        assertEquals(1, specializer.getSpecializationCount());
+        Expression copy = callee(array.getElement(0));
+        for (Expression call : array.getElements()) {
+            assertSame(copy, callee(call));
+        }
+
+        // The copy is declared with the name of the function and concrete parameter types
+        Declaration<Expression> decl = resolve(env, copy);
+        assertEquals("twice", decl.getName());
+        FunctionValue function = (FunctionValue) decl.getValue();
+        Declaration<Expression> param = env.getDeclaredVariable(function.getBodyScope(), "x");
+        assertEquals(PrimitiveType.FLOAT, env.getRecordedExpressionType(param.getValue()));
+    }
+
+    @Test
+    public void testDistinctInstantiations() {
+        Parser parser = new Parser();
+        Expression result = parser.parse(
+                "var twice = (x:_T -> [x, x]); {a: twice(1), b: twice(1.0), c: twice(2)}");
+        Specializer specializer = new Specializer(parser.getEnvironment());
+        StructValue struct = (StructValue) specializer.specialize(result);
+
+        assertEquals(2, specializer.getSpecializationCount());
+        assertSame(callee(struct.getField("a")), callee(struct.getField("c")));
+        assertNotSame(callee(struct.getField("a")), callee(struct.getField("b")));
+    }
+
+    @Test
+    public void testBodyIgnoringParameters() throws IOException {
+        // the copied bodies only reference declarations outside of the function
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        Expression result = parser.parse(
+                "var g = 2.0; var k = (x:_T -> g); var u = (x:_T -> uniform(t:float)); " +
+                "{a: k(1.0), b: k(1), c: u(1.0), d: u(1)}");
+        Specializer specializer = new Specializer(env);
+        StructValue struct = (StructValue) specializer.specialize(result);
+        assertEquals(4, specializer.getSpecializationCount());
+
+        // each copy has its own parameter with its own type
+        FunctionValue a = (FunctionValue) resolve(env, callee(struct.getField("a"))).getValue();
+        FunctionValue b = (FunctionValue) resolve(env, callee(struct.getField("b"))).getValue();
+        assertFalse(a.equals(b));
+        Declaration<Expression> x = env.getDeclaredVariable(a.getBodyScope(), "x");
+        assertEquals(PrimitiveType.FLOAT, env.getRecordedExpressionType(x.getValue()));
+        x = env.getDeclaredVariable(b.getBodyScope(), "x");
+        assertEquals(PrimitiveType.INT, env.getRecordedExpressionType(x.getValue()));
+
+        // and the references in the copies still resolve to the outer declarations
+        Declaration<Expression> g = resolve(env, b.getReturnValue());
+        assertEquals("g", g.getName());
+        assertEquals(new PrimitiveValue(2.0f), g.getValue());
+
+        StringBuilder out = new StringBuilder();
+        new GlslGenerator(env).generate(struct.getField("d"), "shade", out);
+        assertTrue(out.toString(), out.toString().startsWith("uniform float t;\n"));
+    }
+
+    @Test
+    public void testBodyReplacedByRewrittenReference() {
+        // the bodies of the copies become a rewritten declaration and a length
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        Expression result = parser.parse(
+                "var id = (y:_T -> [y]); var g = id(2.0); var k = (x:_T -> g); " +
+                "var len = (v:float[n] -> n); " +
+                "{a: k(1.0), b: k(1), c: len([1.0]), d: len([1.0, 2.0])}");
+        StructValue struct = (StructValue) new Specializer(env).specialize(result);
+
+        FunctionValue a = (FunctionValue) resolve(env, callee(struct.getField("a"))).getValue();
+        FunctionValue b = (FunctionValue) resolve(env, callee(struct.getField("b"))).getValue();
+        assertFalse(a.equals(b));
+        Declaration<Expression> x = env.getDeclaredVariable(a.getBodyScope(), "x");
+        assertEquals(PrimitiveType.FLOAT, env.getRecordedExpressionType(x.getValue()));
+        x = env.getDeclaredVariable(b.getBodyScope(), "x");
+        assertEquals(PrimitiveType.INT, env.getRecordedExpressionType(x.getValue()));
+
+        FunctionValue c = (FunctionValue) resolve(env, callee(struct.getField("c"))).getValue();
+        Declaration<Expression> n = resolve(env, c.getReturnValue());
+        assertEquals(new PrimitiveValue(1), n.getValue());
+        assertNotNull(env.getDeclaredVariable(c.getBodyScope(), "v"));
+        FunctionValue d = (FunctionValue) resolve(env, callee(struct.getField("d"))).getValue();
+        n = resolve(env, d.getReturnValue());
+        assertEquals(new PrimitiveValue(2), n.getValue());
+    }
+
+    @Test
+    public void testWildcardLengths() {
+        Parser parser = new Parser();
+        Environment env = parser.getEnvironment();
+        Expression result = parser.parse(
+                "var f = (v:float[n] -> let var m = n in [v[0], v[m - 1]]); " +
+                "{a: f([1.0, 2.0]), b: f([1.0, 2.0, 3.0])}");
+        StructValue struct = (StructValue) new Specializer(env).specialize(result);
+
+        FunctionValue a = (FunctionValue) resolve(env, callee(struct.getField("a"))).getValue();
+        Declaration<Expression> m = env.getDeclaredVariable(a.getReturnValue().getScope(), "m");
+        assertEquals(new PrimitiveValue(2), m.getValue());
+
+        FunctionValue b = (FunctionValue) resolve(env, callee(struct.getField("b"))).getValue();
+        m = env.getDeclaredVariable(b.getReturnValue().getScope(), "m");
+        assertEquals(new PrimitiveValue(3), m.getValue());
+    }
+
+    @Test
+    public void testInvalidInstantiations() {
+        // the type variable can't be both int and float, and lengths must match
+        assertInvalid("var f = (x:_T, y:_T -> [x, y]); f(1, 2.0)");
+        assertInvalid("var f = (x:float[3] -> x[0]); f([1.0, 2.0])");
+        // polymorphic recursion
+        assertInvalid("var f = (x:_T -> f([x, x])); f(1)");
+    }
+
+    @Test
+    public void testSpecializedFunctionsGenerateGlsl() throws IOException {
+        Parser parser = new Parser();
+        Expression result = parser.parse(
+                "var twice = (x:_T -> [x, x]); var sum = (v:float[n] -> v[0] + v[n - 1]); " +
+                "if twice(2)[0] > 1 then sum(twice(1.0)) else 0.0");
+        Environment env = parser.getEnvironment();
+        Expression specialized = new Specializer(env).specialize(result);
+
+        StringBuilder out = new StringBuilder();
+        new GlslGenerator(env).generate(specialized, "shade", out);
+        assertEquals("int[2] twice(int x) {\n" +
+                     "  return int[2](x, x);\n" +
+                     "}\n" +
+                     "\n" +
+                     "float sum(float[2] v) {\n" +
+                     "  return (v[0] + v[(2 - 1)]);\n" +
+                     "}\n" +
+                     "\n" +
+                     "float[2] twice_1(float x_1) {\n" +
+                     "  return float[2](x_1, x_1);\n" +
+                     "}\n" +
+                     "\n" +
+                     "float shade() {\n" +
+                     "  return ((twice(2)[0] > 1) ? sum(twice_1(1.0)) : 0.0);\n" +
+                     "}\n" +
+                     "\n", out.toString());
+    }
+}
@@ -0,0 +1,127 @@
+package com.lhkbob.fxsl.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Basic unit tests for {@link PersistentMap}.
+ *
+ * @author Michael Ludwig
+ */
+public class PersistentMapTest {
+    @Test
+    public void testEmpty() {
+        PersistentMap<String, Integer> map = PersistentMap.empty();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertNull(map.get("a"));
+        assertFalse(map.iterator().hasNext());
+    }
+
+    @Test
+    public void testPutAndGet() {
+        PersistentMap<Integer, String> map = PersistentMap.empty();
+        Map<Integer, String> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            // multiply to spread keys across many levels of the trie
+            map = map.put(i * 31, "v" + i);
+            expected.put(i * 31, "v" + i);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, String> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        assertNull(map.get(1));
+
+        Map<Integer, String> iterated = new HashMap<>();
+        for (Map.Entry<Integer, String> e : map) {
+            assertNull(iterated.put(e.getKey(), e.getValue()));
+        }
+        assertEquals(expected, iterated);
+    }
+
+    @Test
+    public void testPersistence() {
+        PersistentMap<String, Integer> m1 = PersistentMap.<String, Integer>empty().put("a", 1);
+        PersistentMap<String, Integer> m2 = m1.put("b", 2);
+        PersistentMap<String, Integer> m3 = m2.put("a", 3);
+
+        assertEquals(1, m1.size());
+        assertEquals(Integer.valueOf(1), m1.get("a"));
+        assertNull(m1.get("b"));
+
+        assertEquals(2, m2.size());
+        assertEquals(Integer.valueOf(1), m2.get("a"));
+        assertEquals(Integer.valueOf(2), m2.get("b"));
+
+        assertEquals(2, m3.size());
+        assertEquals(Integer.valueOf(3), m3.get("a"));
+    }
+
+    @Test
+    public void testIdenticalPutReturnsSameMap() {
+        Integer value = 12345;
+        PersistentMap<String, Integer> m1 = PersistentMap.<String, Integer>empty().put("a", value);
+        assertSame(m1, m1.put("a", value));
+    }
+
+    @Test
+    public void testHashCollisions() {
+        PersistentMap<CollidingKey, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.put(new CollidingKey(i), i);
+        }
+        // a non-colliding key must branch off of the collision node
+        map = map.put(new CollidingKey(100, 1), 100);
+
+        assertEquals(11, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), map.get(new CollidingKey(i)));
+        }
+        assertEquals(Integer.valueOf(100), map.get(new CollidingKey(100, 1)));
+        assertNull(map.get(new CollidingKey(11)));
+
+        map = map.put(new CollidingKey(3), 33);
+        assertEquals(11, map.size());
+        assertEquals(Integer.valueOf(33), map.get(new CollidingKey(3)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullKey() {
+        PersistentMap.<String, String>empty().put(null, "a");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        PersistentMap.<String, String>empty().put("a", null);
+    }
+
+    private static class CollidingKey {
+        private final int id;
+        private final int hash;
+
+        public CollidingKey(int id) {
+            this(id, 42);
+        }
+
+        public CollidingKey(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}